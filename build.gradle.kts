@@ -9,12 +9,69 @@ repositories {
     mavenCentral()
 }
 
+sourceSets {
+    create("vector") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
+    }
+    create("jmh") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
+    }
+}
+
+val jmhImplementation: Configuration by configurations.getting
+val jmhAnnotationProcessor: Configuration by configurations.getting
+
 dependencies {
     testImplementation(platform("org.junit:junit-bom:5.9.1"))
     testImplementation("org.junit.jupiter:junit-jupiter")
     testImplementation("org.mockito:mockito-core:5.7.0")
+
+    jmhImplementation("org.openjdk.jmh:jmh-core:1.37")
+    jmhAnnotationProcessor("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+}
+
+// The Vector API kernels are in the vector source set, which is only compiled, packaged and put on the test and jmh
+// classpaths when the build is run with -PvectorApi. Compiling them always makes javac print "using incubating
+// module(s): jdk.incubator.vector", which no -Xlint option turns off. Without them the scalar kernels are used.
+val vectorModuleArgs = listOf("--add-modules", "jdk.incubator.vector")
+val vectorApi = project.hasProperty("vectorApi")
+
+tasks.named<JavaCompile>("compileVectorJava") {
+    options.compilerArgs.addAll(vectorModuleArgs)
+}
+
+if (vectorApi) {
+    tasks.jar {
+        from(sourceSets["vector"].output)
+    }
 }
 
 tasks.test {
     useJUnitPlatform()
-}
\ No newline at end of file
+    if (vectorApi) {
+        classpath += sourceSets["vector"].output
+        jvmArgs(vectorModuleArgs)
+    }
+}
+
+// Run with e.g. ./gradlew jmh -Pjmh.args="AllocationBenchmark -p n=1000". The results are also written to
+// build/reports/jmh/results.json, to compare with the results from earlier releases.
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs the JMH benchmarks with the GC and allocation profilers enabled"
+    dependsOn(tasks.named("jmhClasses"))
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    if (vectorApi) {
+        classpath += sourceSets["vector"].output
+        jvmArgs(vectorModuleArgs)
+    }
+    val results = layout.buildDirectory.file("reports/jmh/results.json")
+    doFirst {
+        results.get().asFile.parentFile.mkdirs()
+    }
+    args = listOf("-prof", "gc", "-rf", "json", "-rff", results.get().asFile.path) +
+            (project.findProperty("jmh.args")?.toString()?.split(" ") ?: listOf())
+}
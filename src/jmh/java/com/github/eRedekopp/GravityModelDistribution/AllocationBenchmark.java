@@ -0,0 +1,49 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-query latency and allocation of getRandomBody. Run with the GC profiler (the default for the jmh Gradle task)
+ * and check that gc.alloc.rate.norm is 0 bytes/op for both engines on the sequential path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AllocationBenchmark {
+
+    @Param({"1000", "10000", "1000000"})
+    public int n;
+
+    @Param({"SIMPLE", "QUADTREE"})
+    public String engine;
+
+    private GravityModelDistribution<Integer, Body2D<Integer>> dist;
+
+    private Body2D<Integer> ref;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random rng = new Random(0);
+        List<Body2D<Integer>> bodies = new ArrayList<>(this.n);
+        for (int i = 0; i < this.n; i++) {
+            bodies.add(new Body2D<>(rng.nextDouble() * 1000, rng.nextDouble() * 1000, rng.nextDouble() * 1000, i));
+        }
+        this.dist = this.engine.equals("SIMPLE")
+                ? new Simple2DGravityModelDistribution<>(bodies, rng)
+                : new QuadtreeGravityModelDistribution<>(bodies, 0.5, rng);
+        this.ref = new Body2D<>(1, 500, 500, null);
+    }
+
+    @Benchmark
+    public Body2D<Integer> getRandomBody() {
+        return this.dist.getRandomBody(this.ref);
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares drawing one body for each of many references with getRandomBodies(refs) against calling getRandomBody in
+ * a loop, for each of the body types with a primitive force kernel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchBenchmark {
+
+    @Param({"2D", "3D", "GIS"})
+    public String bodyType;
+
+    @Param({"100000"})
+    public int n;
+
+    @Param({"1000"})
+    public int numRefs;
+
+    private GravityModelDistribution<Integer, ? extends Body<Integer>> dist;
+
+    private List<? extends Body<Integer>> refs;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random rng = new Random(0);
+        switch (this.bodyType) {
+            case "2D": {
+                List<Body2D<Integer>> bodies = new ArrayList<>(this.n);
+                for (int i = 0; i < this.n; i++) {
+                    bodies.add(new Body2D<>(rng.nextDouble(), rng.nextDouble() * 1000, rng.nextDouble() * 1000, i));
+                }
+                this.dist = new Simple2DGravityModelDistribution<>(bodies, rng);
+                this.refs = bodies.subList(0, this.numRefs);
+                break;
+            }
+            case "3D": {
+                List<Body3D<Integer>> bodies = new ArrayList<>(this.n);
+                for (int i = 0; i < this.n; i++) {
+                    bodies.add(new Body3D<>(
+                            rng.nextDouble(), rng.nextDouble() * 1000, rng.nextDouble() * 1000, rng.nextDouble(), i
+                    ));
+                }
+                this.dist = new Simple3DGravityModelDistribution<>(bodies, rng);
+                this.refs = bodies.subList(0, this.numRefs);
+                break;
+            }
+            case "GIS": {
+                List<GISBody<Integer>> bodies = new ArrayList<>(this.n);
+                for (int i = 0; i < this.n; i++) {
+                    bodies.add(new GISBody<>(rng.nextDouble(), rng.nextDouble() * 20 + 40, rng.nextDouble() * 60, i));
+                }
+                this.dist = new SimpleGISGravityModelDistribution<>(bodies, rng);
+                this.refs = bodies.subList(0, this.numRefs);
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown body type: " + this.bodyType);
+        }
+    }
+
+    @Benchmark
+    public List<?> loop() {
+        return loop(this.dist, this.refs);
+    }
+
+    @Benchmark
+    public List<?> batch() {
+        return batch(this.dist, this.refs);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <B extends Body<Integer>> List<B> loop(GravityModelDistribution<Integer, B> dist, List<?> refs) {
+        List<B> out = new ArrayList<>(refs.size());
+        for (Object ref : refs) {
+            out.add(dist.getRandomBody((B) ref));
+        }
+        return out;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <B extends Body<Integer>> List<B> batch(GravityModelDistribution<Integer, B> dist, List<?> refs) {
+        return dist.getRandomBodies((List<B>) refs);
+    }
+}
@@ -0,0 +1,99 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction time and per-query latency of the Simple distributions with their bodies stored in each BodyOrder. The
+ * workloads are generated in random order, like input sorted by name rather than by location, so INPUT is the
+ * scattered baseline and construct includes the cost of sorting along the curve.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BodyOrderBenchmark {
+
+    @Param({"2D", "3D", "GIS", "GIS_ECEF"})
+    public String bodyType;
+
+    @Param({"INPUT", "MORTON", "HILBERT"})
+    public BodyOrder order;
+
+    @Param({"100000", "1000000"})
+    public int n;
+
+    @Param({"UNIFORM", "CLUSTERED"})
+    public String layout;
+
+    private Engine<?> engine;
+
+    /**
+     * Each thread cycles through the reference points on its own
+     */
+    @State(Scope.Thread)
+    public static class RefCursor {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        double[][] points = Workloads.points(this.n, this.bodyType.equals("3D") ? 3 : 2, this.layout, 0);
+        double[][] refs = Workloads.refs(points, 1);
+        ExecutionPolicy policy = ExecutionPolicy.commonPool();
+        BodyOrder order = this.order;
+        switch (this.bodyType) {
+            case "2D":
+                this.engine = Engine.of(
+                        points,
+                        refs,
+                        Workloads::bodies2D,
+                        bodies -> new Simple2DGravityModelDistribution<>(bodies, new Random(), true, policy, order)
+                );
+                break;
+            case "3D":
+                this.engine = Engine.of(
+                        points,
+                        refs,
+                        Workloads::bodies3D,
+                        bodies -> new Simple3DGravityModelDistribution<>(bodies, new Random(), true, policy, order)
+                );
+                break;
+            case "GIS":
+                this.engine = Engine.of(
+                        points,
+                        refs,
+                        Workloads::bodiesGIS,
+                        bodies -> new SimpleGISGravityModelDistribution<>(bodies, new Random(), true, policy, order)
+                );
+                break;
+            case "GIS_ECEF":
+                this.engine = Engine.of(
+                        points,
+                        refs,
+                        Workloads::bodiesGIS,
+                        bodies -> new ECEFGISGravityModelDistribution<>(bodies, new Random(), policy, order)
+                );
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown body type: " + this.bodyType);
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object construct() {
+        return this.engine.build();
+    }
+
+    @Benchmark
+    public Object getRandomBody(RefCursor cursor) {
+        int ref = cursor.next;
+        cursor.next = (ref + 1) & (Workloads.NUM_REFS - 1);
+        return this.engine.getRandomBody(ref);
+    }
+}
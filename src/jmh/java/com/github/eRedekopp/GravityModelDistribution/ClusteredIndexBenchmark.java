@@ -0,0 +1,83 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency distribution of the tree engines on heavily clustered bodies, like the population of a few cities spread over
+ * a large region. Run in SampleTime mode so that JMH reports the percentiles, since the point of the k-d tree is a
+ * predictable tail rather than the best average.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClusteredIndexBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int n;
+
+    @Param({"QUADTREE", "FLAT_QUADTREE", "KD_TREE"})
+    public String engine;
+
+    @Param({"0.5"})
+    public double theta;
+
+    private GravityModelDistribution<Integer, Body2D<Integer>> dist;
+
+    private List<Body2D<Integer>> refs;
+
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random rng = new Random(0);
+        // Clusters between 0.01 and 100 units wide in a region 100000 units wide, with cluster sizes falling off
+        // exponentially
+        int numClusters = 50;
+        double[][] clusters = new double[numClusters][];
+        for (int i = 0; i < numClusters; i++) {
+            clusters[i] = new double[] {
+                    rng.nextDouble() * 1E5, rng.nextDouble() * 1E5, Math.pow(10, rng.nextDouble() * 4 - 2)
+            };
+        }
+        List<Body2D<Integer>> bodies = new ArrayList<>(this.n);
+        for (int i = 0; i < this.n; i++) {
+            double[] c = clusters[(int) Math.min(numClusters - 1, -Math.log(rng.nextDouble()) * 8)];
+            bodies.add(new Body2D<>(
+                    1 + rng.nextDouble(), c[0] + rng.nextGaussian() * c[2], c[1] + rng.nextGaussian() * c[2], i
+            ));
+        }
+        switch (this.engine) {
+            case "QUADTREE":
+                this.dist = new QuadtreeGravityModelDistribution<>(bodies, this.theta, rng);
+                break;
+            case "FLAT_QUADTREE":
+                this.dist = new FlatQuadtreeGravityModelDistribution<>(bodies, this.theta, rng);
+                break;
+            case "KD_TREE":
+                this.dist = new KdTreeGravityModelDistribution<>(bodies, this.theta, rng);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown engine: " + this.engine);
+        }
+        // The reference points are bodies, so most of them are inside a dense cluster
+        this.refs = new ArrayList<>();
+        for (int i = 0; i < 4096; i++) {
+            this.refs.add(bodies.get(rng.nextInt(this.n)));
+        }
+    }
+
+    @Benchmark
+    public Body2D<Integer> getRandomBody() {
+        Body2D<Integer> ref = this.refs.get(this.next);
+        this.next = (this.next + 1) & 4095;
+        return this.dist.getRandomBody(ref);
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A distribution under benchmark together with its reference points, so that benchmarks can treat every body type the
+ * same way
+ */
+final class Engine<B extends Body<Integer>> {
+    private final Supplier<GravityModelDistribution<Integer, B>> factory;
+
+    private final List<B> refs;
+
+    private final GravityModelDistribution<Integer, B> dist;
+
+    /**
+     * @param factory Builds the distribution. It is called once here, and again by each call to build.
+     * @param refs Workloads.NUM_REFS reference points
+     */
+    Engine(Supplier<GravityModelDistribution<Integer, B>> factory, List<B> refs) {
+        this.factory = factory;
+        this.refs = refs;
+        this.dist = factory.get();
+    }
+
+    /**
+     * @param points The rows of {mass, coordinates...} from Workloads.points
+     * @param refPoints The rows from Workloads.refs
+     * @param toBodies Converts rows of Workloads.points to bodies
+     * @param build Builds the distribution from the bodies
+     */
+    static <B extends Body<Integer>> Engine<B> of(
+            double[][] points,
+            double[][] refPoints,
+            Function<double[][], List<B>> toBodies,
+            Function<List<B>, GravityModelDistribution<Integer, B>> build
+    ) {
+        List<B> bodies = toBodies.apply(points);
+        return new Engine<>(() -> build.apply(bodies), toBodies.apply(refPoints));
+    }
+
+    GravityModelDistribution<Integer, B> build() {
+        return this.factory.get();
+    }
+
+    /**
+     * @param ref The index of the reference point, less than Workloads.NUM_REFS
+     */
+    B getRandomBody(int ref) {
+        return this.dist.getRandomBody(this.refs.get(ref));
+    }
+}
@@ -0,0 +1,71 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of SimpleGravityModelDistribution.getRandomBody under each ExecutionPolicy. Splitting the work only pays off
+ * above some number of bodies, which depends on the machine; ADAPTIVE should track the faster of SEQUENTIAL and
+ * DEDICATED_POOL at every size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExecutionPolicyBenchmark {
+
+    @Param({"1000", "5000", "20000", "100000", "1000000"})
+    public int n;
+
+    @Param({"SEQUENTIAL", "COMMON_POOL", "DEDICATED_POOL", "ADAPTIVE"})
+    public String policy;
+
+    private ForkJoinPool pool;
+
+    private GravityModelDistribution<Integer, Body2D<Integer>> dist;
+
+    private Body2D<Integer> ref;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random rng = new Random(0);
+        List<Body2D<Integer>> bodies = new ArrayList<>(this.n);
+        for (int i = 0; i < this.n; i++) {
+            bodies.add(new Body2D<>(rng.nextDouble() * 1000, rng.nextDouble() * 1000, rng.nextDouble() * 1000, i));
+        }
+        this.pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        ExecutionPolicy executionPolicy;
+        switch (this.policy) {
+            case "SEQUENTIAL":
+                executionPolicy = ExecutionPolicy.sequential();
+                break;
+            case "COMMON_POOL":
+                executionPolicy = ExecutionPolicy.commonPool();
+                break;
+            case "DEDICATED_POOL":
+                executionPolicy = ExecutionPolicy.pool(this.pool, 1);
+                break;
+            default:
+                executionPolicy = ExecutionPolicy.adaptive(this.pool);
+        }
+        this.dist = new Simple2DGravityModelDistribution<>(bodies, rng, executionPolicy);
+        this.ref = new Body2D<>(1, 500, 500, null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.pool.shutdown();
+    }
+
+    @Benchmark
+    public Body2D<Integer> getRandomBody() {
+        return this.dist.getRandomBody(this.ref);
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the ways of computing the forces of GISBodies: the Haversine formula with and without the Vector API, and
+ * the precomputed ECEF unit vectors. REGIONAL bodies are all within about 1000 km of the reference point, where the ECEF
+ * kernel needs no trigonometry at all, and GLOBAL bodies are spread over the whole Earth. Run with ./gradlew jmh
+ * -PvectorApi so that the vector kernel is built.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class GISKernelBenchmark {
+
+    @Param({"HAVERSINE", "HAVERSINE_VECTOR", "ECEF"})
+    public String kernelType;
+
+    @Param({"REGIONAL", "GLOBAL"})
+    public String spread;
+
+    @Param({"100000", "3000000"})
+    public int n;
+
+    private ForceKernel<Integer, GISBody<Integer>> kernel;
+
+    private GravityModelDistribution<Integer, GISBody<Integer>> dist;
+
+    private GISBody<Integer> ref;
+
+    private double[] out;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random rng = new Random(0);
+        List<GISBody<Integer>> bodies = new ArrayList<>(this.n);
+        for (int i = 0; i < this.n; i++) {
+            if (this.spread.equals("REGIONAL")) {
+                bodies.add(new GISBody<>(rng.nextDouble(), rng.nextDouble() * 10 + 45, rng.nextDouble() * 10 + 25, i));
+            }
+            else {
+                double lat = Math.toDegrees(Math.asin(rng.nextDouble() * 2 - 1));
+                bodies.add(new GISBody<>(rng.nextDouble(), lat, rng.nextDouble() * 360 - 180, i));
+            }
+        }
+        switch (this.kernelType) {
+            case "HAVERSINE":
+                this.kernel = new GISBodyForceKernel<>(bodies);
+                this.dist = new SimpleGISGravityModelDistribution<>(bodies, rng);
+                break;
+            case "HAVERSINE_VECTOR":
+                this.kernel = VectorForceKernels.gis(bodies);
+                this.dist = new SimpleGISGravityModelDistribution<>(bodies, rng, true);
+                break;
+            case "ECEF":
+                this.kernel = new ECEFGISBodyForceKernel<>(bodies);
+                this.dist = new ECEFGISGravityModelDistribution<>(bodies, rng);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown kernel: " + this.kernelType);
+        }
+        this.ref = new GISBody<>(1, 50, 30, null);
+        this.out = new double[this.n];
+    }
+
+    @Benchmark
+    public double[] computeForces() {
+        this.kernel.computeForces(this.ref, 0, this.n, this.out, 0);
+        return this.out;
+    }
+
+    @Benchmark
+    public GISBody<Integer> getRandomBody() {
+        return this.dist.getRandomBody(this.ref);
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction time and per-query latency of GridGravityModelDistribution against KdTreeGravityModelDistribution with
+ * theta 0.5. The grid's cell size is the one its documentation suggests for evenly spread bodies, so CLUSTERED shows
+ * how much it loses when that assumption doesn't hold.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GridBenchmark {
+
+    @Param({"GRID", "KD_TREE"})
+    public String engine;
+
+    @Param({"2", "3"})
+    public int dims;
+
+    @Param({"0", "1", "2"})
+    public int nearRadius;
+
+    @Param({"10000", "100000", "1000000"})
+    public int n;
+
+    @Param({"UNIFORM", "CLUSTERED"})
+    public String layout;
+
+    private Engine<?> dist;
+
+    /**
+     * Each thread cycles through the reference points on its own
+     */
+    @State(Scope.Thread)
+    public static class RefCursor {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        double[][] points = Workloads.points(this.n, this.dims, this.layout, 0);
+        double[][] refs = Workloads.refs(points, 1);
+        // Balance the cells against the bodies of the near field
+        double cells = Math.sqrt(Math.pow(2 * this.nearRadius + 1, this.dims) * this.n);
+        double cellSize = Workloads.WIDTH / Math.pow(cells, 1.0 / this.dims);
+        int nearRadius = this.nearRadius;
+        boolean grid = this.engine.equals("GRID");
+        if (this.dims == 2) {
+            this.dist = Engine.of(
+                    points,
+                    refs,
+                    Workloads::bodies2D,
+                    b -> grid
+                            ? new GridGravityModelDistribution<>(b, cellSize, nearRadius)
+                            : new KdTreeGravityModelDistribution<>(b, 0.5)
+            );
+        }
+        else {
+            this.dist = Engine.of(
+                    points,
+                    refs,
+                    Workloads::bodies3D,
+                    b -> grid
+                            ? new GridGravityModelDistribution<>(b, cellSize, nearRadius)
+                            : new KdTreeGravityModelDistribution<>(b, 0.5)
+            );
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object construct() {
+        return this.dist.build();
+    }
+
+    @Benchmark
+    public Object getRandomBody(RefCursor cursor) {
+        int ref = cursor.next;
+        cursor.next = (ref + 1) & (Workloads.NUM_REFS - 1);
+        return this.dist.getRandomBody(ref);
+    }
+}
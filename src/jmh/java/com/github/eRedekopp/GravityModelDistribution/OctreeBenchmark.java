@@ -0,0 +1,71 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction time and per-query latency of OctreeGravityModelDistribution against Simple3DGravityModelDistribution,
+ * for finding the number of bodies and queries at which the octree starts to pay for itself. The bodies are spread
+ * over a wide area with a shallow third axis, like buildings with floors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OctreeBenchmark {
+
+    @Param({"100", "1000", "10000", "100000", "1000000"})
+    public int n;
+
+    @Param({"SIMPLE", "OCTREE"})
+    public String engine;
+
+    @Param({"0.5"})
+    public double theta;
+
+    private List<Body3D<Integer>> bodies;
+
+    private GravityModelDistribution<Integer, Body3D<Integer>> dist;
+
+    private Body3D<Integer> ref;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random rng = new Random(0);
+        this.bodies = new ArrayList<>(this.n);
+        for (int i = 0; i < this.n; i++) {
+            this.bodies.add(new Body3D<>(
+                    rng.nextDouble() * 1000, rng.nextDouble() * 1000, rng.nextDouble() * 1000, rng.nextDouble() * 50, i
+            ));
+        }
+        this.dist = this.build();
+        this.ref = new Body3D<>(1, 400, 600, 10, null);
+    }
+
+    private GravityModelDistribution<Integer, Body3D<Integer>> build() {
+        switch (this.engine) {
+            case "SIMPLE":
+                return new Simple3DGravityModelDistribution<>(this.bodies, new Random(1));
+            case "OCTREE":
+                return new OctreeGravityModelDistribution<>(this.bodies, this.theta, new Random(1));
+            default:
+                throw new IllegalArgumentException("Unknown engine: " + this.engine);
+        }
+    }
+
+    @Benchmark
+    public GravityModelDistribution<Integer, Body3D<Integer>> construct() {
+        return this.build();
+    }
+
+    @Benchmark
+    public Body3D<Integer> getRandomBody() {
+        return this.dist.getRandomBody(this.ref);
+    }
+}
@@ -0,0 +1,76 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction time of QuadtreeGravityModelDistribution's bulk build against inserting the bodies one at a time from
+ * the root, which is how the tree used to be built. POOL builds on a dedicated pool of `threads` threads, so run it
+ * with e.g. -p threads=1,2,4,8 to see how the bulk build scales with cores; SEQUENTIAL is the same build on the calling
+ * thread. Inserting 10000000 bodies takes minutes, so leave INSERTION out at that size with -p build=..., and give the
+ * forked JVM a large heap (e.g. -jvmArgs -Xmx16g) for the largest sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class QuadtreeBuildBenchmark {
+
+    @Param({"100000", "1000000", "10000000"})
+    public int n;
+
+    @Param({"UNIFORM", "CLUSTERED"})
+    public String layout;
+
+    @Param({"INSERTION", "SEQUENTIAL", "POOL"})
+    public String build;
+
+    @Param({"4"})
+    public int threads;
+
+    private List<Body2D<Integer>> bodies;
+
+    private ForkJoinPool pool;
+
+    private ExecutionPolicy policy;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.bodies = Workloads.bodies2D(Workloads.points(this.n, 2, this.layout, 0));
+        this.pool = new ForkJoinPool(this.threads);
+        this.policy = this.build.equals("POOL") ? ExecutionPolicy.pool(this.pool, 1) : ExecutionPolicy.sequential();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.pool.shutdown();
+    }
+
+    @Benchmark
+    public Object construct() {
+        Random rng = new Random(0);
+        switch (this.build) {
+            case "INSERTION":
+                Node<Integer> root = new Node<>(
+                        this.bodies.get(0), QuadtreeGravityModelDistribution.getBoundingSquare(this.bodies), rng
+                );
+                for (int i = 1; i < this.bodies.size(); i++) {
+                    root.insert(this.bodies.get(i));
+                }
+                return root;
+            case "SEQUENTIAL":
+            case "POOL":
+                return new QuadtreeGravityModelDistribution<>(
+                        this.bodies, 0.5, rng, QuadtreeSamplingMode.FRONTIER, this.policy
+                );
+            default:
+                throw new IllegalArgumentException("Unknown build: " + this.build);
+        }
+    }
+}
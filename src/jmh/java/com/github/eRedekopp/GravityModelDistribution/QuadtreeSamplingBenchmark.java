@@ -0,0 +1,88 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-query latency of the quadtree sampling modes against SimpleGravityModelDistribution as the number of bodies
+ * grows. The Node-based quadtree needs a few hundred bytes per body, so give the forked JVM a large heap (e.g.
+ * -jvmArgs -Xmx16g) for the largest sizes, or exclude QUADTREE_* there with -p engine=...
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QuadtreeSamplingBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int n;
+
+    @Param({"SIMPLE", "QUADTREE_FRONTIER", "QUADTREE_SINGLE_PASS", "QUADTREE_EXACT", "FLAT_FRONTIER",
+            "FLAT_SINGLE_PASS", "FLAT_EXACT"})
+    public String engine;
+
+    @Param({"0.5"})
+    public double theta;
+
+    private GravityModelDistribution<Integer, Body2D<Integer>> dist;
+
+    private Body2D<Integer> ref;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random rng = new Random(0);
+        List<Body2D<Integer>> bodies = new ArrayList<>(this.n);
+        for (int i = 0; i < this.n; i++) {
+            bodies.add(new Body2D<>(rng.nextDouble() * 1000, rng.nextDouble() * 1000, rng.nextDouble() * 1000, i));
+        }
+        switch (this.engine) {
+            case "SIMPLE":
+                this.dist = new Simple2DGravityModelDistribution<>(bodies, rng);
+                break;
+            case "QUADTREE_FRONTIER":
+                this.dist = new QuadtreeGravityModelDistribution<>(
+                        bodies, this.theta, rng, QuadtreeSamplingMode.FRONTIER
+                );
+                break;
+            case "QUADTREE_SINGLE_PASS":
+                this.dist = new QuadtreeGravityModelDistribution<>(
+                        bodies, this.theta, rng, QuadtreeSamplingMode.SINGLE_PASS
+                );
+                break;
+            case "QUADTREE_EXACT":
+                this.dist = new QuadtreeGravityModelDistribution<>(
+                        bodies, this.theta, rng, QuadtreeSamplingMode.EXACT
+                );
+                break;
+            case "FLAT_FRONTIER":
+                this.dist = new FlatQuadtreeGravityModelDistribution<>(
+                        bodies, this.theta, rng, QuadtreeSamplingMode.FRONTIER
+                );
+                break;
+            case "FLAT_SINGLE_PASS":
+                this.dist = new FlatQuadtreeGravityModelDistribution<>(
+                        bodies, this.theta, rng, QuadtreeSamplingMode.SINGLE_PASS
+                );
+                break;
+            case "FLAT_EXACT":
+                this.dist = new FlatQuadtreeGravityModelDistribution<>(
+                        bodies, this.theta, rng, QuadtreeSamplingMode.EXACT
+                );
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown engine: " + this.engine);
+        }
+        this.ref = new Body2D<>(1, 400, 600, null);
+    }
+
+    @Benchmark
+    public Body2D<Integer> getRandomBody() {
+        return this.dist.getRandomBody(this.ref);
+    }
+}
@@ -0,0 +1,77 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction time and per-query latency of the SimpleGravityModelDistribution engines for every body type, on the
+ * same workloads as TreeEngineBenchmark. Run with -t to measure the latency with several threads sharing one
+ * distribution, e.g. ./gradlew jmh -Pjmh.args="SimpleEngineBenchmark -t 4".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SimpleEngineBenchmark {
+
+    @Param({"1D", "2D", "3D", "GIS", "GIS_ECEF"})
+    public String bodyType;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int n;
+
+    @Param({"UNIFORM", "CLUSTERED"})
+    public String layout;
+
+    private Engine<?> engine;
+
+    /**
+     * Each thread cycles through the reference points on its own
+     */
+    @State(Scope.Thread)
+    public static class RefCursor {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int dims = this.bodyType.equals("1D") ? 1 : this.bodyType.equals("3D") ? 3 : 2;
+        double[][] points = Workloads.points(this.n, dims, this.layout, 0);
+        double[][] refs = Workloads.refs(points, 1);
+        switch (this.bodyType) {
+            case "1D":
+                this.engine = Engine.of(points, refs, Workloads::bodies1D, Simple1DGravityModelDistribution::new);
+                break;
+            case "2D":
+                this.engine = Engine.of(points, refs, Workloads::bodies2D, Simple2DGravityModelDistribution::new);
+                break;
+            case "3D":
+                this.engine = Engine.of(points, refs, Workloads::bodies3D, Simple3DGravityModelDistribution::new);
+                break;
+            case "GIS":
+                this.engine = Engine.of(points, refs, Workloads::bodiesGIS, SimpleGISGravityModelDistribution::new);
+                break;
+            case "GIS_ECEF":
+                this.engine = Engine.of(points, refs, Workloads::bodiesGIS, ECEFGISGravityModelDistribution::new);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown body type: " + this.bodyType);
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object construct() {
+        return this.engine.build();
+    }
+
+    @Benchmark
+    public Object getRandomBody(RefCursor cursor) {
+        int ref = cursor.next;
+        cursor.next = (ref + 1) & (Workloads.NUM_REFS - 1);
+        return this.engine.getRandomBody(ref);
+    }
+}
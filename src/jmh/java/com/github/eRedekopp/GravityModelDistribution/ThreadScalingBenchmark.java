@@ -0,0 +1,75 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGeneratorFactory;
+
+/**
+ * Throughput of getRandomBody with many threads sharing one distribution. Run with -t 1, 2, 4, ... up to the number of
+ * cores: with a shared java.util.Random the total barely grows past one thread, since every draw updates the same
+ * seed, while with a PerThreadRandomGenerator or a generator passed by each thread it should grow with the threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class ThreadScalingBenchmark {
+
+    @Param({"100000"})
+    public int n;
+
+    @Param({"QUADTREE", "FLAT_QUADTREE"})
+    public String engine;
+
+    /**
+     * SHARED_RANDOM shares one java.util.Random, PER_THREAD uses the default PerThreadRandomGenerator, and CALLER
+     * passes each thread's own generator to getRandomBody(ref, rng)
+     */
+    @Param({"SHARED_RANDOM", "PER_THREAD", "CALLER"})
+    public String generator;
+
+    private GravityModelDistribution<Integer, Body2D<Integer>> dist;
+
+    private Body2D<Integer> ref;
+
+    @State(Scope.Thread)
+    public static class ThreadGenerator {
+        RandomGenerator rng;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            this.rng = RandomGeneratorFactory.of("L64X128MixRandom").create();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random positions = new Random(0);
+        List<Body2D<Integer>> bodies = new ArrayList<>(this.n);
+        for (int i = 0; i < this.n; i++) {
+            bodies.add(new Body2D<>(
+                    positions.nextDouble() * 1000, positions.nextDouble() * 1000, positions.nextDouble() * 1000, i
+            ));
+        }
+        RandomGenerator rng = this.generator.equals("SHARED_RANDOM") ? new Random(1) : new PerThreadRandomGenerator();
+        this.dist = this.engine.equals("QUADTREE")
+                ? new QuadtreeGravityModelDistribution<>(bodies, 0.5, rng)
+                : new FlatQuadtreeGravityModelDistribution<>(bodies, 0.5, rng);
+        this.ref = new Body2D<>(1, 500, 500, null);
+    }
+
+    @Benchmark
+    public Body2D<Integer> getRandomBody(ThreadGenerator state) {
+        return this.generator.equals("CALLER")
+                ? this.dist.getRandomBody(this.ref, state.rng)
+                : this.dist.getRandomBody(this.ref);
+    }
+}
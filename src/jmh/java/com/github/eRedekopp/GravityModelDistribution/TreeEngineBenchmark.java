@@ -0,0 +1,149 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction time and per-query latency of the tree engines across sizes, theta and layouts, on the same workloads as
+ * SimpleEngineBenchmark so the two can be compared directly. QUADTREE is the Node-based tree that the README compares
+ * with SimpleGravityModelDistribution. Run with -t to measure the latency with several threads sharing one
+ * distribution, e.g. ./gradlew jmh -Pjmh.args="TreeEngineBenchmark -t 4 -p theta=0.5". MAPPED_QUADTREE loads a
+ * snapshot of FLAT_QUADTREE written during setup, so its construction time is the time to load the snapshot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TreeEngineBenchmark {
+
+    @Param({
+            "QUADTREE",
+            "FLAT_QUADTREE",
+            "MAPPED_QUADTREE",
+            "MUTABLE_QUADTREE",
+            "KD_TREE_2D",
+            "KD_TREE_3D",
+            "OCTREE",
+            "SPHERICAL_QUADTREE"
+    })
+    public String engine;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int n;
+
+    @Param({"0.25", "0.5", "1.0"})
+    public double theta;
+
+    @Param({"UNIFORM", "CLUSTERED"})
+    public String layout;
+
+    private Engine<?> dist;
+
+    /**
+     * The snapshot loaded by MAPPED_QUADTREE, or null for the other engines
+     */
+    private Path snapshot;
+
+    /**
+     * Each thread cycles through the reference points on its own
+     */
+    @State(Scope.Thread)
+    public static class RefCursor {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int dims = this.engine.equals("KD_TREE_3D") || this.engine.equals("OCTREE") ? 3 : 2;
+        double[][] points = Workloads.points(this.n, dims, this.layout, 0);
+        double[][] refs = Workloads.refs(points, 1);
+        double theta = this.theta;
+        switch (this.engine) {
+            case "QUADTREE":
+                this.dist = Engine.of(
+                        points, refs, Workloads::bodies2D, b -> new QuadtreeGravityModelDistribution<>(b, theta)
+                );
+                break;
+            case "FLAT_QUADTREE":
+                this.dist = Engine.of(
+                        points, refs, Workloads::bodies2D, b -> new FlatQuadtreeGravityModelDistribution<>(b, theta)
+                );
+                break;
+            case "MAPPED_QUADTREE":
+                this.dist = Engine.of(points, refs, Workloads::bodies2D, b -> this.loadSnapshot(b, theta));
+                break;
+            case "MUTABLE_QUADTREE":
+                this.dist = Engine.of(
+                        points, refs, Workloads::bodies2D, b -> new MutableQuadtreeGravityModelDistribution<>(b, theta)
+                );
+                break;
+            case "KD_TREE_2D":
+                this.dist = Engine.of(
+                        points, refs, Workloads::bodies2D, b -> new KdTreeGravityModelDistribution<>(b, theta)
+                );
+                break;
+            case "KD_TREE_3D":
+                this.dist = Engine.of(
+                        points, refs, Workloads::bodies3D, b -> new KdTreeGravityModelDistribution<>(b, theta)
+                );
+                break;
+            case "OCTREE":
+                this.dist = Engine.of(
+                        points, refs, Workloads::bodies3D, b -> new OctreeGravityModelDistribution<>(b, theta)
+                );
+                break;
+            case "SPHERICAL_QUADTREE":
+                this.dist = Engine.of(
+                        points,
+                        refs,
+                        Workloads::bodiesGIS,
+                        b -> new SphericalQuadtreeGravityModelDistribution<>(b, theta)
+                );
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown engine: " + this.engine);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (this.snapshot != null) Files.delete(this.snapshot);
+    }
+
+    /**
+     * @return The bodies loaded from a snapshot, which is written the first time this is called
+     */
+    private MappedQuadtreeGravityModelDistribution<Integer> loadSnapshot(List<Body2D<Integer>> bodies, double theta) {
+        try {
+            if (this.snapshot == null) {
+                this.snapshot = Files.createTempFile("quadtree", ".bin");
+                new FlatQuadtreeGravityModelDistribution<>(bodies, theta).writeSnapshot(this.snapshot, i -> i);
+            }
+            return new MappedQuadtreeGravityModelDistribution<>(this.snapshot, i -> i, theta);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object construct() {
+        return this.dist.build();
+    }
+
+    @Benchmark
+    public Object getRandomBody(RefCursor cursor) {
+        int ref = cursor.next;
+        cursor.next = (ref + 1) & (Workloads.NUM_REFS - 1);
+        return this.dist.getRandomBody(ref);
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the Vector API force kernels against the scalar ones, both for the kernel alone over all bodies and for a
+ * whole getRandomBody query. Run with ./gradlew jmh -PvectorApi so that the vector kernels are built. The Vector API
+ * module is added to the forked JVM explicitly, so the vector kernels are then used whenever the CPU supports them;
+ * check SimpleGravityModelDistribution.isVectorApiAvailable if the two results are the same.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class VectorKernelBenchmark {
+
+    @Param({"2D", "3D", "GIS"})
+    public String bodyType;
+
+    @Param({"1000", "100000"})
+    public int n;
+
+    @Param({"false", "true"})
+    public boolean useVectorApi;
+
+    private ForceKernel<Integer, ? extends Body<Integer>> kernel;
+
+    private GravityModelDistribution<Integer, ? extends Body<Integer>> dist;
+
+    private Body<Integer> ref;
+
+    private double[] out;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random rng = new Random(0);
+        switch (this.bodyType) {
+            case "2D": {
+                List<Body2D<Integer>> bodies = new ArrayList<>(this.n);
+                for (int i = 0; i < this.n; i++) {
+                    bodies.add(new Body2D<>(rng.nextDouble(), rng.nextDouble() * 1000, rng.nextDouble() * 1000, i));
+                }
+                this.kernel = this.useVectorApi ? VectorForceKernels.body2D(bodies) : new Body2DForceKernel<>(bodies);
+                this.dist = new Simple2DGravityModelDistribution<>(bodies, rng, this.useVectorApi);
+                this.ref = new Body2D<>(1, 500, 500, null);
+                break;
+            }
+            case "3D": {
+                List<Body3D<Integer>> bodies = new ArrayList<>(this.n);
+                for (int i = 0; i < this.n; i++) {
+                    bodies.add(new Body3D<>(
+                            rng.nextDouble(), rng.nextDouble() * 1000, rng.nextDouble() * 1000, rng.nextDouble(), i
+                    ));
+                }
+                this.kernel = this.useVectorApi ? VectorForceKernels.body3D(bodies) : new Body3DForceKernel<>(bodies);
+                this.dist = new Simple3DGravityModelDistribution<>(bodies, rng, this.useVectorApi);
+                this.ref = new Body3D<>(1, 500, 500, 0.5, null);
+                break;
+            }
+            case "GIS": {
+                List<GISBody<Integer>> bodies = new ArrayList<>(this.n);
+                for (int i = 0; i < this.n; i++) {
+                    bodies.add(new GISBody<>(rng.nextDouble(), rng.nextDouble() * 20 + 40, rng.nextDouble() * 60, i));
+                }
+                this.kernel = this.useVectorApi ? VectorForceKernels.gis(bodies) : new GISBodyForceKernel<>(bodies);
+                this.dist = new SimpleGISGravityModelDistribution<>(bodies, rng, this.useVectorApi);
+                this.ref = new GISBody<>(1, 50, 30, null);
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown body type: " + this.bodyType);
+        }
+        this.out = new double[this.n];
+    }
+
+    @Benchmark
+    public double[] computeForces() {
+        computeForces(this.kernel, this.ref, this.out);
+        return this.out;
+    }
+
+    @Benchmark
+    public Body<Integer> getRandomBody() {
+        return getRandomBody(this.dist, this.ref);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <B extends Body<Integer>> void computeForces(
+            ForceKernel<Integer, B> kernel, Body<Integer> ref, double[] out
+    ) {
+        kernel.computeForces((B) ref, 0, out.length, out, 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <B extends Body<Integer>> B getRandomBody(GravityModelDistribution<Integer, B> dist, Body<Integer> ref) {
+        return dist.getRandomBody((B) ref);
+    }
+}
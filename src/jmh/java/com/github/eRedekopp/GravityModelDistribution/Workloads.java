@@ -0,0 +1,120 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Bodies and reference points shared by the engine benchmarks, so that every engine is measured on the same data
+ */
+final class Workloads {
+
+    /**
+     * The width of the square or cube that the bodies are spread over
+     */
+    static final double WIDTH = 1000;
+
+    /**
+     * The number of reference points in each workload. This is a power of two so that benchmarks can cycle through them
+     * with a mask.
+     */
+    static final int NUM_REFS = 4096;
+
+    private Workloads() {
+    }
+
+    /**
+     * @param n The number of bodies
+     * @param dims The number of coordinates of each body, from 1 to 3
+     * @param layout UNIFORM spreads the bodies evenly over the region. CLUSTERED puts them in 50 clusters between 0.01
+     *               and 10 units wide, with cluster sizes falling off exponentially, like the population of a few
+     *               cities spread over a large region.
+     * @param seed The seed for the positions and masses
+     * @return n rows of {mass, coordinates...}, with each coordinate between about 0 and WIDTH
+     */
+    static double[][] points(int n, int dims, String layout, long seed) {
+        Random rng = new Random(seed);
+        double[][] points = new double[n][dims + 1];
+        switch (layout) {
+            case "UNIFORM":
+                for (double[] p : points) {
+                    p[0] = 1 + rng.nextDouble() * 100;
+                    for (int d = 1; d <= dims; d++) {
+                        p[d] = rng.nextDouble() * WIDTH;
+                    }
+                }
+                break;
+            case "CLUSTERED":
+                int numClusters = 50;
+                double[][] clusters = new double[numClusters][dims + 1];
+                for (double[] c : clusters) {
+                    c[0] = Math.pow(10, rng.nextDouble() * 3 - 2);
+                    for (int d = 1; d <= dims; d++) {
+                        c[d] = rng.nextDouble() * WIDTH;
+                    }
+                }
+                for (double[] p : points) {
+                    double[] c = clusters[(int) Math.min(numClusters - 1, -Math.log(rng.nextDouble()) * 8)];
+                    p[0] = 1 + rng.nextDouble() * 100;
+                    for (int d = 1; d <= dims; d++) {
+                        p[d] = c[d] + rng.nextGaussian() * c[0];
+                    }
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown layout: " + layout);
+        }
+        return points;
+    }
+
+    /**
+     * @return NUM_REFS reference points with mass 1 at the positions of randomly chosen rows of `points`, so that with
+     *         CLUSTERED most of them are inside a dense cluster
+     */
+    static double[][] refs(double[][] points, long seed) {
+        Random rng = new Random(seed);
+        double[][] refs = new double[NUM_REFS][];
+        for (int i = 0; i < NUM_REFS; i++) {
+            refs[i] = points[rng.nextInt(points.length)].clone();
+            refs[i][0] = 1;
+        }
+        return refs;
+    }
+
+    static List<Body1D<Integer>> bodies1D(double[][] points) {
+        List<Body1D<Integer>> bodies = new ArrayList<>(points.length);
+        for (int i = 0; i < points.length; i++) {
+            bodies.add(new Body1D<>(points[i][0], points[i][1], i));
+        }
+        return bodies;
+    }
+
+    static List<Body2D<Integer>> bodies2D(double[][] points) {
+        List<Body2D<Integer>> bodies = new ArrayList<>(points.length);
+        for (int i = 0; i < points.length; i++) {
+            bodies.add(new Body2D<>(points[i][0], points[i][1], points[i][2], i));
+        }
+        return bodies;
+    }
+
+    static List<Body3D<Integer>> bodies3D(double[][] points) {
+        List<Body3D<Integer>> bodies = new ArrayList<>(points.length);
+        for (int i = 0; i < points.length; i++) {
+            bodies.add(new Body3D<>(points[i][0], points[i][1], points[i][2], points[i][3], i));
+        }
+        return bodies;
+    }
+
+    /**
+     * Map the first two coordinates onto latitudes between -80 and 80 degrees and longitudes between -180 and 180
+     */
+    static List<GISBody<Integer>> bodiesGIS(double[][] points) {
+        List<GISBody<Integer>> bodies = new ArrayList<>(points.length);
+        for (int i = 0; i < points.length; i++) {
+            double lat = Math.max(-80, Math.min(80, points[i][1] / WIDTH * 160 - 80));
+            double lon = points[i][2] / WIDTH * 360 - 180;
+            bodies.add(new GISBody<>(points[i][0], lat, lon, i));
+        }
+        return bodies;
+    }
+}
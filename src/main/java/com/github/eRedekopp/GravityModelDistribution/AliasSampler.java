@@ -0,0 +1,37 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.util.List;
+import java.util.random.RandomGenerator;
+
+/**
+ * A sampler that draws bodies from a fixed list using an alias table of their weights
+ */
+class AliasSampler<T, B extends Body<T>> implements GravityModelSampler<T, B> {
+
+    private final List<B> bodies;
+
+    private final AliasTable table;
+
+    private final RandomGenerator rng;
+
+    /**
+     * @param bodies The bodies to draw from
+     * @param weights The weight of each body, by index
+     * @param rng The random number generator to be used
+     */
+    public AliasSampler(List<B> bodies, double[] weights, RandomGenerator rng) {
+        this.bodies = bodies;
+        this.table = new AliasTable(weights);
+        this.rng = rng;
+    }
+
+    @Override
+    public B sample() {
+        return this.bodies.get(this.table.sample(this.rng));
+    }
+
+    @Override
+    public long estimatedSizeBytes() {
+        return this.table.estimatedSizeBytes();
+    }
+}
@@ -0,0 +1,107 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * A Walker/Vose alias table for drawing random indices from a fixed categorical distribution in O(1) per draw, after
+ * O(N) construction.
+ */
+class AliasTable {
+
+    /**
+     * The probability of keeping each index once it has been selected uniformly at random
+     */
+    private final double[] prob;
+
+    /**
+     * The index to return instead of each index when it is not kept
+     */
+    private final int[] alias;
+
+    /**
+     * @param weights An array of doubles >= 0 with at least one value >0. The array is not modified.
+     */
+    public AliasTable(double[] weights) {
+        int n = weights.length;
+        double sum = 0;
+        int largestIndex = 0;
+        for (int i = 0; i < n; i++) {
+            sum += weights[i];
+            if (weights[i] > weights[largestIndex]) largestIndex = i;
+        }
+        if (!(sum > 0) || Utils.isInvalidArg(sum)) {
+            throw new IllegalArgumentException("Elements sum to invalid value: " + sum);
+        }
+
+        this.prob = new double[n];
+        this.alias = new int[n];
+        // Scale the weights so that they average to 1, then pair each index below 1 with one above 1
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int numSmall = 0, numLarge = 0;
+        for (int i = 0; i < n; i++) {
+            this.prob[i] = weights[i] * n / sum;
+            if (this.prob[i] < 1) small[numSmall++] = i;
+            else large[numLarge++] = i;
+        }
+        while (numSmall > 0 && numLarge > 0) {
+            int s = small[--numSmall];
+            int l = large[--numLarge];
+            this.alias[s] = l;
+            this.prob[l] = (this.prob[l] + this.prob[s]) - 1;
+            if (this.prob[l] < 1) small[numSmall++] = l;
+            else large[numLarge++] = l;
+        }
+        // Anything left over is within rounding error of 1. Zero-weight indices must still never be returned.
+        while (numLarge > 0) {
+            this.prob[large[--numLarge]] = 1;
+        }
+        while (numSmall > 0) {
+            int s = small[--numSmall];
+            if (weights[s] > 0) {
+                this.prob[s] = 1;
+            }
+            else {
+                this.prob[s] = 0;
+                this.alias[s] = largestIndex;
+            }
+        }
+    }
+
+    /**
+     * @return The number of indices in this table
+     */
+    public int size() {
+        return this.prob.length;
+    }
+
+    /**
+     * @return The probability of keeping index i once it has been selected uniformly at random
+     */
+    double getProbability(int i) {
+        return this.prob[i];
+    }
+
+    /**
+     * @return The index to return instead of index i when it is not kept
+     */
+    int getAlias(int i) {
+        return this.alias[i];
+    }
+
+    /**
+     * @return An estimate of the memory used by this table in bytes
+     */
+    public long estimatedSizeBytes() {
+        // Object header and two array headers, plus the array contents
+        return 48 + 12L * this.prob.length;
+    }
+
+    /**
+     * @return A random index, chosen with probability proportional to its weight
+     */
+    public int sample(RandomGenerator rng) {
+        int i = rng.nextInt(this.prob.length);
+        return rng.nextDouble() < this.prob[i] ? i : this.alias[i];
+    }
+}
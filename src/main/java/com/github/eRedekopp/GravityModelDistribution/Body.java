@@ -31,6 +31,20 @@ public abstract class Body<T> {
      */
     public abstract double distanceTo(Body<T> other);
 
+    /**
+     * @return The coordinates of this body's centre of mass, one per dimension
+     * @throws UnsupportedOperationException If this body's type doesn't implement HasCoordinates
+     */
+    public double[] getCoordinates() {
+        if (!(this instanceof HasCoordinates)) {
+            throw new UnsupportedOperationException("Coordinates not available for Body type: " + this.getClass());
+        }
+        HasCoordinates location = (HasCoordinates) this;
+        double[] out = new double[location.getDimensions()];
+        location.copyCoordinates(out, 0);
+        return out;
+    }
+
     /**
      * @param other Another body of the same type
      * @return The gravitational force between the two bodies with G factored out
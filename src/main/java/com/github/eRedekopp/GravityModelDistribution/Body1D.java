@@ -1,6 +1,6 @@
 package com.github.eRedekopp.GravityModelDistribution;
 
-public class Body1D<T> extends Body<T> {
+public class Body1D<T> extends Body<T> implements HasCoordinates {
 
     public final double x;
 
@@ -9,6 +9,16 @@ public class Body1D<T> extends Body<T> {
         this.x = x;
     }
 
+    @Override
+    public int getDimensions() {
+        return 1;
+    }
+
+    @Override
+    public void copyCoordinates(double[] out, int offset) {
+        out[offset] = this.x;
+    }
+
     @Override
     public Body1D<T> plus(Body<T> other) {
         if (!(other instanceof Body1D)) {
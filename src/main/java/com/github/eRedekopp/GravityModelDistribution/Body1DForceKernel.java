@@ -0,0 +1,31 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.util.List;
+
+class Body1DForceKernel<T> extends ForceKernel<T, Body1D<T>> {
+
+    private final double[] x;
+
+    public Body1DForceKernel(List<Body1D<T>> bodies) {
+        super(bodies);
+        this.x = new double[bodies.size()];
+        for (int i = 0; i < this.x.length; i++) {
+            this.x[i] = bodies.get(i).x;
+        }
+    }
+
+    @Override
+    public void computeForces(Body1D<T> ref, int from, int to, double[] out, int offset) {
+        double refMass = ref.mass;
+        double rx = ref.x;
+        for (int i = from; i < to; i++) {
+            double m = this.mass[i];
+            if (m == 0 || refMass == 0) {
+                out[offset + i - from] = 0;
+                continue;
+            }
+            double r = Math.abs(this.x[i] - rx);
+            out[offset + i - from] = r == 0 ? 0 : m * refMass / (r*r);
+        }
+    }
+}
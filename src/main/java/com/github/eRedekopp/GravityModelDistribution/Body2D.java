@@ -1,6 +1,6 @@
 package com.github.eRedekopp.GravityModelDistribution;
 
-public class Body2D<T> extends Body<T> {
+public class Body2D<T> extends Body<T> implements HasCoordinates {
 
     /**
      * The X value of this body's centre of mass
@@ -29,6 +29,17 @@ public class Body2D<T> extends Body<T> {
     }
 
 
+    @Override
+    public int getDimensions() {
+        return 2;
+    }
+
+    @Override
+    public void copyCoordinates(double[] out, int offset) {
+        out[offset] = this.x;
+        out[offset + 1] = this.y;
+    }
+
     /**
      * @param other Another body
      * @return A new Body representing the combined centre of mass of both bodies. The returned
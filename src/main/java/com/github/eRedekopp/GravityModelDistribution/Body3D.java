@@ -1,6 +1,6 @@
 package com.github.eRedekopp.GravityModelDistribution;
 
-public class Body3D<T> extends Body<T> {
+public class Body3D<T> extends Body<T> implements HasCoordinates {
 
     public final double x;
 
@@ -15,6 +15,18 @@ public class Body3D<T> extends Body<T> {
         this.z = z;
     }
 
+    @Override
+    public int getDimensions() {
+        return 3;
+    }
+
+    @Override
+    public void copyCoordinates(double[] out, int offset) {
+        out[offset] = this.x;
+        out[offset + 1] = this.y;
+        out[offset + 2] = this.z;
+    }
+
     @Override
     public Body<T> plus(Body<T> other) {
         if (!(other instanceof Body3D)) {
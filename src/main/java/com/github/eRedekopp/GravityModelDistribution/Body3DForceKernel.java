@@ -0,0 +1,45 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.util.List;
+
+class Body3DForceKernel<T> extends ForceKernel<T, Body3D<T>> {
+
+    protected final double[] x;
+
+    protected final double[] y;
+
+    protected final double[] z;
+
+    public Body3DForceKernel(List<Body3D<T>> bodies) {
+        super(bodies);
+        this.x = new double[bodies.size()];
+        this.y = new double[bodies.size()];
+        this.z = new double[bodies.size()];
+        for (int i = 0; i < this.x.length; i++) {
+            Body3D<T> b = bodies.get(i);
+            this.x[i] = b.x;
+            this.y[i] = b.y;
+            this.z[i] = b.z;
+        }
+    }
+
+    @Override
+    public void computeForces(Body3D<T> ref, int from, int to, double[] out, int offset) {
+        double refMass = ref.mass;
+        double rx = ref.x;
+        double ry = ref.y;
+        double rz = ref.z;
+        for (int i = from; i < to; i++) {
+            double m = this.mass[i];
+            if (m == 0 || refMass == 0) {
+                out[offset + i - from] = 0;
+                continue;
+            }
+            double dx = rx - this.x[i];
+            double dy = ry - this.y[i];
+            double dz = rz - this.z[i];
+            double r = Math.sqrt(dx*dx + dy*dy + dz*dz);
+            out[offset + i - from] = r == 0 ? 0 : m * refMass / (r*r);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+/**
+ * The order in which the Simple distributions store their bodies. Reordering the bodies along a space-filling curve
+ * puts bodies that are close together in space close together in memory, so each block of bodies that is processed
+ * together covers a small area. This only changes which random numbers lead to which bodies: the probability of each
+ * body, and the body returned for it, are the same in every order.
+ */
+public enum BodyOrder {
+    /**
+     * The order in which the bodies were given. This is the default.
+     */
+    INPUT,
+
+    /**
+     * The order of the Morton (Z-order) curve, which interleaves the bits of the coordinates. This is the cheapest
+     * curve to compute, but it jumps across the space at the boundaries of its cells.
+     */
+    MORTON,
+
+    /**
+     * The order of the Hilbert curve, which never jumps: consecutive cells along it are always adjacent. The groups of
+     * bodies that are next to each other in memory are more compact than for MORTON.
+     */
+    HILBERT
+}
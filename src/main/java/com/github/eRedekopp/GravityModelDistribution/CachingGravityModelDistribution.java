@@ -0,0 +1,320 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.random.RandomGenerator;
+
+/**
+ * Wraps another GravityModelDistribution and caches the sampler for each reference point, so that repeated queries
+ * for the same reference point don't pay to compute the weights of all bodies again. Reference points are considered
+ * the same if they have the same coordinates and mass, regardless of their values, so reference points must implement
+ * HasCoordinates.
+ *
+ * <p/>
+ * The cache holds samplers up to a configurable number of bytes, as estimated by
+ * GravityModelSampler.estimatedSizeBytes, and evicts the least recently used samplers first when it is full. Samplers
+ * larger than the whole budget are not cached. This class is thread-safe as long as the wrapped distribution is.
+ * Two threads that miss on the same reference point at the same time may both build a sampler for it.
+ *
+ * <p/>
+ * A hit only reads a ConcurrentHashMap and stamps the entry with the current time of a clock that only ticks on misses,
+ * so concurrent readers don't contend with each other. Recency is therefore only tracked between misses: entries hit
+ * since the last miss count as equally recent. Misses add their sampler under a lock and evict the entries with the
+ * oldest stamps until the cache fits its budget. Some samplers grow as they are used, so the samplers handed out by
+ * the cache check their size after each draw, and charge any growth to the budget under the same lock, evicting
+ * entries if it no longer fits.
+ */
+public class CachingGravityModelDistribution<T, B extends Body<T>> implements GravityModelDistribution<T, B> {
+
+    /**
+     * Estimated memory used by each cache entry in addition to its sampler: the key, its coordinates array and the
+     * map entry
+     */
+    private static final long ENTRY_OVERHEAD_BYTES = 96;
+
+    private final GravityModelDistribution<T, B> delegate;
+
+    private final long maxBytes;
+
+    private final ConcurrentHashMap<ReferenceKey, CacheEntry> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Ticks twice per miss. A new entry is stamped with the first tick of its miss, so that it is strictly newer than
+     * every entry that was hit before it was added, and an entry that is hit is stamped with the current value, so that
+     * it is strictly newer than every entry that was added before it was hit.
+     */
+    private final AtomicLong clock = new AtomicLong();
+
+    /**
+     * Held while adding or evicting entries, so that only one thread measures and evicts at a time
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /**
+     * The total estimated size of all cache entries, as last measured or charged. Only written while holding
+     * `writeLock`.
+     */
+    private volatile long sizeBytes = 0;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private volatile QueryListener listener;
+
+    /**
+     * @param delegate The distribution whose samplers should be cached
+     * @param maxBytes The maximum estimated number of bytes of samplers to keep in the cache
+     */
+    public CachingGravityModelDistribution(GravityModelDistribution<T, B> delegate, long maxBytes) {
+        if (delegate == null) throw new IllegalArgumentException("Null delegate");
+        if (maxBytes < 0) throw new IllegalArgumentException("Illegal max bytes " + maxBytes);
+        this.delegate = delegate;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public B getRandomBody(B ref) {
+        return QueryReporter.report(this, this.listener, 0, ref, null, (dist, r, random, stats) -> {
+            B body = dist.getSampler(r).sample();
+            // Only the time is reported, so clear anything counted by the sampler
+            if (stats != null) stats.reset();
+            return body;
+        });
+    }
+
+    /**
+     * Cached samplers draw from their own generators, so this bypasses the cache and draws from the delegate
+     */
+    @Override
+    public B getRandomBody(B ref, RandomGenerator rng) {
+        return QueryReporter.report(this, this.listener, 0, ref, rng, (dist, r, random, stats) -> {
+            B body = dist.delegate.getRandomBody(r, random);
+            // Only the time is reported, so clear anything counted by the delegate
+            if (stats != null) stats.reset();
+            return body;
+        });
+    }
+
+    /**
+     * Only the time of each draw is reported, since the work is done by the delegate or by a cached sampler. Give the
+     * delegate its own listener to see the work that it does.
+     */
+    @Override
+    public void setQueryListener(QueryListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public GravityModelSampler<T, B> getSampler(B ref) {
+        ReferenceKey key = new ReferenceKey(ref);
+        CacheEntry cached = this.cache.get(key);
+        if (cached != null) {
+            this.hits.increment();
+            // Only write when the stamp changes, so that threads hitting the same entry don't keep invalidating it
+            long now = this.clock.get();
+            if (cached.lastUsed != now) cached.lastUsed = now;
+            return cached;
+        }
+
+        this.misses.increment();
+        MaintenanceEvent event = MaintenanceEvent.start();
+        GravityModelSampler<T, B> sampler = this.delegate.getSampler(ref);
+        CacheEntry entry = new CacheEntry(key, sampler, this.clock.getAndAdd(2) + 1);
+        if (entry.sizeBytes > this.maxBytes) return sampler;
+
+        int size;
+        long evicted;
+        this.writeLock.lock();
+        try {
+            this.cache.put(key, entry);
+            evicted = this.evictIfFull(this.measure());
+            size = this.cache.size();
+        }
+        finally {
+            this.writeLock.unlock();
+        }
+        event.finish(this, MaintenanceEvent.CACHE_FILL, size, evicted);
+        return entry;
+    }
+
+    /**
+     * Charge the growth of an entry's sampler since it was last measured to the budget, and evict the least recently
+     * used entries if the cache no longer fits. Entries that have already been evicted no longer count against the
+     * budget.
+     */
+    private void charge(CacheEntry entry) {
+        this.writeLock.lock();
+        try {
+            long grown = entry.sampler.estimatedSizeBytes() + ENTRY_OVERHEAD_BYTES;
+            long total = this.sizeBytes + grown - entry.sizeBytes;
+            // Still record the new size of an evicted entry, so that its later draws don't keep taking the lock
+            boolean cached = this.cache.get(entry.key) == entry;
+            entry.sizeBytes = grown;
+            if (cached) this.evictIfFull(total);
+        }
+        finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Evict the least recently used entries until the cache fits in its budget. Must be called while holding
+     * `writeLock`.
+     *
+     * @param total The total size of the entries
+     * @return The number of entries evicted
+     */
+    private long evictIfFull(long total) {
+        long evicted = 0;
+        if (total > this.maxBytes) {
+            List<Map.Entry<ReferenceKey, CacheEntry>> entries = new ArrayList<>(this.cache.entrySet());
+            entries.sort(Comparator.comparingLong(e -> e.getValue().lastUsed));
+            for (int i = 0; i < entries.size() && total > this.maxBytes; i++) {
+                Map.Entry<ReferenceKey, CacheEntry> e = entries.get(i);
+                if (this.cache.remove(e.getKey(), e.getValue())) {
+                    total -= e.getValue().sizeBytes;
+                    evicted++;
+                }
+            }
+        }
+        this.sizeBytes = total;
+        this.evictions.add(evicted);
+        return evicted;
+    }
+
+    /**
+     * Re-measure every entry, since some samplers grow as they are used. Must be called while holding `writeLock`.
+     *
+     * @return The total size of the entries
+     */
+    private long measure() {
+        long total = 0;
+        for (CacheEntry entry : this.cache.values()) {
+            entry.sizeBytes = entry.sampler.estimatedSizeBytes() + ENTRY_OVERHEAD_BYTES;
+            total += entry.sizeBytes;
+        }
+        return total;
+    }
+
+    /**
+     * @return The number of queries that were answered by a cached sampler
+     */
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    /**
+     * @return The number of queries that had to build a new sampler
+     */
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    /**
+     * @return The number of samplers that have been evicted to stay within the budget
+     */
+    public long getEvictionCount() {
+        return this.evictions.sum();
+    }
+
+    /**
+     * @return The number of samplers currently cached
+     */
+    public int getEntryCount() {
+        return this.cache.size();
+    }
+
+    /**
+     * @return The estimated number of bytes used by the samplers currently cached, measured now
+     */
+    public long getSizeBytes() {
+        this.writeLock.lock();
+        try {
+            this.sizeBytes = this.measure();
+            return this.sizeBytes;
+        }
+        finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * A cached sampler, which is also what the cache hands out for it so that growth can be charged as it happens
+     */
+    private class CacheEntry implements GravityModelSampler<T, B> {
+        final ReferenceKey key;
+
+        final GravityModelSampler<T, B> sampler;
+
+        /**
+         * Only written while holding `writeLock`
+         */
+        volatile long sizeBytes;
+
+        /**
+         * The time of `clock` when the entry was last used. Racing hits may write different times, which are all
+         * about as recent.
+         */
+        volatile long lastUsed;
+
+        CacheEntry(ReferenceKey key, GravityModelSampler<T, B> sampler, long lastUsed) {
+            this.key = key;
+            this.sampler = sampler;
+            this.sizeBytes = sampler.estimatedSizeBytes() + ENTRY_OVERHEAD_BYTES;
+            this.lastUsed = lastUsed;
+        }
+
+        @Override
+        public B sample() {
+            B body = this.sampler.sample();
+            if (this.sampler.estimatedSizeBytes() + ENTRY_OVERHEAD_BYTES != this.sizeBytes) charge(this);
+            return body;
+        }
+
+        @Override
+        public long estimatedSizeBytes() {
+            return this.sampler.estimatedSizeBytes();
+        }
+    }
+
+    /**
+     * Identifies a reference point by its type, coordinates and mass
+     */
+    private static class ReferenceKey {
+        final Class<?> type;
+        final double[] coordinates;
+        final double mass;
+
+        ReferenceKey(Body<?> ref) {
+            HasCoordinates location = Utils.checkCoordinates(ref);
+            this.type = ref.getClass();
+            this.coordinates = new double[location.getDimensions()];
+            location.copyCoordinates(this.coordinates, 0);
+            this.mass = ref.mass;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ReferenceKey)) return false;
+            ReferenceKey other = (ReferenceKey) o;
+            return this.type == other.type
+                    && Double.compare(this.mass, other.mass) == 0
+                    && Arrays.equals(this.coordinates, other.coordinates);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * this.type.hashCode() + Double.hashCode(this.mass)) + Arrays.hashCode(this.coordinates);
+        }
+    }
+}
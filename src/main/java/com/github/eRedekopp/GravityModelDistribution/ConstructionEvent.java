@@ -0,0 +1,82 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * A JDK Flight Recorder event for building a distribution. It covers the work done in the distribution's constructor,
+ * including copying the bodies into the force kernel of a SimpleGravityModelDistribution.
+ * <p/>
+ * Only the memory allocated by the constructing thread is counted, since the JVM can't tell which allocations of
+ * another thread belong to this construction. When an ExecutionPolicy builds part of a distribution on a pool, such as
+ * the parallel bulk build of QuadtreeGravityModelDistribution, the memory allocated by the pool's threads is missing
+ * from the event.
+ */
+@Name("com.github.eRedekopp.GravityModelDistribution.Construction")
+@Label("Gravity Model Construction")
+@Category("Gravity Model")
+@Description("A distribution built from a list of bodies")
+final class ConstructionEvent extends Event {
+
+    @Label("Engine")
+    @Description("The class of the distribution")
+    String engine;
+
+    @Label("Bodies")
+    int bodies;
+
+    @Label("Allocated")
+    @Description("Bytes allocated by the constructing thread, not counting other threads, or -1 if unknown")
+    @DataAmount
+    long allocated;
+
+    /**
+     * The bytes allocated by the constructing thread before construction started, or -1 if unknown
+     */
+    private transient long allocatedBefore = -1;
+
+    /**
+     * @return An event that has begun timing if it is enabled
+     */
+    static ConstructionEvent start() {
+        ConstructionEvent event = new ConstructionEvent();
+        if (event.isEnabled()) {
+            event.allocatedBefore = allocatedBytes();
+            event.begin();
+        }
+        return event;
+    }
+
+    /**
+     * Stop timing, and commit the event if it's enabled and took longer than its threshold
+     *
+     * @param engine The distribution that was built
+     * @param bodies The number of bodies in the distribution
+     */
+    void finish(GravityModelDistribution<?, ?> engine, int bodies) {
+        this.end();
+        if (!this.shouldCommit()) return;
+        long allocatedAfter = allocatedBytes();
+        this.engine = engine.getClass().getSimpleName();
+        this.bodies = bodies;
+        this.allocated = this.allocatedBefore < 0 || allocatedAfter < 0 ? -1 : allocatedAfter - this.allocatedBefore;
+        this.commit();
+    }
+
+    /**
+     * @return The total bytes allocated by the calling thread, or -1 if the JVM can't measure it
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean instanceof com.sun.management.ThreadMXBean
+                ? ((com.sun.management.ThreadMXBean) bean).getCurrentThreadAllocatedBytes()
+                : -1;
+    }
+}
@@ -0,0 +1,155 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.util.List;
+
+/**
+ * The 3D equivalent of Square, used by the nodes of OctreeGravityModelDistribution
+ */
+class Cube {
+
+    private static final Octant[] OCTANTS = Octant.values();
+
+    /**
+     * X value of the middle of the cube
+     */
+    public final double midX;
+
+    /**
+     * Y value of the middle of the cube
+     */
+    public final double midY;
+
+    /**
+     * Z value of the middle of the cube
+     */
+    public final double midZ;
+
+    /**
+     * The side length of the cube
+     */
+    public final double sideLength;
+
+    public Cube(double x, double y, double z, double sideLength) {
+        if (sideLength < 0 || Utils.isInvalidArg(sideLength))
+            throw new IllegalArgumentException("Illegal side length " + sideLength);
+        if (Utils.isInvalidArg(x)) throw new IllegalArgumentException("Illegal x " + x);
+        if (Utils.isInvalidArg(y)) throw new IllegalArgumentException("Illegal y " + y);
+        if (Utils.isInvalidArg(z)) throw new IllegalArgumentException("Illegal z " + z);
+
+        this.midX = x;
+        this.midY = y;
+        this.midZ = z;
+        this.sideLength = sideLength;
+    }
+
+    /**
+     * @return Does this cube contain the given point?
+     */
+    public boolean contains(double x, double y, double z) {
+        double halfSide = this.sideLength / 2;
+        return x >= this.midX - halfSide
+                && x <= this.midX + halfSide
+                && y >= this.midY - halfSide
+                && y <= this.midY + halfSide
+                && z >= this.midZ - halfSide
+                && z <= this.midZ + halfSide;
+    }
+
+    /**
+     * @return Which octant of the cube contains the given point. Like Square.getQuadrant, a point on an axis counts as
+     *         north, east and up. Note: does not check whether the cube contains the point
+     */
+    public Octant getOctant(double x, double y, double z) {
+        int i = (z >= this.midZ ? 4 : 0) + (y >= this.midY ? 0 : 2) + (x >= this.midX ? 1 : 0);
+        return OCTANTS[i];
+    }
+
+    /**
+     * @return A new cube representing the given octant of this cube
+     */
+    public Cube getSubCube(Octant octant) {
+        double quarterSide = this.sideLength / 4;
+        int i = octant.ordinal();
+        return new Cube(
+                this.midX + ((i & 1) != 0 ? quarterSide : -quarterSide),
+                this.midY + ((i & 2) != 0 ? -quarterSide : quarterSide),
+                this.midZ + ((i & 4) != 0 ? quarterSide : -quarterSide),
+                this.sideLength / 2
+        );
+    }
+
+    /**
+     * @return Can this cube be split into octants that are smaller than it at the precision of its coordinates?
+     */
+    public boolean canSplit() {
+        double quarterSide = this.sideLength / 4;
+        return quarterSide > 0
+                && this.midX - quarterSide != this.midX
+                && this.midY - quarterSide != this.midY
+                && this.midZ - quarterSide != this.midZ;
+    }
+
+    /**
+     * @return A cube containing all the bodies, aligned in the same way as
+     *         QuadtreeGravityModelDistribution.getBoundingSquare so that the sub-cubes at every level can be computed
+     *         without any rounding error
+     */
+    static <T> Cube getBoundingCube(List<Body3D<T>> bodies) {
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+        for (Body3D<T> b : bodies) {
+            minX = Math.min(minX, b.x);
+            maxX = Math.max(maxX, b.x);
+            minY = Math.min(minY, b.y);
+            maxY = Math.max(maxY, b.y);
+            minZ = Math.min(minZ, b.z);
+            maxZ = Math.max(maxZ, b.z);
+        }
+        double extent = Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ));
+        double maxAbs = Math.max(
+                Math.max(Math.max(Math.abs(minX), Math.abs(maxX)), Math.max(Math.abs(minY), Math.abs(maxY))),
+                Math.max(Math.abs(minZ), Math.abs(maxZ))
+        );
+        double minSide = Double.max(extent, Double.max(Math.ulp(maxAbs), Double.MIN_NORMAL));
+        double side = Math.scalb(1.0, Math.getExponent(minSide));
+        double cornerX, cornerY, cornerZ;
+        do {
+            side *= 2;
+            cornerX = Math.floor(minX / (side / 2)) * (side / 2);
+            cornerY = Math.floor(minY / (side / 2)) * (side / 2);
+            cornerZ = Math.floor(minZ / (side / 2)) * (side / 2);
+        } while (cornerX > minX || cornerY > minY || cornerZ > minZ
+                || cornerX + side < maxX || cornerY + side < maxY || cornerZ + side < maxZ);
+        return new Cube(cornerX + side / 2, cornerY + side / 2, cornerZ + side / 2, side);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Cube)) return false;
+        Cube other = (Cube) o;
+        return this.midX == other.midX
+                && this.midY == other.midY
+                && this.midZ == other.midZ
+                && this.sideLength == other.sideLength;
+    }
+
+    @Override
+    public int hashCode() {
+        // Adding 0.0 turns -0.0 into 0.0, which equals treats as the same coordinate
+        int hash = Double.hashCode(this.midX + 0.0);
+        hash = 31 * hash + Double.hashCode(this.midY + 0.0);
+        hash = 31 * hash + Double.hashCode(this.midZ + 0.0);
+        hash = 31 * hash + Double.hashCode(this.sideLength + 0.0);
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "Cube{" +
+                "midX=" + midX +
+                ", midY=" + midY +
+                ", midZ=" + midZ +
+                ", sideLength=" + sideLength +
+                '}';
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.util.List;
+import java.util.random.RandomGenerator;
+
+/**
+ * The same as SimpleGISGravityModelDistribution, but each body's latitude and longitude is converted into a 3D unit
+ * vector once at construction, so that each query only needs a few multiplications per body instead of the many
+ * trigonometric functions of the Haversine formula. The distances agree with GISBody.distanceTo to within a relative
+ * error of 1E-9 for bodies at least 1 km apart, and to within a micrometre for bodies closer than that.
+ */
+public class ECEFGISGravityModelDistribution<T> extends SimpleGravityModelDistribution<T, GISBody<T>> {
+    public ECEFGISGravityModelDistribution(List<GISBody<T>> bodies, RandomGenerator rng) {
+        super(bodies, rng, ECEFGISBodyForceKernel::new);
+    }
+
+    public ECEFGISGravityModelDistribution(List<GISBody<T>> bodies) {
+        this(bodies, new PerThreadRandomGenerator());
+    }
+
+    /**
+     * @param policy Decides whether the forces are computed on multiple threads
+     */
+    public ECEFGISGravityModelDistribution(List<GISBody<T>> bodies, RandomGenerator rng, ExecutionPolicy policy) {
+        super(bodies, rng, ECEFGISBodyForceKernel::new, policy);
+    }
+
+    /**
+     * @param policy Decides whether the forces are computed on multiple threads
+     * @param order The order in which to store the bodies. Bodies close together in space are stored close together
+     *              in memory unless it is BodyOrder.INPUT.
+     */
+    public ECEFGISGravityModelDistribution(
+            List<GISBody<T>> bodies, RandomGenerator rng, ExecutionPolicy policy, BodyOrder order
+    ) {
+        this(SpaceFillingCurve.sort(bodies, order, SpaceFillingCurve.AXES_GIS), rng, policy);
+    }
+}
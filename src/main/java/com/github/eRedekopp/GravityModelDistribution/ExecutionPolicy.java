@@ -0,0 +1,192 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.DoubleSupplier;
+import java.util.function.IntConsumer;
+
+/**
+ * Decides whether SimpleGravityModelDistribution splits the work of a draw across threads, and whether
+ * QuadtreeGravityModelDistribution splits the work of building its tree, and which threads they use. Work is only
+ * split when there are enough bodies for it to pay for the overhead of handing tasks to other threads, so every policy
+ * computes small distributions on the calling thread.
+ *
+ * <p/>
+ * By default the work is split in the common ForkJoinPool, which is shared with every parallel stream in the JVM. A
+ * distribution given its own pool only competes with whatever else is given the same pool.
+ */
+public final class ExecutionPolicy {
+
+    /**
+     * The default number of bodies at or above which work is split across threads
+     */
+    static final int DEFAULT_THRESHOLD = 16384;
+
+    /**
+     * Stands for a threshold that is calibrated by each distribution when it is created
+     */
+    private static final int CALIBRATED = -1;
+
+    /**
+     * When calibrating, only split the work when that is expected to save at least this many times the overhead
+     */
+    private static final double OVERHEAD_MARGIN = 2;
+
+    private static final ExecutionPolicy SEQUENTIAL = new ExecutionPolicy(null, Integer.MAX_VALUE);
+
+    /**
+     * The pool to split work in, or null to always work on the calling thread
+     */
+    private final ForkJoinPool pool;
+
+    private final int threshold;
+
+    private ExecutionPolicy(ForkJoinPool pool, int threshold) {
+        this.pool = pool;
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return A policy that always works on the calling thread
+     */
+    public static ExecutionPolicy sequential() {
+        return SEQUENTIAL;
+    }
+
+    /**
+     * @return A policy that splits the work of distributions with at least 16384 bodies in the common ForkJoinPool.
+     *         This is the default.
+     */
+    public static ExecutionPolicy commonPool() {
+        return pool(ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param pool The pool to split work in
+     * @param threshold The number of bodies at or above which work is split across threads
+     * @return A policy that splits the work of large distributions in `pool`
+     */
+    public static ExecutionPolicy pool(ForkJoinPool pool, int threshold) {
+        if (pool == null) throw new IllegalArgumentException("Null pool");
+        if (threshold < 1) throw new IllegalArgumentException("Illegal threshold " + threshold);
+        return new ExecutionPolicy(pool, threshold);
+    }
+
+    /**
+     * @return A policy that splits work in the common ForkJoinPool, with a threshold calibrated by each distribution
+     *         when it is created
+     */
+    public static ExecutionPolicy adaptive() {
+        return adaptive(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Each distribution created with this policy times how long it takes to compute the forces of some of its bodies,
+     * and how long it takes `pool` to run a task on each of its threads, and only splits work that is expected to save
+     * at least twice that overhead. Distributions are never split in a pool with only one thread.
+     *
+     * @param pool The pool to split work in
+     * @return A policy that splits work in `pool`, with a threshold calibrated by each distribution when it is created
+     */
+    public static ExecutionPolicy adaptive(ForkJoinPool pool) {
+        if (pool == null) throw new IllegalArgumentException("Null pool");
+        return new ExecutionPolicy(pool, CALIBRATED);
+    }
+
+    /**
+     * @return The number of threads that work can be split across
+     */
+    int parallelism() {
+        return this.pool == null ? 1 : this.pool.getParallelism();
+    }
+
+    /**
+     * @param nanosPerBody Measures the time taken to compute the force of one body, in nanoseconds. Only called if the
+     *                     threshold is calibrated.
+     * @return The number of bodies at or above which work should be split across threads
+     */
+    int parallelThreshold(DoubleSupplier nanosPerBody) {
+        if (this.threshold != CALIBRATED) return this.threshold;
+        int p = this.parallelism();
+        if (p < 2) return Integer.MAX_VALUE;
+        // Splitting the forces of n bodies across p threads saves about n * nanosPerBody * (1 - 1/p)
+        double saved = nanosPerBody.getAsDouble() * (1 - 1.0 / p);
+        double bodies = Math.ceil(OVERHEAD_MARGIN * this.measureOverheadNanos() / saved);
+        return bodies >= Integer.MAX_VALUE ? Integer.MAX_VALUE : Math.max(1, (int) bodies);
+    }
+
+    /**
+     * @return The shortest time seen for the pool to run one empty task on each of its threads, in nanoseconds
+     */
+    private long measureOverheadNanos() {
+        int p = this.parallelism();
+        long best = Long.MAX_VALUE;
+        for (int rep = 0; rep < 20; rep++) {
+            long start = System.nanoTime();
+            this.forEach(p, i -> { });
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    /**
+     * Call `task` once for each index in [0, count), spread across the pool's threads. This returns once every call
+     * has finished. With no pool they are all called on the calling thread, in order.
+     */
+    void forEach(int count, IntConsumer task) {
+        if (this.pool == null || count <= 1) {
+            for (int i = 0; i < count; i++) {
+                task.accept(i);
+            }
+        }
+        else {
+            this.pool.invoke(new RangeAction(task, 0, count));
+        }
+    }
+
+    /**
+     * Run `task` in the pool and wait for its result. With no pool it is run on the calling thread, so it should only
+     * fork other tasks if parallelism() is more than 1.
+     */
+    <V> V invoke(ForkJoinTask<V> task) {
+        return this.pool == null ? task.invoke() : this.pool.invoke(task);
+    }
+
+    @Override
+    public String toString() {
+        if (this.pool == null) return "ExecutionPolicy[sequential]";
+        return String.format(
+                "ExecutionPolicy[pool=%s, threshold=%s]",
+                this.pool == ForkJoinPool.commonPool() ? "common" : this.pool.toString(),
+                this.threshold == CALIBRATED ? "calibrated" : Integer.toString(this.threshold)
+        );
+    }
+
+    /**
+     * Calls a task for each index in a range, splitting the range in half until each piece has one index
+     */
+    private static final class RangeAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final IntConsumer task;
+        private final int from;
+        private final int to;
+
+        RangeAction(IntConsumer task, int from, int to) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from == 1) {
+                this.task.accept(this.from);
+                return;
+            }
+            int mid = (this.from + this.to) >>> 1;
+            invokeAll(new RangeAction(this.task, this.from, mid), new RangeAction(this.task, mid, this.to));
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.util.Arrays;
+
+/**
+ * Builds the arrays of the tree used by FlatQuadtreeGravityModelDistribution and MappedQuadtreeGravityModelDistribution
+ * by recursively partitioning the bodies between the quadrants of each node, in the same way that Node.insert would
+ * split them. The bodies are given as columns, which are reordered in place into depth-first order.
+ */
+final class FlatQuadtreeBuilder {
+
+    private static final int NO_CHILD = FlatQuadtreeGravityModelDistribution.NO_CHILD;
+
+    private static final double[] CHILD_X = FlatQuadtreeGravityModelDistribution.CHILD_X;
+
+    private static final double[] CHILD_Y = FlatQuadtreeGravityModelDistribution.CHILD_Y;
+
+    /**
+     * The X value of each body
+     */
+    final double[] x;
+
+    /**
+     * The Y value of each body
+     */
+    final double[] y;
+
+    /**
+     * The mass of each body
+     */
+    final double[] bodyMass;
+
+    /**
+     * An int for each body that is reordered along with it, such as its index in the input or its id
+     */
+    final int[] order;
+
+    int numNodes = 0;
+
+    int[] children;
+    double[] mass;
+    double[] comX;
+    double[] comY;
+    int[] depth;
+    int[] bodyStart;
+    int[] bodyEnd;
+
+    /**
+     * @param x The X value of each body
+     * @param y The Y value of each body
+     * @param bodyMass The mass of each body
+     * @param order An int for each body, which is kept with the body as it is reordered
+     */
+    FlatQuadtreeBuilder(double[] x, double[] y, double[] bodyMass, int[] order) {
+        int n = order.length;
+        this.x = x;
+        this.y = y;
+        this.bodyMass = bodyMass;
+        this.order = order;
+        // A tree of distinct bodies has at least 2N - 1 nodes, and the arrays grow if it needs more
+        int capacity = Math.max(1, 2 * n);
+        this.children = new int[4 * capacity];
+        this.mass = new double[capacity];
+        this.comX = new double[capacity];
+        this.comY = new double[capacity];
+        this.depth = new int[capacity];
+        this.bodyStart = new int[capacity];
+        this.bodyEnd = new int[capacity];
+    }
+
+    /**
+     * Build the subtree for the bodies in [from, to), which all lie in the given square
+     *
+     * @return The index of the subtree's root
+     */
+    int build(int from, int to, double midX, double midY, double side, int nodeDepth) {
+        int node = this.newNode(from, to, nodeDepth);
+        double quarter = side / 4;
+        boolean canSplit = quarter > 0 && midX - quarter != midX && midY - quarter != midY;
+        if (to - from == 1 || !canSplit || this.allCoincident(from, to)) {
+            this.makeLeaf(node, from, to);
+            return node;
+        }
+
+        // Order the bodies NORTHWEST, NORTHEAST, SOUTHWEST, SOUTHEAST. Like Square.getQuadrant, points on an axis
+        // count as north and east.
+        int south = this.partition(from, to, true, midY);
+        int northEast = this.partition(from, south, false, midX);
+        int southEast = this.partition(south, to, false, midX);
+        int[] bounds = {from, northEast, south, southEast, to};
+
+        double totalMass = 0, sumX = 0, sumY = 0;
+        for (int q = 0; q < 4; q++) {
+            int child = NO_CHILD;
+            if (bounds[q] < bounds[q + 1]) {
+                child = this.build(
+                        bounds[q],
+                        bounds[q + 1],
+                        midX + CHILD_X[q] * quarter,
+                        midY + CHILD_Y[q] * quarter,
+                        side / 2,
+                        nodeDepth + 1
+                );
+                totalMass += this.mass[child];
+                sumX += this.comX[child] * this.mass[child];
+                sumY += this.comY[child] * this.mass[child];
+            }
+            this.children[4 * node + q] = child;
+        }
+        this.mass[node] = totalMass;
+        // The same as Body2D.plus when all of the bodies have no mass
+        this.comX[node] = totalMass == 0 ? 0 : sumX / totalMass;
+        this.comY[node] = totalMass == 0 ? 0 : sumY / totalMass;
+        return node;
+    }
+
+    /**
+     * Shrink the node arrays to the number of nodes in the tree. Each array is copied in turn, so this needs at most
+     * the memory of the largest array on top of the tree.
+     */
+    void trim() {
+        this.children = Arrays.copyOf(this.children, 4 * this.numNodes);
+        this.mass = Arrays.copyOf(this.mass, this.numNodes);
+        this.comX = Arrays.copyOf(this.comX, this.numNodes);
+        this.comY = Arrays.copyOf(this.comY, this.numNodes);
+        this.depth = Arrays.copyOf(this.depth, this.numNodes);
+        this.bodyStart = Arrays.copyOf(this.bodyStart, this.numNodes);
+        this.bodyEnd = Arrays.copyOf(this.bodyEnd, this.numNodes);
+    }
+
+    private int newNode(int from, int to, int nodeDepth) {
+        if (this.numNodes == this.mass.length) {
+            int capacity = 2 * this.numNodes;
+            this.children = Arrays.copyOf(this.children, 4 * capacity);
+            this.mass = Arrays.copyOf(this.mass, capacity);
+            this.comX = Arrays.copyOf(this.comX, capacity);
+            this.comY = Arrays.copyOf(this.comY, capacity);
+            this.depth = Arrays.copyOf(this.depth, capacity);
+            this.bodyStart = Arrays.copyOf(this.bodyStart, capacity);
+            this.bodyEnd = Arrays.copyOf(this.bodyEnd, capacity);
+        }
+        int node = this.numNodes++;
+        this.depth[node] = nodeDepth;
+        this.bodyStart[node] = from;
+        this.bodyEnd[node] = to;
+        return node;
+    }
+
+    /**
+     * Make the node a leaf holding the bodies in [from, to). These are all at the same location, unless the square
+     * has become too small to split at the precision of the coordinates.
+     */
+    private void makeLeaf(int node, int from, int to) {
+        Arrays.fill(this.children, 4 * node, 4 * node + 4, NO_CHILD);
+        double totalMass = 0, sumX = 0, sumY = 0;
+        for (int i = from; i < to; i++) {
+            double m = this.bodyMass[i];
+            totalMass += m;
+            sumX += this.x[i] * m;
+            sumY += this.y[i] * m;
+        }
+        this.mass[node] = totalMass;
+        this.comX[node] = to - from == 1 || totalMass == 0 ? this.x[from] : sumX / totalMass;
+        this.comY[node] = to - from == 1 || totalMass == 0 ? this.y[from] : sumY / totalMass;
+    }
+
+    private boolean allCoincident(int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            if (this.x[i] != this.x[from] || this.y[i] != this.y[from]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reorder the bodies in [from, to) so that those north of `mid` come first if byY is true, or those west of
+     * `mid` come first if byY is false
+     *
+     * @return The index of the first body that is south or east of `mid`
+     */
+    private int partition(int from, int to, boolean byY, double mid) {
+        double[] coords = byY ? this.y : this.x;
+        int i = from;
+        int j = to - 1;
+        while (true) {
+            while (i <= j && (byY ? coords[i] >= mid : coords[i] < mid)) i++;
+            while (i <= j && !(byY ? coords[j] >= mid : coords[j] < mid)) j--;
+            if (i >= j) return i;
+            this.swap(i, j);
+        }
+    }
+
+    private void swap(int i, int j) {
+        int o = this.order[i];
+        this.order[i] = this.order[j];
+        this.order[j] = o;
+        double t = this.x[i];
+        this.x[i] = this.x[j];
+        this.x[j] = t;
+        t = this.y[i];
+        this.y[i] = this.y[j];
+        this.y[j] = t;
+        t = this.bodyMass[i];
+        this.bodyMass[i] = this.bodyMass[j];
+        this.bodyMass[j] = t;
+    }
+}
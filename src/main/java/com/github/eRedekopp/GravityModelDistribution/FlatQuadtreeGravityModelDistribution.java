@@ -0,0 +1,515 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToIntFunction;
+import java.util.random.RandomGenerator;
+
+/**
+ * The same approximations as QuadtreeGravityModelDistribution, with the same theta parameter and sampling modes, but
+ * with the tree stored in a handful of primitive arrays indexed by node number instead of a Node object per node. Each
+ * node only takes about 50 bytes, the nodes of each subtree are stored next to each other, and queries don't touch any
+ * per-node objects. The tree is built once and can't be changed afterwards.
+ *
+ * <p/>
+ * Nodes are numbered in depth-first order with the root at 0. The bodies are also stored in depth-first order, so each
+ * node's bodies are a contiguous range of the bodies array. A node's square isn't stored: its side length follows from
+ * its depth, since the root square's side is a power of two and each level halves it.
+ *
+ * <p/>
+ * Unlike QuadtreeGravityModelDistribution, any number of bodies may share the same location. They are all stored in
+ * one leaf, which is chosen as a unit and then picks one of its bodies weighted by their masses.
+ *
+ * <p/>
+ * The built tree can be written to a file with writeSnapshot, and loaded by MappedQuadtreeGravityModelDistribution
+ * without building it again.
+ */
+public class FlatQuadtreeGravityModelDistribution<T> implements GravityModelDistribution<T, Body2D<T>> {
+
+    static final int NO_CHILD = -1;
+
+    /**
+     * The direction of the middle of each child's square from the middle of its parent's, in units of a quarter of the
+     * parent's side length, in the order of Quadrant
+     */
+    static final double[] CHILD_X = {-1, 1, -1, 1};
+
+    static final double[] CHILD_Y = {1, 1, -1, -1};
+
+    /**
+     * Per-thread scratch space for getRandomBody
+     */
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * The bodies in depth-first order
+     */
+    private final Body2D<T>[] bodies;
+
+    /**
+     * The index of each child of each node, or NO_CHILD. The children of node i are at [4*i, 4*i + 4), in the order
+     * of Quadrant.
+     */
+    private final int[] children;
+
+    /**
+     * The total mass of each node's bodies
+     */
+    private final double[] mass;
+
+    /**
+     * The X value of each node's centre of mass
+     */
+    private final double[] comX;
+
+    /**
+     * The Y value of each node's centre of mass
+     */
+    private final double[] comY;
+
+    /**
+     * The depth of each node, where the root has depth 0
+     */
+    private final int[] depth;
+
+    /**
+     * The index of each node's first body in `bodies`
+     */
+    private final int[] bodyStart;
+
+    /**
+     * The index after each node's last body in `bodies`
+     */
+    private final int[] bodyEnd;
+
+    /**
+     * The X value of the middle of the root square
+     */
+    private final double rootX;
+
+    /**
+     * The Y value of the middle of the root square
+     */
+    private final double rootY;
+
+    /**
+     * The side length of the root square
+     */
+    private final double rootSide;
+
+    private final double theta;
+
+    private final QuadtreeSamplingMode mode;
+
+    private final RandomGenerator rng;
+
+    private volatile QueryListener listener;
+
+    /**
+     * @param bodies The bodies to be put into the tree
+     * @param theta The threshold value for when nodes are considered "far enough" to be considered as a combined
+     *              unit rather than considering each body individually. Smaller theta is more accurate but more
+     *              computationally intensive, and vice versa
+     * @param rng The random number generator to be used
+     * @param mode The algorithm used to choose random bodies
+     */
+    public FlatQuadtreeGravityModelDistribution(
+            List<Body2D<T>> bodies, double theta, RandomGenerator rng, QuadtreeSamplingMode mode
+    ) {
+        if (bodies.isEmpty()) {
+            throw new IllegalArgumentException("No bodies");
+        }
+        if (theta < 0 || Utils.isInvalidArg(theta)) {
+            throw new IllegalArgumentException("Invalid theta: " + theta);
+        }
+        if (mode == null) {
+            throw new IllegalArgumentException("Null mode");
+        }
+        ConstructionEvent event = ConstructionEvent.start();
+        this.theta = theta;
+        this.mode = mode;
+        this.rng = rng;
+
+        int n = bodies.size();
+        double[] x = new double[n];
+        double[] y = new double[n];
+        double[] masses = new double[n];
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            Body2D<T> b = bodies.get(i);
+            x[i] = b.x;
+            y[i] = b.y;
+            masses[i] = b.mass;
+            order[i] = i;
+        }
+        Square bounds = QuadtreeGravityModelDistribution.getBoundingSquare(bodies);
+        FlatQuadtreeBuilder builder = new FlatQuadtreeBuilder(x, y, masses, order);
+        builder.build(0, n, bounds.midX, bounds.midY, bounds.sideLength, 0);
+        Body2D<T>[] ordered = Utils.newArray(Body2D.class, n);
+        for (int i = 0; i < n; i++) {
+            ordered[i] = bodies.get(order[i]);
+        }
+        this.bodies = ordered;
+        this.rootX = bounds.midX;
+        this.rootY = bounds.midY;
+        this.rootSide = bounds.sideLength;
+        builder.trim();
+        this.children = builder.children;
+        this.mass = builder.mass;
+        this.comX = builder.comX;
+        this.comY = builder.comY;
+        this.depth = builder.depth;
+        this.bodyStart = builder.bodyStart;
+        this.bodyEnd = builder.bodyEnd;
+        event.finish(this, this.bodies.length);
+    }
+
+    /**
+     * @param bodies The bodies to be put into the tree
+     * @param theta The threshold value for when nodes are considered "far enough" to be considered as a combined
+     *              unit rather than considering each body individually. Smaller theta is more accurate but more
+     *              computationally intensive, and vice versa
+     * @param rng The random number generator to be used
+     */
+    public FlatQuadtreeGravityModelDistribution(List<Body2D<T>> bodies, double theta, RandomGenerator rng) {
+        this(bodies, theta, rng, QuadtreeSamplingMode.FRONTIER);
+    }
+
+    public FlatQuadtreeGravityModelDistribution(List<Body2D<T>> bodies, double theta) {
+        this(bodies, theta, new PerThreadRandomGenerator());
+    }
+
+    @Override
+    public Body2D<T> getRandomBody(Body2D<T> ref) {
+        return this.getRandomBody(ref, this.rng);
+    }
+
+    @Override
+    public Body2D<T> getRandomBody(Body2D<T> ref, RandomGenerator rng) {
+        return QueryReporter.report(
+                this, this.listener, this.bodies.length, ref, rng, (dist, r, random, stats) -> dist.sample(r, random)
+        );
+    }
+
+    /**
+     * Counts the work in the same way as QuadtreeGravityModelDistribution
+     */
+    @Override
+    public void setQueryListener(QueryListener listener) {
+        this.listener = listener;
+    }
+
+    private Body2D<T> sample(Body2D<T> ref, RandomGenerator rng) {
+        int leaf;
+        switch (this.mode) {
+            case SINGLE_PASS:
+                leaf = this.chooseLeafSinglePass(ref.x, ref.y, rng);
+                break;
+            case EXACT:
+                leaf = this.chooseLeafExact(ref.x, ref.y, rng);
+                break;
+            default:
+                leaf = this.chooseLeafByFrontier(ref.x, ref.y, rng);
+        }
+        return this.chooseBodyInLeaf(leaf, rng);
+    }
+
+    /**
+     * The same descent as Node.getRandomBody: starting at the root, choose one of the selected node's candidate nodes
+     * weighted by their gravity, halving theta at each level, until a leaf is chosen. The same random number is used at
+     * every level.
+     *
+     * @return The chosen leaf
+     */
+    private int chooseLeafByFrontier(double x, double y, RandomGenerator rng) {
+        Scratch scratch = SCRATCH.get();
+        int selected = 0;
+        double levelTheta = this.theta;
+        double rand = rng.nextDouble();
+        do {
+            scratch.size = 0;
+            this.addCandidates(selected, Math.scalb(this.rootSide, -this.depth[selected]), x, y, levelTheta, scratch);
+            scratch.stats.addLevel(scratch.size);
+            for (int i = 0; i < scratch.size; i++) {
+                scratch.forces[i] = this.gravForceOn(scratch.nodes[i], x, y);
+            }
+            selected = scratch.nodes[Utils.chooseRandomIndexByWeight(scratch.forces, scratch.size, rand)];
+            levelTheta /= 2;
+        } while (!this.isLeaf(selected));
+        return selected;
+    }
+
+    /**
+     * The same descent as Node.getRandomBodySinglePass: choose one of the root's candidate nodes for theta weighted by
+     * gravity, which has the same probability as choosing one child at a time by their estimated gravity down to that
+     * node, then choose one child at each level weighted by the estimated gravity of its subtree until a leaf is reached
+     *
+     * @return The chosen leaf
+     */
+    private int chooseLeafSinglePass(double x, double y, RandomGenerator rng) {
+        Scratch scratch = SCRATCH.get();
+        scratch.size = 0;
+        this.addCandidates(0, this.rootSide, x, y, this.theta, scratch);
+        scratch.stats.addLevel(scratch.size);
+        for (int i = 0; i < scratch.size; i++) {
+            scratch.forces[i] = this.gravForceOn(scratch.nodes[i], x, y);
+        }
+        int selected = scratch.nodes[Utils.chooseRandomIndexByWeight(scratch.forces, scratch.size, rng.nextDouble())];
+
+        double[] weights = scratch.forces;
+        double childSide = Math.scalb(this.rootSide, -this.depth[selected] - 1);
+        while (!this.isLeaf(selected)) {
+            for (int q = 0; q < 4; q++) {
+                int child = this.children[4 * selected + q];
+                weights[q] = child == NO_CHILD ? 0 : this.estimateGravForceOn(child, childSide, x, y, scratch.stats);
+            }
+            scratch.stats.levels++;
+            selected = this.children[4 * selected + Utils.chooseRandomIndexByWeight(weights, 4, rng.nextDouble())];
+            childSide /= 2;
+        }
+        return selected;
+    }
+
+    /**
+     * The same rejection sampling as Node.getRandomBodyExact: propose a leaf by choosing one of the exact candidates and
+     * then one child at each level, weighted by their gravity bounds, and accept it with a probability that corrects
+     * for the bounds
+     *
+     * @return The chosen leaf
+     */
+    private int chooseLeafExact(double x, double y, RandomGenerator rng) {
+        Scratch scratch = SCRATCH.get();
+        scratch.size = 0;
+        this.addExactCandidates(0, this.rootX, this.rootY, this.rootSide, x, y, scratch);
+        int n = scratch.size;
+        scratch.stats.addLevel(n);
+        for (int i = 0; i < n; i++) {
+            scratch.forces[i] = this.gravityBoundOn(
+                    scratch.nodes[i], scratch.midX[i], scratch.midY[i], scratch.sides[i], x, y
+            );
+        }
+
+        double[] childBounds = scratch.childWeights;
+        while (true) {
+            int i = Utils.chooseRandomIndexByWeight(scratch.forces, n, rng.nextDouble());
+            int selected = scratch.nodes[i];
+            double midX = scratch.midX[i];
+            double midY = scratch.midY[i];
+            double side = scratch.sides[i];
+            double acceptance = 1;
+            while (!this.isLeaf(selected)) {
+                double quarter = side / 4;
+                double total = 0;
+                // The bound of the node itself, plus the bounds of its children
+                int bounds = 1;
+                for (int q = 0; q < 4; q++) {
+                    int child = this.children[4 * selected + q];
+                    if (child == NO_CHILD) {
+                        childBounds[q] = 0;
+                        continue;
+                    }
+                    childBounds[q] = this.gravityBoundOn(
+                            child, midX + CHILD_X[q] * quarter, midY + CHILD_Y[q] * quarter, side / 2, x, y
+                    );
+                    total += childBounds[q];
+                    bounds++;
+                }
+                acceptance *= total / this.gravityBoundOn(selected, midX, midY, side, x, y);
+                scratch.stats.forceEvaluations += bounds;
+                scratch.stats.levels++;
+                int q = Utils.chooseRandomIndexByWeight(childBounds, 4, rng.nextDouble());
+                selected = this.children[4 * selected + q];
+                midX += CHILD_X[q] * quarter;
+                midY += CHILD_Y[q] * quarter;
+                side /= 2;
+            }
+            if (rng.nextDouble() < acceptance) return selected;
+        }
+    }
+
+    /**
+     * Add the nodes within the subtree headed at `node` that chooseLeafExact should start from to the scratch space, in
+     * the same way as Node.getExactCandidateNodes
+     */
+    private void addExactCandidates(int node, double midX, double midY, double side, double x, double y, Scratch out) {
+        out.stats.nodesVisited++;
+        if (this.isLeaf(node) || side / Square.minDistance(midX, midY, side, x, y) < this.theta) {
+            out.add(node, midX, midY, side);
+        }
+        else {
+            double quarter = side / 4;
+            for (int q = 0; q < 4; q++) {
+                int child = this.children[4 * node + q];
+                if (child != NO_CHILD) {
+                    this.addExactCandidates(
+                            child, midX + CHILD_X[q] * quarter, midY + CHILD_Y[q] * quarter, side / 2, x, y, out
+                    );
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The gravity of a leaf on a point mass at (x, y), or for any other node an upper bound on the total gravity
+     *         of its bodies: its total mass as if it were all at the nearest point of its square
+     */
+    private double gravityBoundOn(int node, double midX, double midY, double side, double x, double y) {
+        if (this.isLeaf(node)) return this.gravForceOn(node, x, y);
+        double m = this.mass[node];
+        if (m == 0) return 0.0;
+        double r = Square.minDistance(midX, midY, side, x, y);
+        return m / (r*r);
+    }
+
+    /**
+     * @param side The side length of the node's square
+     * @return An estimate of the total gravity of the node's bodies on a point mass at (x, y), in the same way as
+     *         Node.estimateGravForceOn
+     */
+    private double estimateGravForceOn(int node, double side, double x, double y, QueryStats stats) {
+        stats.nodesVisited++;
+        if (this.isLeaf(node) || side / this.distanceTo(node, x, y) < this.theta) {
+            stats.forceEvaluations++;
+            return this.gravForceOn(node, x, y);
+        }
+        double sum = 0;
+        for (int q = 4 * node; q < 4 * node + 4; q++) {
+            int child = this.children[q];
+            if (child != NO_CHILD) sum += this.estimateGravForceOn(child, side / 2, x, y, stats);
+        }
+        return sum;
+    }
+
+    /**
+     * @return The number of nodes in the tree
+     */
+    int getNodeCount() {
+        return this.mass.length;
+    }
+
+    /**
+     * Write the bodies and the built tree to the file at the given path in the format described in
+     * MappedQuadtreeGravityModelDistribution, replacing it if it already exists. The file is replaced in one step, so
+     * it can be loaded while it is being rewritten, and a distribution that has the old file loaded is unaffected.
+     *
+     * @param path The file to write
+     * @param ids Gives the int that identifies each body's value, which is stored in the file in place of the value
+     * @throws IllegalArgumentException If the tree has too many bodies or nodes for the format
+     */
+    public void writeSnapshot(Path path, ToIntFunction<? super T> ids) throws IOException {
+        if (ids == null) throw new IllegalArgumentException("Null ids");
+        int n = this.bodies.length;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        double[] masses = new double[n];
+        int[] bodyIds = new int[n];
+        for (int i = 0; i < n; i++) {
+            Body2D<T> b = this.bodies[i];
+            x[i] = b.x;
+            y[i] = b.y;
+            masses[i] = b.mass;
+            bodyIds[i] = ids.applyAsInt(b.value);
+        }
+
+        MappedQuadtreeGravityModelDistribution.write(
+                path,
+                new Square(this.rootX, this.rootY, this.rootSide),
+                new double[][] {x, y, masses, this.mass, this.comX, this.comY},
+                new int[][] {bodyIds, this.children, this.depth, this.bodyStart, this.bodyEnd}
+        );
+    }
+
+    /**
+     * Add the nodes within the subtree headed at `node` that should be considered individually to the scratch space
+     *
+     * @param side The side length of the node's square
+     */
+    private void addCandidates(int node, double side, double x, double y, double theta, Scratch out) {
+        out.stats.nodesVisited++;
+        // This node is either a leaf, or the combined centre of mass is far enough that we consider it all together
+        if (this.isLeaf(node) || side / this.distanceTo(node, x, y) < theta) {
+            out.add(node);
+        }
+        else {
+            for (int q = 4 * node; q < 4 * node + 4; q++) {
+                int child = this.children[q];
+                if (child != NO_CHILD) this.addCandidates(child, side / 2, x, y, theta, out);
+            }
+        }
+    }
+
+    private boolean isLeaf(int node) {
+        int i = 4 * node;
+        return this.children[i] == NO_CHILD
+                && this.children[i + 1] == NO_CHILD
+                && this.children[i + 2] == NO_CHILD
+                && this.children[i + 3] == NO_CHILD;
+    }
+
+    /**
+     * @return The gravity that the node's centre of mass exerts on a point mass of 1 at (x, y)
+     */
+    private double gravForceOn(int node, double x, double y) {
+        double m = this.mass[node];
+        if (m == 0) return 0.0;
+        double r = this.distanceTo(node, x, y);
+        if (r == 0) return 0;
+        return m / (r*r);
+    }
+
+    private double distanceTo(int node, double x, double y) {
+        double dx = x - this.comX[node];
+        double dy = y - this.comY[node];
+        return Math.sqrt(dx*dx + dy*dy);
+    }
+
+    /**
+     * @return One of the leaf's bodies weighted by their masses. These are normally all at the same location.
+     */
+    private Body2D<T> chooseBodyInLeaf(int leaf, RandomGenerator rng) {
+        return this.bodies[Utils.chooseIndexByMass(
+                this.bodies, this.bodyStart[leaf], this.bodyEnd[leaf], this.mass[leaf], rng
+        )];
+    }
+
+    /**
+     * Buffers reused between calls to getRandomBody on the same thread
+     */
+    private static class Scratch {
+        int[] nodes = new int[16];
+        double[] forces = new double[16];
+        final double[] childWeights = new double[4];
+
+        /**
+         * The square of each node, for the modes that need it
+         */
+        double[] midX = new double[16];
+        double[] midY = new double[16];
+        double[] sides = new double[16];
+
+        int size = 0;
+        final QueryStats stats = QueryStats.current();
+
+        void add(int node) {
+            if (this.size == this.nodes.length) {
+                this.nodes = Arrays.copyOf(this.nodes, 2 * this.size);
+                this.forces = Arrays.copyOf(this.forces, 2 * this.size);
+            }
+            this.nodes[this.size++] = node;
+        }
+
+        void add(int node, double midX, double midY, double side) {
+            if (this.size == this.midX.length) {
+                this.midX = Arrays.copyOf(this.midX, 2 * this.size);
+                this.midY = Arrays.copyOf(this.midY, 2 * this.size);
+                this.sides = Arrays.copyOf(this.sides, 2 * this.size);
+            }
+            this.midX[this.size] = midX;
+            this.midY[this.size] = midY;
+            this.sides[this.size] = side;
+            this.add(node);
+        }
+    }
+}
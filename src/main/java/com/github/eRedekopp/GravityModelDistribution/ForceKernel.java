@@ -0,0 +1,42 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.util.List;
+
+/**
+ * Computes the gravitational force that each body in a distribution exerts on a reference body. Subclasses copy the
+ * bodies into primitive arrays once at construction so that the force computation is a tight loop over flat memory,
+ * with no virtual calls or type checks per body.
+ */
+abstract class ForceKernel<T, B extends Body<T>> {
+
+    /**
+     * The mass of each body, by index
+     */
+    protected final double[] mass;
+
+    protected ForceKernel(List<B> bodies) {
+        this.mass = new double[bodies.size()];
+        for (int i = 0; i < this.mass.length; i++) {
+            this.mass[i] = bodies.get(i).mass;
+        }
+    }
+
+    /**
+     * @return The number of bodies in this kernel
+     */
+    public int size() {
+        return this.mass.length;
+    }
+
+    /**
+     * Compute the force exerted on the reference body by each body with index in [from, to), and store the force of
+     * body i in out[offset + i - from]. The result for each body must be identical to Body.computeGravForce.
+     *
+     * @param ref The reference body
+     * @param from The first index to compute, inclusive
+     * @param to The last index to compute, exclusive
+     * @param out The array to write the forces to
+     * @param offset The index in `out` at which to write the force of body `from`
+     */
+    public abstract void computeForces(B ref, int from, int to, double[] out, int offset);
+}
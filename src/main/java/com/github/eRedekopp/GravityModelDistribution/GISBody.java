@@ -6,9 +6,9 @@ package com.github.eRedekopp.GravityModelDistribution;
  * to the many trigonometric functions involved. Unless you need highly precise computations, it is probably a
  * better idea to use a plain Body2D with points projected by a map projection
  */
-public class GISBody<T> extends Body<T> {
+public class GISBody<T> extends Body<T> implements HasCoordinates {
 
-    private static final double EARTH_RADIUS_KM = 6371.0;
+    static final double EARTH_RADIUS_KM = 6371.0;
 
     public final double lat;
 
@@ -20,6 +20,21 @@ public class GISBody<T> extends Body<T> {
         this.lon = lon;
     }
 
+    @Override
+    public int getDimensions() {
+        return 2;
+    }
+
+    /**
+     * Copies {lat, lon}. These are angles, so the straight-line distance between them is not the distance between the
+     * bodies.
+     */
+    @Override
+    public void copyCoordinates(double[] out, int offset) {
+        out[offset] = this.lat;
+        out[offset + 1] = this.lon;
+    }
+
     @Override
     public GISBody<T> plus(Body<T> other) {
         if (!(other instanceof GISBody)) {
@@ -0,0 +1,54 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.util.List;
+
+/**
+ * A ForceKernel for GISBody. This still uses the Haversine formula, but caches the cosine of each body's latitude
+ * so that only the reference body's latitude cosine is computed per query rather than once per body.
+ */
+class GISBodyForceKernel<T> extends ForceKernel<T, GISBody<T>> {
+
+    protected final double[] lat;
+
+    protected final double[] lon;
+
+    protected final double[] cosLat;
+
+    public GISBodyForceKernel(List<GISBody<T>> bodies) {
+        super(bodies);
+        this.lat = new double[bodies.size()];
+        this.lon = new double[bodies.size()];
+        this.cosLat = new double[bodies.size()];
+        for (int i = 0; i < this.lat.length; i++) {
+            GISBody<T> b = bodies.get(i);
+            this.lat[i] = b.lat;
+            this.lon[i] = b.lon;
+            this.cosLat[i] = Math.cos(Math.toRadians(b.lat));
+        }
+    }
+
+    @Override
+    public void computeForces(GISBody<T> ref, int from, int to, double[] out, int offset) {
+        double refMass = ref.mass;
+        double refLat = ref.lat;
+        double refLon = ref.lon;
+        double refCosLat = Math.cos(Math.toRadians(refLat));
+        for (int i = from; i < to; i++) {
+            double m = this.mass[i];
+            if (m == 0 || refMass == 0) {
+                out[offset + i - from] = 0;
+                continue;
+            }
+            // Same operations in the same order as GISBody.distanceTo so that the results are identical
+            double latDistance = Math.toRadians(refLat - this.lat[i]);
+            double lonDistance = Math.toRadians(refLon - this.lon[i]);
+            double a = Math.pow(Math.sin(latDistance / 2), 2)
+                    + refCosLat
+                    * this.cosLat[i]
+                    * Math.pow(Math.sin(lonDistance / 2), 2);
+            double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1-a));
+            double r = GISBody.EARTH_RADIUS_KM * c;
+            out[offset + i - from] = r == 0 ? 0 : m * refMass / (r*r);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.util.List;
+
+/**
+ * A ForceKernel for any Body type, which falls back to Body.computeGravForce for each body
+ */
+class GenericForceKernel<T, B extends Body<T>> extends ForceKernel<T, B> {
+
+    private final List<B> bodies;
+
+    public GenericForceKernel(List<B> bodies) {
+        super(bodies);
+        this.bodies = bodies;
+    }
+
+    @Override
+    public void computeForces(B ref, int from, int to, double[] out, int offset) {
+        for (int i = from; i < to; i++) {
+            out[offset + i - from] = this.bodies.get(i).computeGravForce(ref);
+        }
+    }
+}
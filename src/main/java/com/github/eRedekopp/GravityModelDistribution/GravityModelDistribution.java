@@ -1,9 +1,75 @@
 package com.github.eRedekopp.GravityModelDistribution;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.random.RandomGenerator;
+
 public interface GravityModelDistribution<T, B extends Body<T>> {
     /**
      * @param ref The reference point used to compute the weights of all bodies in the distribution
      * @return A random body weighted by the amount of gravity that each body exerts on the reference point
      */
     B getRandomBody(B ref);
+
+    /**
+     * The same as getRandomBody(ref), but drawing random numbers from `rng` instead of the distribution's own
+     * generator. Giving each thread its own generator avoids contention between threads, and seeding them makes the
+     * draws on each thread reproducible however the threads are scheduled.
+     *
+     * @param ref The reference point used to compute the weights of all bodies in the distribution
+     * @param rng The random number generator to draw from. It is only used by the calling thread.
+     * @return A random body weighted by the amount of gravity that each body exerts on the reference point
+     */
+    B getRandomBody(B ref, RandomGenerator rng);
+
+    /**
+     * Report the statistics of every later call to getRandomBody to `listener`, on the calling thread. Without a
+     * listener the distribution only does a negligible amount of extra work to count them. Every distribution in this
+     * library reports its queries, but the default implementation reports nothing, so that other distributions don't
+     * have to.
+     *
+     * @param listener The listener, or null to stop reporting
+     */
+    default void setQueryListener(QueryListener listener) {
+    }
+
+    /**
+     * @param ref The reference point used to compute the weights of all bodies in the distribution
+     * @return A sampler which repeatedly draws random bodies weighted by the amount of gravity that each body exerts
+     *         on the reference point. The default implementation simply calls getRandomBody for each draw.
+     */
+    default GravityModelSampler<T, B> getSampler(B ref) {
+        return () -> this.getRandomBody(ref);
+    }
+
+    /**
+     * @param ref The reference point used to compute the weights of all bodies in the distribution
+     * @param k The number of bodies to draw
+     * @return k random bodies drawn independently (with replacement), each weighted by the amount of gravity that
+     *         each body exerts on the reference point
+     */
+    default List<B> getRandomBodies(B ref, int k) {
+        if (k < 0) throw new IllegalArgumentException("Illegal k " + k);
+        List<B> out = new ArrayList<>(k);
+        if (k == 0) return out;
+        GravityModelSampler<T, B> sampler = this.getSampler(ref);
+        for (int i = 0; i < k; i++) {
+            out.add(sampler.sample());
+        }
+        return out;
+    }
+
+    /**
+     * @param refs The reference points to draw a body for
+     * @return One random body for each reference point, in the same order as the reference points, each weighted by
+     *         the amount of gravity that each body exerts on its reference point. The default implementation simply
+     *         calls getRandomBody for each reference point.
+     */
+    default List<B> getRandomBodies(List<B> refs) {
+        List<B> out = new ArrayList<>(refs.size());
+        for (B ref : refs) {
+            out.add(this.getRandomBody(ref));
+        }
+        return out;
+    }
 }
@@ -0,0 +1,21 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+/**
+ * Draws random bodies from a GravityModelDistribution for a single fixed reference point. The weights for the
+ * reference point are computed once when the sampler is created, so that repeated draws are much cheaper than
+ * repeated calls to GravityModelDistribution.getRandomBody.
+ */
+public interface GravityModelSampler<T, B extends Body<T>> {
+    /**
+     * @return A random body weighted by the amount of gravity that each body exerts on the sampler's reference point
+     */
+    B sample();
+
+    /**
+     * @return An estimate of the memory used by this sampler in bytes, for use when sizing caches of samplers. The
+     *         default implementation returns 0, for samplers that don't store anything beyond their reference point.
+     */
+    default long estimatedSizeBytes() {
+        return 0;
+    }
+}
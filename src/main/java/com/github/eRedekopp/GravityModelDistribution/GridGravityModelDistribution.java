@@ -0,0 +1,612 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.random.RandomGenerator;
+
+/**
+ * An approximate GravityModelDistribution for any Body type that provides its coordinates, using a uniform grid. Space
+ * is divided into cubic cells of a fixed size, and each non-empty cell stores the total mass and centre of mass of its
+ * bodies. A query computes the exact gravity of every body in the cells within nearRadius cells of the reference
+ * point's cell along every axis (the near field), and treats each of the other cells as a single body at its centre of
+ * mass (the far field). It then chooses a cell weighted by those forces, and then one of the chosen cell's bodies:
+ * weighted by its exact gravity in the near field, or by its mass in the far field, where every body of a cell is
+ * treated as being the same distance away.
+ *
+ * <p/>
+ * Each query takes O(C + K) time, where C is the number of non-empty cells and K is the number of bodies in the near
+ * field, with no tree to descend. This suits bodies that are spread fairly evenly over space: for N such bodies in d
+ * dimensions, a query is fastest with a cell size that gives about sqrt((2 * nearRadius + 1)^d * N) non-empty cells.
+ * A larger nearRadius is more accurate but makes K larger. Clustered bodies are better served by
+ * KdTreeGravityModelDistribution, since a cell size that suits the clusters leaves the rest of the grid nearly empty.
+ *
+ * <p/>
+ * Distances are the straight-line distances between coordinates in the same way as KdTreeGravityModelDistribution, so
+ * this matches the other engines for Body1D, Body2D and Body3D, and GISBody is rejected. The grid is built once in
+ * O(N log N) and can't be changed afterwards. Only the non-empty cells are stored, so the cell size can be small
+ * compared to the space that the bodies cover.
+ */
+public class GridGravityModelDistribution<T, B extends Body<T>> implements GravityModelDistribution<T, B> {
+
+    /**
+     * Per-thread scratch space for getRandomBody
+     */
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * The number of coordinates of each body
+     */
+    private final int dimensions;
+
+    /**
+     * The bodies ordered by cell
+     */
+    private final B[] bodies;
+
+    /**
+     * The coordinates of each body in the same order as `bodies`, with the coordinates of body i at
+     * [dimensions*i, dimensions*(i+1))
+     */
+    private final double[] coords;
+
+    /**
+     * The mass of each body in the same order as `bodies`
+     */
+    private final double[] masses;
+
+    /**
+     * The bodies of cell c are at [cellStart[c], cellStart[c+1]) of `bodies`
+     */
+    private final int[] cellStart;
+
+    /**
+     * The index of each cell in the grid, in ascending order. Cells are numbered with the first axis varying slowest.
+     */
+    private final long[] cellKey;
+
+    /**
+     * The position of each cell in the grid, with the position of cell c at [dimensions*c, dimensions*(c+1))
+     */
+    private final int[] cellIndex;
+
+    /**
+     * The total mass of each cell's bodies
+     */
+    private final double[] cellMass;
+
+    /**
+     * The centre of mass of each cell, with the coordinates of cell c at [dimensions*c, dimensions*(c+1))
+     */
+    private final double[] cellCentre;
+
+    /**
+     * The smallest coordinate of the bodies along each axis, which is the corner of the first cell
+     */
+    private final double[] origin;
+
+    /**
+     * The number of cells along each axis of the grid, including empty ones
+     */
+    private final long[] gridSize;
+
+    private final double cellSize;
+
+    private final int nearRadius;
+
+    private final RandomGenerator rng;
+
+    private volatile QueryListener listener;
+
+    /**
+     * @param bodies The bodies to be put into the grid, which must all have the same number of coordinates
+     * @param cellSize The length of each side of a cell
+     * @param nearRadius The number of cells around the reference point's cell, along each axis, whose bodies are
+     *                   considered individually rather than by their cell's centre of mass. 0 only considers the
+     *                   bodies of the reference point's own cell individually. Larger is more accurate but more
+     *                   computationally intensive, and vice versa
+     * @param rng The random number generator to be used
+     */
+    public GridGravityModelDistribution(List<B> bodies, double cellSize, int nearRadius, RandomGenerator rng) {
+        if (bodies.isEmpty()) {
+            throw new IllegalArgumentException("No bodies");
+        }
+        if (cellSize <= 0 || Utils.isInvalidArg(cellSize)) {
+            throw new IllegalArgumentException("Invalid cell size: " + cellSize);
+        }
+        if (nearRadius < 0) {
+            throw new IllegalArgumentException("Invalid near radius: " + nearRadius);
+        }
+        ConstructionEvent event = ConstructionEvent.start();
+        this.cellSize = cellSize;
+        this.nearRadius = nearRadius;
+        this.rng = rng;
+
+        GridBuilder<T, B> builder = new GridBuilder<>(bodies, cellSize);
+        builder.build();
+        this.dimensions = builder.dimensions;
+        this.bodies = builder.orderedBodies();
+        this.coords = builder.orderedCoords;
+        this.masses = builder.orderedMasses;
+        this.cellStart = builder.cellStart;
+        this.cellKey = builder.cellKey;
+        this.cellIndex = builder.cellIndex;
+        this.cellMass = builder.cellMass;
+        this.cellCentre = builder.cellCentre;
+        this.origin = builder.origin;
+        this.gridSize = builder.gridSize;
+        event.finish(this, bodies.size());
+    }
+
+    /**
+     * @param bodies The bodies to be put into the grid, which must all have the same number of coordinates
+     * @param cellSize The length of each side of a cell
+     * @param nearRadius The number of cells around the reference point's cell, along each axis, whose bodies are
+     *                   considered individually rather than by their cell's centre of mass. 0 only considers the
+     *                   bodies of the reference point's own cell individually. Larger is more accurate but more
+     *                   computationally intensive, and vice versa
+     */
+    public GridGravityModelDistribution(List<B> bodies, double cellSize, int nearRadius) {
+        this(bodies, cellSize, nearRadius, new PerThreadRandomGenerator());
+    }
+
+    @Override
+    public B getRandomBody(B ref) {
+        return this.getRandomBody(ref, this.rng);
+    }
+
+    @Override
+    public B getRandomBody(B ref, RandomGenerator rng) {
+        Utils.checkStraightLineDistances(ref);
+        HasCoordinates location = Utils.checkCoordinates(ref);
+        if (location.getDimensions() != this.dimensions) {
+            throw new IllegalArgumentException(
+                    "Reference point has " + location.getDimensions() + " coordinates, expected " + this.dimensions
+            );
+        }
+        return QueryReporter.report(
+                this, this.listener, this.bodies.length, location, rng,
+                (dist, r, random, stats) -> dist.sample(r, random, stats)
+        );
+    }
+
+    /**
+     * Counts each cell as a node visited and a candidate at the first level, and the chosen cell's bodies as the
+     * candidates at the second level. Each body in the near field and each cell in the far field is a force evaluation.
+     */
+    @Override
+    public void setQueryListener(QueryListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param stats The stats to add to, or null if nobody is listening
+     */
+    private B sample(HasCoordinates location, RandomGenerator rng, QueryStats stats) {
+        Scratch scratch = SCRATCH.get();
+        double[] point = scratch.point(this.dimensions);
+        location.copyCoordinates(point, 0);
+        int numCells = this.cellMass.length;
+        long[] refCell = scratch.refCell(this.dimensions);
+        this.findCell(point, refCell);
+
+        // Treat every cell as far, then replace the weights of the near cells with the sums of their bodies' forces
+        double[] weights = scratch.cellWeights(numCells);
+        this.gravForces(this.cellMass, this.cellCentre, 0, numCells, point, weights);
+        this.findNearCells(refCell, scratch);
+        long nearBodies = 0;
+        for (int n = 0; n < scratch.numNear; n++) {
+            int c = scratch.nearCells[n];
+            int start = this.cellStart[c];
+            int end = this.cellStart[c + 1];
+            weights[c] = this.gravForces(this.masses, this.coords, start, end, point, scratch.bodyForces(end - start));
+            nearBodies += end - start;
+        }
+        int cell = Utils.chooseRandomIndexByWeight(weights, numCells, rng.nextDouble());
+
+        int start = this.cellStart[cell];
+        int end = this.cellStart[cell + 1];
+        boolean near = this.isNear(cell, refCell);
+        if (stats != null) {
+            stats.addLevel(numCells);
+            stats.nodesVisited += numCells;
+            // addLevel counted one evaluation per cell, but each near cell evaluated all of its bodies instead
+            stats.forceEvaluations += nearBodies - scratch.numNear;
+            if (near) {
+                stats.addLevel(end - start);
+            }
+            else {
+                stats.levels++;
+                stats.candidates += end - start;
+                stats.maxCandidates = Math.max(stats.maxCandidates, end - start);
+            }
+        }
+        if (end - start == 1) return this.bodies[start];
+        if (!near) return this.chooseBodyByMass(cell, rng);
+
+        double[] forces = scratch.bodyForces(end - start);
+        this.gravForces(this.masses, this.coords, start, end, point, forces);
+        return this.bodies[start + Utils.chooseRandomIndexByWeight(forces, end - start, rng.nextDouble())];
+    }
+
+    /**
+     * Set `out` to the position in the grid of the cell containing the point. Points outside the grid are moved to
+     * just beyond the near field of its nearest cells, which doesn't change which cells are near.
+     */
+    private void findCell(double[] point, long[] out) {
+        for (int d = 0; d < this.dimensions; d++) {
+            double index = Math.floor((point[d] - this.origin[d]) / this.cellSize);
+            double lowest = -(this.nearRadius + 1.0);
+            double highest = this.gridSize[d] + (double) this.nearRadius;
+            out[d] = (long) Math.max(lowest, Math.min(highest, index));
+        }
+    }
+
+    /**
+     * Set the scratch space's near cells to the cells within nearRadius cells of refCell along every axis. The cells of
+     * each row of the grid along the last axis have consecutive keys, so each row of the near field is found with one
+     * binary search. If there are more rows than cells, every cell is checked instead.
+     */
+    private void findNearCells(long[] refCell, Scratch out) {
+        out.numNear = 0;
+        int numCells = this.cellMass.length;
+        int last = this.dimensions - 1;
+        long[] lo = out.lo;
+        long[] hi = out.hi;
+        long rows = 1;
+        for (int d = 0; d <= last; d++) {
+            lo[d] = Math.max(0, refCell[d] - this.nearRadius);
+            hi[d] = Math.min(this.gridSize[d] - 1, refCell[d] + this.nearRadius);
+            if (lo[d] > hi[d]) return;
+            if (d < last) rows = Math.min(rows * (hi[d] - lo[d] + 1), numCells + 1L);
+        }
+        if (rows > numCells) {
+            for (int c = 0; c < numCells; c++) {
+                if (this.isNear(c, refCell)) out.addNear(c);
+            }
+            return;
+        }
+
+        long[] row = out.row;
+        System.arraycopy(lo, 0, row, 0, last);
+        while (true) {
+            long base = 0;
+            for (int d = 0; d < last; d++) {
+                base = (base + row[d]) * this.gridSize[d + 1];
+            }
+            long endKey = base + hi[last];
+            for (int c = this.firstCellFrom(base + lo[last]); c < numCells && this.cellKey[c] <= endKey; c++) {
+                out.addNear(c);
+            }
+            // Move to the next row like an odometer, with the last of the remaining axes turning fastest
+            int d = last - 1;
+            while (d >= 0 && row[d] == hi[d]) {
+                row[d] = lo[d];
+                d--;
+            }
+            if (d < 0) return;
+            row[d]++;
+        }
+    }
+
+    /**
+     * @return The first cell whose key is at least `key`, or the number of cells if there isn't one
+     */
+    private int firstCellFrom(long key) {
+        int lo = 0;
+        int hi = this.cellKey.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (this.cellKey[mid] < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * @return True if the cell is within nearRadius cells of refCell along every axis
+     */
+    private boolean isNear(int cell, long[] refCell) {
+        int offset = this.dimensions * cell;
+        for (int d = 0; d < this.dimensions; d++) {
+            if (Math.abs(this.cellIndex[offset + d] - refCell[d]) > this.nearRadius) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Set out[i - from] to the gravity that the mass at index i of `masses`, with its coordinates at
+     * [dimensions*i, dimensions*(i+1)) of `positions`, exerts on a point mass of 1 at the given point, for every i in
+     * [from, to). The common numbers of dimensions have their own loops, since this is where queries spend their time.
+     *
+     * @return The sum of the forces
+     */
+    private double gravForces(double[] masses, double[] positions, int from, int to, double[] point, double[] out) {
+        double sum = 0;
+        switch (this.dimensions) {
+            case 2: {
+                double x = point[0], y = point[1];
+                for (int i = from; i < to; i++) {
+                    double dx = x - positions[2 * i];
+                    double dy = y - positions[2 * i + 1];
+                    double r2 = dx * dx + dy * dy;
+                    // Massless bodies give 0 here too, as long as they aren't at the point
+                    double f = r2 == 0 ? 0 : masses[i] / r2;
+                    out[i - from] = f;
+                    sum += f;
+                }
+                break;
+            }
+            case 3: {
+                double x = point[0], y = point[1], z = point[2];
+                for (int i = from; i < to; i++) {
+                    double dx = x - positions[3 * i];
+                    double dy = y - positions[3 * i + 1];
+                    double dz = z - positions[3 * i + 2];
+                    double r2 = dx * dx + dy * dy + dz * dz;
+                    double f = r2 == 0 ? 0 : masses[i] / r2;
+                    out[i - from] = f;
+                    sum += f;
+                }
+                break;
+            }
+            default: {
+                int dims = this.dimensions;
+                for (int i = from; i < to; i++) {
+                    double r2 = 0;
+                    for (int d = 0; d < dims; d++) {
+                        double diff = point[d] - positions[dims * i + d];
+                        r2 += diff * diff;
+                    }
+                    double f = r2 == 0 ? 0 : masses[i] / r2;
+                    out[i - from] = f;
+                    sum += f;
+                }
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @return One of the cell's bodies weighted by their masses
+     */
+    private B chooseBodyByMass(int cell, RandomGenerator rng) {
+        return this.bodies[Utils.chooseIndexByMass(
+                this.bodies, this.cellStart[cell], this.cellStart[cell + 1], this.cellMass[cell], rng
+        )];
+    }
+
+    /**
+     * @return The number of non-empty cells
+     */
+    int getCellCount() {
+        return this.cellMass.length;
+    }
+
+    /**
+     * Buffers reused between calls to getRandomBody on the same thread
+     */
+    private static class Scratch {
+        int dimensions = -1;
+        double[] point;
+        long[] refCell;
+        long[] lo;
+        long[] hi;
+        long[] row;
+        double[] cellWeights = new double[16];
+        double[] bodyForces = new double[16];
+        int[] nearCells = new int[16];
+        int numNear = 0;
+
+        /**
+         * @return A buffer for the coordinates of the reference point, which is only valid until the next call
+         */
+        double[] point(int dimensions) {
+            this.setDimensions(dimensions);
+            return this.point;
+        }
+
+        long[] refCell(int dimensions) {
+            this.setDimensions(dimensions);
+            return this.refCell;
+        }
+
+        private void setDimensions(int dimensions) {
+            if (this.dimensions != dimensions) {
+                this.dimensions = dimensions;
+                this.point = new double[dimensions];
+                this.refCell = new long[dimensions];
+                this.lo = new long[dimensions];
+                this.hi = new long[dimensions];
+                this.row = new long[dimensions];
+            }
+        }
+
+        double[] cellWeights(int size) {
+            if (this.cellWeights.length < size) this.cellWeights = new double[size];
+            return this.cellWeights;
+        }
+
+        double[] bodyForces(int size) {
+            if (this.bodyForces.length < size) {
+                this.bodyForces = new double[Math.max(size, 2 * this.bodyForces.length)];
+            }
+            return this.bodyForces;
+        }
+
+        void addNear(int cell) {
+            if (this.numNear == this.nearCells.length) this.nearCells = Arrays.copyOf(this.nearCells, 2 * this.numNear);
+            this.nearCells[this.numNear++] = cell;
+        }
+    }
+
+    /**
+     * Builds the arrays of the grid by sorting the bodies by the position of their cell
+     */
+    private static class GridBuilder<T, B extends Body<T>> {
+        final List<B> input;
+
+        final int dimensions;
+
+        final double cellSize;
+
+        /**
+         * The coordinates of each body in the order of `input`, with the coordinates of body i at
+         * [dimensions*i, dimensions*(i+1))
+         */
+        final double[] coords;
+
+        final double[] origin;
+
+        final long[] gridSize;
+
+        /**
+         * The index in `input` of each body, in the order of their cells
+         */
+        int[] order;
+
+        double[] orderedCoords;
+        double[] orderedMasses;
+        int[] cellStart;
+        long[] cellKey;
+        int[] cellIndex;
+        double[] cellMass;
+        double[] cellCentre;
+
+        GridBuilder(List<B> input, double cellSize) {
+            int n = input.size();
+            this.input = input;
+            this.cellSize = cellSize;
+            this.dimensions = Utils.checkCoordinates(input.get(0)).getDimensions();
+            if (this.dimensions == 0) throw new IllegalArgumentException("Bodies have no coordinates");
+            this.coords = new double[this.dimensions * n];
+            this.origin = new double[this.dimensions];
+            Arrays.fill(this.origin, Double.POSITIVE_INFINITY);
+            double[] max = new double[this.dimensions];
+            Arrays.fill(max, Double.NEGATIVE_INFINITY);
+            for (int i = 0; i < n; i++) {
+                B b = input.get(i);
+                Utils.checkStraightLineDistances(b);
+                HasCoordinates location = Utils.checkCoordinates(b);
+                if (location.getDimensions() != this.dimensions) {
+                    throw new IllegalArgumentException(
+                            "Body " + i + " has " + location.getDimensions() + " coordinates, expected "
+                                    + this.dimensions
+                    );
+                }
+                location.copyCoordinates(this.coords, this.dimensions * i);
+                for (int d = 0; d < this.dimensions; d++) {
+                    double c = this.coords[this.dimensions * i + d];
+                    if (Utils.isInvalidArg(c)) throw new IllegalArgumentException("Illegal coordinate " + c);
+                    this.origin[d] = Math.min(this.origin[d], c);
+                    max[d] = Math.max(max[d], c);
+                }
+            }
+            // Each cell is given a key from its position in the grid, so the whole grid must have at most 2^63 cells
+            this.gridSize = new long[this.dimensions];
+            long totalCells = 1;
+            for (int d = 0; d < this.dimensions; d++) {
+                double cells = Math.floor((max[d] - this.origin[d]) / cellSize) + 1;
+                if (cells > Integer.MAX_VALUE) throw new IllegalArgumentException("Cell size too small: " + cellSize);
+                this.gridSize[d] = (long) cells;
+                try {
+                    totalCells = Math.multiplyExact(totalCells, this.gridSize[d]);
+                }
+                catch (ArithmeticException e) {
+                    throw new IllegalArgumentException("Cell size too small: " + cellSize);
+                }
+            }
+        }
+
+        void build() {
+            int n = this.input.size();
+            int dims = this.dimensions;
+
+            // The distinct keys in order are the non-empty cells
+            long[] bodyKeys = new long[n];
+            for (int i = 0; i < n; i++) {
+                bodyKeys[i] = this.key(i);
+            }
+            long[] keys = bodyKeys.clone();
+            Arrays.sort(keys);
+            int numCells = 0;
+            for (int i = 0; i < n; i++) {
+                if (i == 0 || keys[i] != keys[i - 1]) keys[numCells++] = keys[i];
+            }
+            keys = Arrays.copyOf(keys, numCells);
+            this.cellKey = keys;
+
+            // Counting sort of the bodies by cell, which keeps the bodies of each cell in the order they were given
+            int[] cellOf = new int[n];
+            this.cellStart = new int[numCells + 1];
+            for (int i = 0; i < n; i++) {
+                cellOf[i] = Arrays.binarySearch(keys, bodyKeys[i]);
+                this.cellStart[cellOf[i] + 1]++;
+            }
+            for (int c = 0; c < numCells; c++) {
+                this.cellStart[c + 1] += this.cellStart[c];
+            }
+            int[] next = Arrays.copyOf(this.cellStart, numCells);
+            this.order = new int[n];
+            for (int i = 0; i < n; i++) {
+                this.order[next[cellOf[i]]++] = i;
+            }
+
+            this.orderedCoords = new double[dims * n];
+            this.orderedMasses = new double[n];
+            this.cellIndex = new int[dims * numCells];
+            this.cellMass = new double[numCells];
+            this.cellCentre = new double[dims * numCells];
+            for (int c = 0; c < numCells; c++) {
+                int first = this.order[this.cellStart[c]];
+                for (int d = 0; d < dims; d++) {
+                    this.cellIndex[dims * c + d] = (int) this.index(first, d);
+                }
+                double totalMass = 0;
+                for (int i = this.cellStart[c]; i < this.cellStart[c + 1]; i++) {
+                    int body = this.order[i];
+                    double m = this.input.get(body).mass;
+                    this.orderedMasses[i] = m;
+                    totalMass += m;
+                    for (int d = 0; d < dims; d++) {
+                        double x = this.coords[dims * body + d];
+                        this.orderedCoords[dims * i + d] = x;
+                        this.cellCentre[dims * c + d] += x * m;
+                    }
+                }
+                this.cellMass[c] = totalMass;
+                for (int d = 0; d < dims; d++) {
+                    // The same as Body2D.plus when all of the bodies have no mass
+                    this.cellCentre[dims * c + d] = totalMass == 0 ? 0 : this.cellCentre[dims * c + d] / totalMass;
+                }
+            }
+        }
+
+        /**
+         * @return The position of the i'th body's cell along the given axis
+         */
+        private long index(int i, int axis) {
+            double offset = this.coords[this.dimensions * i + axis] - this.origin[axis];
+            // Rounding can put the largest coordinates one cell past the end
+            return Math.min(this.gridSize[axis] - 1, (long) Math.floor(offset / this.cellSize));
+        }
+
+        /**
+         * @return The index of the i'th body's cell in the grid, with the first axis varying slowest
+         */
+        private long key(int i) {
+            long key = 0;
+            for (int d = 0; d < this.dimensions; d++) {
+                key = key * this.gridSize[d] + this.index(i, d);
+            }
+            return key;
+        }
+
+        B[] orderedBodies() {
+            B[] out = Utils.newArray(Body.class, this.order.length);
+            for (int i = 0; i < out.length; i++) {
+                out[i] = this.input.get(this.order[i]);
+            }
+            return out;
+        }
+    }
+}
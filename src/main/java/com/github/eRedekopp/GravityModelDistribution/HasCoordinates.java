@@ -0,0 +1,22 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+/**
+ * Implemented by body types whose centre of mass can be read as a point, so that they can be used with engines that
+ * look at the locations of bodies directly, such as KdTreeGravityModelDistribution and GridGravityModelDistribution.
+ * Every body type in this library implements it; other subclasses of Body can opt in by implementing it too.
+ */
+public interface HasCoordinates {
+
+    /**
+     * @return The number of coordinates of this body's centre of mass
+     */
+    int getDimensions();
+
+    /**
+     * Copy the coordinates of this body's centre of mass into `out`, one per dimension, without allocating
+     *
+     * @param out The array to copy into
+     * @param offset The index of `out` to copy the first coordinate to
+     */
+    void copyCoordinates(double[] out, int offset);
+}
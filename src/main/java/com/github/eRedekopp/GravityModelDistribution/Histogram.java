@@ -0,0 +1,133 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative longs that many threads can record to at once without locking. Values below 16 are
+ * counted exactly, and larger values in buckets at most 1/8 of their lower bound wide, so the percentiles are within
+ * 12.5% of the true values. Recording a value doesn't allocate any memory.
+ */
+public class Histogram {
+
+    /**
+     * The number of buckets per power of two, as a power of two
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int NUM_BUCKETS = bucketOf(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param value A non-negative value. Negative values are counted as 0.
+     */
+    public void record(long value) {
+        value = Math.max(value, 0);
+        this.counts.incrementAndGet(bucketOf(value));
+        this.count.increment();
+        this.sum.add(value);
+        this.max.accumulate(value);
+    }
+
+    /**
+     * @return The number of values recorded
+     */
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    /**
+     * @return The mean of the values recorded, or NaN if there are none
+     */
+    public double getMean() {
+        long n = this.count.sum();
+        return n == 0 ? Double.NaN : this.sum.sum() / (double) n;
+    }
+
+    /**
+     * @return The largest value recorded, or 0 if there are none
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * @param quantile The fraction of the values, between 0 and 1
+     * @return The smallest bucket bound that at least this fraction of the recorded values are less than or equal to,
+     *         but no more than getMax. Returns 0 if there are no values.
+     */
+    public long getValueAtQuantile(double quantile) {
+        if (!(quantile >= 0 && quantile <= 1)) throw new IllegalArgumentException("Illegal quantile " + quantile);
+        long total = 0;
+        long[] snapshot = new long[NUM_BUCKETS];
+        for (int b = 0; b < NUM_BUCKETS; b++) {
+            snapshot[b] = this.counts.get(b);
+            total += snapshot[b];
+        }
+        if (total == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(quantile * total));
+        long cumulative = 0;
+        for (int b = 0; b < NUM_BUCKETS; b++) {
+            cumulative += snapshot[b];
+            if (cumulative >= target) return Math.min(upperBound(b), this.getMax());
+        }
+        return this.getMax();
+    }
+
+    /**
+     * Remove all the values. Values recorded concurrently with this may or may not be removed.
+     */
+    public void reset() {
+        for (int b = 0; b < NUM_BUCKETS; b++) {
+            this.counts.set(b, 0);
+        }
+        this.count.reset();
+        this.sum.reset();
+        this.max.reset();
+    }
+
+    /**
+     * @return The bucket that a non-negative value is counted in
+     */
+    static int bucketOf(long value) {
+        if (value < 2 * SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return The largest value counted in the given bucket
+     */
+    static long upperBound(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        // The last bucket ends at Long.MAX_VALUE, which this overflows to
+        return ((SUB_BUCKETS + subBucket + 1) * width) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "Histogram{count=%d, mean=%.1f, p50=%d, p90=%d, p99=%d, max=%d}",
+                this.getCount(),
+                this.getMean(),
+                this.getValueAtQuantile(0.5),
+                this.getValueAtQuantile(0.9),
+                this.getValueAtQuantile(0.99),
+                this.getMax()
+        );
+    }
+}
@@ -0,0 +1,463 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.random.RandomGenerator;
+
+/**
+ * An approximate GravityModelDistribution for any Body type that provides its coordinates, using a k-d tree. Each node
+ * splits its bodies in half at the median of the coordinate along which they are most spread out, so the tree stays
+ * balanced with a depth of about log2(N) no matter how clustered the bodies are. Quadtrees split space evenly instead,
+ * so a few dense clusters make them deep and unbalanced.
+ *
+ * <p/>
+ * Sampling works the same way as QuadtreeGravityModelDistribution, with the same theta parameter, except that a node's
+ * size is the longest side of the bounding box of its bodies rather than the side of its square. Distances are the
+ * straight-line distances between coordinates, so this matches the other engines for Body1D, Body2D and Body3D.
+ * GISBody is rejected, since its coordinates are angles.
+ *
+ * <p/>
+ * The tree is stored in primitive arrays in the same way as FlatQuadtreeGravityModelDistribution, and is built once in
+ * O(N log N) and can't be changed afterwards. Bodies at the same location end up in one leaf, which picks one of them
+ * weighted by their masses.
+ */
+public class KdTreeGravityModelDistribution<T, B extends Body<T>> implements GravityModelDistribution<T, B> {
+
+    private static final int NO_CHILD = -1;
+
+    /**
+     * Per-thread scratch space for getRandomBody
+     */
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * The number of coordinates of each body
+     */
+    private final int dimensions;
+
+    /**
+     * The bodies in depth-first order
+     */
+    private final B[] bodies;
+
+    /**
+     * The index of the child of each node containing the bodies below the median, or NO_CHILD if the node is a leaf
+     */
+    private final int[] left;
+
+    /**
+     * The index of the child of each node containing the bodies above the median, or NO_CHILD if the node is a leaf
+     */
+    private final int[] right;
+
+    /**
+     * The total mass of each node's bodies
+     */
+    private final double[] mass;
+
+    /**
+     * The centre of mass of each node, with the coordinates of node i at [dimensions*i, dimensions*(i+1))
+     */
+    private final double[] centre;
+
+    /**
+     * The longest side of the bounding box of each node's bodies
+     */
+    private final double[] size;
+
+    /**
+     * Each node's bodies are at [bodyStart, bodyEnd) of `bodies`
+     */
+    private final int[] bodyStart;
+
+    private final int[] bodyEnd;
+
+    private final double theta;
+
+    private final RandomGenerator rng;
+
+    private volatile QueryListener listener;
+
+    /**
+     * @param bodies The bodies to be put into the tree, which must all have the same number of coordinates
+     * @param theta The threshold value for when nodes are considered "far enough" to be considered as a combined
+     *              unit rather than considering each body individually. Smaller theta is more accurate but more
+     *              computationally intensive, and vice versa
+     * @param rng The random number generator to be used
+     */
+    public KdTreeGravityModelDistribution(List<B> bodies, double theta, RandomGenerator rng) {
+        if (bodies.isEmpty()) {
+            throw new IllegalArgumentException("No bodies");
+        }
+        if (theta < 0 || Utils.isInvalidArg(theta)) {
+            throw new IllegalArgumentException("Invalid theta: " + theta);
+        }
+        ConstructionEvent event = ConstructionEvent.start();
+        this.theta = theta;
+        this.rng = rng;
+
+        TreeBuilder<T, B> builder = new TreeBuilder<>(bodies);
+        builder.build(0, bodies.size());
+        this.dimensions = builder.dimensions;
+        this.bodies = builder.orderedBodies();
+        int numNodes = builder.numNodes;
+        this.left = Arrays.copyOf(builder.left, numNodes);
+        this.right = Arrays.copyOf(builder.right, numNodes);
+        this.mass = Arrays.copyOf(builder.mass, numNodes);
+        this.centre = Arrays.copyOf(builder.centre, this.dimensions * numNodes);
+        this.size = Arrays.copyOf(builder.size, numNodes);
+        this.bodyStart = Arrays.copyOf(builder.bodyStart, numNodes);
+        this.bodyEnd = Arrays.copyOf(builder.bodyEnd, numNodes);
+        event.finish(this, bodies.size());
+    }
+
+    /**
+     * @param bodies The bodies to be put into the tree, which must all have the same number of coordinates
+     * @param theta The threshold value for when nodes are considered "far enough" to be considered as a combined
+     *              unit rather than considering each body individually. Smaller theta is more accurate but more
+     *              computationally intensive, and vice versa
+     */
+    public KdTreeGravityModelDistribution(List<B> bodies, double theta) {
+        this(bodies, theta, new PerThreadRandomGenerator());
+    }
+
+    @Override
+    public B getRandomBody(B ref) {
+        return this.getRandomBody(ref, this.rng);
+    }
+
+    @Override
+    public B getRandomBody(B ref, RandomGenerator rng) {
+        Utils.checkStraightLineDistances(ref);
+        HasCoordinates location = Utils.checkCoordinates(ref);
+        if (location.getDimensions() != this.dimensions) {
+            throw new IllegalArgumentException(
+                    "Reference point has " + location.getDimensions() + " coordinates, expected " + this.dimensions
+            );
+        }
+        return QueryReporter.report(
+                this, this.listener, this.bodies.length, location, rng,
+                (dist, r, random, stats) -> dist.sample(r, random)
+        );
+    }
+
+    /**
+     * Counts the work in the same way as QuadtreeGravityModelDistribution
+     */
+    @Override
+    public void setQueryListener(QueryListener listener) {
+        this.listener = listener;
+    }
+
+    private B sample(HasCoordinates ref, RandomGenerator rng) {
+        Scratch scratch = SCRATCH.get();
+        double[] point = scratch.point(this.dimensions);
+        ref.copyCoordinates(point, 0);
+        return this.chooseBodyInLeaf(this.chooseLeaf(point, rng, scratch), rng);
+    }
+
+    /**
+     * The same descent as Node.getRandomBody: starting at the root, choose one of the selected node's candidate nodes
+     * weighted by their gravity, halving theta at each level, until a leaf is chosen. The same random number is used at
+     * every level.
+     */
+    private int chooseLeaf(double[] point, RandomGenerator rng, Scratch scratch) {
+        int selected = 0;
+        double levelTheta = this.theta;
+        double rand = rng.nextDouble();
+        do {
+            scratch.size = 0;
+            this.addCandidates(selected, point, levelTheta, scratch);
+            scratch.stats.addLevel(scratch.size);
+            for (int i = 0; i < scratch.size; i++) {
+                scratch.forces[i] = this.gravForceOn(scratch.nodes[i], point);
+            }
+            selected = scratch.nodes[Utils.chooseRandomIndexByWeight(scratch.forces, scratch.size, rand)];
+            levelTheta /= 2;
+        } while (!this.isLeaf(selected));
+        return selected;
+    }
+
+    /**
+     * Add the nodes within the subtree headed at `node` that should be considered individually to the scratch space
+     */
+    private void addCandidates(int node, double[] point, double theta, Scratch out) {
+        out.stats.nodesVisited++;
+        // This node is either a leaf, or the combined centre of mass is far enough that we consider it all together
+        if (this.isLeaf(node) || this.size[node] / this.distanceTo(node, point) < theta) {
+            out.add(node);
+        }
+        else {
+            this.addCandidates(this.left[node], point, theta, out);
+            this.addCandidates(this.right[node], point, theta, out);
+        }
+    }
+
+    private boolean isLeaf(int node) {
+        return this.left[node] == NO_CHILD;
+    }
+
+    /**
+     * @return The gravity that the node's centre of mass exerts on a point mass of 1 at the given point
+     */
+    private double gravForceOn(int node, double[] point) {
+        double m = this.mass[node];
+        if (m == 0) return 0.0;
+        double r = this.distanceTo(node, point);
+        if (r == 0) return 0;
+        return m / (r*r);
+    }
+
+    private double distanceTo(int node, double[] point) {
+        int offset = this.dimensions * node;
+        double sum = 0;
+        for (int d = 0; d < this.dimensions; d++) {
+            double diff = point[d] - this.centre[offset + d];
+            sum += diff * diff;
+        }
+        return Math.sqrt(sum);
+    }
+
+    /**
+     * @return One of the leaf's bodies weighted by their masses. These are all at the same location.
+     */
+    private B chooseBodyInLeaf(int leaf, RandomGenerator rng) {
+        return this.bodies[Utils.chooseIndexByMass(
+                this.bodies, this.bodyStart[leaf], this.bodyEnd[leaf], this.mass[leaf], rng
+        )];
+    }
+
+    /**
+     * @return The number of nodes in the tree
+     */
+    int getNodeCount() {
+        return this.mass.length;
+    }
+
+    /**
+     * @return The number of edges on the longest path from the root to a leaf
+     */
+    int getDepth() {
+        return this.depthOf(0);
+    }
+
+    private int depthOf(int node) {
+        if (this.isLeaf(node)) return 0;
+        return 1 + Math.max(this.depthOf(this.left[node]), this.depthOf(this.right[node]));
+    }
+
+    /**
+     * Buffers reused between calls to getRandomBody on the same thread
+     */
+    private static class Scratch {
+        int[] nodes = new int[16];
+        double[] forces = new double[16];
+        int size = 0;
+        private double[] point = new double[0];
+        final QueryStats stats = QueryStats.current();
+
+        /**
+         * @return A buffer with room for the coordinates of the reference point, which is only valid until the next call
+         */
+        double[] point(int dimensions) {
+            if (this.point.length < dimensions) this.point = new double[dimensions];
+            return this.point;
+        }
+
+        void add(int node) {
+            if (this.size == this.nodes.length) {
+                this.nodes = Arrays.copyOf(this.nodes, 2 * this.size);
+                this.forces = Arrays.copyOf(this.forces, 2 * this.size);
+            }
+            this.nodes[this.size++] = node;
+        }
+    }
+
+    /**
+     * Builds the arrays of the tree by recursively splitting the bodies at the median with quickselect
+     */
+    private static class TreeBuilder<T, B extends Body<T>> {
+        final List<B> input;
+
+        final int dimensions;
+
+        /**
+         * The index in `input` of each body, in the order they are partitioned into
+         */
+        final int[] order;
+
+        /**
+         * The coordinates of each body in the same order as `order`, with the coordinates of body i at
+         * [dimensions*i, dimensions*(i+1))
+         */
+        final double[] coords;
+
+        final double[] masses;
+
+        int numNodes = 0;
+
+        int[] left;
+        int[] right;
+        double[] mass;
+        double[] centre;
+        double[] size;
+        int[] bodyStart;
+        int[] bodyEnd;
+
+        TreeBuilder(List<B> input) {
+            int n = input.size();
+            this.input = input;
+            this.dimensions = Utils.checkCoordinates(input.get(0)).getDimensions();
+            if (this.dimensions == 0) throw new IllegalArgumentException("Bodies have no coordinates");
+            this.order = new int[n];
+            this.coords = new double[this.dimensions * n];
+            this.masses = new double[n];
+            for (int i = 0; i < n; i++) {
+                B b = input.get(i);
+                Utils.checkStraightLineDistances(b);
+                HasCoordinates location = Utils.checkCoordinates(b);
+                if (location.getDimensions() != this.dimensions) {
+                    throw new IllegalArgumentException(
+                            "Body " + i + " has " + location.getDimensions() + " coordinates, expected "
+                                    + this.dimensions
+                    );
+                }
+                location.copyCoordinates(this.coords, this.dimensions * i);
+                for (int d = 0; d < this.dimensions; d++) {
+                    double c = this.coords[this.dimensions * i + d];
+                    if (Utils.isInvalidArg(c)) throw new IllegalArgumentException("Illegal coordinate " + c);
+                }
+                this.order[i] = i;
+                this.masses[i] = b.mass;
+            }
+            // A tree of distinct bodies has exactly 2N - 1 nodes
+            int capacity = Math.max(1, 2 * n - 1);
+            this.left = new int[capacity];
+            this.right = new int[capacity];
+            this.mass = new double[capacity];
+            this.centre = new double[this.dimensions * capacity];
+            this.size = new double[capacity];
+            this.bodyStart = new int[capacity];
+            this.bodyEnd = new int[capacity];
+        }
+
+        /**
+         * Build the subtree for the bodies in [from, to)
+         *
+         * @return The index of the subtree's root
+         */
+        int build(int from, int to) {
+            int node = this.numNodes++;
+            this.bodyStart[node] = from;
+            this.bodyEnd[node] = to;
+
+            // Split along the axis with the widest spread
+            int splitAxis = 0;
+            double widest = 0;
+            for (int d = 0; d < this.dimensions; d++) {
+                double min = Double.POSITIVE_INFINITY;
+                double max = Double.NEGATIVE_INFINITY;
+                for (int i = from; i < to; i++) {
+                    double c = this.coords[this.dimensions * i + d];
+                    min = Math.min(min, c);
+                    max = Math.max(max, c);
+                }
+                if (max - min > widest) {
+                    widest = max - min;
+                    splitAxis = d;
+                }
+            }
+            this.size[node] = widest;
+
+            int offset = this.dimensions * node;
+            if (widest == 0) {
+                // A single body, or bodies that are all at the same location
+                this.left[node] = NO_CHILD;
+                this.right[node] = NO_CHILD;
+                double totalMass = 0;
+                for (int i = from; i < to; i++) {
+                    totalMass += this.masses[i];
+                }
+                this.mass[node] = totalMass;
+                System.arraycopy(this.coords, this.dimensions * from, this.centre, offset, this.dimensions);
+                return node;
+            }
+
+            int mid = (from + to) >>> 1;
+            this.select(from, to - 1, mid, splitAxis);
+            int l = this.build(from, mid);
+            int r = this.build(mid, to);
+            this.left[node] = l;
+            this.right[node] = r;
+            double totalMass = this.mass[l] + this.mass[r];
+            this.mass[node] = totalMass;
+            for (int d = 0; d < this.dimensions; d++) {
+                // The same as Body2D.plus when all of the bodies have no mass
+                this.centre[offset + d] = totalMass == 0 ? 0 : (
+                        this.centre[this.dimensions * l + d] * this.mass[l]
+                                + this.centre[this.dimensions * r + d] * this.mass[r]
+                ) / totalMass;
+            }
+            return node;
+        }
+
+        /**
+         * Reorder the bodies in [lo, hi] so that the body at index k has the k-th smallest coordinate along the given
+         * axis, with no larger coordinates before it and no smaller ones after it. Expected O(hi - lo).
+         */
+        private void select(int lo, int hi, int k, int axis) {
+            while (lo < hi) {
+                // Median of three pivot, so already sorted input doesn't take quadratic time
+                int m = (lo + hi) >>> 1;
+                if (this.coord(m, axis) < this.coord(lo, axis)) this.swap(m, lo);
+                if (this.coord(hi, axis) < this.coord(lo, axis)) this.swap(hi, lo);
+                if (this.coord(hi, axis) < this.coord(m, axis)) this.swap(hi, m);
+                double pivot = this.coord(m, axis);
+
+                // Hoare partition, which splits runs of equal coordinates evenly
+                int i = lo;
+                int j = hi;
+                while (i <= j) {
+                    while (this.coord(i, axis) < pivot) i++;
+                    while (this.coord(j, axis) > pivot) j--;
+                    if (i <= j) {
+                        this.swap(i, j);
+                        i++;
+                        j--;
+                    }
+                }
+                if (k <= j) hi = j;
+                else if (k >= i) lo = i;
+                else return;
+            }
+        }
+
+        private double coord(int i, int axis) {
+            return this.coords[this.dimensions * i + axis];
+        }
+
+        private void swap(int i, int j) {
+            int o = this.order[i];
+            this.order[i] = this.order[j];
+            this.order[j] = o;
+            double m = this.masses[i];
+            this.masses[i] = this.masses[j];
+            this.masses[j] = m;
+            int a = this.dimensions * i;
+            int b = this.dimensions * j;
+            for (int d = 0; d < this.dimensions; d++) {
+                double t = this.coords[a + d];
+                this.coords[a + d] = this.coords[b + d];
+                this.coords[b + d] = t;
+            }
+        }
+
+        B[] orderedBodies() {
+            B[] out = Utils.newArray(Body.class, this.order.length);
+            for (int i = 0; i < out.length; i++) {
+                out[i] = this.input.get(this.order[i]);
+            }
+            return out;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * A JDK Flight Recorder event for work that keeps a distribution's cache or index up to date, rather than answering
+ * a query. Only work that takes at least a millisecond is recorded by default, which can be changed with the threshold
+ * setting of the recording.
+ */
+@Name("com.github.eRedekopp.GravityModelDistribution.Maintenance")
+@Label("Gravity Model Maintenance")
+@Category("Gravity Model")
+@Description("A change to a distribution's cache or index")
+@Threshold("1 ms")
+final class MaintenanceEvent extends Event {
+
+    /**
+     * A sampler was built for a reference point that wasn't cached, and added to the cache
+     */
+    static final String CACHE_FILL = "Cache Fill";
+
+    static final String ADD_BODY = "Add Body";
+
+    static final String REMOVE_BODY = "Remove Body";
+
+    static final String UPDATE_MASS = "Update Mass";
+
+    @Label("Engine")
+    @Description("The class of the distribution")
+    String engine;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Size")
+    @Description("The number of bodies or cache entries after the operation")
+    int size;
+
+    @Label("Evicted")
+    @Description("The number of cache entries evicted by the operation")
+    long evicted;
+
+    /**
+     * @return An event that has begun timing
+     */
+    static MaintenanceEvent start() {
+        MaintenanceEvent event = new MaintenanceEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Stop timing, and commit the event if it's enabled and took longer than its threshold
+     *
+     * @param engine The distribution that was changed
+     * @param operation One of the operations listed in this class
+     * @param size The number of bodies or cache entries after the operation
+     * @param evicted The number of cache entries evicted by the operation
+     */
+    void finish(GravityModelDistribution<?, ?> engine, String operation, int size, long evicted) {
+        this.end();
+        if (!this.shouldCommit()) return;
+        this.engine = engine.getClass().getSimpleName();
+        this.operation = operation;
+        this.size = size;
+        this.evicted = evicted;
+        this.commit();
+    }
+}
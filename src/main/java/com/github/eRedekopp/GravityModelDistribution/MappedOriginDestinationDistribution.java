@@ -0,0 +1,196 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.random.RandomGenerator;
+
+/**
+ * A GravityModelDistribution that answers queries from the tables written by OriginDestinationTableBuilder. The file
+ * is memory-mapped rather than read into the heap, so loading is nearly instant and the operating system decides how
+ * much of the file to keep in memory. Each query is O(1) and only reads one entry of the file.
+ *
+ * <p/>
+ * The reference point of each query must be one of the bodies that the table was built from. Bodies are matched by
+ * identity, so the distribution must be given a list containing the same bodies in the same order as the list that
+ * the table was built from, and the reference points must be taken from that list.
+ */
+public class MappedOriginDestinationDistribution<T, B extends Body<T>> implements GravityModelDistribution<T, B> {
+
+    private final List<B> bodies;
+
+    /**
+     * The index of each body in `bodies`
+     */
+    private final Map<B, Integer> indices;
+
+    private final OriginDestinationTableBuilder.Encoding encoding;
+
+    /**
+     * The rows of the file, split into buffers of at most Integer.MAX_VALUE bytes since that is the most that a single
+     * MappedByteBuffer can hold. Each buffer holds `rowsPerBuffer` whole rows.
+     */
+    private final MappedByteBuffer[] buffers;
+
+    private final int rowsPerBuffer;
+
+    private final int rowBytes;
+
+    private final RandomGenerator rng;
+
+    private volatile QueryListener listener;
+
+    /**
+     * @param bodies The same bodies in the same order as those in the distribution the table was built from
+     * @param path The file written by OriginDestinationTableBuilder
+     * @param rng The random number generator to be used
+     * @throws IOException If the file can't be read or was not written by OriginDestinationTableBuilder
+     * @throws IllegalArgumentException If the table was built from different bodies
+     */
+    public MappedOriginDestinationDistribution(List<B> bodies, Path path, RandomGenerator rng) throws IOException {
+        if (bodies.isEmpty()) throw new IllegalArgumentException("No bodies");
+        ConstructionEvent event = ConstructionEvent.start();
+        this.bodies = bodies;
+        this.rng = rng;
+        this.indices = new IdentityHashMap<>(bodies.size());
+        for (int i = 0; i < bodies.size(); i++) {
+            this.indices.put(bodies.get(i), i);
+        }
+
+        // The buffers stay valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < OriginDestinationTableBuilder.HEADER_BYTES) {
+                throw new IOException("Not an origin-destination table: " + path);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, OriginDestinationTableBuilder.HEADER_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != OriginDestinationTableBuilder.MAGIC) {
+                throw new IOException("Not an origin-destination table: " + path);
+            }
+            int version = header.getInt();
+            if (version != OriginDestinationTableBuilder.VERSION) {
+                throw new IOException("Unsupported origin-destination table version " + version + ": " + path);
+            }
+            int encodingOrdinal = header.getInt();
+            OriginDestinationTableBuilder.Encoding[] encodings = OriginDestinationTableBuilder.Encoding.values();
+            if (encodingOrdinal < 0 || encodingOrdinal >= encodings.length) {
+                throw new IOException("Unknown encoding " + encodingOrdinal + ": " + path);
+            }
+            this.encoding = encodings[encodingOrdinal];
+            int n = header.getInt();
+            long fingerprint = header.getLong();
+            if (n != bodies.size() || fingerprint != OriginDestinationTableBuilder.fingerprint(bodies)) {
+                throw new IllegalArgumentException("Table was built from different bodies: " + path);
+            }
+
+            this.rowBytes = n * this.encoding.entryBytes();
+            if (channel.size() != OriginDestinationTableBuilder.HEADER_BYTES + (long) n * this.rowBytes) {
+                throw new IOException("Origin-destination table has the wrong size: " + path);
+            }
+            this.rowsPerBuffer = Math.max(1, Integer.MAX_VALUE / this.rowBytes);
+            this.buffers = new MappedByteBuffer[(n + this.rowsPerBuffer - 1) / this.rowsPerBuffer];
+            for (int i = 0; i < this.buffers.length; i++) {
+                int rows = Math.min(this.rowsPerBuffer, n - i * this.rowsPerBuffer);
+                this.buffers[i] = channel.map(
+                        FileChannel.MapMode.READ_ONLY,
+                        OriginDestinationTableBuilder.HEADER_BYTES + (long) i * this.rowsPerBuffer * this.rowBytes,
+                        (long) rows * this.rowBytes
+                );
+                this.buffers[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+        event.finish(this, bodies.size());
+    }
+
+    /**
+     * @param bodies The same bodies in the same order as those in the distribution the table was built from
+     * @param path The file written by OriginDestinationTableBuilder
+     * @throws IOException If the file can't be read or was not written by OriginDestinationTableBuilder
+     * @throws IllegalArgumentException If the table was built from different bodies
+     */
+    public MappedOriginDestinationDistribution(List<B> bodies, Path path) throws IOException {
+        this(bodies, path, new PerThreadRandomGenerator());
+    }
+
+    /**
+     * @param ref One of the bodies in this distribution
+     */
+    @Override
+    public B getRandomBody(B ref) {
+        return this.getRandomBody(ref, this.rng);
+    }
+
+    /**
+     * @param ref One of the bodies in this distribution
+     */
+    @Override
+    public B getRandomBody(B ref, RandomGenerator rng) {
+        return this.sampleAndReport(this.indexOf(ref), rng);
+    }
+
+    /**
+     * @param origin The index of the reference body in the list of bodies
+     * @return A random body weighted by the amount of gravity that each body exerts on the body at the given index
+     */
+    public B getRandomBody(int origin) {
+        if (origin < 0 || origin >= this.bodies.size()) throw new IllegalArgumentException("Illegal origin " + origin);
+        return this.sampleAndReport(origin, this.rng);
+    }
+
+    /**
+     * Each draw reads one entry of the table that was computed in advance, so only one level and the elapsed time are
+     * reported, and no force evaluations
+     */
+    @Override
+    public void setQueryListener(QueryListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * The table is already stored in the file, so the sampler only needs to remember which row to read
+     */
+    @Override
+    public GravityModelSampler<T, B> getSampler(B ref) {
+        int origin = this.indexOf(ref);
+        return () -> this.bodies.get(this.sampleIndex(origin, this.rng));
+    }
+
+    private int indexOf(B ref) {
+        if (ref.mass == 0) throw new IllegalArgumentException("Reference point cannot have 0 mass");
+        Integer origin = this.indices.get(ref);
+        if (origin == null) throw new IllegalArgumentException("Reference point is not one of the bodies: " + ref);
+        return origin;
+    }
+
+    /**
+     * Draw a destination for the given origin, reporting the draw to the listener and Flight Recorder
+     */
+    private B sampleAndReport(int origin, RandomGenerator rng) {
+        return QueryReporter.reportIndex(
+                this, this.listener, this.bodies.size(), origin, rng, (dist, o, random, stats) -> {
+                    if (stats != null) stats.levels = 1;
+                    return dist.bodies.get(dist.sampleIndex(o, random));
+                }
+        );
+    }
+
+    /**
+     * @return The index of a random destination drawn from the alias table of the given origin
+     */
+    private int sampleIndex(int origin, RandomGenerator rng) {
+        ByteBuffer buf = this.buffers[origin / this.rowsPerBuffer];
+        int entryBytes = this.encoding.entryBytes();
+        int i = rng.nextInt(this.bodies.size());
+        int entry = (origin % this.rowsPerBuffer) * this.rowBytes + i * entryBytes;
+        int alias = buf.getInt(entry + this.encoding.probabilityBytes);
+        if (alias < 0) throw new IllegalArgumentException("No body exerts any force on the reference point");
+        return rng.nextDouble() < this.encoding.get(buf, entry) ? i : alias;
+    }
+}
@@ -0,0 +1,428 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.IntFunction;
+import java.util.random.RandomGenerator;
+
+/**
+ * A GravityModelDistribution that answers queries from a tree written by FlatQuadtreeGravityModelDistribution's
+ * writeSnapshot, with the FRONTIER sampling mode. The file is memory-mapped and queried in place rather than read into
+ * the heap, so loading takes about as long as opening the file however many bodies it holds, and the operating system
+ * decides how much of it to keep in memory. Given the same generator, it draws the same bodies as the distribution the
+ * snapshot was written from.
+ *
+ * <p/>
+ * QuadtreeBulkLoader builds the same tree from columns of primitives, and can either write it as a snapshot or serve
+ * queries from it in the heap through this class without a file.
+ *
+ * <p/>
+ * The file only stores an int id for each body's value. The value is looked up by the function given to the
+ * constructor, and a Body2D is only created for the body that is drawn.
+ *
+ * <p/>
+ * The file starts with a header of HEADER_BYTES bytes: the magic number, the version, the number of bodies N and the
+ * number of nodes M as ints, then the X, Y and side length of the root square as doubles. The header is followed by
+ * these arrays, in this order, with everything little-endian:
+ * <ul>
+ *     <li>The X values, Y values and masses of the bodies in depth-first order, as N doubles each</li>
+ *     <li>The mass and the X and Y values of the centre of mass of each node, as M doubles each</li>
+ *     <li>The id of each body's value, as N ints</li>
+ *     <li>The 4 children of each node in the order of Quadrant, or -1 for no child, as 4 * M ints</li>
+ *     <li>The depth, the index of the first body and the index after the last body of each node, as M ints each</li>
+ * </ul>
+ */
+public class MappedQuadtreeGravityModelDistribution<T> implements GravityModelDistribution<T, Body2D<T>> {
+
+    static final int MAGIC = 0x474D5154; // "GMQT"
+
+    static final int VERSION = 1;
+
+    /**
+     * The magic number, version, number of bodies and number of nodes as ints, then the root square as 3 doubles
+     */
+    static final int HEADER_BYTES = 40;
+
+    private static final int NO_CHILD = -1;
+
+    /**
+     * Per-thread scratch space for getRandomBody
+     */
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final IntFunction<? extends T> values;
+
+    private final DoubleBuffer bodyX;
+
+    private final DoubleBuffer bodyY;
+
+    private final DoubleBuffer bodyMass;
+
+    private final IntBuffer bodyId;
+
+    private final DoubleBuffer mass;
+
+    private final DoubleBuffer comX;
+
+    private final DoubleBuffer comY;
+
+    private final IntBuffer children;
+
+    private final IntBuffer depth;
+
+    private final IntBuffer bodyStart;
+
+    private final IntBuffer bodyEnd;
+
+    private final int numBodies;
+
+    private final double rootSide;
+
+    private final double theta;
+
+    private final RandomGenerator rng;
+
+    private volatile QueryListener listener;
+
+    /**
+     * @param path The file written by FlatQuadtreeGravityModelDistribution.writeSnapshot
+     * @param values Gives the value with each id that was written to the file
+     * @param theta The threshold value for when nodes are considered "far enough" to be considered as a combined
+     *              unit rather than considering each body individually. Smaller theta is more accurate but more
+     *              computationally intensive, and vice versa. This doesn't need to match the theta of the distribution
+     *              the snapshot was written from.
+     * @param rng The random number generator to be used
+     * @throws IOException If the file can't be read or is not a snapshot
+     */
+    public MappedQuadtreeGravityModelDistribution(
+            Path path, IntFunction<? extends T> values, double theta, RandomGenerator rng
+    ) throws IOException {
+        if (values == null) throw new IllegalArgumentException("Null values");
+        if (theta < 0 || Utils.isInvalidArg(theta)) {
+            throw new IllegalArgumentException("Invalid theta: " + theta);
+        }
+        ConstructionEvent event = ConstructionEvent.start();
+        this.values = values;
+        this.theta = theta;
+        this.rng = rng;
+
+        // The buffers stay valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) throw new IOException("Not a quadtree snapshot: " + path);
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC) throw new IOException("Not a quadtree snapshot: " + path);
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported quadtree snapshot version " + version + ": " + path);
+            }
+            int n = header.getInt();
+            int numNodes = header.getInt();
+            header.getDouble();
+            header.getDouble();
+            this.rootSide = header.getDouble();
+            long expectedSize = HEADER_BYTES
+                    + (long) n * (3 * Double.BYTES + Integer.BYTES)
+                    + (long) numNodes * (3 * Double.BYTES + 7 * Integer.BYTES);
+            if (n < 1 || numNodes < 1 || channel.size() != expectedSize) {
+                throw new IOException("Quadtree snapshot has the wrong size: " + path);
+            }
+            if (!fitsInBuffers(n, numNodes)) {
+                throw new IOException("Quadtree snapshot has too many bodies or nodes to map: " + path);
+            }
+            this.numBodies = n;
+
+            long offset = HEADER_BYTES;
+            this.bodyX = mapDoubles(channel, offset, n);
+            offset += (long) n * Double.BYTES;
+            this.bodyY = mapDoubles(channel, offset, n);
+            offset += (long) n * Double.BYTES;
+            this.bodyMass = mapDoubles(channel, offset, n);
+            offset += (long) n * Double.BYTES;
+            this.mass = mapDoubles(channel, offset, numNodes);
+            offset += (long) numNodes * Double.BYTES;
+            this.comX = mapDoubles(channel, offset, numNodes);
+            offset += (long) numNodes * Double.BYTES;
+            this.comY = mapDoubles(channel, offset, numNodes);
+            offset += (long) numNodes * Double.BYTES;
+            this.bodyId = mapInts(channel, offset, n);
+            offset += (long) n * Integer.BYTES;
+            this.children = mapInts(channel, offset, 4 * numNodes);
+            offset += 4L * numNodes * Integer.BYTES;
+            this.depth = mapInts(channel, offset, numNodes);
+            offset += (long) numNodes * Integer.BYTES;
+            this.bodyStart = mapInts(channel, offset, numNodes);
+            offset += (long) numNodes * Integer.BYTES;
+            this.bodyEnd = mapInts(channel, offset, numNodes);
+        }
+        event.finish(this, this.numBodies);
+    }
+
+    /**
+     * @param path The file written by FlatQuadtreeGravityModelDistribution.writeSnapshot
+     * @param values Gives the value with each id that was written to the file
+     * @param theta The threshold value for when nodes are considered "far enough" to be considered as a combined
+     *              unit rather than considering each body individually. Smaller theta is more accurate but more
+     *              computationally intensive, and vice versa
+     * @throws IOException If the file can't be read or is not a snapshot
+     */
+    public MappedQuadtreeGravityModelDistribution(
+            Path path, IntFunction<? extends T> values, double theta
+    ) throws IOException {
+        this(path, values, theta, new PerThreadRandomGenerator());
+    }
+
+    /**
+     * Write a snapshot in the format described above, replacing the file if it already exists. The snapshot is
+     * written to a temporary file in the same directory, which is then moved over the path in one step, so a reader
+     * never sees a partly written file and any distribution that has the old file mapped keeps its own copy. The
+     * header is also written last, so a temporary file left behind by a crash will be rejected if it is loaded.
+     *
+     * @param root The root square of the tree
+     * @param doubleColumns The double arrays in the order they are stored in the file, each of exactly the right length
+     * @param intColumns The int arrays in the order they are stored in the file, each of exactly the right length
+     * @throws IllegalArgumentException If the tree has too many bodies or nodes for the format
+     */
+    static void write(Path path, Square root, double[][] doubleColumns, int[][] intColumns) throws IOException {
+        int n = doubleColumns[0].length;
+        int numNodes = doubleColumns[3].length;
+        if (!fitsInBuffers(n, numNodes)) {
+            throw new IllegalArgumentException("Too many bodies or nodes: " + n + " bodies, " + numNodes + " nodes");
+        }
+        Path target = path.toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName() + ".", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long offset = HEADER_BYTES;
+                for (double[] column : doubleColumns) {
+                    long bytes = (long) column.length * Double.BYTES;
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, offset, bytes);
+                    buffer.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().put(column);
+                    buffer.force();
+                    offset += bytes;
+                }
+                for (int[] column : intColumns) {
+                    long bytes = (long) column.length * Integer.BYTES;
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, offset, bytes);
+                    buffer.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(column);
+                    buffer.force();
+                    offset += bytes;
+                }
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC)
+                        .putInt(VERSION)
+                        .putInt(n)
+                        .putInt(numNodes)
+                        .putDouble(root.midX)
+                        .putDouble(root.midY)
+                        .putDouble(root.sideLength);
+                header.clear();
+                long position = 0;
+                while (header.hasRemaining()) {
+                    position += channel.write(header, position);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Serve queries from a tree built in the heap, using its arrays rather than copying them
+     *
+     * @param tree A built and trimmed tree, whose `order` holds the id of each body's value
+     * @param rootSide The side length of the tree's root square
+     * @param values Gives the value with each id
+     * @param theta The threshold value for when nodes are considered "far enough" to be considered as a combined unit
+     * @param rng The random number generator to be used
+     */
+    MappedQuadtreeGravityModelDistribution(
+            FlatQuadtreeBuilder tree, double rootSide, IntFunction<? extends T> values, double theta, RandomGenerator rng
+    ) {
+        if (values == null) throw new IllegalArgumentException("Null values");
+        if (theta < 0 || Utils.isInvalidArg(theta)) {
+            throw new IllegalArgumentException("Invalid theta: " + theta);
+        }
+        this.values = values;
+        this.theta = theta;
+        this.rng = rng;
+        this.numBodies = tree.order.length;
+        this.rootSide = rootSide;
+        this.bodyX = DoubleBuffer.wrap(tree.x);
+        this.bodyY = DoubleBuffer.wrap(tree.y);
+        this.bodyMass = DoubleBuffer.wrap(tree.bodyMass);
+        this.bodyId = IntBuffer.wrap(tree.order);
+        this.mass = DoubleBuffer.wrap(tree.mass);
+        this.comX = DoubleBuffer.wrap(tree.comX);
+        this.comY = DoubleBuffer.wrap(tree.comY);
+        this.children = IntBuffer.wrap(tree.children);
+        this.depth = IntBuffer.wrap(tree.depth);
+        this.bodyStart = IntBuffer.wrap(tree.bodyStart);
+        this.bodyEnd = IntBuffer.wrap(tree.bodyEnd);
+    }
+
+    /**
+     * Each array is mapped as its own buffer, so must fit in Integer.MAX_VALUE bytes. The largest arrays are the
+     * bodies' doubles and the nodes' children.
+     *
+     * @return Whether every array of a tree with this many bodies and nodes can be mapped
+     */
+    private static boolean fitsInBuffers(int n, int numNodes) {
+        return (long) n * Double.BYTES <= Integer.MAX_VALUE && 4L * numNodes * Integer.BYTES <= Integer.MAX_VALUE;
+    }
+
+    private static DoubleBuffer mapDoubles(FileChannel channel, long offset, int count) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, (long) count * Double.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asDoubleBuffer();
+    }
+
+    private static IntBuffer mapInts(FileChannel channel, long offset, int count) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, (long) count * Integer.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asIntBuffer();
+    }
+
+    @Override
+    public Body2D<T> getRandomBody(Body2D<T> ref) {
+        return this.getRandomBody(ref, this.rng);
+    }
+
+    @Override
+    public Body2D<T> getRandomBody(Body2D<T> ref, RandomGenerator rng) {
+        return QueryReporter.report(
+                this, this.listener, this.numBodies, ref, rng, (dist, r, random, stats) -> dist.sample(r, random)
+        );
+    }
+
+    /**
+     * Counts the work in the same way as FlatQuadtreeGravityModelDistribution in QuadtreeSamplingMode.FRONTIER
+     */
+    @Override
+    public void setQueryListener(QueryListener listener) {
+        this.listener = listener;
+    }
+
+    private Body2D<T> sample(Body2D<T> ref, RandomGenerator rng) {
+        int i = this.chooseBodyInLeaf(this.chooseLeafByFrontier(ref.x, ref.y, rng), rng);
+        return new Body2D<>(
+                this.bodyMass.get(i), this.bodyX.get(i), this.bodyY.get(i), this.values.apply(this.bodyId.get(i))
+        );
+    }
+
+    /**
+     * @return The number of bodies in the snapshot
+     */
+    public int size() {
+        return this.numBodies;
+    }
+
+    /**
+     * The same descent as FlatQuadtreeGravityModelDistribution.chooseLeafByFrontier
+     *
+     * @return The chosen leaf
+     */
+    private int chooseLeafByFrontier(double x, double y, RandomGenerator rng) {
+        Scratch scratch = SCRATCH.get();
+        int selected = 0;
+        double levelTheta = this.theta;
+        double rand = rng.nextDouble();
+        do {
+            scratch.size = 0;
+            double side = Math.scalb(this.rootSide, -this.depth.get(selected));
+            this.addCandidates(selected, side, x, y, levelTheta, scratch);
+            scratch.stats.addLevel(scratch.size);
+            for (int i = 0; i < scratch.size; i++) {
+                scratch.forces[i] = this.gravForceOn(scratch.nodes[i], x, y);
+            }
+            selected = scratch.nodes[Utils.chooseRandomIndexByWeight(scratch.forces, scratch.size, rand)];
+            levelTheta /= 2;
+        } while (!this.isLeaf(selected));
+        return selected;
+    }
+
+    /**
+     * Add the nodes within the subtree headed at `node` that should be considered individually to the scratch space
+     *
+     * @param side The side length of the node's square
+     */
+    private void addCandidates(int node, double side, double x, double y, double theta, Scratch out) {
+        out.stats.nodesVisited++;
+        if (this.isLeaf(node) || side / this.distanceTo(node, x, y) < theta) {
+            out.add(node);
+        }
+        else {
+            for (int q = 4 * node; q < 4 * node + 4; q++) {
+                int child = this.children.get(q);
+                if (child != NO_CHILD) this.addCandidates(child, side / 2, x, y, theta, out);
+            }
+        }
+    }
+
+    private boolean isLeaf(int node) {
+        int i = 4 * node;
+        return this.children.get(i) == NO_CHILD
+                && this.children.get(i + 1) == NO_CHILD
+                && this.children.get(i + 2) == NO_CHILD
+                && this.children.get(i + 3) == NO_CHILD;
+    }
+
+    /**
+     * @return The gravity that the node's centre of mass exerts on a point mass of 1 at (x, y)
+     */
+    private double gravForceOn(int node, double x, double y) {
+        double m = this.mass.get(node);
+        if (m == 0) return 0.0;
+        double r = this.distanceTo(node, x, y);
+        if (r == 0) return 0;
+        return m / (r*r);
+    }
+
+    private double distanceTo(int node, double x, double y) {
+        double dx = x - this.comX.get(node);
+        double dy = y - this.comY.get(node);
+        return Math.sqrt(dx*dx + dy*dy);
+    }
+
+    /**
+     * @return The index of one of the leaf's bodies weighted by their masses
+     */
+    private int chooseBodyInLeaf(int leaf, RandomGenerator rng) {
+        return Utils.chooseIndexByMass(
+                this.bodyMass, this.bodyStart.get(leaf), this.bodyEnd.get(leaf), this.mass.get(leaf), rng
+        );
+    }
+
+    /**
+     * Buffers reused between calls to getRandomBody on the same thread
+     */
+    private static class Scratch {
+        int[] nodes = new int[16];
+        double[] forces = new double[16];
+        int size = 0;
+        final QueryStats stats = QueryStats.current();
+
+        void add(int node) {
+            if (this.size == this.nodes.length) {
+                this.nodes = Arrays.copyOf(this.nodes, 2 * this.size);
+                this.forces = Arrays.copyOf(this.forces, 2 * this.size);
+            }
+            this.nodes[this.size++] = node;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.random.RandomGenerator;
+
+/**
+ * Builds the tree of Nodes used by QuadtreeGravityModelDistribution all at once, rather than inserting the bodies one
+ * at a time from the root. Each body is given a Morton (Z-order) key made of the quadrants that contain it at each of
+ * the top levels of the tree, followed by its index. Once the keys are sorted, the bodies of every subtree are next to
+ * each other and the bodies of each child are found by binary search, so the subtrees can be built independently on
+ * different threads. Each internal node combines the centres of mass of its children once they are built.
+ *
+ * <p/>
+ * The quadrants are found with the same comparisons and the same squares as Node.insert, so the tree has the same shape
+ * as one built by inserting the bodies in order. Bodies that still share a square below the levels of the key are
+ * inserted into it in their original order. Only the centres of mass can differ, by rounding error.
+ */
+final class MortonQuadtreeBuilder<T> {
+
+    /**
+     * Subtrees with at least this many bodies are built in parallel with each other
+     */
+    private static final int FORK_THRESHOLD = 1 << 13;
+
+    /**
+     * The keys are computed, and the bodies put in order, in chunks of this many bodies
+     */
+    private static final int CHUNK = 1 << 14;
+
+    /**
+     * The quadrant for each 2-bit code in a key, where the low bit is set for the east half and the high bit for the
+     * north half. Like Square.getQuadrant, points on an axis count as north and east.
+     */
+    private static final Quadrant[] QUADRANT_BY_CODE = {
+            Quadrant.SOUTHWEST, Quadrant.SOUTHEAST, Quadrant.NORTHWEST, Quadrant.NORTHEAST
+    };
+
+    private final Body2D<T>[] bodies;
+
+    private final Square root;
+
+    private final RandomGenerator rng;
+
+    private final ExecutionPolicy policy;
+
+    private final boolean parallel;
+
+    /**
+     * The number of low bits of each key holding the body's index
+     */
+    private final int indexBits;
+
+    /**
+     * The number of levels of the tree described by the keys. The keys use at most 63 bits, so that they sort the
+     * same as signed longs.
+     */
+    private final int levels;
+
+    private final long[] keys;
+
+    MortonQuadtreeBuilder(List<Body2D<T>> bodies, Square root, RandomGenerator rng, ExecutionPolicy policy) {
+        int n = bodies.size();
+        this.bodies = bodies.toArray(Utils.newArray(Body2D.class, n));
+        this.root = root;
+        this.rng = rng;
+        this.policy = policy;
+        this.parallel = policy.parallelism() > 1 && n >= FORK_THRESHOLD;
+        this.indexBits = n == 1 ? 0 : Integer.SIZE - Integer.numberOfLeadingZeros(n - 1);
+        this.levels = (Long.SIZE - 1 - this.indexBits) / 2;
+        this.keys = new long[n];
+    }
+
+    /**
+     * @return The root of the tree
+     */
+    Node<T> build() {
+        int n = this.bodies.length;
+        int chunks = (n + CHUNK - 1) / CHUNK;
+        this.policy.forEach(chunks, chunk -> {
+            int end = Math.min(n, (chunk + 1) * CHUNK);
+            for (int i = chunk * CHUNK; i < end; i++) {
+                this.keys[i] = this.key(i);
+            }
+        });
+        if (this.parallel) {
+            this.policy.invoke(ForkJoinTask.adapt(() -> Arrays.parallelSort(this.keys)));
+        }
+        else {
+            Arrays.sort(this.keys);
+        }
+
+        // Put the bodies in the order of their keys
+        Body2D<T>[] input = this.bodies;
+        Body2D<T>[] sorted = Utils.newArray(Body2D.class, n);
+        long indexMask = (1L << this.indexBits) - 1;
+        this.policy.forEach(chunks, chunk -> {
+            int end = Math.min(n, (chunk + 1) * CHUNK);
+            for (int i = chunk * CHUNK; i < end; i++) {
+                sorted[i] = input[(int) (this.keys[i] & indexMask)];
+            }
+        });
+        System.arraycopy(sorted, 0, input, 0, n);
+
+        if (this.parallel) return this.policy.invoke(new BuildTask(0, n, 0, this.root));
+        return this.build(0, n, 0, this.root);
+    }
+
+    /**
+     * @return The key of the i'th body. The squares are split in the same way as Square.getSubSquare.
+     */
+    private long key(int i) {
+        Body2D<T> b = this.bodies[i];
+        double midX = this.root.midX, midY = this.root.midY, side = this.root.sideLength;
+        long key = 0;
+        for (int level = 0; level < this.levels; level++) {
+            double quarter = side / 4;
+            boolean east = b.x >= midX;
+            boolean north = b.y >= midY;
+            key = key << 2 | (east ? 1 : 0) | (north ? 2 : 0);
+            midX = east ? midX + quarter : midX - quarter;
+            midY = north ? midY + quarter : midY - quarter;
+            side /= 2;
+        }
+        return key << this.indexBits | i;
+    }
+
+    /**
+     * Build the subtree for the bodies in [from, to), which all lie in `area` at the given level
+     */
+    private Node<T> build(int from, int to, int level, Square area) {
+        Node<T> leaf = this.buildLeaf(from, to, level, area);
+        if (leaf != null) return leaf;
+        int[] bounds = this.childBounds(from, to, level);
+        Map<Quadrant, Node<T>> children = new HashMap<>(4);
+        for (int code = 0; code < QUADRANT_BY_CODE.length; code++) {
+            if (bounds[code] == bounds[code + 1]) continue;
+            Quadrant quadrant = QUADRANT_BY_CODE[code];
+            children.put(quadrant, this.build(bounds[code], bounds[code + 1], level + 1, area.getSubSquare(quadrant)));
+        }
+        return new Node<>(children, area, this.rng);
+    }
+
+    /**
+     * @return The leaf for the bodies in [from, to) if there is only one, or the subtree made by inserting them one at
+     *         a time if they are below the levels of the key. Otherwise null.
+     */
+    private Node<T> buildLeaf(int from, int to, int level, Square area) {
+        if (to - from != 1 && level < this.levels) return null;
+        Node<T> node = new Node<>(this.bodies[from], area, this.rng);
+        for (int i = from + 1; i < to; i++) {
+            node.insert(this.bodies[i]);
+        }
+        return node;
+    }
+
+    /**
+     * @return The bounds of the bodies in [from, to) in each quadrant at the given level, in the order of their codes
+     */
+    private int[] childBounds(int from, int to, int level) {
+        int shift = this.indexBits + 2 * (this.levels - 1 - level);
+        int[] bounds = new int[QUADRANT_BY_CODE.length + 1];
+        bounds[0] = from;
+        for (int code = 1; code < QUADRANT_BY_CODE.length; code++) {
+            // The bodies in [from, to) share every higher bit of their keys, so they are sorted by this code
+            int lo = bounds[code - 1], hi = to;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if ((int) (this.keys[mid] >>> shift & 3) < code) lo = mid + 1;
+                else hi = mid;
+            }
+            bounds[code] = lo;
+        }
+        bounds[QUADRANT_BY_CODE.length] = to;
+        return bounds;
+    }
+
+    /**
+     * Builds a subtree, building the subtrees of its children in parallel while they are large enough
+     */
+    private final class BuildTask extends RecursiveTask<Node<T>> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int level;
+        private final Square area;
+
+        BuildTask(int from, int to, int level, Square area) {
+            this.from = from;
+            this.to = to;
+            this.level = level;
+            this.area = area;
+        }
+
+        @Override
+        protected Node<T> compute() {
+            if (this.to - this.from < FORK_THRESHOLD) return build(this.from, this.to, this.level, this.area);
+            Node<T> leaf = buildLeaf(this.from, this.to, this.level, this.area);
+            if (leaf != null) return leaf;
+            int[] bounds = childBounds(this.from, this.to, this.level);
+            BuildTask[] tasks = Utils.newArray(BuildTask.class, QUADRANT_BY_CODE.length);
+            int last = -1;
+            for (int code = 0; code < QUADRANT_BY_CODE.length; code++) {
+                if (bounds[code] == bounds[code + 1]) continue;
+                Square sub = this.area.getSubSquare(QUADRANT_BY_CODE[code]);
+                tasks[code] = new BuildTask(bounds[code], bounds[code + 1], this.level + 1, sub);
+                if (last >= 0) tasks[last].fork();
+                last = code;
+            }
+            Map<Quadrant, Node<T>> children = new HashMap<>(4);
+            children.put(QUADRANT_BY_CODE[last], tasks[last].compute());
+            for (int code = last - 1; code >= 0; code--) {
+                if (tasks[code] != null) children.put(QUADRANT_BY_CODE[code], tasks[code].join());
+            }
+            return new Node<>(children, this.area, rng);
+        }
+    }
+}
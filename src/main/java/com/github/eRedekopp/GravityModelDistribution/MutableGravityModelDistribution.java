@@ -0,0 +1,33 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+/**
+ * A GravityModelDistribution whose bodies can be changed after it is created. Changes may run concurrently with calls
+ * to getRandomBody, which always sample from the bodies as they were either before or after each change.
+ */
+public interface MutableGravityModelDistribution<T, B extends Body<T>> extends GravityModelDistribution<T, B> {
+    /**
+     * @param body A body to add to the distribution
+     */
+    void addBody(B body);
+
+    /**
+     * @param body The body to remove. This is the same object that was added, not just an equal one.
+     * @return Whether the body was in the distribution
+     */
+    boolean removeBody(B body);
+
+    /**
+     * Replace a body with a copy of it with a different mass
+     *
+     * @param body The body to replace. This is the same object that was added, not just an equal one.
+     * @param mass The new mass
+     * @return The copy of the body that replaced it, to be passed to later calls to removeBody and updateMass
+     * @throws IllegalArgumentException If the body is not in the distribution or the mass is invalid
+     */
+    B updateMass(B body, double mass);
+
+    /**
+     * @return The number of bodies in the distribution
+     */
+    int size();
+}
@@ -0,0 +1,483 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.random.RandomGenerator;
+
+/**
+ * A QuadtreeGravityModelDistribution whose bodies can be added, removed and reweighted after it is created, while
+ * other threads are sampling from it.
+ *
+ * <p/>
+ * The tree is persistent: its nodes are never changed once they are created. Each change copies only the nodes on the
+ * path from the root to the affected leaf, recomputing their masses and centres of mass from their children, so it
+ * takes O(depth) time and memory. The new root is then published in a volatile field. Readers never block, and each
+ * call to getRandomBody samples from the single version of the tree it read at the start. Changes are serialized with
+ * each other.
+ *
+ * <p/>
+ * Sampling works the same way as QuadtreeGravityModelDistribution in QuadtreeSamplingMode.FRONTIER. Bodies at the same
+ * location share a leaf, which picks one of them weighted by their masses. Adding a body outside of the tree's square
+ * doubles the square, with the old tree as one of its quadrants, until it fits.
+ */
+public class MutableQuadtreeGravityModelDistribution<T> implements MutableGravityModelDistribution<T, Body2D<T>> {
+
+    private static final Quadrant[] QUADRANTS = Quadrant.values();
+
+    /**
+     * Per-thread scratch space for getRandomBody
+     */
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final double theta;
+
+    private final RandomGenerator rng;
+
+    /**
+     * Held while changing the tree
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * The current version of the tree
+     */
+    private volatile Tree<T> tree;
+
+    private volatile QueryListener listener;
+
+    /**
+     * @param bodies The bodies to be inserted into the tree, which may be empty
+     * @param theta The threshold value for when nodes are considered "far enough" to be considered as a combined
+     *              unit rather than considering each body individually. Smaller theta is more accurate but more
+     *              computationally intensive, and vice versa
+     * @param rng The random number generator to be used
+     */
+    public MutableQuadtreeGravityModelDistribution(List<Body2D<T>> bodies, double theta, RandomGenerator rng) {
+        if (theta < 0 || Utils.isInvalidArg(theta)) {
+            throw new IllegalArgumentException("Invalid theta: " + theta);
+        }
+        ConstructionEvent event = ConstructionEvent.start();
+        this.theta = theta;
+        this.rng = rng;
+        if (bodies.isEmpty()) {
+            this.tree = new Tree<>(null, null, 0);
+        }
+        else {
+            Square area = QuadtreeGravityModelDistribution.getBoundingSquare(bodies);
+            Body2D<T>[] array = bodies.toArray(Utils.<Body2D<T>>newArray(Body2D.class, 0));
+            TreeNode<T> root = build(array, Utils.newArray(Body2D.class, array.length), 0, array.length, area);
+            this.tree = new Tree<>(root, area, bodies.size());
+        }
+        event.finish(this, bodies.size());
+    }
+
+    /**
+     * @param bodies The bodies to be inserted into the tree, which may be empty
+     * @param theta The threshold value for when nodes are considered "far enough" to be considered as a combined
+     *              unit rather than considering each body individually. Smaller theta is more accurate but more
+     *              computationally intensive, and vice versa
+     */
+    public MutableQuadtreeGravityModelDistribution(List<Body2D<T>> bodies, double theta) {
+        this(bodies, theta, new PerThreadRandomGenerator());
+    }
+
+    /**
+     * @throws IllegalStateException If there are no bodies
+     */
+    @Override
+    public Body2D<T> getRandomBody(Body2D<T> ref) {
+        return this.getRandomBody(ref, this.rng);
+    }
+
+    /**
+     * @throws IllegalStateException If there are no bodies
+     */
+    @Override
+    public Body2D<T> getRandomBody(Body2D<T> ref, RandomGenerator rng) {
+        return QueryReporter.report(
+                this, this.listener, this.tree.size, ref, rng, (dist, r, random, stats) -> dist.sample(r, random)
+        );
+    }
+
+    /**
+     * Counts the work in the same way as QuadtreeGravityModelDistribution
+     */
+    @Override
+    public void setQueryListener(QueryListener listener) {
+        this.listener = listener;
+    }
+
+    private Body2D<T> sample(Body2D<T> ref, RandomGenerator rng) {
+        TreeNode<T> root = this.tree.root;
+        if (root == null) throw new IllegalStateException("No bodies");
+        return chooseBodyInLeaf(this.chooseLeaf(root, ref.x, ref.y, rng), rng);
+    }
+
+    @Override
+    public void addBody(Body2D<T> body) {
+        if (body == null) throw new IllegalArgumentException("Null body");
+        MaintenanceEvent event = MaintenanceEvent.start();
+        synchronized (this.writeLock) {
+            Tree<T> current = this.tree;
+            TreeNode<T> root = current.root;
+            Square area = current.area;
+            if (area == null) {
+                area = QuadtreeGravityModelDistribution.getBoundingSquare(List.of(body));
+            }
+            while (!area.contains(body.x, body.y)) {
+                // Double the square towards the body, keeping the old square as one of its quadrants
+                double half = area.sideLength / 2;
+                Square grown = new Square(
+                        area.midX + (body.x < area.midX ? -half : half),
+                        area.midY + (body.y < area.midY ? -half : half),
+                        2 * area.sideLength
+                );
+                if (root != null) {
+                    TreeNode<T>[] children = newChildren();
+                    Quadrant q = root.isLeaf()
+                            ? grown.getQuadrant(root.x, root.y)
+                            : grown.getQuadrant(area.midX, area.midY);
+                    children[q.ordinal()] = root;
+                    root = TreeNode.internal(grown.sideLength, children);
+                }
+                area = grown;
+            }
+            this.tree = new Tree<>(insert(root, area, body), area, current.size + 1);
+        }
+        event.finish(this, MaintenanceEvent.ADD_BODY, this.size(), 0);
+    }
+
+    @Override
+    public boolean removeBody(Body2D<T> body) {
+        if (body == null) return false;
+        MaintenanceEvent event = MaintenanceEvent.start();
+        synchronized (this.writeLock) {
+            Tree<T> current = this.tree;
+            if (current.root == null || !current.area.contains(body.x, body.y)) return false;
+            TreeNode<T> root = replace(current.root, current.area, body, null);
+            if (root == current.root) return false;
+            this.tree = new Tree<>(root, current.area, current.size - 1);
+        }
+        event.finish(this, MaintenanceEvent.REMOVE_BODY, this.size(), 0);
+        return true;
+    }
+
+    @Override
+    public Body2D<T> updateMass(Body2D<T> body, double mass) {
+        if (body == null) throw new IllegalArgumentException("Null body");
+        Body2D<T> updated = new Body2D<>(mass, body.x, body.y, body.value);
+        MaintenanceEvent event = MaintenanceEvent.start();
+        synchronized (this.writeLock) {
+            Tree<T> current = this.tree;
+            TreeNode<T> root = current.root == null || !current.area.contains(body.x, body.y)
+                    ? current.root
+                    : replace(current.root, current.area, body, updated);
+            if (root == current.root) throw new IllegalArgumentException("Body not in distribution: " + body);
+            this.tree = new Tree<>(root, current.area, current.size);
+        }
+        event.finish(this, MaintenanceEvent.UPDATE_MASS, this.size(), 0);
+        return updated;
+    }
+
+    @Override
+    public int size() {
+        return this.tree.size;
+    }
+
+    /**
+     * Build the subtree for the bodies at [from, to) of `bodies`, which is the same as the one made by inserting them
+     * one at a time in order, but without copying the path to each one. The bodies are stably partitioned by quadrant
+     * so that each leaf keeps its bodies in the order they were given.
+     *
+     * @param area The area covered by the subtree, which must contain all of the bodies
+     * @param buffer Scratch space the same length as `bodies`
+     */
+    private static <T> TreeNode<T> build(Body2D<T>[] bodies, Body2D<T>[] buffer, int from, int to, Square area) {
+        Body2D<T> first = bodies[from];
+        boolean coincident = true;
+        for (int i = from + 1; i < to && coincident; i++) {
+            coincident = bodies[i].x == first.x && bodies[i].y == first.y;
+        }
+        if (coincident) {
+            return TreeNode.leaf(Arrays.copyOfRange(bodies, from, to));
+        }
+
+        // Counting sort the bodies by quadrant
+        int[] bounds = new int[QUADRANTS.length + 1];
+        for (int i = from; i < to; i++) {
+            bounds[area.getQuadrant(bodies[i].x, bodies[i].y).ordinal() + 1]++;
+        }
+        bounds[0] = from;
+        for (int q = 0; q < QUADRANTS.length; q++) {
+            bounds[q + 1] += bounds[q];
+        }
+        int[] next = Arrays.copyOf(bounds, QUADRANTS.length);
+        for (int i = from; i < to; i++) {
+            buffer[next[area.getQuadrant(bodies[i].x, bodies[i].y).ordinal()]++] = bodies[i];
+        }
+        System.arraycopy(buffer, from, bodies, from, to - from);
+
+        TreeNode<T>[] children = newChildren();
+        for (Quadrant q : QUADRANTS) {
+            int start = bounds[q.ordinal()], end = bounds[q.ordinal() + 1];
+            if (start < end) {
+                children[q.ordinal()] = build(bodies, buffer, start, end, area.getSubSquare(q));
+            }
+        }
+        return TreeNode.internal(area.sideLength, children);
+    }
+
+    /**
+     * @return A copy of the subtree headed at `node`, which covers `area`, with the body added
+     */
+    private static <T> TreeNode<T> insert(TreeNode<T> node, Square area, Body2D<T> b) {
+        if (node == null) {
+            return TreeNode.leaf(singleton(b));
+        }
+        TreeNode<T>[] children;
+        if (node.isLeaf()) {
+            if (node.x == b.x && node.y == b.y) {
+                Body2D<T>[] bodies = Arrays.copyOf(node.bodies, node.bodies.length + 1);
+                bodies[node.bodies.length] = b;
+                return TreeNode.leaf(bodies);
+            }
+            // Split the leaf, moving it down into the quadrant it is in
+            children = newChildren();
+            children[area.getQuadrant(node.x, node.y).ordinal()] = node;
+        }
+        else {
+            children = node.children.clone();
+        }
+        Quadrant q = area.getQuadrant(b.x, b.y);
+        children[q.ordinal()] = insert(children[q.ordinal()], area.getSubSquare(q), b);
+        return TreeNode.internal(area.sideLength, children);
+    }
+
+    /**
+     * @return A copy of the subtree headed at `node`, which covers `area`, with the body replaced by `replacement` or
+     *         removed if it is null, or `node` itself if the body isn't in the subtree
+     */
+    private static <T> TreeNode<T> replace(TreeNode<T> node, Square area, Body2D<T> body, Body2D<T> replacement) {
+        if (node == null) return null;
+        if (node.isLeaf()) {
+            if (node.x != body.x || node.y != body.y) return node;
+            for (int i = 0; i < node.bodies.length; i++) {
+                if (node.bodies[i] != body) continue;
+                if (replacement != null) {
+                    Body2D<T>[] bodies = node.bodies.clone();
+                    bodies[i] = replacement;
+                    return TreeNode.leaf(bodies);
+                }
+                if (node.bodies.length == 1) return null;
+                Body2D<T>[] bodies = Utils.newArray(Body2D.class, node.bodies.length - 1);
+                System.arraycopy(node.bodies, 0, bodies, 0, i);
+                System.arraycopy(node.bodies, i + 1, bodies, i, bodies.length - i);
+                return TreeNode.leaf(bodies);
+            }
+            return node;
+        }
+        // A body on the edge of a quadrant is normally in the quadrant that getQuadrant gives, but it can be in a
+        // neighbouring one if the tree grew around it, so try every quadrant whose square contains it
+        for (Quadrant q : QUADRANTS) {
+            TreeNode<T> child = node.children[q.ordinal()];
+            if (child == null) continue;
+            Square subSquare = area.getSubSquare(q);
+            if (!subSquare.contains(body.x, body.y)) continue;
+            TreeNode<T> newChild = replace(child, subSquare, body, replacement);
+            if (newChild == child) continue;
+
+            TreeNode<T>[] children = node.children.clone();
+            children[q.ordinal()] = newChild;
+            int numChildren = 0;
+            TreeNode<T> onlyChild = null;
+            for (TreeNode<T> c : children) {
+                if (c != null) {
+                    numChildren++;
+                    onlyChild = c;
+                }
+            }
+            if (numChildren == 0) return null;
+            // A lone leaf doesn't need a parent, and the same goes for all of the parents above it
+            if (numChildren == 1 && onlyChild.isLeaf()) return onlyChild;
+            return TreeNode.internal(area.sideLength, children);
+        }
+        return node;
+    }
+
+    /**
+     * The same descent as Node.getRandomBody
+     */
+    private TreeNode<T> chooseLeaf(TreeNode<T> root, double x, double y, RandomGenerator rng) {
+        Scratch scratch = SCRATCH.get();
+        TreeNode<T> selected = root;
+        double levelTheta = this.theta;
+        double rand = rng.nextDouble();
+        int used = 0;
+        do {
+            scratch.size = 0;
+            addCandidates(selected, x, y, levelTheta, scratch);
+            scratch.stats.addLevel(scratch.size);
+            used = Math.max(used, scratch.size);
+            int i = Utils.chooseRandomIndexByWeight(scratch.forces, scratch.size, rand);
+            @SuppressWarnings("unchecked")
+            TreeNode<T> chosen = (TreeNode<T>) scratch.nodes[i];
+            selected = chosen;
+            levelTheta /= 2;
+        } while (!selected.isLeaf());
+        // Don't hold on to nodes of old versions of the tree
+        Arrays.fill(scratch.nodes, 0, used, null);
+        return selected;
+    }
+
+    /**
+     * Add the nodes within the subtree headed at `node` that should be considered individually to the scratch space,
+     * along with the gravity that each one exerts on a point mass of 1 at (x, y)
+     */
+    private static void addCandidates(TreeNode<?> node, double x, double y, double theta, Scratch out) {
+        out.stats.nodesVisited++;
+        double dx = x - node.x;
+        double dy = y - node.y;
+        double r = Math.sqrt(dx*dx + dy*dy);
+        // This node is either a leaf, or the combined centre of mass is far enough that we consider it all together
+        if (node.isLeaf() || node.side / r < theta) {
+            out.add(node, node.mass == 0 || r == 0 ? 0 : node.mass / (r*r));
+        }
+        else {
+            for (TreeNode<?> child : node.children) {
+                if (child != null) addCandidates(child, x, y, theta, out);
+            }
+        }
+    }
+
+    /**
+     * @return One of the leaf's bodies weighted by their masses. These are all at the same location.
+     */
+    private static <T> Body2D<T> chooseBodyInLeaf(TreeNode<T> leaf, RandomGenerator rng) {
+        return leaf.bodies[Utils.chooseIndexByMass(leaf.bodies, 0, leaf.bodies.length, leaf.mass, rng)];
+    }
+
+    /**
+     * @return The number of nodes in the current version of the tree
+     */
+    int getNodeCount() {
+        return countNodes(this.tree.root);
+    }
+
+    private static int countNodes(TreeNode<?> node) {
+        if (node == null) return 0;
+        if (node.isLeaf()) return 1;
+        int count = 1;
+        for (TreeNode<?> child : node.children) {
+            count += countNodes(child);
+        }
+        return count;
+    }
+
+    private static <T> TreeNode<T>[] newChildren() {
+        return Utils.newArray(TreeNode.class, QUADRANTS.length);
+    }
+
+    private static <T> Body2D<T>[] singleton(Body2D<T> b) {
+        Body2D<T>[] bodies = Utils.newArray(Body2D.class, 1);
+        bodies[0] = b;
+        return bodies;
+    }
+
+    /**
+     * One version of the tree. The root is null when there are no bodies, and the area is null until the first body is
+     * added.
+     */
+    private static class Tree<T> {
+        final TreeNode<T> root;
+        final Square area;
+        final int size;
+
+        Tree(TreeNode<T> root, Square area, int size) {
+            this.root = root;
+            this.area = area;
+            this.size = size;
+        }
+    }
+
+    /**
+     * An immutable node of the tree. Internal nodes have children and the side length of their square, and leaves have
+     * one or more bodies at the same location. Leaves don't need their square, so they can be moved up or down the tree.
+     */
+    private static class TreeNode<T> {
+        /**
+         * The children of an internal node indexed by Quadrant.ordinal(), with null for empty quadrants, or null for a
+         * leaf
+         */
+        final TreeNode<T>[] children;
+
+        /**
+         * The bodies of a leaf, or null for an internal node
+         */
+        final Body2D<T>[] bodies;
+
+        final double side;
+
+        final double mass;
+
+        /**
+         * The centre of mass of the subtree, or for a leaf the location of its bodies
+         */
+        final double x;
+
+        final double y;
+
+        private TreeNode(TreeNode<T>[] children, Body2D<T>[] bodies, double side, double mass, double x, double y) {
+            this.children = children;
+            this.bodies = bodies;
+            this.side = side;
+            this.mass = mass;
+            this.x = x;
+            this.y = y;
+        }
+
+        static <T> TreeNode<T> leaf(Body2D<T>[] bodies) {
+            double mass = 0;
+            for (Body2D<T> b : bodies) {
+                mass += b.mass;
+            }
+            return new TreeNode<>(null, bodies, 0, mass, bodies[0].x, bodies[0].y);
+        }
+
+        static <T> TreeNode<T> internal(double side, TreeNode<T>[] children) {
+            double mass = 0, sumX = 0, sumY = 0;
+            for (TreeNode<T> child : children) {
+                if (child == null) continue;
+                mass += child.mass;
+                sumX += child.mass * child.x;
+                sumY += child.mass * child.y;
+            }
+            // The same as Body2D.plus when all of the bodies have no mass
+            return mass == 0
+                    ? new TreeNode<>(children, null, side, 0, 0, 0)
+                    : new TreeNode<>(children, null, side, mass, sumX / mass, sumY / mass);
+        }
+
+        boolean isLeaf() {
+            return this.bodies != null;
+        }
+    }
+
+    /**
+     * Buffers reused between calls to getRandomBody on the same thread
+     */
+    private static class Scratch {
+        Object[] nodes = new Object[16];
+        double[] forces = new double[16];
+        int size = 0;
+        final QueryStats stats = QueryStats.current();
+
+        void add(Object node, double force) {
+            if (this.size == this.nodes.length) {
+                this.nodes = Arrays.copyOf(this.nodes, 2 * this.size);
+                this.forces = Arrays.copyOf(this.forces, 2 * this.size);
+            }
+            this.nodes[this.size] = node;
+            this.forces[this.size++] = force;
+        }
+    }
+}
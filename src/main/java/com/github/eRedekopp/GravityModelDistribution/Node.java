@@ -1,11 +1,19 @@
 package com.github.eRedekopp.GravityModelDistribution;
 
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.random.RandomGenerator;
 
 class Node<T> {
 
+    private static final Quadrant[] QUADRANTS = Quadrant.values();
+
+    /**
+     * Per-thread scratch space for getRandomBody
+     */
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
     /**
      * The child nodes of this node, if they exist.
      */
@@ -20,7 +28,7 @@ class Node<T> {
     /**
      * The RNG used for getRandomBody
      */
-    private final Random rng;
+    private final RandomGenerator rng;
 
     /**
      * The area represented by the entire subtree headed at this node
@@ -33,7 +41,7 @@ class Node<T> {
      * @param area The area represented by this node and its entire subtree
      */
     public Node(Body2D<T> body, Square area) {
-        this(body, area, new Random());
+        this(body, area, new PerThreadRandomGenerator());
     }
 
     /**
@@ -42,7 +50,7 @@ class Node<T> {
      * @param area The area represented by this node and its entire subtree
      * @param rng The RNG for use in getRandomBody
      */
-    public Node(Body2D<T> body, Square area, Random rng) {
+    public Node(Body2D<T> body, Square area, RandomGenerator rng) {
         if (body == null) throw new IllegalArgumentException("Null body");
         if (area == null) throw new IllegalArgumentException("Null area");
         if (!area.contains(body.x, body.y)) throw new IllegalArgumentException(
@@ -57,6 +65,30 @@ class Node<T> {
         this.rng = rng;
     }
 
+    /**
+     * Make an internal node from subtrees that have already been built, as MortonQuadtreeBuilder does
+     *
+     * @param children The child nodes, which must be in the matching quadrants of `area`. There must be at least one.
+     * @param area The area represented by this node and its entire subtree
+     * @param rng The RNG for use in getRandomBody
+     */
+    Node(Map<Quadrant, Node<T>> children, Square area, RandomGenerator rng) {
+        if (children.isEmpty()) throw new IllegalArgumentException("No children");
+        // Combine the children in one step rather than with Body2D.plus, which would make a body for each child
+        double mass = 0, sumX = 0, sumY = 0;
+        for (Quadrant quadrant : QUADRANTS) {
+            Node<T> child = children.get(quadrant);
+            if (child == null) continue;
+            mass += child.body.mass;
+            sumX += child.body.x * child.body.mass;
+            sumY += child.body.y * child.body.mass;
+        }
+        this.body = mass == 0 ? new Body2D<>(0, 0, 0, null) : new Body2D<>(mass, sumX / mass, sumY / mass, null);
+        this.area = area;
+        this.children = children;
+        this.rng = rng;
+    }
+
     /**
      * @return A body representing the centre of mass of the entire subtree headed at this node
      */
@@ -74,42 +106,258 @@ class Node<T> {
      *              accurate and larger theta is more performant.
      */
     public Body2D<T> getRandomBody(double x, double y, double theta) {
+        return this.getRandomBody(x, y, theta, this.rng);
+    }
+
+    /**
+     * The same as getRandomBody(x, y, theta), but drawing random numbers from `rng`
+     */
+    public Body2D<T> getRandomBody(double x, double y, double theta, RandomGenerator rng) {
+        // Reuse this thread's scratch space so that the descent doesn't allocate any memory
+        Scratch scratch = SCRATCH.get();
+        @SuppressWarnings("unchecked")
+        List<Node<T>> candidateNodes = (List<Node<T>>) (List<?>) scratch.candidates;
         Node<T> selected = this;
-        double rand = this.rng.nextDouble();
+        double rand = rng.nextDouble();
         do {
-            List<Node<T>> candidateNodes = selected.getCandidateNodes(x, y, theta);
-            selected = this.chooseRandomGravityWeightedNode(x, y, candidateNodes, rand);
+            candidateNodes.clear();
+            selected.getCandidateNodes(x, y, theta, candidateNodes, scratch.stats);
+            scratch.stats.addLevel(candidateNodes.size());
+            selected = this.chooseRandomGravityWeightedNode(x, y, candidateNodes, rand, scratch);
             theta /= 2;
         } while (!selected.isLeafNode());
+        candidateNodes.clear();
         return selected.body;
     }
 
-    private List<Node<T>> getCandidateNodes(double x, double y, double theta) {
-        // This node is either a leaf, or the combined centre of mass is far enough that we consider it all together
-        if (this.isLeafNode()
-                || (this.area.sideLength / this.body.distanceTo(new Body2D<>(1, x, y, null))) < theta
-        ) {
-            return List.of(this);
+    /**
+     * Get a random Body from one of the nodes within the subtree headed at this node, using
+     * QuadtreeSamplingMode.SINGLE_PASS. Starting at this node, choose one child at each level weighted by the estimated
+     * gravity of its subtree on a point mass at (x, y), until a leaf is reached.
+     *
+     * <p/>
+     * The estimate for a node that is too close to use its centre of mass is the sum of the estimates for its children,
+     * so the probabilities of the choices down to the first node that is far enough multiply out to that node's share of
+     * the total of the candidate nodes for theta. Rather than estimating the same nodes again at each level, this picks
+     * one of those candidates directly and then descends from there.
+     *
+     * @param x The x value of the reference point
+     * @param y The y value of the reference point
+     * @param theta The threshold used by estimateGravForceOn. Unlike in getRandomBody, it is the same at every level.
+     */
+    public Body2D<T> getRandomBodySinglePass(double x, double y, double theta) {
+        return this.getRandomBodySinglePass(x, y, theta, this.rng);
+    }
+
+    /**
+     * The same as getRandomBodySinglePass(x, y, theta), but drawing random numbers from `rng`
+     */
+    public Body2D<T> getRandomBodySinglePass(double x, double y, double theta, RandomGenerator rng) {
+        Scratch scratch = SCRATCH.get();
+        @SuppressWarnings("unchecked")
+        List<Node<T>> candidateNodes = (List<Node<T>>) (List<?>) scratch.candidates;
+        candidateNodes.clear();
+        this.getCandidateNodes(x, y, theta, candidateNodes, scratch.stats);
+        scratch.stats.addLevel(candidateNodes.size());
+        Node<T> selected = this.chooseRandomGravityWeightedNode(x, y, candidateNodes, rng.nextDouble(), scratch);
+        candidateNodes.clear();
+
+        double[] weights = scratch.forces;
+        while (!selected.isLeafNode()) {
+            for (int q = 0; q < QUADRANTS.length; q++) {
+                Node<T> child = selected.children.get(QUADRANTS[q]);
+                weights[q] = child == null ? 0 : child.estimateGravForceOn(x, y, theta, scratch.stats);
+            }
+            scratch.stats.levels++;
+            int q = Utils.chooseRandomIndexByWeight(weights, QUADRANTS.length, rng.nextDouble());
+            selected = selected.children.get(QUADRANTS[q]);
+        }
+        return selected.body;
+    }
+
+    /**
+     * Get a random Body from the subtree headed at this node, using QuadtreeSamplingMode.EXACT. The probability of each
+     * body is exactly proportional to its gravity on a point mass at (x, y), like in SimpleGravityModelDistribution.
+     *
+     * <p/>
+     * Bodies are proposed by choosing one of the candidate nodes from getExactCandidateNodes and then one child at each
+     * level, each weighted by gravityBoundOn, until a leaf is reached. Since the bounds of a node's children add up to
+     * at most the node's own bound, the proposal is accepted with probability equal to the product of (sum of the
+     * children's bounds) / (node's bound) over the nodes descended through, which leaves each leaf with a probability
+     * proportional to its actual gravity. Otherwise a new body is proposed from the same candidates.
+     *
+     * @param x The x value of the reference point
+     * @param y The y value of the reference point
+     * @param theta Nodes whose side length divided by their minimum distance to (x, y) is less than this are bounded as
+     *              a whole rather than split up into candidates. This only affects the speed, not the distribution.
+     */
+    public Body2D<T> getRandomBodyExact(double x, double y, double theta) {
+        return this.getRandomBodyExact(x, y, theta, this.rng);
+    }
+
+    /**
+     * The same as getRandomBodyExact(x, y, theta), but drawing random numbers from `rng`
+     */
+    public Body2D<T> getRandomBodyExact(double x, double y, double theta, RandomGenerator rng) {
+        Scratch scratch = SCRATCH.get();
+        @SuppressWarnings("unchecked")
+        List<Node<T>> candidateNodes = (List<Node<T>>) (List<?>) scratch.candidates;
+        candidateNodes.clear();
+        this.getExactCandidateNodes(x, y, theta, candidateNodes, scratch.stats);
+        int n = candidateNodes.size();
+        scratch.stats.addLevel(n);
+        if (scratch.forces.length < n) {
+            scratch.forces = new double[Math.max(n, 2 * scratch.forces.length)];
+        }
+        for (int i = 0; i < n; i++) {
+            scratch.forces[i] = candidateNodes.get(i).gravityBoundOn(x, y);
+        }
+
+        double[] childBounds = scratch.childWeights;
+        while (true) {
+            Node<T> selected = candidateNodes.get(Utils.chooseRandomIndexByWeight(scratch.forces, n, rng.nextDouble()));
+            double acceptance = 1;
+            while (!selected.isLeafNode()) {
+                double total = 0;
+                for (int q = 0; q < QUADRANTS.length; q++) {
+                    Node<T> child = selected.children.get(QUADRANTS[q]);
+                    childBounds[q] = child == null ? 0 : child.gravityBoundOn(x, y);
+                    total += childBounds[q];
+                }
+                acceptance *= total / selected.gravityBoundOn(x, y);
+                // The bounds of the children, plus the bound of the node itself
+                scratch.stats.forceEvaluations += selected.children.size() + 1;
+                scratch.stats.levels++;
+                int q = Utils.chooseRandomIndexByWeight(childBounds, QUADRANTS.length, rng.nextDouble());
+                selected = selected.children.get(QUADRANTS[q]);
+            }
+            if (rng.nextDouble() < acceptance) {
+                candidateNodes.clear();
+                return selected.body;
+            }
+        }
+    }
+
+    /**
+     * Add the nodes within the subtree headed at this node that getRandomBodyExact should start from to `out`. These
+     * are the leaves, and the nodes whose square is far enough away from (x, y) for theta. Nodes whose square contains
+     * (x, y) are always split up, since their bound would be infinite.
+     */
+    private void getExactCandidateNodes(double x, double y, double theta, List<Node<T>> out, QueryStats stats) {
+        stats.nodesVisited++;
+        if (this.isLeafNode() || (this.area.sideLength / this.area.minDistanceTo(x, y)) < theta) {
+            out.add(this);
         }
         else {
-            return this.children.values().stream()
-                    .map(subtree -> subtree.getCandidateNodes(x, y, theta))
-                    .reduce(
-                            List.of(),
-                            (l1, l2) -> Stream.concat(l1.stream(), l2.stream()).collect(Collectors.toUnmodifiableList())
-                    );
+            for (Quadrant quadrant : QUADRANTS) {
+                Node<T> child = this.children.get(quadrant);
+                if (child != null) child.getExactCandidateNodes(x, y, theta, out, stats);
+            }
         }
     }
 
-    private Node<T> chooseRandomGravityWeightedNode(double x, double y, List<Node<T>> candidates, double rand) {
-        Body2D<T> ref = new Body2D<>(1, x, y, null);
-        double[] forces = candidates.stream()
-                .mapToDouble(b -> b.body.computeGravForce(ref))
+    /**
+     * @return The gravity of a leaf node on a point mass at (x, y), or for any other node an upper bound on the total
+     *         gravity of its bodies: its total mass as if it were all at the nearest point of its square
+     */
+    private double gravityBoundOn(double x, double y) {
+        if (this.isLeafNode()) return this.gravForceOn(x, y);
+        if (this.body.mass == 0) return 0.0;
+        double r = this.area.minDistanceTo(x, y);
+        return this.body.mass / (r*r);
+    }
+
+    /**
+     * @return An estimate of the total gravity that the bodies in the subtree headed at this node exert on a point mass
+     *         at (x, y). The centre of mass is used if this node is a leaf or is far enough away for the given theta,
+     *         in the same way as getCandidateNodes, otherwise this is the sum of the estimates for the children.
+     */
+    private double estimateGravForceOn(double x, double y, double theta, QueryStats stats) {
+        stats.nodesVisited++;
+        if (this.isLeafNode() || (this.area.sideLength / this.distanceTo(x, y)) < theta) {
+            stats.forceEvaluations++;
+            return this.gravForceOn(x, y);
+        }
+        double sum = 0;
+        for (Quadrant quadrant : QUADRANTS) {
+            Node<T> child = this.children.get(quadrant);
+            if (child != null) sum += child.estimateGravForceOn(x, y, theta, stats);
+        }
+        return sum;
+    }
+
+    /**
+     * Get a sampler which draws random bodies from the subtree headed at this node exactly as getRandomBody does, but
+     * remembers the candidate nodes and their cumulative weights at each step of the descent so that they are only
+     * computed once per reference point. After the first few draws, each draw costs one binary search per level.
+     *
+     * @param x The x value of the reference point
+     * @param y The y value of the reference point
+     * @param theta The same as in getRandomBody
+     */
+    public GravityModelSampler<T, Body2D<T>> getSampler(double x, double y, double theta) {
+        return new NodeSampler(x, y, theta);
+    }
+
+    private CandidateSet<T> makeCandidateSet(double x, double y, double theta) {
+        List<Node<T>> nodes = new ArrayList<>();
+        this.getCandidateNodes(x, y, theta, nodes, QueryStats.current());
+        double[] forces = nodes.stream()
+                .mapToDouble(b -> b.gravForceOn(x, y))
                 .toArray();
-        int i = Utils.chooseRandomIndexByWeight(forces,  rand);
+        return new CandidateSet<>(nodes, Utils.normalizedCumSum(forces));
+    }
+
+    /**
+     * Add the nodes within the subtree headed at this node that should be considered individually to `out`
+     */
+    private void getCandidateNodes(double x, double y, double theta, List<Node<T>> out, QueryStats stats) {
+        stats.nodesVisited++;
+        // This node is either a leaf, or the combined centre of mass is far enough that we consider it all together
+        if (this.isLeafNode() || (this.area.sideLength / this.distanceTo(x, y)) < theta) {
+            out.add(this);
+        }
+        else {
+            for (Quadrant quadrant : QUADRANTS) {
+                Node<T> child = this.children.get(quadrant);
+                if (child != null) child.getCandidateNodes(x, y, theta, out, stats);
+            }
+        }
+    }
+
+    private Node<T> chooseRandomGravityWeightedNode(
+            double x, double y, List<Node<T>> candidates, double rand, Scratch scratch
+    ) {
+        int n = candidates.size();
+        if (scratch.forces.length < n) {
+            scratch.forces = new double[Math.max(n, 2 * scratch.forces.length)];
+        }
+        for (int i = 0; i < n; i++) {
+            scratch.forces[i] = candidates.get(i).gravForceOn(x, y);
+        }
+        int i = Utils.chooseRandomIndexByWeight(scratch.forces, n, rand);
         return candidates.get(i);
     }
 
+    /**
+     * @return The same value as this.body.computeGravForce for a body of mass 1 at (x, y), without creating the body
+     */
+    private double gravForceOn(double x, double y) {
+        if (this.body.mass == 0) return 0.0;
+        double r = this.distanceTo(x, y);
+        if (r == 0) return 0;
+        return this.body.mass / (r*r);
+    }
+
+    /**
+     * @return The same value as this.body.distanceTo for a body at (x, y), without creating the body
+     */
+    private double distanceTo(double x, double y) {
+        double dx = x - this.body.x;
+        double dy = y - this.body.y;
+        return Math.sqrt(dx*dx + dy*dy);
+    }
+
     /**
      * Insert a Body into the subtree headed at this node.
      */
@@ -155,4 +403,110 @@ class Node<T> {
                 ", children= " + children.keySet() +
                 '}';
     }
+
+    /**
+     * Samples from the subtree headed at this node for one reference point, caching the candidate sets it computes
+     */
+    private class NodeSampler implements GravityModelSampler<T, Body2D<T>> {
+
+        private final double x;
+
+        private final double y;
+
+        private final double theta;
+
+        private final Map<CandidateKey<T>, CandidateSet<T>> cache = new ConcurrentHashMap<>();
+
+        private final AtomicLong sizeBytes = new AtomicLong();
+
+        NodeSampler(double x, double y, double theta) {
+            this.x = x;
+            this.y = y;
+            this.theta = theta;
+        }
+
+        @Override
+        public Body2D<T> sample() {
+            Node<T> selected = Node.this;
+            double rand = rng.nextDouble();
+            double levelTheta = this.theta;
+            int level = 0;
+            do {
+                final double t = levelTheta;
+                CandidateSet<T> candidates = this.cache.computeIfAbsent(
+                        new CandidateKey<>(selected, level),
+                        key -> {
+                            CandidateSet<T> c = key.node.makeCandidateSet(this.x, this.y, t);
+                            this.sizeBytes.addAndGet(c.estimatedSizeBytes());
+                            return c;
+                        }
+                );
+                selected = candidates.nodes.get(Utils.chooseRandomIndexByCumulativeWeight(candidates.cumSum, rand));
+                levelTheta /= 2;
+                level++;
+            } while (!selected.isLeafNode());
+            return selected.body;
+        }
+
+        /**
+         * The size grows as more of the tree is explored by later draws
+         */
+        @Override
+        public long estimatedSizeBytes() {
+            return this.sizeBytes.get();
+        }
+    }
+
+    /**
+     * Buffers reused between calls to getRandomBody on the same thread
+     */
+    private static class Scratch {
+        final List<Node<?>> candidates = new ArrayList<>();
+        double[] forces = new double[16];
+        final double[] childWeights = new double[QUADRANTS.length];
+        final QueryStats stats = QueryStats.current();
+    }
+
+    /**
+     * The candidate nodes considered at one step of the descent in getRandomBody, with their cumulative weights
+     */
+    private static class CandidateSet<T> {
+        final List<Node<T>> nodes;
+        final double[] cumSum;
+
+        CandidateSet(List<Node<T>> nodes, double[] cumSum) {
+            this.nodes = nodes;
+            this.cumSum = cumSum;
+        }
+
+        long estimatedSizeBytes() {
+            // The set itself, its map entry and key, the list and the array, plus a reference and a double per node
+            return 128 + 16L * this.nodes.size();
+        }
+    }
+
+    /**
+     * Identifies a node that was selected at a particular step of the descent in getRandomBody
+     */
+    private static class CandidateKey<T> {
+        final Node<T> node;
+        final int level;
+
+        CandidateKey(Node<T> node, int level) {
+            this.node = node;
+            this.level = level;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CandidateKey)) return false;
+            CandidateKey<?> other = (CandidateKey<?>) o;
+            return this.node == other.node && this.level == other.level;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(this.node) + this.level;
+        }
+    }
 }
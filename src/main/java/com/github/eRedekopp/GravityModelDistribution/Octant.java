@@ -0,0 +1,15 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+/**
+ * The eight sub-cubes of a Cube. Down and up are along the Z axis, and the rest are the same as Quadrant.
+ */
+enum Octant {
+    DOWN_NORTHWEST,
+    DOWN_NORTHEAST,
+    DOWN_SOUTHWEST,
+    DOWN_SOUTHEAST,
+    UP_NORTHWEST,
+    UP_NORTHEAST,
+    UP_SOUTHWEST,
+    UP_SOUTHEAST
+}
@@ -0,0 +1,97 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.util.List;
+import java.util.random.RandomGenerator;
+
+/**
+ * The 3D equivalent of QuadtreeGravityModelDistribution. The bodies are stored in an octree whose nodes hold the centre
+ * of mass of their subtree, and nodes far enough away from the reference point for theta are treated as a single body.
+ * The tree is built once in O(N log N) and can't be changed afterwards.
+ */
+public class OctreeGravityModelDistribution<T> implements GravityModelDistribution<T, Body3D<T>> {
+
+    private final OctreeNode<T> root;
+
+    private final double theta;
+
+    private final int size;
+
+    private final RandomGenerator rng;
+
+    private volatile QueryListener listener;
+
+    /**
+     * @param bodies The bodies to be put into the tree
+     * @param theta The threshold value for when nodes are considered "far enough" to be considered as a combined
+     *              unit rather than considering each body individually. Smaller theta is more accurate but more
+     *              computationally intensive, and vice versa
+     * @param rng The random number generator to be used
+     */
+    public OctreeGravityModelDistribution(List<Body3D<T>> bodies, double theta, RandomGenerator rng) {
+        if (bodies.isEmpty()) {
+            throw new IllegalArgumentException("No bodies");
+        }
+        if (theta < 0 || Utils.isInvalidArg(theta)) {
+            throw new IllegalArgumentException("Invalid theta: " + theta);
+        }
+        for (Body3D<T> b : bodies) {
+            if (Utils.isInvalidArg(b.x) || Utils.isInvalidArg(b.y) || Utils.isInvalidArg(b.z)) {
+                throw new IllegalArgumentException("Invalid coordinates: " + b);
+            }
+        }
+
+        ConstructionEvent event = ConstructionEvent.start();
+        this.theta = theta;
+        this.size = bodies.size();
+        this.rng = rng;
+        Body3D<T>[] array = bodies.toArray(Utils.<Body3D<T>>newArray(Body3D.class, 0));
+        this.root = new OctreeNode<>(
+                array,
+                Utils.newArray(Body3D.class, array.length),
+                new byte[array.length],
+                0,
+                array.length,
+                Cube.getBoundingCube(bodies),
+                rng
+        );
+        event.finish(this, array.length);
+    }
+
+    /**
+     * @param bodies The bodies to be put into the tree
+     * @param theta The threshold value for when nodes are considered "far enough" to be considered as a combined
+     *              unit rather than considering each body individually. Smaller theta is more accurate but more
+     *              computationally intensive, and vice versa
+     */
+    public OctreeGravityModelDistribution(List<Body3D<T>> bodies, double theta) {
+        this(bodies, theta, new PerThreadRandomGenerator());
+    }
+
+    @Override
+    public Body3D<T> getRandomBody(Body3D<T> ref) {
+        return this.getRandomBody(ref, this.rng);
+    }
+
+    @Override
+    public Body3D<T> getRandomBody(Body3D<T> ref, RandomGenerator rng) {
+        return QueryReporter.report(
+                this, this.listener, this.size, ref, rng,
+                (dist, r, random, stats) -> dist.root.getRandomBody(r.x, r.y, r.z, dist.theta, random)
+        );
+    }
+
+    /**
+     * Counts the work in the same way as QuadtreeGravityModelDistribution
+     */
+    @Override
+    public void setQueryListener(QueryListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return The number of nodes in the tree
+     */
+    int getNodeCount() {
+        return this.root.countNodes();
+    }
+}
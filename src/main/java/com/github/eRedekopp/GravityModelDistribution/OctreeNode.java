@@ -0,0 +1,248 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.random.RandomGenerator;
+
+/**
+ * A node of the octree used by OctreeGravityModelDistribution, the 3D equivalent of Node. Rather than inserting the
+ * bodies one at a time, the whole tree is built at once by partitioning the bodies between the octants of each node.
+ *
+ * <p/>
+ * Each leaf holds a range of an array of bodies shared by the whole tree. This is normally one body, but any number of
+ * bodies may share the same location, in which case they are all stored in one leaf and chosen between by mass.
+ */
+class OctreeNode<T> {
+
+    private static final Octant[] OCTANTS = Octant.values();
+
+    /**
+     * Per-thread scratch space for getRandomBody
+     */
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * The child nodes of this node in the order of Octant, with null for empty octants, or null if this is a leaf
+     */
+    private final OctreeNode<T>[] children;
+
+    /**
+     * A Body representing the centre of mass of the entire subtree headed at this node. If this is a leaf node with a
+     * single body, it is that body.
+     */
+    private final Body3D<T> body;
+
+    /**
+     * The bodies of the whole tree. The bodies of this subtree are at [from, to).
+     */
+    private final Body3D<T>[] bodies;
+
+    private final int from;
+
+    private final int to;
+
+    private final Cube area;
+
+    private final RandomGenerator rng;
+
+    /**
+     * Build the subtree for the bodies at [from, to) of `bodies`, reordering them so that the bodies of each child
+     * are next to each other
+     *
+     * @param area The area represented by this node and its entire subtree, which must contain all of the bodies
+     * @param buffer Scratch space the same length as `bodies`
+     * @param octants Scratch space the same length as `bodies`
+     */
+    OctreeNode(
+            Body3D<T>[] bodies, Body3D<T>[] buffer, byte[] octants, int from, int to, Cube area, RandomGenerator rng
+    ) {
+        if (from >= to) throw new IllegalArgumentException("No bodies");
+        this.bodies = bodies;
+        this.from = from;
+        this.to = to;
+        this.area = area;
+        this.rng = rng;
+
+        if (to - from == 1 || !area.canSplit() || allCoincident(bodies, from, to)) {
+            this.children = null;
+            this.body = to - from == 1 ? bodies[from] : combine(bodies, from, to);
+            return;
+        }
+
+        // Counting sort the bodies by octant
+        int[] bounds = new int[OCTANTS.length + 1];
+        for (int i = from; i < to; i++) {
+            Body3D<T> b = bodies[i];
+            int o = area.getOctant(b.x, b.y, b.z).ordinal();
+            octants[i] = (byte) o;
+            bounds[o + 1]++;
+        }
+        bounds[0] = from;
+        for (int o = 0; o < OCTANTS.length; o++) {
+            bounds[o + 1] += bounds[o];
+        }
+        int[] next = Arrays.copyOf(bounds, OCTANTS.length);
+        for (int i = from; i < to; i++) {
+            buffer[next[octants[i]]++] = bodies[i];
+        }
+        System.arraycopy(buffer, from, bodies, from, to - from);
+
+        this.children = Utils.newArray(OctreeNode.class, OCTANTS.length);
+        Body3D<T> centre = null;
+        for (int o = 0; o < OCTANTS.length; o++) {
+            if (bounds[o] == bounds[o + 1]) continue;
+            OctreeNode<T> child = new OctreeNode<>(
+                    bodies, buffer, octants, bounds[o], bounds[o + 1], area.getSubCube(OCTANTS[o]), rng
+            );
+            this.children[o] = child;
+            centre = centre == null ? child.body : (Body3D<T>) centre.plus(child.body);
+        }
+        this.body = centre;
+    }
+
+    private static <T> boolean allCoincident(Body3D<T>[] bodies, int from, int to) {
+        Body3D<T> first = bodies[from];
+        for (int i = from + 1; i < to; i++) {
+            Body3D<T> b = bodies[i];
+            if (b.x != first.x || b.y != first.y || b.z != first.z) return false;
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Body3D<T> combine(Body3D<T>[] bodies, int from, int to) {
+        Body3D<T> centre = bodies[from];
+        for (int i = from + 1; i < to; i++) {
+            centre = (Body3D<T>) centre.plus(bodies[i]);
+        }
+        return centre;
+    }
+
+    /**
+     * @return A body representing the centre of mass of the entire subtree headed at this node
+     */
+    public Body3D<T> getCentreMass() {
+        return this.body;
+    }
+
+    /**
+     * @return Is this a leaf node? If yes, its bodies are actual bodies instead of an accumulated value.
+     */
+    public boolean isLeafNode() {
+        return this.children == null;
+    }
+
+    /**
+     * Get a random Body from one of the nodes within the subtree headed at this node, in the same way as
+     * Node.getRandomBody. The likelihood of getting each body is weighted by the amount of gravitational force it
+     * exerts on a point mass at the given (x, y, z).
+     *
+     * @param theta A tunable parameter deciding the balance between performance and accuracy. Smaller theta is more
+     *              accurate and larger theta is more performant.
+     */
+    public Body3D<T> getRandomBody(double x, double y, double z, double theta) {
+        return this.getRandomBody(x, y, z, theta, this.rng);
+    }
+
+    /**
+     * The same as getRandomBody(x, y, z, theta), but drawing random numbers from `rng`
+     */
+    public Body3D<T> getRandomBody(double x, double y, double z, double theta, RandomGenerator rng) {
+        Scratch scratch = SCRATCH.get();
+        @SuppressWarnings("unchecked")
+        List<OctreeNode<T>> candidateNodes = (List<OctreeNode<T>>) (List<?>) scratch.candidates;
+        OctreeNode<T> selected = this;
+        double rand = rng.nextDouble();
+        do {
+            candidateNodes.clear();
+            selected.getCandidateNodes(x, y, z, theta, candidateNodes, scratch.stats);
+            int n = candidateNodes.size();
+            scratch.stats.addLevel(n);
+            if (scratch.forces.length < n) {
+                scratch.forces = new double[Math.max(n, 2 * scratch.forces.length)];
+            }
+            for (int i = 0; i < n; i++) {
+                scratch.forces[i] = candidateNodes.get(i).gravForceOn(x, y, z);
+            }
+            selected = candidateNodes.get(Utils.chooseRandomIndexByWeight(scratch.forces, n, rand));
+            theta /= 2;
+        } while (!selected.isLeafNode());
+        candidateNodes.clear();
+        return selected.chooseBody(rng);
+    }
+
+    /**
+     * Add the nodes within the subtree headed at this node that should be considered individually to `out`
+     */
+    private void getCandidateNodes(
+            double x, double y, double z, double theta, List<OctreeNode<T>> out, QueryStats stats
+    ) {
+        stats.nodesVisited++;
+        // This node is either a leaf, or the combined centre of mass is far enough that we consider it all together
+        if (this.isLeafNode() || (this.area.sideLength / this.distanceTo(x, y, z)) < theta) {
+            out.add(this);
+        }
+        else {
+            for (OctreeNode<T> child : this.children) {
+                if (child != null) child.getCandidateNodes(x, y, z, theta, out, stats);
+            }
+        }
+    }
+
+    /**
+     * @return One of this leaf's bodies weighted by their masses
+     */
+    private Body3D<T> chooseBody(RandomGenerator rng) {
+        if (this.to - this.from == 1) return this.body;
+        return this.bodies[Utils.chooseIndexByMass(this.bodies, this.from, this.to, this.body.mass, rng)];
+    }
+
+    /**
+     * @return The same value as this.body.computeGravForce for a body of mass 1 at (x, y, z), without creating the body
+     */
+    private double gravForceOn(double x, double y, double z) {
+        if (this.body.mass == 0) return 0.0;
+        double r = this.distanceTo(x, y, z);
+        if (r == 0) return 0;
+        return this.body.mass / (r*r);
+    }
+
+    private double distanceTo(double x, double y, double z) {
+        double dx = x - this.body.x;
+        double dy = y - this.body.y;
+        double dz = z - this.body.z;
+        return Math.sqrt(dx*dx + dy*dy + dz*dz);
+    }
+
+    /**
+     * @return The number of nodes in the subtree headed at this node
+     */
+    int countNodes() {
+        int count = 1;
+        if (this.children != null) {
+            for (OctreeNode<T> child : this.children) {
+                if (child != null) count += child.countNodes();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "OctreeNode{" +
+                "body=" + body +
+                ", area=" + area +
+                ", bodies=" + (to - from) +
+                '}';
+    }
+
+    /**
+     * Buffers reused between calls to getRandomBody on the same thread
+     */
+    private static class Scratch {
+        final List<OctreeNode<?>> candidates = new ArrayList<>();
+        double[] forces = new double[16];
+        final QueryStats stats = QueryStats.current();
+    }
+}
@@ -0,0 +1,250 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Precomputes the distribution for every body in a SimpleGravityModelDistribution when that body is used as the
+ * reference point, and writes them all to a file which can be loaded by MappedOriginDestinationDistribution. This is
+ * useful when the reference points are always the bodies themselves, such as when choosing trips between cities, since
+ * the O(N^2) work of computing the forces is done once instead of every time the program starts.
+ *
+ * <p/>
+ * Each body's distribution is stored as an alias table with one entry per body, so the file takes N^2 times the size
+ * of an entry. The probabilities in the tables can be stored at reduced precision to make the file smaller.
+ *
+ * <p/>
+ * The file starts with a header of HEADER_BYTES bytes, followed by one row per origin body in the same order as the
+ * bodies in the distribution. Each row has one entry per destination body, consisting of the probability of keeping
+ * the destination in the given Encoding followed by its alias as an int. Everything is little-endian. A row whose
+ * aliases are all -1 means that no body exerts any force on that origin.
+ */
+public class OriginDestinationTableBuilder<T, B extends Body<T>> {
+
+    /**
+     * The ways that the probabilities in the alias tables can be stored
+     */
+    public enum Encoding {
+        /**
+         * Store the probabilities exactly, as 8-byte doubles
+         */
+        FLOAT64(8) {
+            @Override
+            void put(ByteBuffer buf, int index, double prob) {
+                buf.putDouble(index, prob);
+            }
+
+            @Override
+            double get(ByteBuffer buf, int index) {
+                return buf.getDouble(index);
+            }
+        },
+        /**
+         * Store the probabilities as 4-byte floats
+         */
+        FLOAT32(4) {
+            @Override
+            void put(ByteBuffer buf, int index, double prob) {
+                buf.putFloat(index, (float) prob);
+            }
+
+            @Override
+            double get(ByteBuffer buf, int index) {
+                return buf.getFloat(index);
+            }
+        },
+        /**
+         * Store the probabilities as 2-byte fixed-point fractions, accurate to within 1/131070 for each entry
+         */
+        FIXED16(2) {
+            @Override
+            void put(ByteBuffer buf, int index, double prob) {
+                buf.putShort(index, (short) Math.round(prob * 0xFFFF));
+            }
+
+            @Override
+            double get(ByteBuffer buf, int index) {
+                return (buf.getShort(index) & 0xFFFF) / (double) 0xFFFF;
+            }
+        };
+
+        /**
+         * The number of bytes used to store each probability
+         */
+        final int probabilityBytes;
+
+        Encoding(int probabilityBytes) {
+            this.probabilityBytes = probabilityBytes;
+        }
+
+        /**
+         * @return The number of bytes used to store each entry of an alias table: the probability followed by the alias
+         */
+        int entryBytes() {
+            return this.probabilityBytes + Integer.BYTES;
+        }
+
+        /**
+         * Store the probability in [0,1] at the given absolute index of the buffer
+         */
+        abstract void put(ByteBuffer buf, int index, double prob);
+
+        /**
+         * @return The probability stored at the given absolute index of the buffer
+         */
+        abstract double get(ByteBuffer buf, int index);
+    }
+
+    static final int MAGIC = 0x474D4F44; // "GMOD"
+
+    static final int VERSION = 1;
+
+    /**
+     * The magic number, version, encoding and number of bodies as ints, then the fingerprint of the bodies as a long,
+     * padded to a multiple of 8 bytes
+     */
+    static final int HEADER_BYTES = 32;
+
+    private final List<B> bodies;
+
+    private final ForceKernel<T, B> kernel;
+
+    private Encoding encoding = Encoding.FLOAT64;
+
+    /**
+     * @param distribution The distribution whose bodies will be used as both the origins and the destinations
+     */
+    public OriginDestinationTableBuilder(SimpleGravityModelDistribution<T, B> distribution) {
+        if (distribution == null) throw new IllegalArgumentException("Null distribution");
+        this.bodies = distribution.getBodies();
+        this.kernel = distribution.getKernel();
+    }
+
+    /**
+     * @param encoding How the probabilities should be stored in the file. The default is FLOAT64.
+     * @return This builder
+     */
+    public OriginDestinationTableBuilder<T, B> setEncoding(Encoding encoding) {
+        if (encoding == null) throw new IllegalArgumentException("Null encoding");
+        this.encoding = encoding;
+        return this;
+    }
+
+    /**
+     * Compute the alias table for every body as the origin in parallel, and write them to the file at the given path,
+     * replacing it if it already exists. The tables are written to a temporary file in the same directory, which is
+     * then moved over the path in one step, so a MappedOriginDestinationDistribution that has the old file mapped
+     * keeps reading its own tables. The header is written last, so a temporary file left behind by a crash will be
+     * rejected if it is loaded.
+     */
+    public void write(Path path) throws IOException {
+        int n = this.bodies.size();
+        long rowBytes = (long) n * this.encoding.entryBytes();
+        if (rowBytes > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many bodies: " + n);
+        ThreadLocal<ByteBuffer> rowBuffers = ThreadLocal.withInitial(
+                () -> ByteBuffer.allocate((int) rowBytes).order(ByteOrder.LITTLE_ENDIAN)
+        );
+        ThreadLocal<double[]> forceBuffers = ThreadLocal.withInitial(() -> new double[n]);
+
+        Path target = path.toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName() + ".", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                try {
+                    IntStream.range(0, n)
+                            .parallel()
+                            .forEach(origin -> {
+                                ByteBuffer row = rowBuffers.get();
+                                this.encodeRow(origin, forceBuffers.get(), row);
+                                try {
+                                    writeFully(channel, row, HEADER_BYTES + origin * rowBytes);
+                                }
+                                catch (IOException e) {
+                                    throw new UncheckedIOException(e);
+                                }
+                            });
+                }
+                catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC)
+                        .putInt(VERSION)
+                        .putInt(this.encoding.ordinal())
+                        .putInt(n)
+                        .putLong(fingerprint(this.bodies));
+                header.clear();
+                writeFully(channel, header, 0);
+                channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Compute the alias table for the given origin and store it in `row`
+     */
+    private void encodeRow(int origin, double[] forces, ByteBuffer row) {
+        int n = this.bodies.size();
+        int entryBytes = this.encoding.entryBytes();
+        int aliasOffset = this.encoding.probabilityBytes;
+        B ref = this.bodies.get(origin);
+        double sum = 0;
+        if (ref.mass > 0) {
+            this.kernel.computeForces(ref, 0, n, forces, 0);
+            for (int i = 0; i < n; i++) {
+                sum += forces[i];
+            }
+        }
+        if (sum > 0) {
+            AliasTable table = new AliasTable(forces);
+            for (int i = 0; i < n; i++) {
+                this.encoding.put(row, i * entryBytes, table.getProbability(i));
+                row.putInt(i * entryBytes + aliasOffset, table.getAlias(i));
+            }
+        }
+        else {
+            for (int i = 0; i < n; i++) {
+                this.encoding.put(row, i * entryBytes, 0);
+                row.putInt(i * entryBytes + aliasOffset, -1);
+            }
+        }
+        row.clear();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    /**
+     * @return A hash of the masses and coordinates of the bodies, used to check that a table is loaded with the same
+     *         bodies that it was built from. Only the masses of bodies that don't implement HasCoordinates are hashed.
+     */
+    static long fingerprint(List<? extends Body<?>> bodies) {
+        long hash = bodies.size();
+        for (Body<?> body : bodies) {
+            hash = 31 * hash + Double.doubleToLongBits(body.mass);
+            if (!(body instanceof HasCoordinates)) continue;
+            for (double coordinate : body.getCoordinates()) {
+                hash = 31 * hash + Double.doubleToLongBits(coordinate);
+            }
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,93 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.util.function.Supplier;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGeneratorFactory;
+
+/**
+ * A RandomGenerator that gives each thread its own generator, so that many threads can share a distribution without
+ * contending on one generator. java.util.Random updates its seed with a compare-and-set, so threads sharing one spin on
+ * it. The distributions use one of these by default when they aren't given a generator.
+ *
+ * <p/>
+ * Each thread's generator is created the first time that thread uses this object. The numbers drawn on one thread
+ * don't depend on the other threads, but which generator each thread gets does depend on the order in which threads
+ * first use it, so this can't make a multi-threaded program reproducible. Pass a generator to
+ * GravityModelDistribution.getRandomBody(ref, rng) for that.
+ */
+public class PerThreadRandomGenerator implements RandomGenerator {
+
+    /**
+     * The algorithm used by the no-argument constructor, which is fast and has a small state
+     */
+    static final String DEFAULT_ALGORITHM = "L64X128MixRandom";
+
+    private final ThreadLocal<RandomGenerator> generators;
+
+    /**
+     * Give each thread a new, randomly seeded L64X128MixRandom
+     */
+    public PerThreadRandomGenerator() {
+        this(RandomGeneratorFactory.of(DEFAULT_ALGORITHM)::create);
+    }
+
+    /**
+     * @param factory Called once on each thread to create that thread's generator. The generators it returns should
+     *                be independent of each other, e.g. differently seeded.
+     */
+    public PerThreadRandomGenerator(Supplier<? extends RandomGenerator> factory) {
+        if (factory == null) throw new IllegalArgumentException("Null factory");
+        this.generators = ThreadLocal.withInitial(factory);
+    }
+
+    /**
+     * Give each thread a generator split off from `parent`, so that they are statistically independent
+     *
+     * @param parent The generator to split. It shouldn't be used elsewhere afterwards.
+     */
+    public PerThreadRandomGenerator(RandomGenerator.SplittableGenerator parent) {
+        this(splitter(parent));
+    }
+
+    private static Supplier<RandomGenerator> splitter(RandomGenerator.SplittableGenerator parent) {
+        if (parent == null) throw new IllegalArgumentException("Null parent");
+        // Splitting changes the parent's state, so threads take turns
+        return () -> {
+            synchronized (parent) {
+                return parent.split();
+            }
+        };
+    }
+
+    /**
+     * @return The calling thread's generator
+     */
+    public RandomGenerator current() {
+        return this.generators.get();
+    }
+
+    @Override
+    public long nextLong() {
+        return this.generators.get().nextLong();
+    }
+
+    @Override
+    public int nextInt() {
+        return this.generators.get().nextInt();
+    }
+
+    @Override
+    public int nextInt(int bound) {
+        return this.generators.get().nextInt(bound);
+    }
+
+    @Override
+    public double nextDouble() {
+        return this.generators.get().nextDouble();
+    }
+
+    @Override
+    public boolean nextBoolean() {
+        return this.generators.get().nextBoolean();
+    }
+}
@@ -0,0 +1,332 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.IntFunction;
+import java.util.random.RandomGenerator;
+
+/**
+ * Builds the tree of FlatQuadtreeGravityModelDistribution from bodies given as primitive columns, without creating a
+ * Body2D for each one. Bodies are added one at a time with accept, or read in chunks from a channel in a binary or CSV
+ * format, and each body's value is given as an int id. The tree can then be written as a snapshot for
+ * MappedQuadtreeGravityModelDistribution, or queried in the heap through that class.
+ *
+ * <p/>
+ * The loader stores 28 bytes per body, plus room to grow unless the number of bodies was given up front. The bodies
+ * are validated together when the tree is built, and the tree is built in the same arrays. Building temporarily needs
+ * about 104 bytes per body for the nodes, which are shrunk to about 52 bytes per node once the tree is built. The
+ * loader can only build one tree, and gives its arrays to that tree.
+ */
+public class QuadtreeBulkLoader {
+
+    /**
+     * What the loader is doing when it reports progress
+     */
+    public enum Stage {
+        /**
+         * Bodies are being added. Reported every PROGRESS_INTERVAL bodies.
+         */
+        READING,
+        /**
+         * The bodies are being checked. Reported every PROGRESS_INTERVAL bodies, and once all of them are checked.
+         */
+        VALIDATING,
+        /**
+         * Reported once the tree is built
+         */
+        BUILDING,
+        /**
+         * Reported once the snapshot is written
+         */
+        WRITING
+    }
+
+    @FunctionalInterface
+    public interface ProgressListener {
+        /**
+         * @param stage What the loader is doing
+         * @param bodies The number of bodies that the stage has dealt with so far
+         */
+        void onProgress(Stage stage, long bodies);
+    }
+
+    /**
+     * The number of bodies between each report of progress while reading and validating
+     */
+    public static final int PROGRESS_INTERVAL = 1 << 20;
+
+    /**
+     * Each record of the binary format is the X value, the Y value and the mass as doubles, then the id as an int, all
+     * little-endian
+     */
+    public static final int BINARY_RECORD_BYTES = 3 * Double.BYTES + Integer.BYTES;
+
+    /**
+     * Read from channels in chunks of this many bytes
+     */
+    private static final int CHUNK_BYTES = 2048 * BINARY_RECORD_BYTES;
+
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    private double[] x;
+
+    private double[] y;
+
+    private double[] mass;
+
+    private int[] ids;
+
+    private int size = 0;
+
+    /**
+     * True once the loader's arrays have been given to a tree
+     */
+    private boolean built = false;
+
+    private ProgressListener listener = (stage, bodies) -> { };
+
+    /**
+     * @param expectedSize The number of bodies that will be added. More may be added, but then the arrays grow.
+     */
+    public QuadtreeBulkLoader(int expectedSize) {
+        if (expectedSize < 0) throw new IllegalArgumentException("Illegal expected size " + expectedSize);
+        int capacity = Math.max(16, expectedSize);
+        this.x = new double[capacity];
+        this.y = new double[capacity];
+        this.mass = new double[capacity];
+        this.ids = new int[capacity];
+    }
+
+    public QuadtreeBulkLoader() {
+        this(0);
+    }
+
+    /**
+     * @param listener Told how far the loader has got. Called on the thread that is using the loader.
+     * @return This loader
+     */
+    public QuadtreeBulkLoader setProgressListener(ProgressListener listener) {
+        if (listener == null) throw new IllegalArgumentException("Null listener");
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Add a body. Its coordinates and mass are checked when the tree is built.
+     *
+     * @param id Identifies the body's value, which is looked up with this id when the body is drawn
+     */
+    public void accept(double x, double y, double mass, int id) {
+        if (this.built) throw new IllegalStateException("The tree has already been built");
+        if (this.size == this.x.length) this.grow();
+        int i = this.size++;
+        this.x[i] = x;
+        this.y[i] = y;
+        this.mass[i] = mass;
+        this.ids[i] = id;
+        if (this.size % PROGRESS_INTERVAL == 0) this.listener.onProgress(Stage.READING, this.size);
+    }
+
+    /**
+     * Add every body from the channel, in records of BINARY_RECORD_BYTES bytes, until the end of the channel. The
+     * channel is not closed.
+     *
+     * @throws IOException If the channel can't be read or ends partway through a record
+     */
+    public void readBinary(ReadableByteChannel channel) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        while (channel.read(buf) >= 0) {
+            buf.flip();
+            while (buf.remaining() >= BINARY_RECORD_BYTES) {
+                this.accept(buf.getDouble(), buf.getDouble(), buf.getDouble(), buf.getInt());
+            }
+            buf.compact();
+        }
+        if (buf.position() != 0) throw new IOException("Binary bodies end partway through a record");
+    }
+
+    /**
+     * Add every body from the channel, which has one line per body of the form "x,y,mass,id" in ASCII, until the end
+     * of the channel. Blank lines are skipped. The channel is not closed.
+     *
+     * @param hasHeader True if the first line is a header that should be skipped
+     * @throws IOException If the channel can't be read or a line is not of the right form
+     */
+    public void readCsv(ReadableByteChannel channel, boolean hasHeader) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(CHUNK_BYTES);
+        byte[] line = new byte[64];
+        int lineLength = 0;
+        long lineNumber = 0;
+        boolean skip = hasHeader;
+        boolean end = false;
+        while (!end) {
+            end = channel.read(buf) < 0;
+            buf.flip();
+            while (buf.hasRemaining() || end) {
+                // At the end of the channel, the last line needn't end with a newline
+                boolean endOfLine = end && !buf.hasRemaining();
+                if (!endOfLine) {
+                    byte b = buf.get();
+                    endOfLine = b == '\n';
+                    if (!endOfLine) {
+                        if (lineLength == line.length) line = Arrays.copyOf(line, 2 * lineLength);
+                        line[lineLength++] = b;
+                        continue;
+                    }
+                }
+                lineNumber++;
+                if (skip) {
+                    skip = false;
+                }
+                else {
+                    this.acceptCsvLine(line, lineLength, lineNumber);
+                }
+                lineLength = 0;
+                if (end && !buf.hasRemaining()) break;
+            }
+            buf.clear();
+        }
+    }
+
+    private void acceptCsvLine(byte[] line, int length, long lineNumber) throws IOException {
+        String text = new String(line, 0, length, StandardCharsets.US_ASCII).strip();
+        if (text.isEmpty()) return;
+        String[] fields = text.split(",", -1);
+        if (fields.length != 4) throw new IOException("Expected 4 fields on line " + lineNumber + ": " + text);
+        try {
+            this.accept(
+                    Double.parseDouble(fields[0]),
+                    Double.parseDouble(fields[1]),
+                    Double.parseDouble(fields[2]),
+                    Integer.parseInt(fields[3].strip())
+            );
+        }
+        catch (NumberFormatException e) {
+            throw new IOException("Invalid number on line " + lineNumber + ": " + text, e);
+        }
+    }
+
+    /**
+     * @return The number of bodies added so far
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Build the tree, and serve queries from it in the heap
+     *
+     * @param values Gives the value with each id
+     * @param theta The threshold value for when nodes are considered "far enough" to be considered as a combined
+     *              unit rather than considering each body individually. Smaller theta is more accurate but more
+     *              computationally intensive, and vice versa
+     * @param rng The random number generator to be used
+     * @return A distribution that draws the same bodies as a FlatQuadtreeGravityModelDistribution of the same bodies
+     *         with the FRONTIER mode, given the same generator
+     * @throws IllegalArgumentException If no bodies were added, or a body has an invalid location or mass
+     */
+    public <T> MappedQuadtreeGravityModelDistribution<T> build(
+            IntFunction<? extends T> values, double theta, RandomGenerator rng
+    ) {
+        if (values == null) throw new IllegalArgumentException("Null values");
+        if (theta < 0 || Utils.isInvalidArg(theta)) {
+            throw new IllegalArgumentException("Invalid theta: " + theta);
+        }
+        ConstructionEvent event = ConstructionEvent.start();
+        int n = this.size;
+        Square bounds = this.validate();
+        FlatQuadtreeBuilder tree = this.buildTree(bounds);
+        MappedQuadtreeGravityModelDistribution<T> dist =
+                new MappedQuadtreeGravityModelDistribution<>(tree, bounds.sideLength, values, theta, rng);
+        event.finish(dist, n);
+        return dist;
+    }
+
+    public <T> MappedQuadtreeGravityModelDistribution<T> build(IntFunction<? extends T> values, double theta) {
+        return this.build(values, theta, new PerThreadRandomGenerator());
+    }
+
+    /**
+     * Build the tree, and write it to the file at the given path in the format described in
+     * MappedQuadtreeGravityModelDistribution, replacing it if it already exists. The file is replaced in one step, as
+     * in FlatQuadtreeGravityModelDistribution.writeSnapshot.
+     *
+     * @throws IllegalArgumentException If no bodies were added, a body has an invalid location or mass, or the tree has
+     *                                  too many bodies or nodes for the format
+     */
+    public void writeSnapshot(Path path) throws IOException {
+        int n = this.size;
+        Square bounds = this.validate();
+        FlatQuadtreeBuilder tree = this.buildTree(bounds);
+        MappedQuadtreeGravityModelDistribution.write(
+                path,
+                bounds,
+                new double[][] {tree.x, tree.y, tree.bodyMass, tree.mass, tree.comX, tree.comY},
+                new int[][] {tree.order, tree.children, tree.depth, tree.bodyStart, tree.bodyEnd}
+        );
+        this.listener.onProgress(Stage.WRITING, n);
+    }
+
+    private void grow() {
+        if (this.size == MAX_CAPACITY) throw new IllegalStateException("Too many bodies");
+        int capacity = (int) Math.min(MAX_CAPACITY, this.size + (long) (this.size >> 1));
+        this.x = Arrays.copyOf(this.x, capacity);
+        this.y = Arrays.copyOf(this.y, capacity);
+        this.mass = Arrays.copyOf(this.mass, capacity);
+        this.ids = Arrays.copyOf(this.ids, capacity);
+    }
+
+    /**
+     * Check the location and mass of every body, in the same way as the constructors of Body and Body2D
+     *
+     * @return The root square of the tree
+     */
+    private Square validate() {
+        if (this.built) throw new IllegalStateException("The tree has already been built");
+        if (this.size == 0) throw new IllegalArgumentException("No bodies");
+        double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < this.size; i++) {
+            double bx = this.x[i], by = this.y[i], m = this.mass[i];
+            if (m < 0 || Utils.isInvalidArg(m)) {
+                throw new IllegalArgumentException("Illegal mass " + m + " of body " + i);
+            }
+            if (Utils.isInvalidArg(bx)) throw new IllegalArgumentException("Illegal x " + bx + " of body " + i);
+            if (Utils.isInvalidArg(by)) throw new IllegalArgumentException("Illegal y " + by + " of body " + i);
+            minX = Math.min(minX, bx);
+            maxX = Math.max(maxX, bx);
+            minY = Math.min(minY, by);
+            maxY = Math.max(maxY, by);
+            if ((i + 1) % PROGRESS_INTERVAL == 0) this.listener.onProgress(Stage.VALIDATING, i + 1);
+        }
+        this.listener.onProgress(Stage.VALIDATING, this.size);
+        return QuadtreeGravityModelDistribution.getBoundingSquare(minX, maxX, minY, maxY);
+    }
+
+    /**
+     * Build the tree in the loader's arrays, which are then given to the tree
+     */
+    private FlatQuadtreeBuilder buildTree(Square bounds) {
+        int n = this.size;
+        this.built = true;
+        // Shrink the columns one at a time, so that at most one extra column is needed
+        this.x = Arrays.copyOf(this.x, n);
+        this.y = Arrays.copyOf(this.y, n);
+        this.mass = Arrays.copyOf(this.mass, n);
+        this.ids = Arrays.copyOf(this.ids, n);
+        FlatQuadtreeBuilder tree = new FlatQuadtreeBuilder(this.x, this.y, this.mass, this.ids);
+        this.x = null;
+        this.y = null;
+        this.mass = null;
+        this.ids = null;
+        tree.build(0, n, bounds.midX, bounds.midY, bounds.sideLength, 0);
+        tree.trim();
+        this.listener.onProgress(Stage.BUILDING, n);
+        return tree;
+    }
+}
@@ -1,15 +1,21 @@
 package com.github.eRedekopp.GravityModelDistribution;
 
 import java.util.List;
-import java.util.Random;
+import java.util.random.RandomGenerator;
 
 public class QuadtreeGravityModelDistribution<T> implements GravityModelDistribution<T, Body2D<T>> {
 
     private final Node<T> root;
 
+    private final int size;
+
     private final double theta;
 
-    private final Random rng;
+    private final QuadtreeSamplingMode mode;
+
+    private final RandomGenerator rng;
+
+    private volatile QueryListener listener;
 
     /**
      * @param bodies The bodies to be inserted into the tree
@@ -17,42 +23,140 @@ public class QuadtreeGravityModelDistribution<T> implements GravityModelDistribu
      *              unit rather than considering each body individually. Smaller theta is more accurate but more
      *              computationally intensive, and vice versa
      * @param rng The random number generator to be used
+     * @param mode The algorithm used to choose random bodies
+     * @param policy Decides which threads build the tree. The tree is the same whichever threads build it.
      */
-    public QuadtreeGravityModelDistribution(List<Body2D<T>> bodies, double theta, Random rng) {
+    public QuadtreeGravityModelDistribution(
+            List<Body2D<T>> bodies, double theta, RandomGenerator rng, QuadtreeSamplingMode mode, ExecutionPolicy policy
+    ) {
         if (bodies.isEmpty()) {
             throw new IllegalArgumentException("No bodies");
         }
         if (theta < 0 || Utils.isInvalidArg(theta)) {
             throw new IllegalArgumentException("Invalid theta: " + theta);
         }
+        if (mode == null) {
+            throw new IllegalArgumentException("Null mode");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("Null policy");
+        }
 
+        ConstructionEvent event = ConstructionEvent.start();
         this.theta = theta;
+        this.mode = mode;
         this.rng = rng;
-        Square bounds = this.getBoundingSquare(bodies);
-        this.root = new Node<>(bodies.get(0), bounds, rng);
-        for (Body2D<T> b: bodies.subList(1, bodies.size())) {
-            this.root.insert(b);
-        }
+        this.size = bodies.size();
+        Square bounds = getBoundingSquare(bodies);
+        this.root = new MortonQuadtreeBuilder<>(bodies, bounds, rng, policy).build();
+        event.finish(this, this.size);
+    }
+
+    /**
+     * @param bodies The bodies to be inserted into the tree
+     * @param theta The threshold value for when nodes are considered "far enough" to be considered as a combined
+     *              unit rather than considering each body individually. Smaller theta is more accurate but more
+     *              computationally intensive, and vice versa
+     * @param rng The random number generator to be used
+     * @param mode The algorithm used to choose random bodies
+     */
+    public QuadtreeGravityModelDistribution(
+            List<Body2D<T>> bodies, double theta, RandomGenerator rng, QuadtreeSamplingMode mode
+    ) {
+        this(bodies, theta, rng, mode, ExecutionPolicy.commonPool());
+    }
+
+    /**
+     * @param bodies The bodies to be inserted into the tree
+     * @param theta The threshold value for when nodes are considered "far enough" to be considered as a combined
+     *              unit rather than considering each body individually. Smaller theta is more accurate but more
+     *              computationally intensive, and vice versa
+     * @param rng The random number generator to be used
+     */
+    public QuadtreeGravityModelDistribution(List<Body2D<T>> bodies, double theta, RandomGenerator rng) {
+        this(bodies, theta, rng, QuadtreeSamplingMode.FRONTIER);
     }
 
     public QuadtreeGravityModelDistribution(List<Body2D<T>> bodies, double theta) {
-        this(bodies, theta, new Random());
+        this(bodies, theta, new PerThreadRandomGenerator());
     }
 
     @Override
     public Body2D<T> getRandomBody(Body2D<T> ref) {
-        return this.root.getRandomBody(ref.x, ref.y, this.theta);
+        return this.getRandomBody(ref, this.rng);
     }
 
-    private Square getBoundingSquare(List<Body2D<T>> bodies) {
+    @Override
+    public Body2D<T> getRandomBody(Body2D<T> ref, RandomGenerator rng) {
+        return QueryReporter.report(
+                this, this.listener, this.size, ref, rng, (dist, r, random, stats) -> dist.sample(r, random)
+        );
+    }
+
+    /**
+     * Counts the candidate nodes at each level and the nodes visited to find them. SINGLE_PASS and EXACT also count
+     * the nodes visited while estimating or bounding the children of the node at each level.
+     */
+    @Override
+    public void setQueryListener(QueryListener listener) {
+        this.listener = listener;
+    }
+
+    private Body2D<T> sample(Body2D<T> ref, RandomGenerator rng) {
+        switch (this.mode) {
+            case SINGLE_PASS:
+                return this.root.getRandomBodySinglePass(ref.x, ref.y, this.theta, rng);
+            case EXACT:
+                return this.root.getRandomBodyExact(ref.x, ref.y, this.theta, rng);
+            default:
+                return this.root.getRandomBody(ref.x, ref.y, this.theta, rng);
+        }
+    }
+
+    /**
+     * In FRONTIER mode the sampler caches the candidate nodes at each step. Draws in the other modes are already cheap,
+     * so in those modes the sampler just calls getRandomBody.
+     */
+    @Override
+    public GravityModelSampler<T, Body2D<T>> getSampler(Body2D<T> ref) {
+        if (this.mode != QuadtreeSamplingMode.FRONTIER) {
+            return () -> this.getRandomBody(ref);
+        }
+        return this.root.getSampler(ref.x, ref.y, this.theta);
+    }
+
+    /**
+     * @return A square containing all the bodies. The side length is a power of two and the corners are multiples of
+     *         half of it, so that the sub-squares at every level of the tree can be computed without any rounding error.
+     *         Otherwise rounding can leave bodies on the edge of a sub-square outside of it.
+     */
+    static <T> Square getBoundingSquare(List<Body2D<T>> bodies) {
         double minX = bodies.stream().map(b -> b.x).min(Double::compare).orElseThrow();
         double maxX = bodies.stream().map(b -> b.x).max(Double::compare).orElseThrow();
         double minY = bodies.stream().map(b -> b.y).min(Double::compare).orElseThrow();
         double maxY = bodies.stream().map(b -> b.y).max(Double::compare).orElseThrow();
-        double lenX = maxX - minX;
-        double lenY = maxY - minY;
-        double midX = minX + lenX / 2;
-        double midY = minY + lenY / 2;
-        return new Square(midX, midY, Double.max(lenX, lenY));
+        return getBoundingSquare(minX, maxX, minY, maxY);
+    }
+
+    /**
+     * @return The square described in getBoundingSquare(List) for bodies with the given range of coordinates
+     */
+    static Square getBoundingSquare(double minX, double maxX, double minY, double maxY) {
+        double extent = Double.max(maxX - minX, maxY - minY);
+        double maxAbs = Double.max(
+                Double.max(Math.abs(minX), Math.abs(maxX)),
+                Double.max(Math.abs(minY), Math.abs(maxY))
+        );
+        // Start from the largest power of two no bigger than the extent, or the precision of the coordinates if the
+        // extent is 0, then double it until the aligned square covers all the bodies
+        double minSide = Double.max(extent, Double.max(Math.ulp(maxAbs), Double.MIN_NORMAL));
+        double side = Math.scalb(1.0, Math.getExponent(minSide));
+        double cornerX, cornerY;
+        do {
+            side *= 2;
+            cornerX = Math.floor(minX / (side / 2)) * (side / 2);
+            cornerY = Math.floor(minY / (side / 2)) * (side / 2);
+        } while (cornerX > minX || cornerY > minY || cornerX + side < maxX || cornerY + side < maxY);
+        return new Square(cornerX + side / 2, cornerY + side / 2, side);
     }
 }
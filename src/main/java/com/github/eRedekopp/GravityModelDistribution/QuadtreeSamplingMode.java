@@ -0,0 +1,34 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+/**
+ * The algorithms that the quadtree distributions can use to choose a random body. Both use the parameter theta to
+ * decide when a node is far enough from the reference point that its centre of mass can stand in for all of its bodies.
+ */
+public enum QuadtreeSamplingMode {
+    /**
+     * At each step, find every node within the selected node that is far enough to be considered as a unit, choose one
+     * of them weighted by gravity, and repeat with half the theta until a leaf is chosen. This is the original
+     * algorithm. Its cost grows quickly as theta gets smaller, since the whole frontier of nodes is rebuilt at every
+     * step.
+     */
+    FRONTIER,
+
+    /**
+     * Descend from the root once, choosing one child of the current node at each level weighted by an estimate of the
+     * total gravity of that child's subtree, until a leaf is reached. A child is estimated by its centre of mass if it
+     * is far enough for the given theta, otherwise by the sum of the estimates for its own children. Each draw visits
+     * the frontier of nodes for theta once, plus at most 4 children per level below it. With a large theta every child
+     * is estimated by its centre of mass and a draw costs O(depth); as theta approaches 0 the estimates, and so the
+     * distribution, become exact at the cost of visiting more of the tree.
+     */
+    SINGLE_PASS,
+
+    /**
+     * Choose bodies with exactly the same probabilities as SimpleGravityModelDistribution, by rejection sampling.
+     * Bodies are proposed by descending the tree weighted by an upper bound on each node's gravity (its mass at the
+     * nearest point of its square), starting from the frontier of nodes that are far enough for theta, and accepted
+     * with a probability that corrects for the bounds. Theta only affects the speed: the frontier costs more to build
+     * with a smaller theta, while a larger theta gives looser bounds and so more rejections.
+     */
+    EXACT
+}
@@ -0,0 +1,16 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+/**
+ * Receives the statistics of each query made with getRandomBody on a distribution that it was given to with
+ * GravityModelDistribution.setQueryListener
+ */
+@FunctionalInterface
+public interface QueryListener {
+    /**
+     * Called on the querying thread after each query, before getRandomBody returns
+     *
+     * @param stats The statistics of the query. The same object is reused for the next query on the same thread, so
+     *              it shouldn't be kept after this returns.
+     */
+    void onQuery(QueryStats stats);
+}
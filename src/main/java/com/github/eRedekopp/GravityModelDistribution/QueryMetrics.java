@@ -0,0 +1,77 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+/**
+ * A QueryListener that keeps a histogram of each statistic over all the queries it is given, e.g. to compare the cost
+ * of different values of theta or different distributions on real queries. It can be shared by several distributions
+ * and used from any number of threads.
+ */
+public class QueryMetrics implements QueryListener {
+
+    private final Histogram latencyNanos = new Histogram();
+
+    private final Histogram forceEvaluations = new Histogram();
+
+    private final Histogram nodesVisited = new Histogram();
+
+    private final Histogram maxCandidates = new Histogram();
+
+    private final Histogram levels = new Histogram();
+
+    @Override
+    public void onQuery(QueryStats stats) {
+        this.latencyNanos.record(stats.getElapsedNanos());
+        this.forceEvaluations.record(stats.getForceEvaluations());
+        this.nodesVisited.record(stats.getNodesVisited());
+        this.maxCandidates.record(stats.getMaxCandidates());
+        this.levels.record(stats.getLevels());
+    }
+
+    /**
+     * @return The number of queries recorded
+     */
+    public long getQueryCount() {
+        return this.latencyNanos.getCount();
+    }
+
+    public Histogram getLatencyNanos() {
+        return this.latencyNanos;
+    }
+
+    public Histogram getForceEvaluations() {
+        return this.forceEvaluations;
+    }
+
+    public Histogram getNodesVisited() {
+        return this.nodesVisited;
+    }
+
+    public Histogram getMaxCandidates() {
+        return this.maxCandidates;
+    }
+
+    public Histogram getLevels() {
+        return this.levels;
+    }
+
+    /**
+     * Remove all the recorded queries
+     */
+    public void reset() {
+        this.latencyNanos.reset();
+        this.forceEvaluations.reset();
+        this.nodesVisited.reset();
+        this.maxCandidates.reset();
+        this.levels.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "QueryMetrics{" +
+                "latencyNanos=" + this.latencyNanos +
+                ", forceEvaluations=" + this.forceEvaluations +
+                ", nodesVisited=" + this.nodesVisited +
+                ", maxCandidates=" + this.maxCandidates +
+                ", levels=" + this.levels +
+                '}';
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Runs a distribution's draws, and when its QueryListener or a Flight Recorder recording is listening, times them and
+ * reports the work that they did. When nothing is listening, the draw is run directly.
+ *
+ * <p/>
+ * Draws are passed their distribution and arguments rather than capturing them, so that the distributions can pass
+ * method references or lambdas that capture nothing and aren't allocated on every draw. The tree-based distributions
+ * count their work in their per-thread scratch whether or not anything is listening, since that's cheaper than
+ * checking; the others are given the stats to add to, or null when nothing is listening.
+ */
+final class QueryReporter {
+
+    /**
+     * One draw from a distribution
+     */
+    @FunctionalInterface
+    interface Draw<D, A, R> {
+        R draw(D distribution, A arg, RandomGenerator rng, QueryStats stats);
+    }
+
+    /**
+     * One draw from a distribution, given the index of its reference body
+     */
+    @FunctionalInterface
+    interface IndexDraw<D, R> {
+        R draw(D distribution, int index, RandomGenerator rng, QueryStats stats);
+    }
+
+    private QueryReporter() {
+    }
+
+    /**
+     * @param distribution The distribution being drawn from
+     * @param listener The distribution's listener, or null
+     * @param bodies The number of bodies in the distribution, or 0 if it wraps another distribution
+     * @return The result of the draw
+     */
+    static <D extends GravityModelDistribution<?, ?>, A, R> R report(
+            D distribution, QueryListener listener, int bodies, A arg, RandomGenerator rng, Draw<D, A, R> draw
+    ) {
+        SampleEvent event = SampleEvent.start();
+        if (listener == null && event == null) return draw.draw(distribution, arg, rng, null);
+        QueryStats stats = QueryStats.current();
+        stats.reset();
+        long start = System.nanoTime();
+        R result = draw.draw(distribution, arg, rng, stats);
+        stats.elapsedNanos = System.nanoTime() - start;
+        if (event != null) event.finish(distribution, bodies, stats);
+        if (listener != null) listener.onQuery(stats);
+        return result;
+    }
+
+    /**
+     * The same as report, for draws whose argument is an index, so that it isn't boxed
+     */
+    static <D extends GravityModelDistribution<?, ?>, R> R reportIndex(
+            D distribution, QueryListener listener, int bodies, int index, RandomGenerator rng, IndexDraw<D, R> draw
+    ) {
+        SampleEvent event = SampleEvent.start();
+        if (listener == null && event == null) return draw.draw(distribution, index, rng, null);
+        QueryStats stats = QueryStats.current();
+        stats.reset();
+        long start = System.nanoTime();
+        R result = draw.draw(distribution, index, rng, stats);
+        stats.elapsedNanos = System.nanoTime() - start;
+        if (event != null) event.finish(distribution, bodies, stats);
+        if (listener != null) listener.onQuery(stats);
+        return result;
+    }
+}
@@ -0,0 +1,108 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+/**
+ * The work done by one call to getRandomBody, as reported to a QueryListener. Each distribution counts the work in the
+ * way that matches its algorithm; counters that don't apply to it are 0.
+ */
+public final class QueryStats {
+
+    private static final ThreadLocal<QueryStats> CURRENT = ThreadLocal.withInitial(QueryStats::new);
+
+    long forceEvaluations;
+
+    long nodesVisited;
+
+    long candidates;
+
+    long maxCandidates;
+
+    long levels;
+
+    long elapsedNanos;
+
+    QueryStats() {
+    }
+
+    /**
+     * @return The calling thread's stats, which the distributions add to as they work
+     */
+    static QueryStats current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Set all the counters to 0
+     */
+    void reset() {
+        this.forceEvaluations = 0;
+        this.nodesVisited = 0;
+        this.candidates = 0;
+        this.maxCandidates = 0;
+        this.levels = 0;
+        this.elapsedNanos = 0;
+    }
+
+    /**
+     * Record a list of candidates considered at one level of a descent, whose forces were all computed
+     */
+    void addLevel(int numCandidates) {
+        this.levels++;
+        this.candidates += numCandidates;
+        this.forceEvaluations += numCandidates;
+        this.maxCandidates = Math.max(this.maxCandidates, numCandidates);
+    }
+
+    /**
+     * @return The number of times that the gravity of a body or a node's centre of mass (or a bound on it) was computed
+     */
+    public long getForceEvaluations() {
+        return this.forceEvaluations;
+    }
+
+    /**
+     * @return The number of tree nodes looked at while finding candidates, including the candidates themselves
+     */
+    public long getNodesVisited() {
+        return this.nodesVisited;
+    }
+
+    /**
+     * @return The total size of the candidate lists that were chosen from, over all levels of the descent
+     */
+    public long getCandidates() {
+        return this.candidates;
+    }
+
+    /**
+     * @return The size of the largest candidate list that was chosen from
+     */
+    public long getMaxCandidates() {
+        return this.maxCandidates;
+    }
+
+    /**
+     * @return The number of choices made on the way down to the chosen body
+     */
+    public long getLevels() {
+        return this.levels;
+    }
+
+    /**
+     * @return The time taken by the query, in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return this.elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryStats{" +
+                "forceEvaluations=" + this.forceEvaluations +
+                ", nodesVisited=" + this.nodesVisited +
+                ", candidates=" + this.candidates +
+                ", maxCandidates=" + this.maxCandidates +
+                ", levels=" + this.levels +
+                ", elapsedNanos=" + this.elapsedNanos +
+                '}';
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * A JDK Flight Recorder event for one call to getRandomBody. Only draws that take at least a millisecond are recorded
+ * by default, which can be changed with the threshold setting of the recording.
+ *
+ * <p/>
+ * Draws only create an event while a recording has it enabled, so they don't allocate otherwise.
+ */
+@Name("com.github.eRedekopp.GravityModelDistribution.Sample")
+@Label("Gravity Model Sample")
+@Category("Gravity Model")
+@Description("A random body drawn from a distribution")
+@Threshold("1 ms")
+final class SampleEvent extends Event {
+
+    @Label("Engine")
+    @Description("The class of the distribution")
+    String engine;
+
+    @Label("Bodies")
+    @Description("The number of bodies in the distribution, or 0 for a distribution that wraps another one")
+    int bodies;
+
+    @Label("Nodes Visited")
+    @Description("The number of tree nodes looked at, or 0 for distributions without a tree")
+    long nodesVisited;
+
+    @Label("Force Evaluations")
+    @Description("The number of times the gravity of a body or a node's centre of mass was computed")
+    long forceEvaluations;
+
+    /**
+     * Looked up the first time it's needed after Flight Recorder has started, since looking it up starts Flight
+     * Recorder, which takes hundreds of milliseconds
+     */
+    private static volatile EventType type;
+
+    /**
+     * @return An event that has begun timing, or null if no recording has the event enabled
+     */
+    static SampleEvent start() {
+        if (!FlightRecorder.isInitialized()) return null;
+        EventType type = SampleEvent.type;
+        if (type == null) {
+            type = EventType.getEventType(SampleEvent.class);
+            SampleEvent.type = type;
+        }
+        if (!type.isEnabled()) return null;
+        SampleEvent event = new SampleEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Stop timing, and commit the event if it's enabled and took longer than its threshold
+     *
+     * @param engine The distribution that was drawn from
+     * @param bodies The number of bodies in the distribution, or 0 if it wraps another distribution
+     * @param stats The work done by the draw
+     */
+    void finish(GravityModelDistribution<?, ?> engine, int bodies, QueryStats stats) {
+        this.end();
+        if (!this.shouldCommit()) return;
+        this.engine = engine.getClass().getSimpleName();
+        this.bodies = bodies;
+        this.nodesVisited = stats.nodesVisited;
+        this.forceEvaluations = stats.forceEvaluations;
+        this.commit();
+    }
+}
@@ -1,14 +1,32 @@
 package com.github.eRedekopp.GravityModelDistribution;
 
 import java.util.List;
-import java.util.Random;
+import java.util.random.RandomGenerator;
 
 public class Simple1DGravityModelDistribution<T> extends SimpleGravityModelDistribution<T, Body1D<T>> {
-    public Simple1DGravityModelDistribution(List<Body1D<T>> bodies, Random rng) {
-        super(bodies, rng);
+    public Simple1DGravityModelDistribution(List<Body1D<T>> bodies, RandomGenerator rng) {
+        super(bodies, rng, Body1DForceKernel::new);
     }
 
     public Simple1DGravityModelDistribution(List<Body1D<T>> bodies) {
-        super(bodies);
+        this(bodies, new PerThreadRandomGenerator());
+    }
+
+    /**
+     * @param policy Decides whether the forces are computed on multiple threads
+     */
+    public Simple1DGravityModelDistribution(List<Body1D<T>> bodies, RandomGenerator rng, ExecutionPolicy policy) {
+        super(bodies, rng, Body1DForceKernel::new, policy);
+    }
+
+    /**
+     * @param policy Decides whether the forces are computed on multiple threads
+     * @param order The order in which to store the bodies. Bodies close together in space are stored close together
+     *              in memory unless it is BodyOrder.INPUT.
+     */
+    public Simple1DGravityModelDistribution(
+            List<Body1D<T>> bodies, RandomGenerator rng, ExecutionPolicy policy, BodyOrder order
+    ) {
+        this(SpaceFillingCurve.sort(bodies, order, SpaceFillingCurve.AXES_1D), rng, policy);
     }
 }
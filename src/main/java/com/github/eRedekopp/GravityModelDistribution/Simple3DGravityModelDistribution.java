@@ -1,14 +1,52 @@
 package com.github.eRedekopp.GravityModelDistribution;
 
 import java.util.List;
-import java.util.Random;
+import java.util.random.RandomGenerator;
 
 public class Simple3DGravityModelDistribution<T> extends SimpleGravityModelDistribution<T, Body3D<T>> {
-    public Simple3DGravityModelDistribution(List<Body3D<T>> bodies, Random rng) {
-        super(bodies, rng);
+    public Simple3DGravityModelDistribution(List<Body3D<T>> bodies, RandomGenerator rng) {
+        super(bodies, rng, Body3DForceKernel::new);
     }
 
     public Simple3DGravityModelDistribution(List<Body3D<T>> bodies) {
-        super(bodies);
+        this(bodies, new PerThreadRandomGenerator());
+    }
+
+    /**
+     * @param policy Decides whether the forces are computed on multiple threads
+     */
+    public Simple3DGravityModelDistribution(List<Body3D<T>> bodies, RandomGenerator rng, ExecutionPolicy policy) {
+        super(bodies, rng, Body3DForceKernel::new, policy);
+    }
+
+    /**
+     * @param useVectorApi If true, compute the forces several bodies at a time with the Java Vector API when
+     *                     isVectorApiAvailable returns true. Otherwise, or if it is not available, compute them one at
+     *                     a time.
+     */
+    public Simple3DGravityModelDistribution(List<Body3D<T>> bodies, RandomGenerator rng, boolean useVectorApi) {
+        this(bodies, rng, useVectorApi, ExecutionPolicy.commonPool());
+    }
+
+    /**
+     * @param useVectorApi The same as in Simple3DGravityModelDistribution(bodies, rng, useVectorApi)
+     * @param policy Decides whether the forces are computed on multiple threads
+     */
+    public Simple3DGravityModelDistribution(
+            List<Body3D<T>> bodies, RandomGenerator rng, boolean useVectorApi, ExecutionPolicy policy
+    ) {
+        super(bodies, rng, useVectorApi ? VectorForceKernels::body3D : Body3DForceKernel::new, policy);
+    }
+
+    /**
+     * @param useVectorApi The same as in Simple3DGravityModelDistribution(bodies, rng, useVectorApi)
+     * @param policy Decides whether the forces are computed on multiple threads
+     * @param order The order in which to store the bodies. Bodies close together in space are stored close together
+     *              in memory unless it is BodyOrder.INPUT.
+     */
+    public Simple3DGravityModelDistribution(
+            List<Body3D<T>> bodies, RandomGenerator rng, boolean useVectorApi, ExecutionPolicy policy, BodyOrder order
+    ) {
+        this(SpaceFillingCurve.sort(bodies, order, SpaceFillingCurve.AXES_3D), rng, useVectorApi, policy);
     }
 }
@@ -1,14 +1,52 @@
 package com.github.eRedekopp.GravityModelDistribution;
 
 import java.util.List;
-import java.util.Random;
+import java.util.random.RandomGenerator;
 
 public class SimpleGISGravityModelDistribution<T> extends SimpleGravityModelDistribution<T, GISBody<T>> {
-    public SimpleGISGravityModelDistribution(List<GISBody<T>> bodies, Random rng) {
-        super(bodies, rng);
+    public SimpleGISGravityModelDistribution(List<GISBody<T>> bodies, RandomGenerator rng) {
+        super(bodies, rng, GISBodyForceKernel::new);
     }
 
     public SimpleGISGravityModelDistribution(List<GISBody<T>> bodies) {
-        super(bodies);
+        this(bodies, new PerThreadRandomGenerator());
+    }
+
+    /**
+     * @param policy Decides whether the forces are computed on multiple threads
+     */
+    public SimpleGISGravityModelDistribution(List<GISBody<T>> bodies, RandomGenerator rng, ExecutionPolicy policy) {
+        super(bodies, rng, GISBodyForceKernel::new, policy);
+    }
+
+    /**
+     * @param useVectorApi If true, compute the forces several bodies at a time with the Java Vector API when
+     *                     isVectorApiAvailable returns true. Otherwise, or if it is not available, compute them one at
+     *                     a time.
+     */
+    public SimpleGISGravityModelDistribution(List<GISBody<T>> bodies, RandomGenerator rng, boolean useVectorApi) {
+        this(bodies, rng, useVectorApi, ExecutionPolicy.commonPool());
+    }
+
+    /**
+     * @param useVectorApi The same as in SimpleGISGravityModelDistribution(bodies, rng, useVectorApi)
+     * @param policy Decides whether the forces are computed on multiple threads
+     */
+    public SimpleGISGravityModelDistribution(
+            List<GISBody<T>> bodies, RandomGenerator rng, boolean useVectorApi, ExecutionPolicy policy
+    ) {
+        super(bodies, rng, useVectorApi ? VectorForceKernels::gis : GISBodyForceKernel::new, policy);
+    }
+
+    /**
+     * @param useVectorApi The same as in SimpleGISGravityModelDistribution(bodies, rng, useVectorApi)
+     * @param policy Decides whether the forces are computed on multiple threads
+     * @param order The order in which to store the bodies. Bodies close together in space are stored close together
+     *              in memory unless it is BodyOrder.INPUT.
+     */
+    public SimpleGISGravityModelDistribution(
+            List<GISBody<T>> bodies, RandomGenerator rng, boolean useVectorApi, ExecutionPolicy policy, BodyOrder order
+    ) {
+        this(SpaceFillingCurve.sort(bodies, order, SpaceFillingCurve.AXES_GIS), rng, useVectorApi, policy);
     }
 }
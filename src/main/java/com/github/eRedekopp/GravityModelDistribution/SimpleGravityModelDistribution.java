@@ -1,31 +1,388 @@
 package com.github.eRedekopp.GravityModelDistribution;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.random.RandomGenerator;
 
 public class SimpleGravityModelDistribution<T, B extends Body<T>> implements GravityModelDistribution<T, B> {
 
+    /**
+     * The number of bodies whose forces are computed together. getRandomBody never stores the forces of more than
+     * one block at a time, so this also bounds the size of the per-thread scratch buffers.
+     */
+    private static final int BLOCK_SIZE = 4096;
+
+    /**
+     * The number of bodies whose forces are computed for every reference in a tile before moving on to the next
+     * bodies in getRandomBodies. This is small enough for the coordinates of these bodies to stay in the L1 cache.
+     */
+    private static final int TILE_BODIES = 1024;
+
+    /**
+     * The maximum number of references processed together as one tile in getRandomBodies
+     */
+    private static final int MAX_TILE_REFS = 64;
+
+    /**
+     * Per-thread scratch space for the forces of a single block
+     */
+    private static final ThreadLocal<double[]> BLOCK_FORCES = ThreadLocal.withInitial(() -> new double[BLOCK_SIZE]);
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
     private final List<B> bodies;
 
-    private final Random rng;
+    private final ForceKernel<T, B> kernel;
+
+    private final RandomGenerator rng;
+
+    private final int numBlocks;
+
+    private final ExecutionPolicy policy;
+
+    private volatile QueryListener listener;
+
+    /**
+     * Below this many bodies the forces are computed on the calling thread, since the overhead of splitting the work
+     * across threads outweighs the benefit. This path does not allocate any memory. Work is never split into fewer
+     * than two blocks.
+     */
+    private final int parallelThreshold;
+
+    public SimpleGravityModelDistribution(List<B> bodies, RandomGenerator rng) {
+        this(bodies, rng, ExecutionPolicy.commonPool());
+    }
+
+    /**
+     * @param bodies The bodies in the distribution
+     * @param rng The random number generator to be used
+     * @param policy Decides whether the forces are computed on multiple threads
+     */
+    public SimpleGravityModelDistribution(List<B> bodies, RandomGenerator rng, ExecutionPolicy policy) {
+        this(bodies, rng, GenericForceKernel::new, policy);
+    }
+
+    public SimpleGravityModelDistribution(List<B> bodies) {
+        this(bodies, new PerThreadRandomGenerator());
+    }
+
+    /**
+     * @param bodies The bodies in the distribution
+     * @param rng The random number generator to be used
+     * @param kernels Builds the kernel used to compute the forces of the bodies from the list of bodies
+     */
+    SimpleGravityModelDistribution(
+            List<B> bodies, RandomGenerator rng, Function<List<B>, ? extends ForceKernel<T, B>> kernels
+    ) {
+        this(bodies, rng, kernels, ExecutionPolicy.commonPool());
+    }
 
-    public SimpleGravityModelDistribution(List<B> bodies, Random rng) {
+    /**
+     * @param bodies The bodies in the distribution
+     * @param rng The random number generator to be used
+     * @param kernels Builds the kernel used to compute the forces of the bodies from the list of bodies. It is called
+     *                once the construction has started, so that the ConstructionEvent includes copying the bodies
+     *                into the kernel.
+     * @param policy Decides whether the forces are computed on multiple threads
+     */
+    SimpleGravityModelDistribution(
+            List<B> bodies,
+            RandomGenerator rng,
+            Function<List<B>, ? extends ForceKernel<T, B>> kernels,
+            ExecutionPolicy policy
+    ) {
         if (bodies.isEmpty()) throw new IllegalArgumentException("No bodies");
+        if (policy == null) throw new IllegalArgumentException("Null execution policy");
+        ConstructionEvent event = ConstructionEvent.start();
+        ForceKernel<T, B> kernel = kernels.apply(bodies);
+        if (kernel.size() != bodies.size()) throw new IllegalArgumentException("Kernel does not match bodies");
         this.bodies = bodies;
+        this.kernel = kernel;
         this.rng = rng;
+        this.numBlocks = (bodies.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        this.policy = policy;
+        this.parallelThreshold = Math.max(BLOCK_SIZE + 1, policy.parallelThreshold(this::measureNanosPerBody));
+        event.finish(this, bodies.size());
     }
 
-    public SimpleGravityModelDistribution(List<B> bodies) {
-        this(bodies, new Random());
+    /**
+     * @return True if the Java Vector API can be used to compute forces in this JVM. This requires a build made with
+     *         -PvectorApi, the JVM to be started with --add-modules jdk.incubator.vector, and a CPU with vector
+     *         registers that hold more than one double.
+     */
+    public static boolean isVectorApiAvailable() {
+        return VectorForceKernels.isAvailable();
     }
 
+    /**
+     * Choose a block with probability proportional to its total force, then choose a body within that block. Only
+     * the total of each block is kept from the first pass over the bodies, and the forces of the chosen block are
+     * recomputed, so no N-length arrays are needed.
+     */
     @Override
     public B getRandomBody(B ref) {
+        return this.getRandomBody(ref, this.rng);
+    }
+
+    @Override
+    public B getRandomBody(B ref, RandomGenerator rng) {
+        return QueryReporter.report(
+                this, this.listener, this.bodies.size(), ref, rng,
+                (dist, r, random, stats) -> dist.sample(r, random, stats)
+        );
+    }
+
+    /**
+     * Counts the forces computed. The blocks that the bodies are split into are the candidates at the first level, and
+     * the bodies in the chosen block at the second. There are no nodes.
+     */
+    @Override
+    public void setQueryListener(QueryListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param stats The stats to add to, or null if nobody is listening
+     */
+    private B sample(B ref, RandomGenerator rng, QueryStats stats) {
+        int index = this.sampleIndex(ref, rng);
+        if (stats != null) {
+            // Every force is computed once to total the blocks, then the chosen block's again unless there is only one
+            int n = this.bodies.size();
+            int block = index / BLOCK_SIZE;
+            if (this.numBlocks == 1) {
+                stats.addLevel(n);
+            }
+            else {
+                stats.addLevel(this.numBlocks);
+                stats.addLevel(this.blockEnd(block) - block * BLOCK_SIZE);
+                stats.forceEvaluations += n - this.numBlocks;
+            }
+        }
+        return this.bodies.get(index);
+    }
+
+    /**
+     * @return The index of a random body, chosen as described in getRandomBody
+     */
+    private int sampleIndex(B ref, RandomGenerator rng) {
         if (ref.mass == 0) throw new IllegalArgumentException("Reference point cannot have 0 mass");
-        double[] forces = this.bodies.parallelStream()
-                .mapToDouble(b -> b.computeGravForce(ref))
-                .toArray();
-        int i = Utils.chooseRandomIndexByWeight(forces, rng.nextDouble());
-        return this.bodies.get(i);
+        double[] sums = SCRATCH.get().blockSums(this.numBlocks);
+        double[] forces = BLOCK_FORCES.get();
+        if (this.bodies.size() < this.parallelThreshold) {
+            for (int block = 0; block < this.numBlocks; block++) {
+                sums[block] = this.computeBlockForces(ref, block, forces);
+            }
+        }
+        else {
+            this.policy.forEach(
+                    this.numBlocks, block -> sums[block] = this.computeBlockForces(ref, block, BLOCK_FORCES.get())
+            );
+        }
+
+        boolean haveBlockForces = this.numBlocks == 1;
+        return this.chooseIndex(ref, sums, rng.nextDouble(), forces, haveBlockForces);
+    }
+
+    /**
+     * Draw one body per reference point in the same way as getRandomBody, but with the references split into tiles
+     * that are processed in parallel if there are enough references and bodies. Within a tile, the forces are
+     * computed for a small group of bodies against every reference in the tile before moving on to the next group, so
+     * each body's coordinates are loaded from main memory once per tile rather than once per reference. The random
+     * numbers are drawn in the order of the references, so the result is identical to calling getRandomBody for each
+     * reference in order.
+     */
+    @Override
+    public List<B> getRandomBodies(List<B> refs) {
+        for (B ref : refs) {
+            if (ref.mass == 0) throw new IllegalArgumentException("Reference point cannot have 0 mass");
+        }
+        int numRefs = refs.size();
+        double[] rands = new double[numRefs];
+        for (int i = 0; i < numRefs; i++) {
+            rands[i] = this.rng.nextDouble();
+        }
+        boolean parallel = (long) numRefs * this.bodies.size() >= this.parallelThreshold;
+        int tileRefs = Math.max(1, Math.min(
+                MAX_TILE_REFS,
+                parallel ? numRefs / (4 * this.policy.parallelism()) : numRefs
+        ));
+        int numTiles = (numRefs + tileRefs - 1) / tileRefs;
+        B[] out = Utils.newArray(Body.class, numRefs);
+        IntConsumer sampleTile = tile -> this.sampleTile(
+                refs, tile * tileRefs, Math.min(numRefs, (tile + 1) * tileRefs), rands, out
+        );
+        if (parallel) {
+            this.policy.forEach(numTiles, sampleTile);
+        }
+        else {
+            for (int tile = 0; tile < numTiles; tile++) {
+                sampleTile.accept(tile);
+            }
+        }
+        return new ArrayList<>(Arrays.asList(out));
+    }
+
+    /**
+     * Fill `out` with a random body for each reference with index in [from, to)
+     */
+    private void sampleTile(List<B> refs, int from, int to, double[] rands, B[] out) {
+        double[] forces = BLOCK_FORCES.get();
+        double[][] sums = new double[to - from][this.numBlocks];
+        for (int block = 0; block < this.numBlocks; block++) {
+            int blockEnd = this.blockEnd(block);
+            for (int tileStart = block * BLOCK_SIZE; tileStart < blockEnd; tileStart += TILE_BODIES) {
+                int tileEnd = Math.min(blockEnd, tileStart + TILE_BODIES);
+                for (int r = from; r < to; r++) {
+                    this.kernel.computeForces(refs.get(r), tileStart, tileEnd, forces, 0);
+                    // Keep adding to the same total in the same order as computeBlockForces
+                    double sum = sums[r - from][block];
+                    for (int i = 0; i < tileEnd - tileStart; i++) {
+                        sum += forces[i];
+                    }
+                    sums[r - from][block] = sum;
+                }
+            }
+        }
+        for (int r = from; r < to; r++) {
+            out[r] = this.bodies.get(this.chooseIndex(refs.get(r), sums[r - from], rands[r], forces, false));
+        }
+    }
+
+    /**
+     * @param ref The reference body
+     * @param sums The total force of each block on the reference body
+     * @param rand A uniform random double in [0,1)
+     * @param forces Scratch space for the forces of one block
+     * @param haveBlockForces True if there is only one block and `forces` already contains its forces
+     * @return The index of a random body, chosen by first choosing a block and then a body within the block
+     */
+    private int chooseIndex(B ref, double[] sums, double rand, double[] forces, boolean haveBlockForces) {
+        int block = Utils.chooseRandomIndexByWeight(sums, this.numBlocks, rand);
+        if (!haveBlockForces) {
+            this.computeBlockForces(ref, block, forces);
+        }
+        // Find where rand fell within the chosen block, as a fraction of the block's total
+        double total = 0;
+        double before = 0;
+        for (int i = 0; i < this.numBlocks; i++) {
+            if (i == block) before = total;
+            total += sums[i];
+        }
+        double blockRand = (rand * total - before) / sums[block];
+        blockRand = Math.min(Math.max(blockRand, 0), Math.nextDown(1.0));
+        int from = block * BLOCK_SIZE;
+        return from + Utils.chooseRandomIndexByWeight(forces, this.blockEnd(block) - from, blockRand);
+    }
+
+    /**
+     * Compute the weights once and build an alias table from them, so that each draw from the sampler is O(1)
+     */
+    @Override
+    public GravityModelSampler<T, B> getSampler(B ref) {
+        return new AliasSampler<>(this.bodies, this.computeForces(ref), this.rng);
+    }
+
+    /**
+     * @return The force that each body exerts on the reference body, by index
+     */
+    private double[] computeForces(B ref) {
+        if (ref.mass == 0) throw new IllegalArgumentException("Reference point cannot have 0 mass");
+        int n = this.bodies.size();
+        double[] forces = new double[n];
+        if (n < this.parallelThreshold) {
+            this.kernel.computeForces(ref, 0, n, forces, 0);
+        }
+        else {
+            this.policy.forEach(this.numBlocks, block -> this.kernel.computeForces(
+                    ref, block * BLOCK_SIZE, this.blockEnd(block), forces, block * BLOCK_SIZE
+            ));
+        }
+        return forces;
+    }
+
+    /**
+     * Compute the forces of the bodies in the given block, and store them at the start of `out`
+     *
+     * @return The total force of the block
+     */
+    private double computeBlockForces(B ref, int block, double[] out) {
+        int from = block * BLOCK_SIZE;
+        int to = this.blockEnd(block);
+        this.kernel.computeForces(ref, from, to, out, 0);
+        double sum = 0;
+        for (int i = 0; i < to - from; i++) {
+            sum += out[i];
+        }
+        return sum;
+    }
+
+    /**
+     * @return The shortest time seen to compute the forces of the first block on its first body with mass, divided by
+     *         the number of bodies in the block, in nanoseconds. A reference point without mass would skip the work
+     *         that a real query does. The first few runs are not counted, so that the kernel can be compiled before it
+     *         is timed.
+     */
+    private double measureNanosPerBody() {
+        int n = this.blockEnd(0);
+        double[] forces = BLOCK_FORCES.get();
+        B ref = this.bodies.get(0);
+        for (B b : this.bodies) {
+            if (b.mass > 0) {
+                ref = b;
+                break;
+            }
+        }
+        long best = Long.MAX_VALUE;
+        for (int rep = 0; rep < 40; rep++) {
+            long start = System.nanoTime();
+            this.kernel.computeForces(ref, 0, n, forces, 0);
+            if (rep >= 10) best = Math.min(best, System.nanoTime() - start);
+        }
+        return Math.max(best, 1) / (double) n;
+    }
+
+    /**
+     * @return The number of bodies at or above which the forces are computed on multiple threads
+     */
+    int getParallelThreshold() {
+        return this.parallelThreshold;
+    }
+
+    /**
+     * @return The bodies in this distribution, in the same order as the kernel
+     */
+    List<B> getBodies() {
+        return this.bodies;
+    }
+
+    /**
+     * @return The kernel used to compute the forces of the bodies
+     */
+    ForceKernel<T, B> getKernel() {
+        return this.kernel;
+    }
+
+    private int blockEnd(int block) {
+        return Math.min(this.bodies.size(), (block + 1) * BLOCK_SIZE);
+    }
+
+    /**
+     * Buffers reused between calls to getRandomBody on the same thread, shared by every distribution so that a thread
+     * holds one buffer rather than one per distribution it has sampled from
+     */
+    private static class Scratch {
+        private double[] blockSums = new double[0];
+
+        /**
+         * @return A buffer with room for the total force of each block, which is only valid until the next call
+         */
+        double[] blockSums(int numBlocks) {
+            if (this.blockSums.length < numBlocks) this.blockSums = new double[numBlocks];
+            return this.blockSums;
+        }
     }
 }
@@ -0,0 +1,137 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Sorts bodies along the space-filling curves of BodyOrder. The coordinates of the bodies are scaled to fill a grid of
+ * 2^b cells along each axis, and each body's cell is given a key along the curve, for any number of axes up to 63.
+ */
+final class SpaceFillingCurve {
+
+    static final List<ToDoubleFunction<Body1D<?>>> AXES_1D = List.of(b -> b.x);
+
+    static final List<ToDoubleFunction<Body2D<?>>> AXES_2D = List.of(b -> b.x, b -> b.y);
+
+    static final List<ToDoubleFunction<Body3D<?>>> AXES_3D = List.of(b -> b.x, b -> b.y, b -> b.z);
+
+    /**
+     * The position of a GISBody on the unit sphere, so that bodies on either side of the antimeridian or near a pole
+     * are still close together
+     */
+    static final List<ToDoubleFunction<GISBody<?>>> AXES_GIS = List.of(
+            b -> Math.cos(Math.toRadians(b.lat)) * Math.cos(Math.toRadians(b.lon)),
+            b -> Math.cos(Math.toRadians(b.lat)) * Math.sin(Math.toRadians(b.lon)),
+            b -> Math.sin(Math.toRadians(b.lat))
+    );
+
+    private SpaceFillingCurve() { }
+
+    /**
+     * @param bodies The bodies to reorder
+     * @param order The order to put them in
+     * @param axes Gives each coordinate of a body
+     * @return The bodies in the given order, in a new list unless the order is INPUT. Bodies with the same key are kept
+     *         in the order they were given.
+     */
+    static <B> List<B> sort(List<B> bodies, BodyOrder order, List<? extends ToDoubleFunction<? super B>> axes) {
+        if (order == null) throw new IllegalArgumentException("Null order");
+        int n = bodies.size();
+        if (order == BodyOrder.INPUT || n < 2) return bodies;
+        int dims = axes.size();
+        int bitsPerAxis = Math.min(Integer.SIZE - 1, (Long.SIZE - 1) / dims);
+
+        // Scale each axis to [0, 2^b - 1]
+        long maxCell = (1L << bitsPerAxis) - 1;
+        long[][] cells = new long[dims][n];
+        double[] coords = new double[n];
+        for (int d = 0; d < dims; d++) {
+            ToDoubleFunction<? super B> axis = axes.get(d);
+            double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                double v = axis.applyAsDouble(bodies.get(i));
+                coords[i] = v;
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+            double scale = max > min ? maxCell / (max - min) : 0;
+            for (int i = 0; i < n; i++) {
+                cells[d][i] = Math.min(maxCell, (long) ((coords[i] - min) * scale));
+            }
+        }
+
+        // Sort the keys with the index of each body in the low bits, dropping the lowest bits of the key if they don't
+        // all fit. That only loses the order of bodies within the smallest cells.
+        int indexBits = Integer.SIZE - Integer.numberOfLeadingZeros(n - 1);
+        int dropped = Math.max(0, dims * bitsPerAxis + indexBits - (Long.SIZE - 1));
+        long[] keys = new long[n];
+        long[] cell = new long[dims];
+        for (int i = 0; i < n; i++) {
+            for (int d = 0; d < dims; d++) {
+                cell[d] = cells[d][i];
+            }
+            if (order == BodyOrder.HILBERT) toHilbertTranspose(cell, bitsPerAxis);
+            keys[i] = (interleave(cell, bitsPerAxis) >>> dropped) << indexBits | i;
+        }
+        Arrays.sort(keys);
+
+        List<B> sorted = new ArrayList<>(n);
+        long indexMask = (1L << indexBits) - 1;
+        for (long key : keys) {
+            sorted.add(bodies.get((int) (key & indexMask)));
+        }
+        return sorted;
+    }
+
+    /**
+     * @return The bits of the cell's coordinates interleaved from the most significant down, with the first axis
+     *         highest. This is the Morton key of the cell.
+     */
+    static long interleave(long[] cell, int bitsPerAxis) {
+        long key = 0;
+        for (int bit = bitsPerAxis - 1; bit >= 0; bit--) {
+            for (long c : cell) {
+                key = key << 1 | (c >>> bit & 1);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Transform the cell's coordinates in place so that interleaving them gives the cell's index along the Hilbert
+     * curve, using John Skilling's algorithm from "Programming the Hilbert curve" (AIP Conference Proceedings 707,
+     * 2004)
+     */
+    static void toHilbertTranspose(long[] cell, int bitsPerAxis) {
+        int dims = cell.length;
+        // Undo the rotations and reflections of each level, from the top down. If the level's bit of axis d is set, the
+        // lower bits of the first axis are inverted, otherwise they are swapped with those of axis d. This is done
+        // without branching, since the bits are as good as random.
+        long first = cell[0];
+        for (int bit = bitsPerAxis - 1; bit > 0; bit--) {
+            long p = (1L << bit) - 1;
+            first ^= p & -(first >>> bit & 1);
+            for (int d = 1; d < dims; d++) {
+                long set = -(cell[d] >>> bit & 1);
+                long t = (first ^ cell[d]) & p & ~set;
+                first ^= (p & set) | t;
+                cell[d] ^= t;
+            }
+        }
+        cell[0] = first;
+        // Gray encode
+        for (int d = 1; d < dims; d++) {
+            cell[d] ^= cell[d - 1];
+        }
+        long t = 0;
+        long last = cell[dims - 1];
+        for (int bit = bitsPerAxis - 1; bit > 0; bit--) {
+            t ^= ((1L << bit) - 1) & -(last >>> bit & 1);
+        }
+        for (int d = 0; d < dims; d++) {
+            cell[d] ^= t;
+        }
+    }
+}
@@ -0,0 +1,569 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.random.RandomGenerator;
+
+/**
+ * An approximate GravityModelDistribution for GISBody that works on the sphere rather than on latitude and longitude.
+ * Each body's location is projected from the centre of the Earth onto the faces of a cube, and each face is split into
+ * a quadtree, so cells have similar sizes everywhere and nothing special happens at the antimeridian or the poles.
+ *
+ * <p/>
+ * Each node holds the total mass of its bodies, their centre of mass projected back onto the sphere, and the angular
+ * radius (in kilometres along the surface) of a circle around that centre containing all of them. Sampling works the
+ * same way as QuadtreeGravityModelDistribution: a node is treated as a single body when its radius divided by its great
+ * circle distance to the reference point is less than theta. With theta = 0 every body is considered individually and
+ * the probabilities match SimpleGISGravityModelDistribution to within the tolerance of ECEFGISBodyForceKernel.
+ *
+ * <p/>
+ * The tree is stored in primitive arrays in the same way as FlatQuadtreeGravityModelDistribution, and is built once in
+ * O(N log N) and can't be changed afterwards. Bodies at the same location end up in one leaf, which picks one of them
+ * weighted by their masses.
+ */
+public class SphericalQuadtreeGravityModelDistribution<T> implements GravityModelDistribution<T, GISBody<T>> {
+
+    /**
+     * Per-thread scratch space for getRandomBody
+     */
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * The bodies in depth-first order
+     */
+    private final GISBody<T>[] bodies;
+
+    /**
+     * The children of node i are childList[childStart[i]], ..., childList[childEnd[i] - 1]. Leaves have no children.
+     */
+    private final int[] childStart;
+
+    private final int[] childEnd;
+
+    private final int[] childList;
+
+    /**
+     * The total mass of each node's bodies
+     */
+    private final double[] mass;
+
+    /**
+     * The unit vector pointing at each node's centre of mass on the sphere
+     */
+    private final double[] centreX;
+
+    private final double[] centreY;
+
+    private final double[] centreZ;
+
+    /**
+     * The great circle distance in kilometres from each node's centre to its furthest body, or an upper bound of it
+     */
+    private final double[] radius;
+
+    /**
+     * Each node's bodies are at [bodyStart, bodyEnd) of `bodies`
+     */
+    private final int[] bodyStart;
+
+    private final int[] bodyEnd;
+
+    private final double theta;
+
+    private final RandomGenerator rng;
+
+    private volatile QueryListener listener;
+
+    /**
+     * @param bodies The bodies to be put into the tree
+     * @param theta The threshold value for when nodes are considered "far enough" to be considered as a combined
+     *              unit rather than considering each body individually. Smaller theta is more accurate but more
+     *              computationally intensive, and vice versa
+     * @param rng The random number generator to be used
+     */
+    public SphericalQuadtreeGravityModelDistribution(List<GISBody<T>> bodies, double theta, RandomGenerator rng) {
+        if (bodies.isEmpty()) {
+            throw new IllegalArgumentException("No bodies");
+        }
+        if (theta < 0 || Utils.isInvalidArg(theta)) {
+            throw new IllegalArgumentException("Invalid theta: " + theta);
+        }
+        ConstructionEvent event = ConstructionEvent.start();
+        this.theta = theta;
+        this.rng = rng;
+
+        TreeBuilder<T> builder = new TreeBuilder<>(bodies);
+        builder.buildRoot();
+        this.bodies = builder.orderedBodies();
+        int numNodes = builder.numNodes;
+        this.childStart = Arrays.copyOf(builder.childStart, numNodes);
+        this.childEnd = Arrays.copyOf(builder.childEnd, numNodes);
+        this.childList = Arrays.copyOf(builder.childList, builder.childListSize);
+        this.mass = Arrays.copyOf(builder.mass, numNodes);
+        this.centreX = Arrays.copyOf(builder.centreX, numNodes);
+        this.centreY = Arrays.copyOf(builder.centreY, numNodes);
+        this.centreZ = Arrays.copyOf(builder.centreZ, numNodes);
+        this.radius = Arrays.copyOf(builder.radius, numNodes);
+        this.bodyStart = Arrays.copyOf(builder.bodyStart, numNodes);
+        this.bodyEnd = Arrays.copyOf(builder.bodyEnd, numNodes);
+        event.finish(this, this.bodies.length);
+    }
+
+    /**
+     * @param bodies The bodies to be put into the tree
+     * @param theta The threshold value for when nodes are considered "far enough" to be considered as a combined
+     *              unit rather than considering each body individually. Smaller theta is more accurate but more
+     *              computationally intensive, and vice versa
+     */
+    public SphericalQuadtreeGravityModelDistribution(List<GISBody<T>> bodies, double theta) {
+        this(bodies, theta, new PerThreadRandomGenerator());
+    }
+
+    @Override
+    public GISBody<T> getRandomBody(GISBody<T> ref) {
+        return this.getRandomBody(ref, this.rng);
+    }
+
+    @Override
+    public GISBody<T> getRandomBody(GISBody<T> ref, RandomGenerator rng) {
+        return QueryReporter.report(
+                this, this.listener, this.bodies.length, ref, rng, (dist, r, random, stats) -> dist.sample(r, random)
+        );
+    }
+
+    /**
+     * Counts the work in the same way as QuadtreeGravityModelDistribution
+     */
+    @Override
+    public void setQueryListener(QueryListener listener) {
+        this.listener = listener;
+    }
+
+    private GISBody<T> sample(GISBody<T> ref, RandomGenerator rng) {
+        double latRad = Math.toRadians(ref.lat);
+        double lonRad = Math.toRadians(ref.lon);
+        double cosLat = Math.cos(latRad);
+        return this.chooseBodyInLeaf(
+                this.chooseLeaf(cosLat * Math.cos(lonRad), cosLat * Math.sin(lonRad), Math.sin(latRad), rng), rng
+        );
+    }
+
+    /**
+     * The same descent as Node.getRandomBody: starting at the root, choose one of the selected node's candidate nodes
+     * weighted by their gravity, halving theta at each level, until a leaf is chosen. The same random number is used at
+     * every level.
+     */
+    private int chooseLeaf(double x, double y, double z, RandomGenerator rng) {
+        Scratch scratch = SCRATCH.get();
+        int selected = 0;
+        double levelTheta = this.theta;
+        double rand = rng.nextDouble();
+        do {
+            scratch.size = 0;
+            // The selected node is always split, even if it is far away, so that every level makes progress
+            for (int c = this.childStart[selected]; c < this.childEnd[selected]; c++) {
+                this.addCandidates(this.childList[c], x, y, z, levelTheta, scratch);
+            }
+            scratch.stats.addLevel(scratch.size);
+            selected = scratch.nodes[Utils.chooseRandomIndexByWeight(scratch.forces, scratch.size, rand)];
+            levelTheta /= 2;
+        } while (!this.isLeaf(selected));
+        return selected;
+    }
+
+    /**
+     * Add the nodes within the subtree headed at `node` that should be considered individually to the scratch space,
+     * along with the gravity that each one's centre of mass exerts on a point mass of 1 at the given unit vector
+     */
+    private void addCandidates(int node, double x, double y, double z, double theta, Scratch out) {
+        out.stats.nodesVisited++;
+        double r = ECEFGISBodyForceKernel.greatCircleDistance(
+                x, y, z, this.centreX[node], this.centreY[node], this.centreZ[node]
+        );
+        // This node is either a leaf, or the combined centre of mass is far enough that we consider it all together
+        if (this.isLeaf(node) || this.radius[node] / r < theta) {
+            double m = this.mass[node];
+            out.add(node, m == 0 || r == 0 ? 0 : m / (r*r));
+        }
+        else {
+            for (int c = this.childStart[node]; c < this.childEnd[node]; c++) {
+                this.addCandidates(this.childList[c], x, y, z, theta, out);
+            }
+        }
+    }
+
+    private boolean isLeaf(int node) {
+        return this.childStart[node] == this.childEnd[node];
+    }
+
+    /**
+     * @return One of the leaf's bodies weighted by their masses. These are all at the same location.
+     */
+    private GISBody<T> chooseBodyInLeaf(int leaf, RandomGenerator rng) {
+        return this.bodies[Utils.chooseIndexByMass(
+                this.bodies, this.bodyStart[leaf], this.bodyEnd[leaf], this.mass[leaf], rng
+        )];
+    }
+
+    /**
+     * @return The number of nodes in the tree
+     */
+    int getNodeCount() {
+        return this.mass.length;
+    }
+
+    /**
+     * @return The great circle distance in kilometres from the root's centre of mass to its furthest body, or an upper
+     *         bound of it
+     */
+    double getRootRadius() {
+        return this.radius[0];
+    }
+
+    /**
+     * Buffers reused between calls to getRandomBody on the same thread
+     */
+    private static class Scratch {
+        int[] nodes = new int[16];
+        double[] forces = new double[16];
+        int size = 0;
+        final QueryStats stats = QueryStats.current();
+
+        void add(int node, double force) {
+            if (this.size == this.nodes.length) {
+                this.nodes = Arrays.copyOf(this.nodes, 2 * this.size);
+                this.forces = Arrays.copyOf(this.forces, 2 * this.size);
+            }
+            this.nodes[this.size] = node;
+            this.forces[this.size++] = force;
+        }
+    }
+
+    /**
+     * Builds the arrays of the tree. The root's children are the six faces of the cube, and each face is split into four
+     * equal quadrants of its gnomonic coordinates (u, v) in [-1, 1] until every cell holds bodies at a single location.
+     */
+    private static class TreeBuilder<T> {
+        final List<GISBody<T>> input;
+
+        /**
+         * The index in `input` of each body, in the order they are partitioned into
+         */
+        final int[] order;
+
+        /**
+         * The unit vector, cube face and coordinates on that face of each body, in the same order as `order`
+         */
+        final double[] x;
+        final double[] y;
+        final double[] z;
+        final byte[] face;
+        final double[] u;
+        final double[] v;
+        final double[] masses;
+
+        int numNodes = 0;
+
+        int[] childStart;
+        int[] childEnd;
+        int[] childList;
+        int childListSize = 0;
+        double[] mass;
+        double[] centreX;
+        double[] centreY;
+        double[] centreZ;
+        double[] radius;
+        int[] bodyStart;
+        int[] bodyEnd;
+
+        /**
+         * The mass-weighted sum of the unit vectors of each node's bodies. Its direction is the node's centre.
+         */
+        double[] sumX;
+        double[] sumY;
+        double[] sumZ;
+
+        TreeBuilder(List<GISBody<T>> input) {
+            int n = input.size();
+            this.input = input;
+            this.order = new int[n];
+            this.x = new double[n];
+            this.y = new double[n];
+            this.z = new double[n];
+            this.face = new byte[n];
+            this.u = new double[n];
+            this.v = new double[n];
+            this.masses = new double[n];
+            double[] vec = new double[3];
+            for (int i = 0; i < n; i++) {
+                GISBody<T> b = input.get(i);
+                if (Utils.isInvalidArg(b.lat) || b.lat < -90 || b.lat > 90) {
+                    throw new IllegalArgumentException("Illegal latitude " + b.lat);
+                }
+                if (Utils.isInvalidArg(b.lon)) throw new IllegalArgumentException("Illegal longitude " + b.lon);
+                ECEFGISBodyForceKernel.toUnitVector(b.lat, b.lon, vec);
+                this.x[i] = vec[0];
+                this.y[i] = vec[1];
+                this.z[i] = vec[2];
+                this.project(i);
+                this.order[i] = i;
+                this.masses[i] = b.mass;
+            }
+            // Distinct bodies need about 4N/3 nodes in a balanced tree; the arrays grow if clusters need more
+            int capacity = 2 * n + 1;
+            this.childStart = new int[capacity];
+            this.childEnd = new int[capacity];
+            this.childList = new int[capacity];
+            this.mass = new double[capacity];
+            this.centreX = new double[capacity];
+            this.centreY = new double[capacity];
+            this.centreZ = new double[capacity];
+            this.radius = new double[capacity];
+            this.bodyStart = new int[capacity];
+            this.bodyEnd = new int[capacity];
+            this.sumX = new double[capacity];
+            this.sumY = new double[capacity];
+            this.sumZ = new double[capacity];
+        }
+
+        /**
+         * Set the cube face and face coordinates of body i from its unit vector. Faces 0 to 5 are +x, -x, +y, -y, +z
+         * and -z, and the coordinates are the other two components divided by the largest one.
+         */
+        private void project(int i) {
+            double ax = Math.abs(this.x[i]);
+            double ay = Math.abs(this.y[i]);
+            double az = Math.abs(this.z[i]);
+            if (ax >= ay && ax >= az) {
+                this.face[i] = (byte) (this.x[i] > 0 ? 0 : 1);
+                this.u[i] = this.y[i] / ax;
+                this.v[i] = this.z[i] / ax;
+            }
+            else if (ay >= az) {
+                this.face[i] = (byte) (this.y[i] > 0 ? 2 : 3);
+                this.u[i] = this.x[i] / ay;
+                this.v[i] = this.z[i] / ay;
+            }
+            else {
+                this.face[i] = (byte) (this.z[i] > 0 ? 4 : 5);
+                this.u[i] = this.x[i] / az;
+                this.v[i] = this.y[i] / az;
+            }
+        }
+
+        /**
+         * Build the root, whose children are the faces of the cube that have bodies on them
+         */
+        void buildRoot() {
+            int root = this.newNode(0, this.order.length);
+            int[] children = new int[6];
+            int numChildren = 0;
+            int from = 0;
+            for (int f = 0; f < 6; f++) {
+                int to = this.partitionByFace(from, this.order.length, f);
+                if (to > from) {
+                    children[numChildren++] = this.build(from, to, -1, -1, 2);
+                }
+                from = to;
+            }
+            this.finishInternalNode(root, children, numChildren);
+        }
+
+        /**
+         * Build the subtree for the bodies in [from, to), which are all on the same face within the square cell with
+         * lower corner (u0, v0) and the given side length
+         *
+         * @return The index of the subtree's root
+         */
+        int build(int from, int to, double u0, double v0, double side) {
+            int node = this.newNode(from, to);
+            double uMid = u0 + side / 2;
+            double vMid = v0 + side / 2;
+            // Cells this small can't be split any further, so their bodies are as good as coincident
+            boolean canSplit = u0 < uMid && uMid < u0 + side && v0 < vMid && vMid < v0 + side;
+            if (!canSplit || this.allAtSameLocation(from, to)) {
+                this.finishLeaf(node, from, to);
+                return node;
+            }
+
+            int uSplit = this.partition(this.u, from, to, uMid);
+            int westSouthSplit = this.partition(this.v, from, uSplit, vMid);
+            int eastSouthSplit = this.partition(this.v, uSplit, to, vMid);
+            double half = side / 2;
+            int[] children = new int[4];
+            int numChildren = 0;
+            if (westSouthSplit > from) children[numChildren++] = this.build(from, westSouthSplit, u0, v0, half);
+            if (uSplit > westSouthSplit) children[numChildren++] = this.build(westSouthSplit, uSplit, u0, vMid, half);
+            if (eastSouthSplit > uSplit) children[numChildren++] = this.build(uSplit, eastSouthSplit, uMid, v0, half);
+            if (to > eastSouthSplit) children[numChildren++] = this.build(eastSouthSplit, to, uMid, vMid, half);
+            this.finishInternalNode(node, children, numChildren);
+            return node;
+        }
+
+        private boolean allAtSameLocation(int from, int to) {
+            for (int i = from + 1; i < to; i++) {
+                if (this.u[i] != this.u[from] || this.v[i] != this.v[from]) return false;
+            }
+            return true;
+        }
+
+        private int newNode(int from, int to) {
+            int node = this.numNodes++;
+            if (node == this.mass.length) this.grow();
+            this.bodyStart[node] = from;
+            this.bodyEnd[node] = to;
+            return node;
+        }
+
+        private void finishLeaf(int node, int from, int to) {
+            this.childStart[node] = this.childListSize;
+            this.childEnd[node] = this.childListSize;
+            double totalMass = 0, sx = 0, sy = 0, sz = 0;
+            for (int i = from; i < to; i++) {
+                double m = this.masses[i];
+                totalMass += m;
+                sx += m * this.x[i];
+                sy += m * this.y[i];
+                sz += m * this.z[i];
+            }
+            this.setCentre(node, totalMass, sx, sy, sz, this.x[from], this.y[from], this.z[from]);
+            double r = 0;
+            for (int i = from; i < to; i++) {
+                r = Math.max(r, this.distanceFromCentre(node, this.x[i], this.y[i], this.z[i]));
+            }
+            this.radius[node] = r;
+        }
+
+        private void finishInternalNode(int node, int[] children, int numChildren) {
+            if (this.childListSize + numChildren > this.childList.length) {
+                this.childList = Arrays.copyOf(this.childList, 2 * this.childList.length + numChildren);
+            }
+            this.childStart[node] = this.childListSize;
+            double totalMass = 0, sx = 0, sy = 0, sz = 0;
+            for (int c = 0; c < numChildren; c++) {
+                int child = children[c];
+                this.childList[this.childListSize++] = child;
+                totalMass += this.mass[child];
+                sx += this.sumX[child];
+                sy += this.sumY[child];
+                sz += this.sumZ[child];
+            }
+            this.childEnd[node] = this.childListSize;
+            int first = children[0];
+            this.setCentre(node, totalMass, sx, sy, sz, this.centreX[first], this.centreY[first], this.centreZ[first]);
+            // The circle around each child contains all of its bodies, so a circle containing those circles does too
+            double r = 0;
+            for (int c = 0; c < numChildren; c++) {
+                int child = children[c];
+                r = Math.max(
+                        r,
+                        this.distanceFromCentre(node, this.centreX[child], this.centreY[child], this.centreZ[child])
+                                + this.radius[child]
+                );
+            }
+            this.radius[node] = Math.min(r, Math.PI * GISBody.EARTH_RADIUS_KM);
+        }
+
+        /**
+         * Set the node's centre to the direction of the mass-weighted sum of its bodies' unit vectors, or to the given
+         * fallback if the sum is zero because the bodies have no mass or cancel each other out
+         */
+        private void setCentre(
+                int node, double totalMass, double sx, double sy, double sz, double fx, double fy, double fz
+        ) {
+            this.mass[node] = totalMass;
+            this.sumX[node] = sx;
+            this.sumY[node] = sy;
+            this.sumZ[node] = sz;
+            double length = Math.sqrt(sx*sx + sy*sy + sz*sz);
+            if (length > 0) {
+                this.centreX[node] = sx / length;
+                this.centreY[node] = sy / length;
+                this.centreZ[node] = sz / length;
+            }
+            else {
+                this.centreX[node] = fx;
+                this.centreY[node] = fy;
+                this.centreZ[node] = fz;
+            }
+        }
+
+        private double distanceFromCentre(int node, double px, double py, double pz) {
+            return ECEFGISBodyForceKernel.greatCircleDistance(
+                    this.centreX[node], this.centreY[node], this.centreZ[node], px, py, pz
+            );
+        }
+
+        /**
+         * Reorder the bodies in [from, to) so that those with the given face come first
+         *
+         * @return The index of the first body with a different face
+         */
+        private int partitionByFace(int from, int to, int f) {
+            int i = from;
+            for (int j = from; j < to; j++) {
+                if (this.face[j] == f) this.swap(i++, j);
+            }
+            return i;
+        }
+
+        /**
+         * Reorder the bodies in [from, to) so that those whose coordinate is less than `mid` come first
+         *
+         * @return The index of the first body whose coordinate is at least `mid`
+         */
+        private int partition(double[] coordinate, int from, int to, double mid) {
+            int i = from;
+            for (int j = from; j < to; j++) {
+                if (coordinate[j] < mid) this.swap(i++, j);
+            }
+            return i;
+        }
+
+        private void swap(int i, int j) {
+            if (i == j) return;
+            int o = this.order[i];
+            this.order[i] = this.order[j];
+            this.order[j] = o;
+            swap(this.x, i, j);
+            swap(this.y, i, j);
+            swap(this.z, i, j);
+            swap(this.u, i, j);
+            swap(this.v, i, j);
+            swap(this.masses, i, j);
+            byte f = this.face[i];
+            this.face[i] = this.face[j];
+            this.face[j] = f;
+        }
+
+        private static void swap(double[] arr, int i, int j) {
+            double t = arr[i];
+            arr[i] = arr[j];
+            arr[j] = t;
+        }
+
+        private void grow() {
+            int capacity = 2 * this.mass.length;
+            this.childStart = Arrays.copyOf(this.childStart, capacity);
+            this.childEnd = Arrays.copyOf(this.childEnd, capacity);
+            this.mass = Arrays.copyOf(this.mass, capacity);
+            this.centreX = Arrays.copyOf(this.centreX, capacity);
+            this.centreY = Arrays.copyOf(this.centreY, capacity);
+            this.centreZ = Arrays.copyOf(this.centreZ, capacity);
+            this.radius = Arrays.copyOf(this.radius, capacity);
+            this.bodyStart = Arrays.copyOf(this.bodyStart, capacity);
+            this.bodyEnd = Arrays.copyOf(this.bodyEnd, capacity);
+            this.sumX = Arrays.copyOf(this.sumX, capacity);
+            this.sumY = Arrays.copyOf(this.sumY, capacity);
+            this.sumZ = Arrays.copyOf(this.sumZ, capacity);
+        }
+
+        GISBody<T>[] orderedBodies() {
+            GISBody<T>[] out = Utils.newArray(GISBody.class, this.order.length);
+            for (int i = 0; i < out.length; i++) {
+                out[i] = this.input.get(this.order[i]);
+            }
+            return out;
+        }
+    }
+}
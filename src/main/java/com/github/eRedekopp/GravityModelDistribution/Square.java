@@ -46,6 +46,24 @@ class Square {
                 && y <= this.midY + halfSide;
     }
 
+    /**
+     * @return The distance from the given point to the nearest point of the square, which is 0 if the square contains
+     *         the point
+     */
+    public double minDistanceTo(double x, double y) {
+        return minDistance(this.midX, this.midY, this.sideLength, x, y);
+    }
+
+    /**
+     * The same as minDistanceTo, for a square given by its centre and side length without creating it
+     */
+    static double minDistance(double midX, double midY, double sideLength, double x, double y) {
+        double halfSide = sideLength / 2;
+        double dx = Math.max(0, Math.abs(x - midX) - halfSide);
+        double dy = Math.max(0, Math.abs(y - midY) - halfSide);
+        return Math.sqrt(dx*dx + dy*dy);
+    }
+
     /**
      * @return Which quadrant of the square contains the given point.
      * If the point lies on the axis, it counts as North and East.
@@ -101,6 +119,15 @@ class Square {
                 && this.sideLength == other.sideLength;
     }
 
+    @Override
+    public int hashCode() {
+        // Adding 0.0 turns -0.0 into 0.0, which equals treats as the same coordinate
+        int hash = Double.hashCode(this.midX + 0.0);
+        hash = 31 * hash + Double.hashCode(this.midY + 0.0);
+        hash = 31 * hash + Double.hashCode(this.sideLength + 0.0);
+        return hash;
+    }
+
     @Override
     public String toString() {
         return "Square{" +
@@ -1,6 +1,9 @@
 package com.github.eRedekopp.GravityModelDistribution;
 
+import java.lang.reflect.Array;
+import java.nio.DoubleBuffer;
 import java.util.Arrays;
+import java.util.random.RandomGenerator;
 
 class Utils {
 
@@ -8,6 +11,29 @@ class Utils {
         return Double.isInfinite(arg) || Double.isNaN(arg);
     }
 
+    /**
+     * @throws IllegalArgumentException If the distance between bodies of this type isn't the straight-line distance
+     *                                  between their coordinates, as for GISBody, whose coordinates are angles
+     */
+    static void checkStraightLineDistances(Body<?> body) {
+        if (body instanceof GISBody) {
+            throw new IllegalArgumentException(
+                    "GISBody coordinates are angles, use SphericalQuadtreeGravityModelDistribution instead"
+            );
+        }
+    }
+
+    /**
+     * @return The body as HasCoordinates
+     * @throws IllegalArgumentException If the body's type doesn't implement HasCoordinates
+     */
+    static HasCoordinates checkCoordinates(Body<?> body) {
+        if (!(body instanceof HasCoordinates)) {
+            throw new IllegalArgumentException("Body type doesn't provide coordinates: " + body.getClass());
+        }
+        return (HasCoordinates) body;
+    }
+
     public static double[] cumSum(double[] arr) {
         double[] out = new double[arr.length];
         double cumSum = 0;
@@ -36,17 +62,113 @@ class Utils {
      *     <li>Rand = 0.7 -> return n3</li>
      * </ul>
      *
+     * <p/>
+     * Rather than normalizing the array and building its cumulative sum, rand is scaled by the total weight and the
+     * array is scanned once, so no memory is allocated.
+     *
      * @param arr An array of doubles >= 0 with at least one value >0
      * @param rand A uniform random double in [0,1)
      * @return A randomly selected index of the array weighted by the
      */
     public static int chooseRandomIndexByWeight(double[] arr, double rand) {
+        return chooseRandomIndexByWeight(arr, arr.length, rand);
+    }
+
+    /**
+     * The same as chooseRandomIndexByWeight, but only considers the first `length` elements of the array. This allows
+     * callers to reuse a scratch buffer that is larger than the number of weights.
+     *
+     * @param arr An array whose first `length` elements are doubles >= 0 with at least one value >0
+     * @param length The number of elements of the array to consider
+     * @param rand A uniform random double in [0,1)
+     * @return A randomly selected index in [0, length) weighted by the value at each index
+     */
+    public static int chooseRandomIndexByWeight(double[] arr, int length, double rand) {
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += arr[i];
+        }
+        if  (sum <= 0 || isInvalidArg(sum)) throw new IllegalArgumentException("Elements sum to invalid value: " + sum);
+        double target = rand * sum;
+        double cumSum = 0;
+        int lastNonZero = -1;
+        for (int i = 0; i < length; i++) {
+            if (arr[i] > 0) {
+                cumSum += arr[i];
+                lastNonZero = i;
+                // Like the ranges above, each index owns [cumSum before it, cumSum after it)
+                if (cumSum > target) return i;
+            }
+        }
+        // Only reachable through rounding error when rand is very close to 1
+        return lastNonZero;
+    }
+
+    /**
+     * Choose one of the bodies in [start, end) weighted by their masses, as is done to choose between the bodies of a
+     * leaf. No random number is drawn if there is only one body.
+     *
+     * @param totalMass The total mass of the bodies in [start, end), which must be >0
+     * @return The index of the chosen body
+     */
+    static int chooseIndexByMass(Body<?>[] bodies, int start, int end, double totalMass, RandomGenerator rng) {
+        if (end - start == 1) return start;
+        double target = rng.nextDouble() * totalMass;
+        double cumSum = 0;
+        int lastNonZero = start;
+        for (int i = start; i < end; i++) {
+            double m = bodies[i].mass;
+            if (m > 0) {
+                cumSum += m;
+                lastNonZero = i;
+                if (cumSum > target) return i;
+            }
+        }
+        // Only reachable through rounding error
+        return lastNonZero;
+    }
+
+    /**
+     * The same as chooseIndexByMass, but for masses stored in a buffer
+     */
+    static int chooseIndexByMass(DoubleBuffer masses, int start, int end, double totalMass, RandomGenerator rng) {
+        if (end - start == 1) return start;
+        double target = rng.nextDouble() * totalMass;
+        double cumSum = 0;
+        int lastNonZero = start;
+        for (int i = start; i < end; i++) {
+            double m = masses.get(i);
+            if (m > 0) {
+                cumSum += m;
+                lastNonZero = i;
+                if (cumSum > target) return i;
+            }
+        }
+        // Only reachable through rounding error
+        return lastNonZero;
+    }
+
+    /**
+     * @param arr An array of doubles >= 0 with at least one value >0
+     * @return The cumulative sum of the array after normalizing it to sum to 1
+     */
+    public static double[] normalizedCumSum(double[] arr) {
         double sum = Arrays.stream(arr).reduce(0.0, Double::sum);
         if  (sum <= 0) throw new IllegalArgumentException("Elements sum to invalid value: " + sum);
         double[] normalized = Arrays.stream(arr)
                 .map(f -> f / sum)
                 .toArray();
-        double[] cumSum = cumSum(normalized);
+        return cumSum(normalized);
+    }
+
+    /**
+     * The same as chooseRandomIndexByWeight, but for weights that have already been passed through normalizedCumSum
+     *
+     * @param cumSum The normalized cumulative sum of an array of weights
+     * @param rand A uniform random double in [0,1)
+     * @return A randomly selected index of the original array of weights
+     */
+    public static int chooseRandomIndexByCumulativeWeight(double[] cumSum, double rand) {
         int idx = Arrays.binarySearch(cumSum, rand);
         // Arrays.binarySearch is a little unusual. If it returns >= 0, that means we found a value exactly matching
         // our random number. This is unlikely but possible. If this happens, we need to go forward until we find an
@@ -63,4 +185,14 @@ class Utils {
             return -1 * idx - 1;
         }
     }
+
+    /**
+     * @param type The erasure of the element type, such as Body2D.class for Body2D&lt;T&gt;
+     * @param length The length of the array
+     * @return A new array of a generic element type, which can't be created with `new`
+     */
+    @SuppressWarnings("unchecked")
+    static <E> E[] newArray(Class<? super E> type, int length) {
+        return (E[]) Array.newInstance(type, length);
+    }
 }
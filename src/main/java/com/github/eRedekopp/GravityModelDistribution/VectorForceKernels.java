@@ -0,0 +1,87 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+
+/**
+ * Creates force kernels that use the incubating Java Vector API (jdk.incubator.vector) to compute the forces of
+ * several bodies at a time, falling back to the scalar kernels when the Vector API can't be used. The Vector API is
+ * only available when the JVM is started with --add-modules jdk.incubator.vector, and is only worthwhile when the CPU
+ * has vector registers wide enough to hold more than one double.
+ *
+ * <p/>
+ * The Vector API kernels are in the separate vector source set, which is only compiled and packaged when the build is
+ * run with -PvectorApi, so this class finds them by name and treats the Vector API as unavailable if they are
+ * missing. No class that refers to the Vector API is loaded unless isAvailable returns true, so this class is safe to
+ * use on any JVM.
+ */
+final class VectorForceKernels {
+
+    private static final boolean AVAILABLE = checkAvailable();
+
+    private VectorForceKernels() {}
+
+    private static boolean checkAvailable() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) return false;
+        try {
+            Class.forName(VectorForceKernels.class.getPackageName() + ".VectorBody2DForceKernel", false,
+                          VectorForceKernels.class.getClassLoader());
+            Object species = Class.forName("jdk.incubator.vector.DoubleVector")
+                    .getField("SPECIES_PREFERRED")
+                    .get(null);
+            return (int) Class.forName("jdk.incubator.vector.VectorSpecies").getMethod("length").invoke(species) > 1;
+        }
+        catch (ReflectiveOperationException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return True if the Vector API kernels can be used in this JVM
+     */
+    static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * @return A Vector API kernel for the bodies if available, otherwise the scalar kernel
+     */
+    static <T> ForceKernel<T, Body2D<T>> body2D(List<Body2D<T>> bodies) {
+        return AVAILABLE ? newVectorKernel("VectorBody2DForceKernel", bodies) : new Body2DForceKernel<>(bodies);
+    }
+
+    /**
+     * @return A Vector API kernel for the bodies if available, otherwise the scalar kernel
+     */
+    static <T> ForceKernel<T, Body3D<T>> body3D(List<Body3D<T>> bodies) {
+        return AVAILABLE ? newVectorKernel("VectorBody3DForceKernel", bodies) : new Body3DForceKernel<>(bodies);
+    }
+
+    /**
+     * @return A Vector API kernel for the bodies if available, otherwise the scalar kernel
+     */
+    static <T> ForceKernel<T, GISBody<T>> gis(List<GISBody<T>> bodies) {
+        return AVAILABLE ? newVectorKernel("VectorGISBodyForceKernel", bodies) : new GISBodyForceKernel<>(bodies);
+    }
+
+    /**
+     * @param className The simple name of a kernel class in the vector source set, which has a constructor that takes
+     *                  the list of bodies
+     */
+    @SuppressWarnings("unchecked")
+    private static <T, B extends Body<T>> ForceKernel<T, B> newVectorKernel(String className, List<B> bodies) {
+        try {
+            Constructor<?> constructor = Class.forName(VectorForceKernels.class.getPackageName() + "." + className)
+                    .getDeclaredConstructor(List.class);
+            return (ForceKernel<T, B>) constructor.newInstance(bodies);
+        }
+        catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("The Vector API kernels were found but could not be created", e);
+        }
+    }
+}
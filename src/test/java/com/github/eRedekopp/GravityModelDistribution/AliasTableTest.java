@@ -0,0 +1,64 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AliasTableTest {
+
+    private static final int NUM_ITERATIONS = (int) 1E6;
+
+    private static final double EPSILON = 0.003;
+
+    private static double[] sampleFrequencies(double[] weights) {
+        AliasTable table = new AliasTable(weights);
+        Random rng = new Random(42);
+        double[] counts = new double[weights.length];
+        for (int i = 0; i < NUM_ITERATIONS; i++) {
+            counts[table.sample(rng)]++;
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] /= NUM_ITERATIONS;
+        }
+        return counts;
+    }
+
+    @Test
+    void testConvergesToWeights() {
+        double[] weights = {0, 100, 200, 300, 0, 400};
+        double[] freqs = sampleFrequencies(weights);
+        for (int i = 0; i < weights.length; i++) {
+            assertEquals(weights[i] / 1000, freqs[i], EPSILON);
+        }
+    }
+
+    @Test
+    void testNeverReturnsZeroWeightIndex() {
+        double[] weights = new double[1000];
+        weights[0] = 1E-300;
+        weights[999] = 1E300;
+        for (int i = 1; i < 999; i += 2) weights[i] = 1.0 / 3;
+        double[] freqs = sampleFrequencies(weights);
+        for (int i = 2; i < 999; i += 2) {
+            assertEquals(0.0, freqs[i]);
+        }
+    }
+
+    @Test
+    void testReturnsOnlyIndexWhenOnlyOne() {
+        double[] freqs = sampleFrequencies(new double[] {5});
+        assertEquals(1.0, freqs[0]);
+    }
+
+    @Test
+    void testThrowsForAllZeroWeights() {
+        assertThrows(IllegalArgumentException.class, () -> new AliasTable(new double[] {0, 0, 0}));
+    }
+
+    @Test
+    void testThrowsForEmptyWeights() {
+        assertThrows(IllegalArgumentException.class, () -> new AliasTable(new double[0]));
+    }
+}
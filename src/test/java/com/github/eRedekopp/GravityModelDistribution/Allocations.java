@@ -0,0 +1,28 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Measures the memory allocated by the current thread, for tests that check that a code path doesn't allocate
+ */
+class Allocations {
+
+    private static final int WARMUP_ITERATIONS = 20000;
+
+    private static final int MEASURED_ITERATIONS = 1000;
+
+    /**
+     * Run the action enough times for the JIT to compile it, then check that further runs allocate nothing
+     */
+    static void assertSteadyStateAllocationFree(Runnable action) {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assertTrue(bean.isThreadAllocatedMemorySupported(), "JVM can't measure allocations");
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) action.run();
+        long before = bean.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) action.run();
+        long allocated = bean.getCurrentThreadAllocatedBytes() - before;
+        assertTrue(allocated == 0, "Allocated " + allocated + " bytes in " + MEASURED_ITERATIONS + " iterations");
+    }
+}
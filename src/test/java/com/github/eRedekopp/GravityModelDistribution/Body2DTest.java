@@ -259,4 +259,22 @@ public class Body2DTest {
             doInvalidConstructorArgsTest(120, 100, y);
         }
     }
+
+    @Nested
+    class TestCoordinates {
+
+        @Test
+        void testCopiesCoordinatesAtOffset() {
+            double[] out = {-1, -1, -1, -1};
+            new Body2D<>(1, 12.5, -3, null).copyCoordinates(out, 1);
+            assertArrayEquals(new double[] {-1, 12.5, -3, -1}, out);
+        }
+
+        @Test
+        void testGetCoordinatesMatchesDimensions() {
+            Body2D<Object> body = new Body2D<>(1, 12.5, -3, null);
+            assertEquals(2, body.getDimensions());
+            assertArrayEquals(new double[] {12.5, -3}, body.getCoordinates());
+        }
+    }
 }
@@ -0,0 +1,234 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CachingGravityModelDistributionTest extends Shared2DGravityModelDistributionTests {
+
+    private static final long LARGE_BUDGET = 1 << 20;
+
+    @Override
+    protected <T> GravityModelDistribution<T, Body2D<T>> makeDistribution(List<Body2D<T>> bodies) {
+        return new CachingGravityModelDistribution<>(new Simple2DGravityModelDistribution<>(bodies), LARGE_BUDGET);
+    }
+
+    private static List<Body2D<Integer>> makeBodies(int n) {
+        List<Body2D<Integer>> bodies = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            bodies.add(new Body2D<>(10, i, i % 7, i));
+        }
+        return bodies;
+    }
+
+    /**
+     * @return The estimated size of one cache entry for a Simple distribution over n bodies
+     */
+    private static long entrySize(int n) {
+        CachingGravityModelDistribution<Integer, Body2D<Integer>> dist = new CachingGravityModelDistribution<>(
+                new Simple2DGravityModelDistribution<>(makeBodies(n)), LARGE_BUDGET
+        );
+        dist.getRandomBody(new Body2D<>(1, 0.5, 0.5, null));
+        return dist.getSizeBytes();
+    }
+
+    @Test
+    void testCountsHitsAndMisses() {
+        CachingGravityModelDistribution<Integer, Body2D<Integer>> dist = new CachingGravityModelDistribution<>(
+                new Simple2DGravityModelDistribution<>(makeBodies(100)), LARGE_BUDGET
+        );
+        dist.getRandomBody(new Body2D<>(1, 0.5, 0.5, null));
+        dist.getRandomBody(new Body2D<>(1, 0.5, 0.5, 12));
+        dist.getRandomBody(new Body2D<>(2, 0.5, 0.5, null));
+        dist.getRandomBody(new Body2D<>(1, 1.5, 0.5, null));
+        dist.getRandomBodies(new Body2D<>(1, 1.5, 0.5, null), 10);
+        assertEquals(2, dist.getHitCount());
+        assertEquals(3, dist.getMissCount());
+        assertEquals(0, dist.getEvictionCount());
+        assertEquals(3, dist.getEntryCount());
+    }
+
+    @Test
+    void testReportsOnlyTheTimeOfEachDraw() {
+        Simple2DGravityModelDistribution<Integer> simple = new Simple2DGravityModelDistribution<>(makeBodies(100));
+        CachingGravityModelDistribution<Integer, Body2D<Integer>> dist =
+                new CachingGravityModelDistribution<>(simple, LARGE_BUDGET);
+        List<QueryStats> reported = new ArrayList<>();
+        dist.setQueryListener(stats -> {
+            assertEquals(0, stats.getLevels());
+            assertEquals(0, stats.getForceEvaluations());
+            assertTrue(stats.getElapsedNanos() > 0);
+            reported.add(stats);
+        });
+        // The delegate's own listener sees the work of the draws that bypass the cache
+        List<QueryStats> delegateReported = new ArrayList<>();
+        simple.setQueryListener(stats -> {
+            assertEquals(100, stats.getForceEvaluations());
+            delegateReported.add(stats);
+        });
+        Body2D<Integer> ref = new Body2D<>(1, 0.5, 0.5, null);
+        for (int i = 0; i < 10; i++) {
+            dist.getRandomBody(ref);
+            dist.getRandomBody(ref, new Random(i));
+        }
+        assertEquals(20, reported.size());
+        assertEquals(10, delegateReported.size());
+        dist.setQueryListener(null);
+        dist.getRandomBody(ref);
+        assertEquals(20, reported.size());
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsedWhenOverBudget() {
+        long entrySize = entrySize(100);
+        CachingGravityModelDistribution<Integer, Body2D<Integer>> dist = new CachingGravityModelDistribution<>(
+                new Simple2DGravityModelDistribution<>(makeBodies(100)), 2 * entrySize
+        );
+        Body2D<Integer> a = new Body2D<>(1, 0.5, 0.5, null);
+        Body2D<Integer> b = new Body2D<>(1, 1.5, 0.5, null);
+        Body2D<Integer> c = new Body2D<>(1, 2.5, 0.5, null);
+        dist.getRandomBody(a);
+        dist.getRandomBody(b);
+        dist.getRandomBody(a);
+        dist.getRandomBody(c);  // evicts b
+        assertEquals(1, dist.getEvictionCount());
+        assertEquals(2, dist.getEntryCount());
+        assertTrue(dist.getSizeBytes() <= 2 * entrySize);
+
+        dist.getRandomBody(a);
+        dist.getRandomBody(c);
+        assertEquals(3, dist.getHitCount());
+        dist.getRandomBody(b);
+        assertEquals(4, dist.getMissCount());
+    }
+
+    @Test
+    void testNeverEvictsTheEntryJustAdded() {
+        long entrySize = entrySize(100);
+        CachingGravityModelDistribution<Integer, Body2D<Integer>> dist = new CachingGravityModelDistribution<>(
+                new Simple2DGravityModelDistribution<>(makeBodies(100)), 2 * entrySize
+        );
+        Body2D<Integer> hot = new Body2D<>(1, 0.5, 0.5, null);
+        for (int i = 0; i < 100; i++) {
+            // The hot entry and the previous new entry were both hit since the last miss, so their stamps tie
+            Body2D<Integer> ref = new Body2D<>(1, i + 1.5, 0.5, null);
+            dist.getRandomBody(hot);
+            dist.getRandomBody(ref);
+            long hits = dist.getHitCount();
+            dist.getRandomBody(ref);
+            assertEquals(hits + 1, dist.getHitCount());
+        }
+    }
+
+    @Test
+    void testDoesNotCacheSamplersLargerThanBudget() {
+        CachingGravityModelDistribution<Integer, Body2D<Integer>> dist = new CachingGravityModelDistribution<>(
+                new Simple2DGravityModelDistribution<>(makeBodies(100)), entrySize(100) - 1
+        );
+        Body2D<Integer> ref = new Body2D<>(1, 0.5, 0.5, null);
+        assertNotNull(dist.getRandomBody(ref));
+        assertNotNull(dist.getRandomBody(ref));
+        assertEquals(0, dist.getEntryCount());
+        assertEquals(2, dist.getMissCount());
+        assertEquals(0, dist.getEvictionCount());
+    }
+
+    @Test
+    void testConstructorThrowsForNegativeBudget() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new CachingGravityModelDistribution<>(new Simple2DGravityModelDistribution<>(makeBodies(1)), -1)
+        );
+    }
+
+    @Test
+    void testThrowsForReferenceWithoutCoordinates() {
+        // Body types outside the library don't have to provide coordinates, but the cache needs them for its keys
+        Body<Integer> body = new Body<>(1, 0) {
+            @Override
+            public Body<Integer> plus(Body<Integer> other) {
+                return this;
+            }
+
+            @Override
+            public double distanceTo(Body<Integer> other) {
+                return 1;
+            }
+        };
+        CachingGravityModelDistribution<Integer, Body<Integer>> dist = new CachingGravityModelDistribution<>(
+                new SimpleGravityModelDistribution<>(List.of(body, body)), LARGE_BUDGET
+        );
+        assertThrows(IllegalArgumentException.class, () -> dist.getRandomBody(body));
+    }
+
+    @Test
+    void testCachesGrowingQuadtreeSamplers() {
+        CachingGravityModelDistribution<Integer, Body2D<Integer>> dist = new CachingGravityModelDistribution<>(
+                new QuadtreeGravityModelDistribution<>(makeBodies(100), 0.5), LARGE_BUDGET
+        );
+        Body2D<Integer> ref = new Body2D<>(1, 0.5, 0.5, null);
+        dist.getRandomBody(ref);
+        long sizeAfterOne = dist.getSizeBytes();
+        for (int i = 0; i < 1000; i++) dist.getRandomBody(ref);
+        assertTrue(dist.getSizeBytes() >= sizeAfterOne);
+        assertEquals(1, dist.getEntryCount());
+        assertEquals(1000, dist.getHitCount());
+    }
+
+    @Test
+    void testEvictsSamplersThatGrowPastTheBudget() {
+        QuadtreeGravityModelDistribution<Integer> quadtree =
+                new QuadtreeGravityModelDistribution<>(makeBodies(2000), 0.5, new Random(1));
+        Body2D<Integer> ref = new Body2D<>(1, 100.5, 3.5, null);
+        GravityModelSampler<Integer, Body2D<Integer>> uncached = quadtree.getSampler(ref);
+        uncached.sample();
+        long budget = 2 * uncached.estimatedSizeBytes() + 1000;
+        CachingGravityModelDistribution<Integer, Body2D<Integer>> dist =
+                new CachingGravityModelDistribution<>(quadtree, budget);
+        // There is only ever one reference point, so the sampler's growth has to be charged by the draws that hit
+        for (int i = 0; i < 10000; i++) {
+            dist.getRandomBody(ref);
+            assertTrue(dist.getSizeBytes() <= budget);
+        }
+        assertTrue(dist.getEvictionCount() > 0);
+
+        // A sampler that was handed out stays usable after it is evicted
+        GravityModelSampler<Integer, Body2D<Integer>> sampler = dist.getSampler(ref);
+        for (int i = 0; i < 10000; i++) {
+            assertNotNull(sampler.sample());
+        }
+        assertTrue(sampler.estimatedSizeBytes() > budget);
+        assertEquals(0, dist.getEntryCount());
+    }
+
+    @Test
+    void testConcurrentHitsShareOneSampler() throws InterruptedException {
+        CachingGravityModelDistribution<Integer, Body2D<Integer>> dist = new CachingGravityModelDistribution<>(
+                new Simple2DGravityModelDistribution<>(makeBodies(100)), LARGE_BUDGET
+        );
+        Body2D<Integer> ref = new Body2D<>(1, 0.5, 0.5, null);
+        GravityModelSampler<Integer, Body2D<Integer>> sampler = dist.getSampler(ref);
+        List<Thread> threads = new ArrayList<>();
+        List<GravityModelSampler<Integer, Body2D<Integer>>> seen = Collections.synchronizedList(new ArrayList<>());
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    seen.add(dist.getSampler(ref));
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+        assertEquals(4000, seen.size());
+        for (GravityModelSampler<Integer, Body2D<Integer>> s : seen) {
+            assertSame(sampler, s);
+        }
+        assertEquals(4000, dist.getHitCount());
+        assertEquals(1, dist.getMissCount());
+    }
+}
@@ -0,0 +1,125 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Pearson's chi-squared tests, for checking that an engine draws bodies with the right probabilities. The tests use a
+ * significance level of about 0.001 so that a correct engine with a fixed seed essentially never fails them, while an
+ * engine whose probabilities are off by more than sampling noise fails them reliably.
+ */
+class ChiSquared {
+
+    /**
+     * The standard normal quantile for the significance level of the tests
+     */
+    private static final double Z = 3.09;
+
+    /**
+     * Bins with fewer than this many expected draws are merged together, since the chi-squared approximation is poor
+     * for small bins
+     */
+    private static final double MIN_EXPECTED = 5;
+
+    /**
+     * Check that the observed counts of each body are consistent with being drawn from the given weights
+     *
+     * @param weights The relative probability of each body, which don't need to sum to 1
+     * @param counts The number of times that each body was drawn
+     */
+    static void assertGoodnessOfFit(double[] weights, long[] counts) {
+        double totalWeight = 0;
+        long n = 0;
+        for (int i = 0; i < weights.length; i++) {
+            totalWeight += weights[i];
+            n += counts[i];
+        }
+
+        double stat = 0;
+        int bins = 0;
+        double binExpected = 0;
+        long binObserved = 0;
+        for (int i = 0; i < weights.length; i++) {
+            double expected = n * weights[i] / totalWeight;
+            if (expected == 0) {
+                assertTrue(counts[i] == 0, "Drew body " + i + " with no weight " + counts[i] + " times");
+                continue;
+            }
+            binExpected += expected;
+            binObserved += counts[i];
+            if (binExpected >= MIN_EXPECTED) {
+                stat += square(binObserved - binExpected) / binExpected;
+                bins++;
+                binExpected = 0;
+                binObserved = 0;
+            }
+        }
+        // Leftover small bins are counted as one more bin
+        if (binExpected > 0) {
+            stat += square(binObserved - binExpected) / binExpected;
+            bins++;
+        }
+        assertBelowCriticalValue(stat, bins - 1);
+    }
+
+    /**
+     * Check that two sets of counts are consistent with being drawn from the same distribution, without knowing what
+     * that distribution is
+     */
+    static void assertHomogeneous(long[] a, long[] b) {
+        long n1 = 0;
+        long n2 = 0;
+        for (int i = 0; i < a.length; i++) {
+            n1 += a[i];
+            n2 += b[i];
+        }
+        double total = n1 + n2;
+
+        double stat = 0;
+        int bins = 0;
+        long binA = 0;
+        long binB = 0;
+        for (int i = 0; i <= a.length; i++) {
+            boolean last = i == a.length;
+            if (!last) {
+                binA += a[i];
+                binB += b[i];
+            }
+            double binTotal = binA + binB;
+            if (binTotal == 0) continue;
+            // Expected counts of each set in this bin if they come from the same distribution
+            double expectedA = binTotal * n1 / total;
+            double expectedB = binTotal * n2 / total;
+            if (last || Math.min(expectedA, expectedB) >= MIN_EXPECTED) {
+                stat += square(binA - expectedA) / expectedA + square(binB - expectedB) / expectedB;
+                bins++;
+                binA = 0;
+                binB = 0;
+            }
+        }
+        assertBelowCriticalValue(stat, bins - 1);
+    }
+
+    private static void assertBelowCriticalValue(double stat, int degreesOfFreedom) {
+        if (degreesOfFreedom < 1) return;
+        double critical = criticalValue(degreesOfFreedom);
+        assertTrue(
+                stat < critical,
+                "Chi-squared statistic " + stat + " exceeds " + critical + " with " + degreesOfFreedom + " d.o.f."
+        );
+    }
+
+    /**
+     * @return The Wilson-Hilferty approximation of the critical value of the chi-squared distribution with the given
+     *         degrees of freedom, which is accurate to within a few percent even for a single degree of freedom
+     */
+    static double criticalValue(int degreesOfFreedom) {
+        double k = degreesOfFreedom;
+        double a = 2 / (9 * k);
+        double cube = 1 - a + Z * Math.sqrt(a);
+        return k * cube * cube * cube;
+    }
+
+    private static double square(double x) {
+        return x * x;
+    }
+}
@@ -0,0 +1,55 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CubeTest {
+
+    @Test
+    void testGetOctantMatchesGetSubCube() {
+        Cube cube = new Cube(10, -20, 30, 8);
+        for (Octant octant : Octant.values()) {
+            Cube sub = cube.getSubCube(octant);
+            assertEquals(4, sub.sideLength);
+            assertEquals(octant, cube.getOctant(sub.midX, sub.midY, sub.midZ));
+            assertTrue(cube.contains(sub.midX, sub.midY, sub.midZ));
+        }
+    }
+
+    @Test
+    void testPointsOnAxesCountAsNorthEastUp() {
+        Cube cube = new Cube(0, 0, 0, 10);
+        assertEquals(Octant.UP_NORTHEAST, cube.getOctant(0, 0, 0));
+        assertEquals(Octant.DOWN_SOUTHWEST, cube.getOctant(-1, -1, -1));
+    }
+
+    @Test
+    void testBoundingCubeContainsAllBodies() {
+        List<Body3D<Object>> bodies = List.of(
+                new Body3D<>(1, -3.5, 100, 0.1, null),
+                new Body3D<>(1, 7, -2, 55, null),
+                new Body3D<>(1, 0.3, 0.3, -0.3, null)
+        );
+        Cube cube = Cube.getBoundingCube(bodies);
+        for (Body3D<Object> b : bodies) {
+            assertTrue(cube.contains(b.x, b.y, b.z));
+        }
+    }
+
+    @Test
+    void testEqualCubesHaveEqualHashCodes() {
+        assertEquals(new Cube(1, -2, 3, 4).hashCode(), new Cube(1, -2, 3, 4).hashCode());
+        assertEquals(new Cube(0.0, 0, 0, 1), new Cube(-0.0, 0, 0, 1));
+        assertEquals(new Cube(0.0, 0, 0, 1).hashCode(), new Cube(-0.0, 0, 0, 1).hashCode());
+        assertNotEquals(new Cube(1, -2, 3, 4), new Cube(1, -2, 3, 8));
+    }
+
+    @Test
+    void testConstructorThrowsForInvalidArgs() {
+        assertThrows(IllegalArgumentException.class, () -> new Cube(0, 0, 0, -1));
+        assertThrows(IllegalArgumentException.class, () -> new Cube(0, 0, Double.NaN, 1));
+    }
+}
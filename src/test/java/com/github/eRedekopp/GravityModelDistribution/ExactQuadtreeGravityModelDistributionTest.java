@@ -0,0 +1,144 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.github.eRedekopp.GravityModelDistribution.Sampling.exactWeights;
+import static com.github.eRedekopp.GravityModelDistribution.Sampling.makeRandomBodies;
+import static com.github.eRedekopp.GravityModelDistribution.Sampling.sampleCounts;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExactQuadtreeGravityModelDistributionTest extends Shared2DGravityModelDistributionTests {
+
+    @Override
+    protected <T> GravityModelDistribution<T, Body2D<T>> makeDistribution(List<Body2D<T>> bodies) {
+        // Theta only affects the speed of EXACT mode, so the shared tests apply to any theta
+        return new QuadtreeGravityModelDistribution<>(bodies, 1.0, new Random(), QuadtreeSamplingMode.EXACT);
+    }
+
+    /**
+     * @return Bodies in a few tight clusters far apart from each other, where the approximate modes are least accurate
+     */
+    private static List<Body2D<Integer>> makeClusteredBodies(int n, long seed) {
+        Random rng = new Random(seed);
+        double[][] centres = {{0, 0}, {500, 40}, {-300, 700}, {20, -900}};
+        List<Body2D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            double[] centre = centres[i % centres.length];
+            bodies.add(new Body2D<>(
+                    1 + rng.nextInt(20), centre[0] + rng.nextGaussian() * 5, centre[1] + rng.nextGaussian() * 5, i
+            ));
+        }
+        return bodies;
+    }
+
+    /**
+     * @return The exact relative probability of drawing each body
+     */
+    private static void assertExact(
+            List<Body2D<Integer>> bodies, Body2D<Integer> ref, GravityModelDistribution<Integer, Body2D<Integer>> dist
+    ) {
+        ChiSquared.assertGoodnessOfFit(exactWeights(bodies, ref), sampleCounts(dist, ref, bodies.size()));
+    }
+
+    @Test
+    void testNodeTreeMatchesExactWeights() {
+        List<Body2D<Integer>> bodies = makeRandomBodies(200, 1);
+        Body2D<Integer> ref = new Body2D<>(1, 30, -70, -1);
+        assertExact(
+                bodies,
+                ref,
+                new QuadtreeGravityModelDistribution<>(bodies, 1.0, new Random(1), QuadtreeSamplingMode.EXACT)
+        );
+    }
+
+    @Test
+    void testFlatTreeMatchesExactWeights() {
+        List<Body2D<Integer>> bodies = makeRandomBodies(200, 2);
+        Body2D<Integer> ref = new Body2D<>(1, -150, 20, -1);
+        assertExact(
+                bodies,
+                ref,
+                new FlatQuadtreeGravityModelDistribution<>(bodies, 1.0, new Random(2), QuadtreeSamplingMode.EXACT)
+        );
+    }
+
+    @Test
+    void testClusteredBodiesMatchExactWeights() {
+        List<Body2D<Integer>> bodies = makeClusteredBodies(200, 3);
+        Body2D<Integer> ref = new Body2D<>(1, 10, 5, -1);
+        assertExact(
+                bodies,
+                ref,
+                new QuadtreeGravityModelDistribution<>(bodies, 1.0, new Random(3), QuadtreeSamplingMode.EXACT)
+        );
+        assertExact(
+                bodies,
+                ref,
+                new FlatQuadtreeGravityModelDistribution<>(bodies, 1.0, new Random(4), QuadtreeSamplingMode.EXACT)
+        );
+    }
+
+    @Test
+    void testReferenceOnOneOfTheBodies() {
+        List<Body2D<Integer>> bodies = makeRandomBodies(100, 4);
+        Body2D<Integer> ref = bodies.get(17);
+        assertExact(
+                bodies,
+                ref,
+                new QuadtreeGravityModelDistribution<>(bodies, 1.0, new Random(5), QuadtreeSamplingMode.EXACT)
+        );
+        assertExact(
+                bodies,
+                ref,
+                new FlatQuadtreeGravityModelDistribution<>(bodies, 1.0, new Random(6), QuadtreeSamplingMode.EXACT)
+        );
+    }
+
+    @Test
+    void testLargeThetaIsStillExact() {
+        List<Body2D<Integer>> bodies = makeRandomBodies(100, 5);
+        Body2D<Integer> ref = new Body2D<>(1, 0, 0, -1);
+        assertExact(
+                bodies,
+                ref,
+                new QuadtreeGravityModelDistribution<>(bodies, 10.0, new Random(7), QuadtreeSamplingMode.EXACT)
+        );
+        assertExact(
+                bodies,
+                ref,
+                new FlatQuadtreeGravityModelDistribution<>(bodies, 10.0, new Random(8), QuadtreeSamplingMode.EXACT)
+        );
+    }
+
+    @Test
+    void testMatchesSamplesFromSimpleDistribution() {
+        List<Body2D<Integer>> bodies = makeClusteredBodies(120, 6);
+        Body2D<Integer> ref = new Body2D<>(1, 480, 60, -1);
+        long[] simple = sampleCounts(new Simple2DGravityModelDistribution<>(bodies, new Random(9)), ref, bodies.size());
+        long[] exact = sampleCounts(
+                new FlatQuadtreeGravityModelDistribution<>(bodies, 1.0, new Random(10), QuadtreeSamplingMode.EXACT),
+                ref,
+                bodies.size()
+        );
+        ChiSquared.assertHomogeneous(simple, exact);
+    }
+
+    @Test
+    void testHarnessDetectsApproximateMode() {
+        // Makes sure the chi-squared tests above are strict enough to notice the error of the approximate modes
+        List<Body2D<Integer>> bodies = makeClusteredBodies(200, 3);
+        Body2D<Integer> ref = new Body2D<>(1, 10, 5, -1);
+        assertThrows(
+                AssertionError.class,
+                () -> assertExact(
+                        bodies,
+                        ref,
+                        new QuadtreeGravityModelDistribution<>(bodies, 1.0, new Random(11), QuadtreeSamplingMode.FRONTIER)
+                )
+        );
+    }
+}
@@ -0,0 +1,101 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.DoubleSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExecutionPolicyTest {
+
+    @Test
+    void testSequentialCallsEveryIndexInOrderOnTheCallingThread() {
+        List<Integer> calls = new ArrayList<>();
+        Thread caller = Thread.currentThread();
+        ExecutionPolicy.sequential().forEach(5, i -> {
+            assertSame(caller, Thread.currentThread());
+            calls.add(i);
+        });
+        assertEquals(List.of(0, 1, 2, 3, 4), calls);
+        assertEquals(Integer.MAX_VALUE, ExecutionPolicy.sequential().parallelThreshold(() -> 1));
+    }
+
+    @Test
+    void testPoolCallsEveryIndexOnceInThatPool() {
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            AtomicIntegerArray calls = new AtomicIntegerArray(100);
+            Set<ForkJoinPool> pools = ConcurrentHashMap.newKeySet();
+            ExecutionPolicy.pool(pool, 1).forEach(100, i -> {
+                calls.incrementAndGet(i);
+                pools.add(((ForkJoinWorkerThread) Thread.currentThread()).getPool());
+            });
+            for (int i = 0; i < 100; i++) {
+                assertEquals(1, calls.get(i));
+            }
+            assertEquals(Set.of(pool), pools);
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testPoolWithNothingToDoDoesNothing() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            ExecutionPolicy.pool(pool, 1).forEach(0, i -> fail("Called for " + i));
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testFixedThresholdIsNotCalibrated() {
+        DoubleSupplier calibrate = () -> {
+            throw new AssertionError("Calibrated a fixed threshold");
+        };
+        assertEquals(1234, ExecutionPolicy.pool(ForkJoinPool.commonPool(), 1234).parallelThreshold(calibrate));
+        assertEquals(ExecutionPolicy.DEFAULT_THRESHOLD, ExecutionPolicy.commonPool().parallelThreshold(calibrate));
+    }
+
+    @Test
+    void testAdaptiveNeverSplitsInASingleThreadedPool() {
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            assertEquals(Integer.MAX_VALUE, ExecutionPolicy.adaptive(pool).parallelThreshold(() -> 1E6));
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testAdaptiveThresholdFallsAsBodiesGetMoreExpensive() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ExecutionPolicy policy = ExecutionPolicy.adaptive(pool);
+            // Handing out tasks takes far less than a second, and far more than a femtosecond
+            assertTrue(policy.parallelThreshold(() -> 1E9) <= 1);
+            assertEquals(Integer.MAX_VALUE, policy.parallelThreshold(() -> 1E-15));
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testFactoriesThrowForInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> ExecutionPolicy.pool(null, 10));
+        assertThrows(IllegalArgumentException.class, () -> ExecutionPolicy.pool(ForkJoinPool.commonPool(), 0));
+        assertThrows(IllegalArgumentException.class, () -> ExecutionPolicy.adaptive(null));
+    }
+}
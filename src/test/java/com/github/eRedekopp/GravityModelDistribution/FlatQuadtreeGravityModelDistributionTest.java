@@ -0,0 +1,168 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ArgumentsSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FlatQuadtreeGravityModelDistributionTest extends Shared2DGravityModelDistributionTests {
+    @Override
+    protected <T> GravityModelDistribution<T, Body2D<T>> makeDistribution(List<Body2D<T>> bodies) {
+        // Run the shared tests with 0.0 theta, any tests with different theta should go below in this class
+        return new FlatQuadtreeGravityModelDistribution<>(bodies, 0.0);
+    }
+
+    private void doTestForConstructorArgs(List<Body2D<Object>> bodies, double theta) {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new FlatQuadtreeGravityModelDistribution<>(bodies, theta)
+        );
+    }
+
+    @Test
+    void testConstructorThrowsForEmptyBodies() {
+        doTestForConstructorArgs(List.of(), 0.5);
+    }
+
+    @ParameterizedTest
+    @ArgumentsSource(InfiniteAndNaNAndNegativeDoubleArgsProvider.class)
+    void testConstructorThrowsForInvalidTheta(double theta) {
+        doTestForConstructorArgs(List.of(new Body2D<>(10, 0, 0, new Object())), theta);
+    }
+
+    @Test
+    void testHasOneNodePerBodyPlusParents() {
+        FlatQuadtreeGravityModelDistribution<Integer> dist = new FlatQuadtreeGravityModelDistribution<>(
+                List.of(
+                        new Body2D<>(1, -10, 10, 0),
+                        new Body2D<>(1, 10, -10, 1),
+                        new Body2D<>(1, 10, 10, 2),
+                        new Body2D<>(1, -10, -10, 3)
+                ),
+                0.5
+        );
+        assertEquals(5, dist.getNodeCount());
+    }
+
+    @Test
+    void testConvergesToMassProportionsForCoincidentBodies() {
+        Map<Integer, Double> percentages = performIterations(
+                List.of(
+                        new Body2D<>(100, 5, 5, 0),
+                        new Body2D<>(200, 5, 5, 1),
+                        new Body2D<>(0, 5, 5, 2),
+                        new Body2D<>(300, 5, 5, 3),
+                        new Body2D<>(400, -5, -5, 4)
+                ),
+                -5,
+                5
+        );
+        // Both locations are the same distance from the reference point
+        assertEquals(0.1, percentages.get(0), EPSILON);
+        assertEquals(0.2, percentages.get(1), EPSILON);
+        assertNull(percentages.get(2));
+        assertEquals(0.3, percentages.get(3), EPSILON);
+        assertEquals(0.4, percentages.get(4), EPSILON);
+    }
+
+    /**
+     * With a non-zero theta the distribution is only approximate, so check that it converges to the same approximation
+     * as QuadtreeGravityModelDistribution
+     */
+    @Test
+    void testConvergesToSameDistributionAsQuadtree() {
+        Random rng = new Random(8);
+        List<Body2D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            bodies.add(new Body2D<>(rng.nextDouble() * 100, rng.nextGaussian() * 100, rng.nextGaussian() * 100, i));
+        }
+        Body2D<Integer> ref = new Body2D<>(1, 150, -20, -1);
+        int numIterations = (int) 1E6;
+        GravityModelDistribution<Integer, Body2D<Integer>> flat =
+                new FlatQuadtreeGravityModelDistribution<>(bodies, 0.8, new Random(1));
+        GravityModelDistribution<Integer, Body2D<Integer>> tree =
+                new QuadtreeGravityModelDistribution<>(bodies, 0.8, new Random(2));
+        double[] flatCounts = new double[bodies.size()];
+        double[] treeCounts = new double[bodies.size()];
+        for (int i = 0; i < numIterations; i++) {
+            flatCounts[flat.getRandomBody(ref).value]++;
+            treeCounts[tree.getRandomBody(ref).value]++;
+        }
+        for (int i = 0; i < bodies.size(); i++) {
+            assertEquals(treeCounts[i] / numIterations, flatCounts[i] / numIterations, 0.003);
+        }
+    }
+
+    @Test
+    void testGetRandomBodyDoesNotAllocate() {
+        List<Body2D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            bodies.add(new Body2D<>(i % 7, i % 100, i / 100, i));
+        }
+        GravityModelDistribution<Integer, Body2D<Integer>> dist =
+                new FlatQuadtreeGravityModelDistribution<>(bodies, 0.5);
+        Body2D<Integer> ref = new Body2D<>(1, 12.5, 40.25, -1);
+        Allocations.assertSteadyStateAllocationFree(() -> dist.getRandomBody(ref));
+    }
+
+    @Test
+    void testReportsSameWorkAsQuadtree() {
+        Random positions = new Random(3);
+        List<Body2D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            bodies.add(new Body2D<>(1 + positions.nextDouble(), positions.nextGaussian(), positions.nextGaussian(), i));
+        }
+        Body2D<Integer> ref = new Body2D<>(1, 0.3, -0.2, -1);
+        for (QuadtreeSamplingMode mode : QuadtreeSamplingMode.values()) {
+            GravityModelDistribution<Integer, Body2D<Integer>> flat =
+                    new FlatQuadtreeGravityModelDistribution<>(bodies, 0.5, new Random(4), mode);
+            GravityModelDistribution<Integer, Body2D<Integer>> tree =
+                    new QuadtreeGravityModelDistribution<>(bodies, 0.5, new Random(4), mode);
+            List<String> flatStats = new ArrayList<>();
+            List<String> treeStats = new ArrayList<>();
+            flat.setQueryListener(stats -> flatStats.add(withoutTime(stats)));
+            tree.setQueryListener(stats -> treeStats.add(withoutTime(stats)));
+            for (int i = 0; i < 200; i++) {
+                assertSame(tree.getRandomBody(ref), flat.getRandomBody(ref));
+            }
+            assertEquals(treeStats, flatStats, mode.toString());
+        }
+    }
+
+    private static String withoutTime(QueryStats stats) {
+        assertTrue(stats.getLevels() >= 1);
+        assertTrue(stats.getNodesVisited() >= stats.getCandidates());
+        assertTrue(stats.getForceEvaluations() >= stats.getCandidates());
+        assertTrue(stats.getCandidates() >= stats.getMaxCandidates());
+        assertTrue(stats.getElapsedNanos() > 0);
+        return List.of(
+                stats.getForceEvaluations(),
+                stats.getNodesVisited(),
+                stats.getCandidates(),
+                stats.getMaxCandidates(),
+                stats.getLevels()
+        ).toString();
+    }
+
+    @Test
+    void testGetRandomBodyWithMetricsDoesNotAllocate() {
+        List<Body2D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            bodies.add(new Body2D<>(i % 7, i % 100, i / 100, i));
+        }
+        GravityModelDistribution<Integer, Body2D<Integer>> dist =
+                new FlatQuadtreeGravityModelDistribution<>(bodies, 0.5);
+        QueryMetrics metrics = new QueryMetrics();
+        dist.setQueryListener(metrics);
+        Body2D<Integer> ref = new Body2D<>(1, 12.5, 40.25, -1);
+        Allocations.assertSteadyStateAllocationFree(() -> dist.getRandomBody(ref));
+        assertTrue(metrics.getQueryCount() > 0);
+        assertTrue(metrics.getLevels().getValueAtQuantile(0.5) > 1);
+    }
+}
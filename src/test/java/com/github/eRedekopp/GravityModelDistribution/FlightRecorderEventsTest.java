@@ -0,0 +1,198 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FlightRecorderEventsTest {
+
+    private static final String PREFIX = "com.github.eRedekopp.GravityModelDistribution.";
+
+    private static List<Body2D<Integer>> makeBodies(int n) {
+        List<Body2D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            bodies.add(new Body2D<>(1 + i % 3, i % 40, i / 40, i));
+        }
+        return bodies;
+    }
+
+    /**
+     * @return The events with the given name that were recorded while running `work` with every event's threshold at 0
+     */
+    private static List<RecordedEvent> record(String name, Runnable work) throws IOException {
+        Path file = Files.createTempFile("events", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(PREFIX + name).withThreshold(Duration.ZERO);
+            recording.start();
+            work.run();
+            recording.stop();
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file).stream()
+                    .filter(e -> e.getEventType().getName().equals(PREFIX + name))
+                    .collect(Collectors.toList());
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void testRecordsConstruction() throws IOException {
+        List<RecordedEvent> events = record("Construction", () -> {
+            new FlatQuadtreeGravityModelDistribution<>(makeBodies(1000), 0.5);
+            new Simple2DGravityModelDistribution<>(makeBodies(10));
+        });
+        assertEquals(2, events.size());
+        assertEquals("FlatQuadtreeGravityModelDistribution", events.get(0).getString("engine"));
+        assertEquals(1000, events.get(0).getInt("bodies"));
+        assertTrue(events.get(0).getLong("allocated") > 0);
+        assertEquals("Simple2DGravityModelDistribution", events.get(1).getString("engine"));
+        assertEquals(10, events.get(1).getInt("bodies"));
+    }
+
+    @Test
+    void testConstructionIncludesBuildingTheForceKernel() throws IOException {
+        List<Body2D<Integer>> bodies = makeBodies(100000);
+        List<RecordedEvent> events = record(
+                "Construction", () -> new Simple2DGravityModelDistribution<>(
+                        bodies, new PerThreadRandomGenerator(), ExecutionPolicy.sequential()
+                )
+        );
+        assertEquals(1, events.size());
+        // The kernel copies the x and y coordinates of every body
+        assertTrue(events.get(0).getLong("allocated") >= 2L * Double.BYTES * bodies.size());
+    }
+
+    @Test
+    void testRecordsSamplesWithTheWorkDone() throws IOException {
+        GravityModelDistribution<Integer, Body2D<Integer>> dist =
+                new QuadtreeGravityModelDistribution<>(makeBodies(1000), 0.5);
+        Body2D<Integer> ref = new Body2D<>(1, 10.5, 5.5, -1);
+        List<RecordedEvent> events = record("Sample", () -> {
+            for (int i = 0; i < 5; i++) {
+                dist.getRandomBody(ref);
+            }
+        });
+        assertEquals(5, events.size());
+        for (RecordedEvent event : events) {
+            assertEquals("QuadtreeGravityModelDistribution", event.getString("engine"));
+            assertEquals(1000, event.getInt("bodies"));
+            assertTrue(event.getLong("nodesVisited") > 0);
+            assertTrue(event.getLong("forceEvaluations") > 0);
+        }
+    }
+
+    @Test
+    void testRecordsSamplesFromEveryEngine() throws IOException {
+        List<Body2D<Integer>> bodies = makeBodies(100);
+        List<GravityModelDistribution<Integer, Body2D<Integer>>> dists = List.of(
+                new KdTreeGravityModelDistribution<>(bodies, 0.5),
+                new MutableQuadtreeGravityModelDistribution<>(bodies, 0.5),
+                new CachingGravityModelDistribution<>(new Simple2DGravityModelDistribution<>(bodies), 1 << 20)
+        );
+        Body3D<Integer> ref3D = new Body3D<>(1, 0.5, 0.5, 0.5, -1);
+        OctreeGravityModelDistribution<Integer> octree = new OctreeGravityModelDistribution<>(
+                List.of(new Body3D<>(1, 0, 0, 0, 0), new Body3D<>(1, 1, 1, 1, 1)), 0.5
+        );
+        GISBody<Integer> refGIS = new GISBody<>(1, 52.1, -106.6, -1);
+        SphericalQuadtreeGravityModelDistribution<Integer> spherical = new SphericalQuadtreeGravityModelDistribution<>(
+                List.of(new GISBody<>(1, 49.9, -97.1, 0), new GISBody<>(1, 53.5, -113.5, 1)), 0.5
+        );
+        List<RecordedEvent> events = record("Sample", () -> {
+            for (GravityModelDistribution<Integer, Body2D<Integer>> dist : dists) {
+                dist.getRandomBody(new Body2D<>(1, 10.5, 0.5, -1));
+            }
+            octree.getRandomBody(ref3D);
+            spherical.getRandomBody(refGIS);
+        });
+        assertEquals(
+                List.of(
+                        "KdTreeGravityModelDistribution",
+                        "MutableQuadtreeGravityModelDistribution",
+                        "CachingGravityModelDistribution",
+                        "OctreeGravityModelDistribution",
+                        "SphericalQuadtreeGravityModelDistribution"
+                ),
+                events.stream().map(e -> e.getString("engine")).collect(Collectors.toList())
+        );
+    }
+
+    @Test
+    void testSampleEventsDoNotReplaceTheListener() throws IOException {
+        GravityModelDistribution<Integer, Body2D<Integer>> dist = new Simple2DGravityModelDistribution<>(makeBodies(100));
+        QueryMetrics metrics = new QueryMetrics();
+        dist.setQueryListener(metrics);
+        List<RecordedEvent> events = record("Sample", () -> dist.getRandomBody(new Body2D<>(1, 0.5, 0.5, -1)));
+        assertEquals(1, events.size());
+        assertEquals(100, events.get(0).getLong("forceEvaluations"));
+        assertEquals(0, events.get(0).getLong("nodesVisited"));
+        assertEquals(1, metrics.getQueryCount());
+    }
+
+    @Test
+    void testRecordsMaintenance() throws IOException {
+        MutableQuadtreeGravityModelDistribution<Integer> mutable =
+                new MutableQuadtreeGravityModelDistribution<>(makeBodies(10), 0.5);
+        Body2D<Integer> added = new Body2D<>(1, 100, 100, 10);
+        CachingGravityModelDistribution<Integer, Body2D<Integer>> caching =
+                new CachingGravityModelDistribution<>(new Simple2DGravityModelDistribution<>(makeBodies(10)), 0);
+        List<RecordedEvent> events = record("Maintenance", () -> {
+            mutable.addBody(added);
+            mutable.removeBody(mutable.updateMass(added, 2));
+            // Nothing fits in a cache with no room, so nothing is recorded
+            caching.getRandomBody(new Body2D<>(1, 0.5, 0.5, -1));
+        });
+        assertEquals(
+                List.of("Add Body 11", "Update Mass 11", "Remove Body 10"),
+                events.stream().map(e -> e.getString("operation") + " " + e.getInt("size")).collect(Collectors.toList())
+        );
+    }
+
+    @Test
+    void testRecordsCacheFillsWithEvictions() throws IOException {
+        Simple2DGravityModelDistribution<Integer> simple = new Simple2DGravityModelDistribution<>(makeBodies(10));
+        long oneEntry = simple.getSampler(new Body2D<>(1, 0.5, 0.5, -1)).estimatedSizeBytes();
+        CachingGravityModelDistribution<Integer, Body2D<Integer>> caching =
+                new CachingGravityModelDistribution<>(simple, 2 * oneEntry + 200);
+        List<RecordedEvent> events = record("Maintenance", () -> {
+            for (int i = 0; i < 3; i++) {
+                caching.getRandomBody(new Body2D<>(1, i + 0.5, 0.5, -1));
+            }
+        });
+        assertEquals(3, events.size());
+        for (RecordedEvent event : events) {
+            assertEquals("Cache Fill", event.getString("operation"));
+        }
+        assertEquals(List.of(0L, 0L, 1L), events.stream().map(e -> e.getLong("evicted")).collect(Collectors.toList()));
+        assertEquals(2, events.get(2).getInt("size"));
+    }
+
+    @Test
+    void testThresholdFiltersFastSamples() throws IOException {
+        GravityModelDistribution<Integer, Body2D<Integer>> dist = new Simple2DGravityModelDistribution<>(makeBodies(10));
+        Path file = Files.createTempFile("events", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(PREFIX + "Sample").withThreshold(Duration.ofHours(1));
+            recording.start();
+            dist.getRandomBody(new Body2D<>(1, 0.5, 0.5, -1));
+            recording.stop();
+            recording.dump(file);
+            assertTrue(RecordingFile.readAllEvents(file).stream()
+                    .noneMatch(e -> e.getEventType().getName().equals(PREFIX + "Sample")));
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class ForceKernelTest {
+
+    private static final int NUM_BODIES = 1000;
+
+    /**
+     * Check that the kernel gives exactly the same force as Body.computeGravForce for every body and reference
+     */
+    private static <T, B extends Body<T>> void assertMatchesBodies(
+            List<B> bodies, List<B> refs, Function<List<B>, ForceKernel<T, B>> makeKernel
+    ) {
+        ForceKernel<T, B> kernel = makeKernel.apply(bodies);
+        assertEquals(bodies.size(), kernel.size());
+        double[] out = new double[bodies.size()];
+        for (B ref : refs) {
+            kernel.computeForces(ref, 0, bodies.size(), out, 0);
+            for (int i = 0; i < bodies.size(); i++) {
+                assertEquals(bodies.get(i).computeGravForce(ref), out[i], 0.0, "Mismatch at index " + i);
+            }
+        }
+    }
+
+    /**
+     * Check that the kernel gives the same force as Body.computeGravForce for every body and reference, to within the
+     * given relative error
+     */
+    private static <T, B extends Body<T>> void assertCloseToBodies(
+            List<B> bodies, List<B> refs, Function<List<B>, ForceKernel<T, B>> makeKernel, double relativeError
+    ) {
+        ForceKernel<T, B> kernel = makeKernel.apply(bodies);
+        double[] out = new double[bodies.size()];
+        for (B ref : refs) {
+            kernel.computeForces(ref, 0, bodies.size(), out, 0);
+            for (int i = 0; i < bodies.size(); i++) {
+                double expected = bodies.get(i).computeGravForce(ref);
+                assertEquals(expected, out[i], expected * relativeError, "Mismatch at index " + i);
+            }
+        }
+    }
+
+    @Test
+    void testComputesOnlyRequestedRange() {
+        List<Body2D<Integer>> bodies = List.of(
+                new Body2D<>(1, 0, 0, 0),
+                new Body2D<>(1, 1, 0, 1),
+                new Body2D<>(1, 2, 0, 2)
+        );
+        double[] out = {-1, -1, -1};
+        new Body2DForceKernel<>(bodies).computeForces(new Body2D<>(1, 0, 1, null), 1, 2, out, 1);
+        assertEquals(-1, out[0]);
+        assertEquals(0.5, out[1], 1E-12);
+        assertEquals(-1, out[2]);
+    }
+
+    @Nested
+    class TestBody1D {
+        @Test
+        void testMatchesComputeGravForce() {
+            Random rng = new Random(1);
+            List<Body1D<Integer>> bodies = new ArrayList<>();
+            for (int i = 0; i < NUM_BODIES; i++) {
+                bodies.add(new Body1D<>(i % 10 == 0 ? 0 : rng.nextDouble() * 1000, rng.nextGaussian() * 100, i));
+            }
+            List<Body1D<Integer>> refs = List.of(bodies.get(5), new Body1D<>(1, 0, null), new Body1D<>(0, 3, null));
+            assertMatchesBodies(bodies, refs, Body1DForceKernel::new);
+        }
+    }
+
+    @Nested
+    class TestBody2D {
+        @Test
+        void testMatchesComputeGravForce() {
+            Random rng = new Random(2);
+            List<Body2D<Integer>> bodies = new ArrayList<>();
+            for (int i = 0; i < NUM_BODIES; i++) {
+                bodies.add(new Body2D<>(
+                        i % 10 == 0 ? 0 : rng.nextDouble() * 1000, rng.nextGaussian() * 100, rng.nextGaussian() * 100, i
+                ));
+            }
+            List<Body2D<Integer>> refs = List.of(
+                    bodies.get(5), new Body2D<>(1, 0, 0, null), new Body2D<>(25, -40.5, 12, null)
+            );
+            assertMatchesBodies(bodies, refs, Body2DForceKernel::new);
+        }
+
+        @Test
+        void testVectorKernelMatchesComputeGravForce() {
+            assumeTrue(VectorForceKernels.isAvailable(), "Vector API not available");
+            Random rng = new Random(5);
+            List<Body2D<Integer>> bodies = new ArrayList<>();
+            // An odd number of bodies so that some are left over after the last whole vector
+            for (int i = 0; i < NUM_BODIES + 3; i++) {
+                bodies.add(new Body2D<>(
+                        i % 10 == 0 ? 0 : rng.nextDouble() * 1000, rng.nextGaussian() * 100, rng.nextGaussian() * 100, i
+                ));
+            }
+            List<Body2D<Integer>> refs = List.of(
+                    bodies.get(5), bodies.get(NUM_BODIES + 1), new Body2D<>(1, 0, 0, null), new Body2D<>(0, 3, 4, null)
+            );
+            assertMatchesBodies(bodies, refs, VectorForceKernels::body2D);
+            // Ranges that don't start at a multiple of the vector length
+            assertMatchesBodies(bodies.subList(3, 200), refs, VectorForceKernels::body2D);
+        }
+    }
+
+    @Nested
+    class TestBody3D {
+        @Test
+        void testMatchesComputeGravForce() {
+            Random rng = new Random(3);
+            List<Body3D<Integer>> bodies = new ArrayList<>();
+            for (int i = 0; i < NUM_BODIES; i++) {
+                bodies.add(new Body3D<>(
+                        i % 10 == 0 ? 0 : rng.nextDouble() * 1000,
+                        rng.nextGaussian() * 100,
+                        rng.nextGaussian() * 100,
+                        rng.nextGaussian() * 100,
+                        i
+                ));
+            }
+            List<Body3D<Integer>> refs = List.of(bodies.get(5), new Body3D<>(1, 0, 0, 0, null));
+            assertMatchesBodies(bodies, refs, Body3DForceKernel::new);
+        }
+
+        @Test
+        void testVectorKernelMatchesComputeGravForce() {
+            assumeTrue(VectorForceKernels.isAvailable(), "Vector API not available");
+            Random rng = new Random(6);
+            List<Body3D<Integer>> bodies = new ArrayList<>();
+            for (int i = 0; i < NUM_BODIES + 3; i++) {
+                bodies.add(new Body3D<>(
+                        i % 10 == 0 ? 0 : rng.nextDouble() * 1000,
+                        rng.nextGaussian() * 100,
+                        rng.nextGaussian() * 100,
+                        rng.nextGaussian() * 100,
+                        i
+                ));
+            }
+            List<Body3D<Integer>> refs = List.of(
+                    bodies.get(5), bodies.get(NUM_BODIES + 2), new Body3D<>(1, 0, 0, 0, null), new Body3D<>(0, 1, 2, 3, null)
+            );
+            assertMatchesBodies(bodies, refs, VectorForceKernels::body3D);
+        }
+    }
+
+    @Nested
+    class TestGISBody {
+        @Test
+        void testMatchesComputeGravForce() {
+            Random rng = new Random(4);
+            List<GISBody<Integer>> bodies = new ArrayList<>();
+            for (int i = 0; i < NUM_BODIES; i++) {
+                bodies.add(new GISBody<>(
+                        i % 10 == 0 ? 0 : rng.nextDouble() * 1000,
+                        rng.nextDouble() * 180 - 90,
+                        rng.nextDouble() * 360 - 180,
+                        i
+                ));
+            }
+            List<GISBody<Integer>> refs = List.of(
+                    bodies.get(5), new GISBody<>(1, 52.13, -106.67, null), new GISBody<>(1, -89.9, 179.9, null)
+            );
+            assertMatchesBodies(bodies, refs, GISBodyForceKernel::new);
+        }
+
+        @Test
+        void testVectorKernelIsCloseToComputeGravForce() {
+            assumeTrue(VectorForceKernels.isAvailable(), "Vector API not available");
+            Random rng = new Random(7);
+            List<GISBody<Integer>> bodies = new ArrayList<>();
+            for (int i = 0; i < NUM_BODIES + 3; i++) {
+                bodies.add(new GISBody<>(
+                        i % 10 == 0 ? 0 : rng.nextDouble() * 1000,
+                        rng.nextDouble() * 180 - 90,
+                        rng.nextDouble() * 360 - 180,
+                        i
+                ));
+            }
+            List<GISBody<Integer>> refs = List.of(
+                    bodies.get(5), new GISBody<>(1, 52.13, -106.67, null), new GISBody<>(1, -89.9, 179.9, null)
+            );
+            // The vector sine and arctangent may differ from Math's in the last bit
+            assertCloseToBodies(bodies, refs, VectorForceKernels::gis, 1E-12);
+        }
+
+        @Test
+        void testECEFKernelIsCloseToComputeGravForce() {
+            Random rng = new Random(8);
+            List<GISBody<Integer>> bodies = new ArrayList<>();
+            for (int i = 0; i < NUM_BODIES; i++) {
+                bodies.add(new GISBody<>(
+                        i % 10 == 0 ? 0 : rng.nextDouble() * 1000,
+                        rng.nextDouble() * 180 - 90,
+                        rng.nextDouble() * 360 - 180,
+                        i
+                ));
+            }
+            List<GISBody<Integer>> refs = List.of(
+                    bodies.get(5), new GISBody<>(1, 52.13, -106.67, null), new GISBody<>(1, -89.9, 179.9, null)
+            );
+            // Bodies spread over the whole globe are all much more than 1 km apart
+            assertCloseToBodies(
+                    bodies, refs, ECEFGISBodyForceKernel::new, 2.5 * ECEFGISBodyForceKernel.DISTANCE_TOLERANCE
+            );
+        }
+
+        @Test
+        void testECEFDistanceIsWithinToleranceAtAllScales() {
+            Random rng = new Random(9);
+            double[] u = new double[3];
+            double[] v = new double[3];
+            for (double scale = 1E-6; scale <= 180; scale *= 10) {
+                for (int i = 0; i < 10000; i++) {
+                    GISBody<Object> p = new GISBody<>(1, rng.nextDouble() * 170 - 85, rng.nextDouble() * 360 - 180, null);
+                    GISBody<Object> q = new GISBody<>(
+                            1,
+                            Math.max(-90, Math.min(90, p.lat + (rng.nextDouble() * 2 - 1) * scale)),
+                            p.lon + (rng.nextDouble() * 2 - 1) * scale,
+                            null
+                    );
+                    ECEFGISBodyForceKernel.toUnitVector(p.lat, p.lon, u);
+                    ECEFGISBodyForceKernel.toUnitVector(q.lat, q.lon, v);
+                    double expected = p.distanceTo(q);
+                    assertEquals(
+                            expected,
+                            ECEFGISBodyForceKernel.greatCircleDistance(u[0], u[1], u[2], v[0], v[1], v[2]),
+                            expected * ECEFGISBodyForceKernel.DISTANCE_TOLERANCE
+                                    + ECEFGISBodyForceKernel.DISTANCE_TOLERANCE_KM
+                    );
+                }
+            }
+        }
+
+        @Test
+        void testECEFDistanceOfAntipodalPoints() {
+            double[] u = new double[3];
+            double[] v = new double[3];
+            ECEFGISBodyForceKernel.toUnitVector(10, 20, u);
+            ECEFGISBodyForceKernel.toUnitVector(-10, -160, v);
+            assertEquals(
+                    Math.PI * GISBody.EARTH_RADIUS_KM,
+                    ECEFGISBodyForceKernel.greatCircleDistance(u[0], u[1], u[2], v[0], v[1], v[2]),
+                    1E-6
+            );
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ArgumentsSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.github.eRedekopp.GravityModelDistribution.Sampling.exactWeights;
+import static com.github.eRedekopp.GravityModelDistribution.Sampling.sampleCounts;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GridGravityModelDistributionTest extends Shared2DGravityModelDistributionTests {
+    @Override
+    protected <T> GravityModelDistribution<T, Body2D<T>> makeDistribution(List<Body2D<T>> bodies) {
+        // Run the shared tests with every cell in the near field, any tests with a smaller near field should go below
+        // in this class
+        return new GridGravityModelDistribution<>(bodies, 1.0, Integer.MAX_VALUE);
+    }
+
+    @Test
+    void testConstructorThrowsForEmptyBodies() {
+        assertThrows(IllegalArgumentException.class, () -> new GridGravityModelDistribution<>(List.of(), 1.0, 1));
+    }
+
+    @ParameterizedTest
+    @ArgumentsSource(InfiniteAndNaNAndNegativeDoubleArgsProvider.class)
+    void testConstructorThrowsForInvalidCellSize(double cellSize) {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new GridGravityModelDistribution<>(List.of(new Body2D<>(10, 0, 0, new Object())), cellSize, 1)
+        );
+    }
+
+    @Test
+    void testConstructorThrowsForZeroCellSize() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new GridGravityModelDistribution<>(List.of(new Body2D<>(10, 0, 0, new Object())), 0.0, 1)
+        );
+    }
+
+    @Test
+    void testConstructorThrowsForNegativeNearRadius() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new GridGravityModelDistribution<>(List.of(new Body2D<>(10, 0, 0, new Object())), 1.0, -1)
+        );
+    }
+
+    @Test
+    void testConstructorThrowsForTooManyCells() {
+        List<Body3D<Object>> bodies = List.of(new Body3D<>(1, 0, 0, 0, null), new Body3D<>(1, 1E6, 1E6, 1E6, null));
+        assertThrows(IllegalArgumentException.class, () -> new GridGravityModelDistribution<>(bodies, 1E-4, 1));
+    }
+
+    @Test
+    void testConstructorThrowsForBodiesWithoutCoordinates() {
+        Body<Object> body = new Body<>(1, null) {
+            @Override
+            public Body<Object> plus(Body<Object> other) {
+                return this;
+            }
+
+            @Override
+            public double distanceTo(Body<Object> other) {
+                return 0;
+            }
+        };
+        assertThrows(IllegalArgumentException.class, () -> new GridGravityModelDistribution<>(List.of(body), 1.0, 1));
+    }
+
+    @Test
+    void testConstructorThrowsForGISBodies() {
+        GISBody<Object> body = new GISBody<>(1, 10, 20, null);
+        assertThrows(IllegalArgumentException.class, () -> new GridGravityModelDistribution<>(List.of(body), 1.0, 1));
+    }
+
+    @Test
+    void testOnlyStoresNonEmptyCells() {
+        GridGravityModelDistribution<Integer, Body2D<Integer>> dist = new GridGravityModelDistribution<>(
+                List.of(
+                        new Body2D<>(1, 0, 0, 0),
+                        new Body2D<>(1, 0.5, 0.5, 1),
+                        new Body2D<>(1, 1.5, 0, 2),
+                        new Body2D<>(1, 1000, 1000, 3)
+                ),
+                1.0,
+                1
+        );
+        assertEquals(3, dist.getCellCount());
+    }
+
+    @Test
+    void testConvergesToExactProbabilitiesFor3DBodies() {
+        Random rng = new Random(4);
+        List<Body3D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            bodies.add(new Body3D<>(
+                    1 + rng.nextDouble() * 10, rng.nextGaussian() * 100, rng.nextGaussian() * 100, rng.nextDouble(), i
+            ));
+        }
+        Body3D<Integer> ref = bodies.get(10);
+        long[] counts = sampleCounts(
+                new GridGravityModelDistribution<>(bodies, 25.0, Integer.MAX_VALUE, new Random(5)), ref, bodies.size()
+        );
+        assertEquals(0, counts[10]);
+        ChiSquared.assertGoodnessOfFit(exactWeights(bodies, ref), counts);
+    }
+
+    @Test
+    void testFarCellsActAsOneBodyAtTheirCentreOfMass() {
+        // The grid starts at (1, 1), so the reference point's cell and its neighbours cover [1, 31) along x and the
+        // cells beyond that are far
+        List<Body2D<Integer>> bodies = List.of(
+                new Body2D<>(2, 1, 1, 0),
+                new Body2D<>(3, 5, 8, 1),
+                new Body2D<>(1, 25, 2, 2),
+                new Body2D<>(4, 31, 1, 3),
+                new Body2D<>(2, 38, 9, 4),
+                new Body2D<>(5, 95, 5, 5)
+        );
+        Body2D<Integer> ref = new Body2D<>(1, 12, 4, -1);
+        double[] weights = exactWeights(bodies, ref);
+        // Bodies 3 and 4 share a cell whose centre of mass is at (33 1/3, 11/3)
+        double dx = 100.0 / 3 - 12, dy = 11.0 / 3 - 4;
+        double cellForce = 6 / (dx * dx + dy * dy);
+        weights[3] = cellForce * 4 / 6;
+        weights[4] = cellForce * 2 / 6;
+        weights[5] = 5 / (83.0 * 83.0 + 1);
+        long[] counts = sampleCounts(new GridGravityModelDistribution<>(bodies, 10.0, 1, new Random(6)), ref, 6);
+        ChiSquared.assertGoodnessOfFit(weights, counts);
+    }
+
+    @Test
+    void testReferenceOutsideGridOnlyHasNearCellsWithinRadius() {
+        List<Body1D<Integer>> bodies = List.of(
+                new Body1D<>(1, 0, 0),
+                new Body1D<>(3, 0.5, 1),
+                new Body1D<>(1, 2, 2)
+        );
+        // The reference point is 4 cells below the first cell, so every cell is far
+        Body1D<Integer> ref = new Body1D<>(1, -3.5, -1);
+        double[] weights = exactWeights(bodies, ref);
+        double cellForce = 4 / (3.875 * 3.875);
+        weights[0] = cellForce / 4;
+        weights[1] = cellForce * 3 / 4;
+        long[] counts = sampleCounts(new GridGravityModelDistribution<>(bodies, 1.0, 3, new Random(7)), ref, 3);
+        ChiSquared.assertGoodnessOfFit(weights, counts);
+    }
+
+    @Test
+    void testApproximationIsCloseForUniformBodies() {
+        Random rng = new Random(8);
+        List<Body2D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            bodies.add(new Body2D<>(1 + rng.nextDouble(), rng.nextDouble() * 100, rng.nextDouble() * 100, i));
+        }
+        Body2D<Integer> ref = new Body2D<>(1, 40.5, 60.5, -1);
+        long[] counts = sampleCounts(new GridGravityModelDistribution<>(bodies, 5.0, 1, new Random(9)), ref, 10000);
+        double[] weights = exactWeights(bodies, ref);
+        // The share of each quadrant around the reference point
+        double[] exact = new double[4];
+        double[] sampled = new double[4];
+        double total = 0;
+        for (int i = 0; i < bodies.size(); i++) {
+            int quadrant = (bodies.get(i).x < ref.x ? 0 : 1) + (bodies.get(i).y < ref.y ? 0 : 2);
+            exact[quadrant] += weights[i];
+            sampled[quadrant] += counts[i] / 1E6;
+            total += weights[i];
+        }
+        for (int q = 0; q < 4; q++) {
+            assertEquals(exact[q] / total, sampled[q], 0.005);
+        }
+    }
+
+    @Test
+    void testReportsCellsAndNearBodies() {
+        List<Body2D<Integer>> bodies = List.of(
+                new Body2D<>(1, 0, 0, 0),
+                new Body2D<>(1, 0.5, 0.5, 1),
+                new Body2D<>(1, 0.25, 0.75, 2),
+                new Body2D<>(1, 100, 100, 3),
+                new Body2D<>(1, 100.5, 100, 4)
+        );
+        GridGravityModelDistribution<Integer, Body2D<Integer>> dist =
+                new GridGravityModelDistribution<>(bodies, 1.0, 0, new Random(10));
+        List<QueryStats> reported = new ArrayList<>();
+        dist.setQueryListener(stats -> {
+            assertEquals(2, stats.getNodesVisited());
+            assertEquals(2, stats.getLevels());
+            // The 3 bodies of the near cell and the far cell, plus the chosen cell's bodies if it is near
+            if (stats.getMaxCandidates() == 3) assertEquals(7, stats.getForceEvaluations());
+            else assertEquals(4, stats.getForceEvaluations());
+            reported.add(stats);
+        });
+        Body2D<Integer> ref = new Body2D<>(1, 0.5, 0.25, -1);
+        for (int i = 0; i < 100; i++) {
+            dist.getRandomBody(ref);
+        }
+        assertEquals(100, reported.size());
+        dist.setQueryListener(null);
+        dist.getRandomBody(ref);
+        assertEquals(100, reported.size());
+    }
+
+    @Test
+    void testGetRandomBodyDoesNotAllocate() {
+        List<Body3D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            bodies.add(new Body3D<>(1 + i % 7, i % 100, i / 100, i % 13, i));
+        }
+        GravityModelDistribution<Integer, Body3D<Integer>> dist = new GridGravityModelDistribution<>(bodies, 5.0, 1);
+        Body3D<Integer> ref = new Body3D<>(1, 12.5, 40.25, 6.5, -1);
+        Allocations.assertSteadyStateAllocationFree(() -> dist.getRandomBody(ref));
+    }
+
+    @Test
+    void testThrowsForReferenceWithWrongDimensions() {
+        GridGravityModelDistribution<Integer, Body<Integer>> dist = new GridGravityModelDistribution<>(
+                List.of(new Body2D<>(1, 0, 0, 0), new Body2D<>(1, 1, 1, 1)), 1.0, 1
+        );
+        assertThrows(IllegalArgumentException.class, () -> dist.getRandomBody(new Body1D<>(1, 0, -1)));
+    }
+}
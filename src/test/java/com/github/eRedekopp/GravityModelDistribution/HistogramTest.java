@@ -0,0 +1,100 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HistogramTest {
+
+    @Test
+    void testBucketsAreContiguousAndNoMoreThanAnEighthWide() {
+        long lower = 0;
+        for (int b = 0; Histogram.bucketOf(lower) == b; b++) {
+            long upper = Histogram.upperBound(b);
+            assertTrue(upper >= lower);
+            assertTrue(upper - lower <= Math.max(0, lower / 8), "Bucket " + b + " is too wide");
+            assertEquals(b, Histogram.bucketOf(upper));
+            if (upper == Long.MAX_VALUE) return;
+            lower = upper + 1;
+        }
+        fail("Bucket of " + lower + " doesn't follow the previous bucket");
+    }
+
+    @Test
+    void testSmallValuesAreExact() {
+        Histogram histogram = new Histogram();
+        for (int v = 0; v < 16; v++) {
+            histogram.record(v);
+        }
+        assertEquals(16, histogram.getCount());
+        assertEquals(7.5, histogram.getMean());
+        assertEquals(15, histogram.getMax());
+        assertEquals(0, histogram.getValueAtQuantile(0));
+        assertEquals(7, histogram.getValueAtQuantile(0.5));
+        assertEquals(15, histogram.getValueAtQuantile(1));
+    }
+
+    @Test
+    void testQuantilesAreWithinAnEighthOfTheTrueValues() {
+        Random rng = new Random(1);
+        Histogram histogram = new Histogram();
+        List<Long> values = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            long v = (long) Math.exp(rng.nextDouble() * 30);
+            values.add(v);
+            histogram.record(v);
+        }
+        values.sort(null);
+        for (double q : new double[] {0.01, 0.25, 0.5, 0.9, 0.99, 0.999}) {
+            long expected = values.get((int) Math.ceil(q * values.size()) - 1);
+            long actual = histogram.getValueAtQuantile(q);
+            assertTrue(actual >= expected && actual <= expected + expected / 8, q + ": " + actual + " vs " + expected);
+        }
+        assertEquals(values.get(values.size() - 1), histogram.getValueAtQuantile(1));
+    }
+
+    @Test
+    void testCountsValuesFromManyThreads() throws InterruptedException {
+        Histogram histogram = new Histogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    histogram.record(i);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, histogram.getCount());
+        assertEquals(9999, histogram.getMax());
+        assertEquals(4999.5, histogram.getMean(), 1E-9);
+    }
+
+    @Test
+    void testResetRemovesAllValues() {
+        Histogram histogram = new Histogram();
+        histogram.record(100);
+        histogram.record(-5);
+        assertEquals(0, histogram.getValueAtQuantile(0));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertTrue(Double.isNaN(histogram.getMean()));
+        assertEquals(0, histogram.getValueAtQuantile(0.5));
+    }
+
+    @Test
+    void testGetValueAtQuantileThrowsForInvalidQuantile() {
+        Histogram histogram = new Histogram();
+        assertThrows(IllegalArgumentException.class, () -> histogram.getValueAtQuantile(-0.1));
+        assertThrows(IllegalArgumentException.class, () -> histogram.getValueAtQuantile(1.1));
+        assertThrows(IllegalArgumentException.class, () -> histogram.getValueAtQuantile(Double.NaN));
+    }
+}
@@ -0,0 +1,208 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ArgumentsSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.github.eRedekopp.GravityModelDistribution.Sampling.exactWeights;
+import static com.github.eRedekopp.GravityModelDistribution.Sampling.sampleCounts;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KdTreeGravityModelDistributionTest extends Shared2DGravityModelDistributionTests {
+    @Override
+    protected <T> GravityModelDistribution<T, Body2D<T>> makeDistribution(List<Body2D<T>> bodies) {
+        // Run the shared tests with 0.0 theta, any tests with different theta should go below in this class
+        return new KdTreeGravityModelDistribution<>(bodies, 0.0);
+    }
+
+    @Test
+    void testConstructorThrowsForEmptyBodies() {
+        assertThrows(IllegalArgumentException.class, () -> new KdTreeGravityModelDistribution<>(List.of(), 0.5));
+    }
+
+    @ParameterizedTest
+    @ArgumentsSource(InfiniteAndNaNAndNegativeDoubleArgsProvider.class)
+    void testConstructorThrowsForInvalidTheta(double theta) {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new KdTreeGravityModelDistribution<>(List.of(new Body2D<>(10, 0, 0, new Object())), theta)
+        );
+    }
+
+    @Test
+    void testConstructorThrowsForGISBodies() {
+        GISBody<Object> body = new GISBody<>(1, 10, 20, null);
+        assertThrows(IllegalArgumentException.class, () -> new KdTreeGravityModelDistribution<>(List.of(body), 0.5));
+    }
+
+    @Test
+    void testConstructorThrowsForBodiesWithoutCoordinates() {
+        Body<Object> body = new Body<>(1, null) {
+            @Override
+            public Body<Object> plus(Body<Object> other) {
+                return this;
+            }
+
+            @Override
+            public double distanceTo(Body<Object> other) {
+                return 0;
+            }
+        };
+        assertThrows(IllegalArgumentException.class, () -> new KdTreeGravityModelDistribution<>(List.of(body), 0.5));
+    }
+
+    @Test
+    void testHasOneNodePerBodyPlusParents() {
+        KdTreeGravityModelDistribution<Integer, Body2D<Integer>> dist = new KdTreeGravityModelDistribution<>(
+                List.of(
+                        new Body2D<>(1, -10, 10, 0),
+                        new Body2D<>(1, 10, -10, 1),
+                        new Body2D<>(1, 10, 10, 2),
+                        new Body2D<>(1, -10, -10, 3),
+                        new Body2D<>(1, 0, 0, 4)
+                ),
+                0.5
+        );
+        assertEquals(9, dist.getNodeCount());
+    }
+
+    @Test
+    void testDepthIsLogarithmicForClusteredBodies() {
+        // Each cluster is a thousand times smaller than the last, which would make a quadtree very deep
+        Random rng = new Random(1);
+        List<Body2D<Integer>> bodies = new ArrayList<>();
+        double scale = 1;
+        for (int i = 0; i < 10000; i++) {
+            if (i % 1000 == 0) scale /= 1000;
+            bodies.add(new Body2D<>(1, rng.nextDouble() * scale, rng.nextDouble() * scale, i));
+        }
+        KdTreeGravityModelDistribution<Integer, Body2D<Integer>> dist =
+                new KdTreeGravityModelDistribution<>(bodies, 0.5);
+        // ceil(log2(10000))
+        assertEquals(14, dist.getDepth());
+    }
+
+    @Test
+    void testConvergesToMassProportionsForCoincidentBodies() {
+        Map<Integer, Double> percentages = performIterations(
+                List.of(
+                        new Body2D<>(100, 5, 5, 0),
+                        new Body2D<>(200, 5, 5, 1),
+                        new Body2D<>(0, 5, 5, 2),
+                        new Body2D<>(300, 5, 5, 3),
+                        new Body2D<>(400, -5, -5, 4)
+                ),
+                -5,
+                5
+        );
+        // Both locations are the same distance from the reference point
+        assertEquals(0.1, percentages.get(0), EPSILON);
+        assertEquals(0.2, percentages.get(1), EPSILON);
+        assertNull(percentages.get(2));
+        assertEquals(0.3, percentages.get(3), EPSILON);
+        assertEquals(0.4, percentages.get(4), EPSILON);
+    }
+
+    @Test
+    void testConvergesToExactProbabilitiesFor1DBodies() {
+        Random rng = new Random(2);
+        List<Body1D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            bodies.add(new Body1D<>(1 + rng.nextDouble() * 10, rng.nextGaussian() * 100, i));
+        }
+        Body1D<Integer> ref = new Body1D<>(1, 12.5, -1);
+        ChiSquared.assertGoodnessOfFit(
+                exactWeights(bodies, ref),
+                sampleCounts(new KdTreeGravityModelDistribution<>(bodies, 0.0, new Random(3)), ref, bodies.size())
+        );
+    }
+
+    @Test
+    void testConvergesToExactProbabilitiesFor3DBodies() {
+        Random rng = new Random(4);
+        List<Body3D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            bodies.add(new Body3D<>(
+                    1 + rng.nextDouble() * 10, rng.nextGaussian() * 100, rng.nextGaussian() * 100, rng.nextDouble(), i
+            ));
+        }
+        Body3D<Integer> ref = bodies.get(10);
+        long[] counts = sampleCounts(new KdTreeGravityModelDistribution<>(bodies, 0.0, new Random(5)), ref, bodies.size());
+        assertEquals(0, counts[10]);
+        ChiSquared.assertGoodnessOfFit(exactWeights(bodies, ref), counts);
+    }
+
+    @Test
+    void testApproximationIsCloseForFarAwayClusters() {
+        Random rng = new Random(6);
+        List<Body2D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            double cx = i % 2 == 0 ? -1000 : 1000;
+            bodies.add(new Body2D<>(1 + rng.nextDouble(), cx + rng.nextGaussian(), rng.nextGaussian(), i));
+        }
+        Body2D<Integer> ref = new Body2D<>(1, -500, 0, -1);
+        long[] counts = sampleCounts(new KdTreeGravityModelDistribution<>(bodies, 0.5, new Random(7)), ref, bodies.size());
+        double[] weights = exactWeights(bodies, ref);
+        double west = 0, total = 0, westCount = 0;
+        for (int i = 0; i < bodies.size(); i++) {
+            total += weights[i];
+            if (i % 2 == 0) {
+                west += weights[i];
+                westCount += counts[i];
+            }
+        }
+        assertEquals(west / total, westCount / 1E6, 0.003);
+    }
+
+    @Test
+    void testThrowsForReferenceWithWrongDimensions() {
+        KdTreeGravityModelDistribution<Integer, Body<Integer>> dist = new KdTreeGravityModelDistribution<>(
+                List.of(new Body2D<>(1, 0, 0, 0), new Body2D<>(1, 1, 1, 1)), 0.5
+        );
+        assertThrows(IllegalArgumentException.class, () -> dist.getRandomBody(new Body1D<>(1, 0, -1)));
+    }
+
+    @Test
+    void testGetRandomBodyDoesNotAllocate() {
+        List<Body3D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            bodies.add(new Body3D<>(i % 7, i % 100, i / 100, i % 13, i));
+        }
+        KdTreeGravityModelDistribution<Integer, Body3D<Integer>> dist =
+                new KdTreeGravityModelDistribution<>(bodies, 0.5, new Random(8));
+        Body3D<Integer> ref = new Body3D<>(1, 12.5, 40.25, 3, -1);
+        Allocations.assertSteadyStateAllocationFree(() -> dist.getRandomBody(ref));
+    }
+
+    @Test
+    void testReportsEveryNodeWhenThetaIsZero() {
+        List<Body2D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            bodies.add(new Body2D<>(1, i % 7, i / 7, i));
+        }
+        KdTreeGravityModelDistribution<Integer, Body2D<Integer>> dist =
+                new KdTreeGravityModelDistribution<>(bodies, 0.0, new Random(9));
+        List<QueryStats> reported = new ArrayList<>();
+        dist.setQueryListener(stats -> {
+            // Every leaf is a candidate of the root, so one choice reaches a body
+            assertEquals(1, stats.getLevels());
+            assertEquals(50, stats.getMaxCandidates());
+            assertEquals(50, stats.getForceEvaluations());
+            assertEquals(dist.getNodeCount(), stats.getNodesVisited());
+            reported.add(stats);
+        });
+        Body2D<Integer> ref = new Body2D<>(1, 3.5, 2.5, -1);
+        for (int i = 0; i < 100; i++) {
+            dist.getRandomBody(ref);
+        }
+        assertEquals(100, reported.size());
+        dist.setQueryListener(null);
+        dist.getRandomBody(ref);
+        assertEquals(100, reported.size());
+    }
+}
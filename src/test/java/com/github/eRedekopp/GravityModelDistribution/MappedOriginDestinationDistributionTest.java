@@ -0,0 +1,296 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedOriginDestinationDistributionTest {
+
+    private static final int NUM_ITERATIONS = (int) 1E6;
+
+    private static final double EPSILON = 0.003;
+
+    private static Path tempFile() throws IOException {
+        Path path = Files.createTempFile("od-table", ".bin");
+        path.toFile().deleteOnExit();
+        return path;
+    }
+
+    private static List<Body2D<Integer>> makeBodies() {
+        return List.of(
+                new Body2D<>(0, -10, 10, 0),
+                new Body2D<>(100, 10, -10, 1),
+                new Body2D<>(200, 10, 10, 2),
+                new Body2D<>(300, -10, -10, 3),
+                new Body2D<>(50, 0, 0, 4)
+        );
+    }
+
+    private static <T> Path writeTable(
+            List<Body2D<T>> bodies, OriginDestinationTableBuilder.Encoding encoding
+    ) throws IOException {
+        Path path = tempFile();
+        new OriginDestinationTableBuilder<>(new Simple2DGravityModelDistribution<>(bodies))
+                .setEncoding(encoding)
+                .write(path);
+        return path;
+    }
+
+    /**
+     * @return The exact probability of drawing each body when the given body is the reference point
+     */
+    private static double[] expectedProbabilities(List<Body2D<Integer>> bodies, Body2D<Integer> ref) {
+        double[] forces = new double[bodies.size()];
+        double sum = 0;
+        for (int i = 0; i < forces.length; i++) {
+            forces[i] = bodies.get(i).computeGravForce(ref);
+            sum += forces[i];
+        }
+        for (int i = 0; i < forces.length; i++) {
+            forces[i] /= sum;
+        }
+        return forces;
+    }
+
+    private static void assertConvergesToExactProbabilities(OriginDestinationTableBuilder.Encoding encoding)
+            throws IOException {
+        List<Body2D<Integer>> bodies = makeBodies();
+        Path path = writeTable(bodies, encoding);
+        MappedOriginDestinationDistribution<Integer, Body2D<Integer>> dist =
+                new MappedOriginDestinationDistribution<>(bodies, path, new Random(7));
+        for (Body2D<Integer> ref : bodies) {
+            if (ref.mass == 0) continue;
+            double[] expected = expectedProbabilities(bodies, ref);
+            double[] counts = new double[bodies.size()];
+            for (int i = 0; i < NUM_ITERATIONS; i++) {
+                counts[dist.getRandomBody(ref).value]++;
+            }
+            for (int i = 0; i < counts.length; i++) {
+                assertEquals(expected[i], counts[i] / NUM_ITERATIONS, EPSILON);
+            }
+            // The reference body itself and the body with no mass are never chosen
+            assertEquals(0.0, counts[ref.value]);
+            assertEquals(0.0, counts[0]);
+        }
+    }
+
+    @Test
+    void testConvergesToExactProbabilitiesFloat64() throws IOException {
+        assertConvergesToExactProbabilities(OriginDestinationTableBuilder.Encoding.FLOAT64);
+    }
+
+    @Test
+    void testConvergesToExactProbabilitiesFloat32() throws IOException {
+        assertConvergesToExactProbabilities(OriginDestinationTableBuilder.Encoding.FLOAT32);
+    }
+
+    @Test
+    void testConvergesToExactProbabilitiesFixed16() throws IOException {
+        assertConvergesToExactProbabilities(OriginDestinationTableBuilder.Encoding.FIXED16);
+    }
+
+    @Test
+    void testFileSizeDependsOnEncoding() throws IOException {
+        List<Body2D<Integer>> bodies = makeBodies();
+        int n = bodies.size();
+        assertEquals(
+                OriginDestinationTableBuilder.HEADER_BYTES + n * n * 12,
+                Files.size(writeTable(bodies, OriginDestinationTableBuilder.Encoding.FLOAT64))
+        );
+        assertEquals(
+                OriginDestinationTableBuilder.HEADER_BYTES + n * n * 8,
+                Files.size(writeTable(bodies, OriginDestinationTableBuilder.Encoding.FLOAT32))
+        );
+        assertEquals(
+                OriginDestinationTableBuilder.HEADER_BYTES + n * n * 6,
+                Files.size(writeTable(bodies, OriginDestinationTableBuilder.Encoding.FIXED16))
+        );
+    }
+
+    @Test
+    void testGetRandomBodyByIndexMatchesByReference() throws IOException {
+        List<Body2D<Integer>> bodies = makeBodies();
+        Path path = writeTable(bodies, OriginDestinationTableBuilder.Encoding.FLOAT64);
+        MappedOriginDestinationDistribution<Integer, Body2D<Integer>> byRef =
+                new MappedOriginDestinationDistribution<>(bodies, path, new Random(3));
+        MappedOriginDestinationDistribution<Integer, Body2D<Integer>> byIndex =
+                new MappedOriginDestinationDistribution<>(bodies, path, new Random(3));
+        for (int i = 0; i < 1000; i++) {
+            assertSame(byRef.getRandomBody(bodies.get(2)), byIndex.getRandomBody(2));
+        }
+    }
+
+    @Test
+    void testReportsOneLevelAndNoForceEvaluations() throws IOException {
+        List<Body2D<Integer>> bodies = makeBodies();
+        MappedOriginDestinationDistribution<Integer, Body2D<Integer>> dist = new MappedOriginDestinationDistribution<>(
+                bodies, writeTable(bodies, OriginDestinationTableBuilder.Encoding.FLOAT64), new Random(4)
+        );
+        List<QueryStats> reported = new ArrayList<>();
+        dist.setQueryListener(stats -> {
+            assertEquals(1, stats.getLevels());
+            assertEquals(0, stats.getForceEvaluations());
+            assertEquals(0, stats.getNodesVisited());
+            reported.add(stats);
+        });
+        for (int i = 0; i < 100; i++) {
+            dist.getRandomBody(bodies.get(2));
+            dist.getRandomBody(3);
+        }
+        assertEquals(200, reported.size());
+        dist.setQueryListener(null);
+        dist.getRandomBody(bodies.get(2));
+        assertEquals(200, reported.size());
+    }
+
+    @Test
+    void testMatchesSimpleDistributionForManyBodies() throws IOException {
+        Random rng = new Random(11);
+        List<Body2D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            bodies.add(new Body2D<>(1 + rng.nextInt(10), rng.nextGaussian() * 100, rng.nextGaussian() * 100, i));
+        }
+        Path path = writeTable(bodies, OriginDestinationTableBuilder.Encoding.FLOAT32);
+        MappedOriginDestinationDistribution<Integer, Body2D<Integer>> dist =
+                new MappedOriginDestinationDistribution<>(bodies, path, new Random(5));
+        Body2D<Integer> ref = bodies.get(123);
+        double[] expected = expectedProbabilities(bodies, ref);
+        double[] counts = new double[bodies.size()];
+        GravityModelSampler<Integer, Body2D<Integer>> sampler = dist.getSampler(ref);
+        for (int i = 0; i < NUM_ITERATIONS; i++) {
+            counts[sampler.sample().value]++;
+        }
+        for (int i = 0; i < counts.length; i++) {
+            assertEquals(expected[i], counts[i] / NUM_ITERATIONS, EPSILON);
+        }
+    }
+
+    @Test
+    void testThrowsForReferenceThatIsNotOneOfTheBodies() throws IOException {
+        List<Body2D<Integer>> bodies = makeBodies();
+        Path path = writeTable(bodies, OriginDestinationTableBuilder.Encoding.FLOAT64);
+        MappedOriginDestinationDistribution<Integer, Body2D<Integer>> dist =
+                new MappedOriginDestinationDistribution<>(bodies, path);
+        assertThrows(IllegalArgumentException.class, () -> dist.getRandomBody(new Body2D<>(100, 10, -10, 1)));
+        assertThrows(IllegalArgumentException.class, () -> dist.getRandomBody(-1));
+        assertThrows(IllegalArgumentException.class, () -> dist.getRandomBody(bodies.size()));
+    }
+
+    @Test
+    void testThrowsForZeroMassReference() throws IOException {
+        List<Body2D<Integer>> bodies = makeBodies();
+        Path path = writeTable(bodies, OriginDestinationTableBuilder.Encoding.FLOAT64);
+        MappedOriginDestinationDistribution<Integer, Body2D<Integer>> dist =
+                new MappedOriginDestinationDistribution<>(bodies, path);
+        assertThrows(IllegalArgumentException.class, () -> dist.getRandomBody(bodies.get(0)));
+    }
+
+    @Test
+    void testThrowsWhenNoBodyExertsForce() throws IOException {
+        List<Body2D<Integer>> bodies = List.of(new Body2D<>(1, 0, 0, 0), new Body2D<>(0, 1, 1, 1));
+        Path path = writeTable(bodies, OriginDestinationTableBuilder.Encoding.FLOAT64);
+        MappedOriginDestinationDistribution<Integer, Body2D<Integer>> dist =
+                new MappedOriginDestinationDistribution<>(bodies, path);
+        assertThrows(IllegalArgumentException.class, () -> dist.getRandomBody(0));
+    }
+
+    @Test
+    void testConstructorThrowsForDifferentBodies() throws IOException {
+        List<Body2D<Integer>> bodies = makeBodies();
+        Path path = writeTable(bodies, OriginDestinationTableBuilder.Encoding.FLOAT64);
+        List<Body2D<Integer>> moved = new ArrayList<>(bodies);
+        moved.set(1, new Body2D<>(100, 10, -11, 1));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new MappedOriginDestinationDistribution<>(moved, path)
+        );
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new MappedOriginDestinationDistribution<>(bodies.subList(0, 4), path)
+        );
+    }
+
+    @Test
+    void testAcceptsBodiesWithoutCoordinates() throws IOException {
+        List<Body<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            bodies.add(new Body<>(1 + i, i) {
+                @Override
+                public Body<Integer> plus(Body<Integer> other) {
+                    return this;
+                }
+
+                @Override
+                public double distanceTo(Body<Integer> other) {
+                    return 1;
+                }
+            });
+        }
+        Path path = tempFile();
+        new OriginDestinationTableBuilder<>(new SimpleGravityModelDistribution<>(bodies)).write(path);
+        MappedOriginDestinationDistribution<Integer, Body<Integer>> dist =
+                new MappedOriginDestinationDistribution<>(bodies, path);
+        for (int i = 0; i < 100; i++) {
+            assertNotNull(dist.getRandomBody(0));
+        }
+        // Only the masses of these bodies are checked
+        List<Body<Integer>> reordered = List.of(bodies.get(0), bodies.get(2), bodies.get(1));
+        assertThrows(IllegalArgumentException.class, () -> new MappedOriginDestinationDistribution<>(reordered, path));
+    }
+
+    @Test
+    void testConstructorThrowsForInvalidFile() throws IOException {
+        List<Body2D<Integer>> bodies = makeBodies();
+        Path path = tempFile();
+        Files.write(path, new byte[100]);
+        assertThrows(IOException.class, () -> new MappedOriginDestinationDistribution<>(bodies, path));
+
+        Path truncated = writeTable(bodies, OriginDestinationTableBuilder.Encoding.FLOAT64);
+        byte[] contents = Files.readAllBytes(truncated);
+        Files.write(truncated, Arrays.copyOf(contents, contents.length - 1));
+        assertThrows(IOException.class, () -> new MappedOriginDestinationDistribution<>(bodies, truncated));
+    }
+
+    @Test
+    void testReplacingTableLeavesLoadedDistributionUnchanged() throws IOException {
+        List<Body2D<Integer>> bodies = makeBodies();
+        Path path = writeTable(bodies, OriginDestinationTableBuilder.Encoding.FLOAT64);
+        MappedOriginDestinationDistribution<Integer, Body2D<Integer>> old =
+                new MappedOriginDestinationDistribution<>(bodies, path, new Random(8));
+        // The smaller encoding would leave the end of the old mapping past the end of the file if it were overwritten
+        new OriginDestinationTableBuilder<>(new Simple2DGravityModelDistribution<>(bodies))
+                .setEncoding(OriginDestinationTableBuilder.Encoding.FIXED16)
+                .write(path);
+        for (int i = 0; i < 1000; i++) {
+            assertNotEquals(4, old.getRandomBody(4).value);
+            assertNotEquals(0, old.getRandomBody(4).value);
+        }
+        assertEquals(
+                OriginDestinationTableBuilder.HEADER_BYTES + bodies.size() * bodies.size() * 6, Files.size(path)
+        );
+        new MappedOriginDestinationDistribution<>(bodies, path).getRandomBody(4);
+        // The temporary file was moved over the table
+        try (Stream<Path> files = Files.list(path.getParent())) {
+            assertTrue(files.noneMatch(f -> f.getFileName().toString().startsWith(path.getFileName() + ".")));
+        }
+    }
+
+    @Test
+    void testGetRandomBodyDoesNotAllocate() throws IOException {
+        List<Body2D<Integer>> bodies = makeBodies();
+        Path path = writeTable(bodies, OriginDestinationTableBuilder.Encoding.FIXED16);
+        MappedOriginDestinationDistribution<Integer, Body2D<Integer>> dist =
+                new MappedOriginDestinationDistribution<>(bodies, path);
+        Body2D<Integer> ref = bodies.get(3);
+        Allocations.assertSteadyStateAllocationFree(() -> dist.getRandomBody(ref));
+    }
+}
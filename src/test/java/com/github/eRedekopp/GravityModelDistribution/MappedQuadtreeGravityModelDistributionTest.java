@@ -0,0 +1,231 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ArgumentsSource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedQuadtreeGravityModelDistributionTest extends Shared2DGravityModelDistributionTests {
+
+    private static Path tempFile() throws IOException {
+        Path path = Files.createTempFile("quadtree", ".bin");
+        path.toFile().deleteOnExit();
+        return path;
+    }
+
+    /**
+     * @return A snapshot of a FlatQuadtreeGravityModelDistribution of the bodies, which stores each body's value as
+     *         the index of the first body in the list with that value
+     */
+    private static <T> Path writeSnapshot(List<Body2D<T>> bodies) throws IOException {
+        Map<T, Integer> ids = new IdentityHashMap<>();
+        for (int i = 0; i < bodies.size(); i++) {
+            ids.putIfAbsent(bodies.get(i).value, i);
+        }
+        Path path = tempFile();
+        new FlatQuadtreeGravityModelDistribution<>(bodies, 0.5).writeSnapshot(path, ids::get);
+        return path;
+    }
+
+    @Override
+    protected <T> GravityModelDistribution<T, Body2D<T>> makeDistribution(List<Body2D<T>> bodies) {
+        // Run the shared tests with 0.0 theta, any tests with different theta should go below in this class
+        try {
+            return new MappedQuadtreeGravityModelDistribution<>(writeSnapshot(bodies), i -> bodies.get(i).value, 0.0);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * A new Body2D is made for each body drawn, so only the values are the same objects
+     */
+    @Override
+    @Test
+    void testGetRandomBodyWithSameSeedGivesSameBodies() {
+        Random positions = new Random(1);
+        List<Body2D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            bodies.add(new Body2D<>(1 + positions.nextDouble(), positions.nextGaussian(), positions.nextGaussian(), i));
+        }
+        GravityModelDistribution<Integer, Body2D<Integer>> dist = this.makeDistribution(bodies);
+        Body2D<Integer> ref = new Body2D<>(1, 0.5, -0.25, -1);
+        Random first = new Random(2);
+        Random second = new Random(2);
+        for (int i = 0; i < 1000; i++) {
+            assertSame(dist.getRandomBody(ref, first).value, dist.getRandomBody(ref, second).value);
+        }
+    }
+
+    @ParameterizedTest
+    @ArgumentsSource(InfiniteAndNaNAndNegativeDoubleArgsProvider.class)
+    void testConstructorThrowsForInvalidTheta(double theta) throws IOException {
+        Path path = writeSnapshot(List.of(new Body2D<>(10, 0, 0, 0)));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new MappedQuadtreeGravityModelDistribution<>(path, i -> i, theta)
+        );
+    }
+
+    @Test
+    void testDrawsSameBodiesAsFlatQuadtree() throws IOException {
+        Random positions = new Random(5);
+        List<Body2D<String>> bodies = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            // Some bodies share a location, so some leaves hold more than one body
+            double x = i % 10 == 0 ? 1 : positions.nextGaussian();
+            double y = i % 10 == 0 ? 1 : positions.nextGaussian();
+            bodies.add(new Body2D<>(positions.nextDouble(), x, y, "body " + i));
+        }
+        Path path = tempFile();
+        FlatQuadtreeGravityModelDistribution<String> flat =
+                new FlatQuadtreeGravityModelDistribution<>(bodies, 0.7, new Random(6));
+        flat.writeSnapshot(path, value -> Integer.parseInt(value.substring(5)));
+        MappedQuadtreeGravityModelDistribution<String> mapped =
+                new MappedQuadtreeGravityModelDistribution<>(path, i -> "body " + i, 0.7, new Random(6));
+
+        assertEquals(3000, mapped.size());
+        for (int i = 0; i < 10000; i++) {
+            Body2D<String> ref = new Body2D<>(1, positions.nextGaussian(), positions.nextGaussian(), null);
+            Body2D<String> expected = flat.getRandomBody(ref);
+            Body2D<String> actual = mapped.getRandomBody(ref);
+            assertEquals(expected.value, actual.value);
+            assertEquals(expected.mass, actual.mass);
+            assertEquals(expected.x, actual.x);
+            assertEquals(expected.y, actual.y);
+        }
+    }
+
+    @Test
+    void testReportsSameWorkAsFlatQuadtree() throws IOException {
+        Random positions = new Random(7);
+        List<Body2D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            bodies.add(new Body2D<>(1 + positions.nextDouble(), positions.nextGaussian(), positions.nextGaussian(), i));
+        }
+        Path path = tempFile();
+        FlatQuadtreeGravityModelDistribution<Integer> flat =
+                new FlatQuadtreeGravityModelDistribution<>(bodies, 0.5, new Random(8));
+        flat.writeSnapshot(path, value -> value);
+        MappedQuadtreeGravityModelDistribution<Integer> mapped =
+                new MappedQuadtreeGravityModelDistribution<>(path, i -> i, 0.5, new Random(8));
+        List<List<Long>> flatStats = new ArrayList<>();
+        List<List<Long>> mappedStats = new ArrayList<>();
+        flat.setQueryListener(stats -> flatStats.add(counters(stats)));
+        mapped.setQueryListener(stats -> mappedStats.add(counters(stats)));
+        Body2D<Integer> ref = new Body2D<>(1, 0.3, -0.2, -1);
+        for (int i = 0; i < 200; i++) {
+            assertEquals(flat.getRandomBody(ref).value, mapped.getRandomBody(ref).value);
+        }
+        assertEquals(200, mappedStats.size());
+        assertEquals(flatStats, mappedStats);
+    }
+
+    private static List<Long> counters(QueryStats stats) {
+        return List.of(
+                stats.getForceEvaluations(),
+                stats.getNodesVisited(),
+                stats.getCandidates(),
+                stats.getMaxCandidates(),
+                stats.getLevels()
+        );
+    }
+
+    @Test
+    void testConstructorThrowsForFileThatIsNotASnapshot() throws IOException {
+        Path path = tempFile();
+        Files.write(path, new byte[100]);
+        assertThrows(IOException.class, () -> new MappedQuadtreeGravityModelDistribution<>(path, i -> i, 0.5));
+        Files.write(path, new byte[10]);
+        assertThrows(IOException.class, () -> new MappedQuadtreeGravityModelDistribution<>(path, i -> i, 0.5));
+    }
+
+    @Test
+    void testConstructorThrowsForTruncatedSnapshot() throws IOException {
+        List<Body2D<Integer>> bodies = List.of(
+                new Body2D<>(1, -10, 10, 0),
+                new Body2D<>(1, 10, -10, 1),
+                new Body2D<>(1, 10, 10, 2)
+        );
+        Path path = writeSnapshot(bodies);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 4);
+        }
+        assertThrows(IOException.class, () -> new MappedQuadtreeGravityModelDistribution<>(path, i -> i, 0.5));
+    }
+
+    @Test
+    void testConstructorThrowsForSnapshotWithTooManyBodiesToMap() throws IOException {
+        // The file is the right size for its header, but the bodies' doubles don't fit in one buffer. Only the header
+        // and the last byte are written, so the file is sparse on most file systems.
+        int n = Integer.MAX_VALUE / Double.BYTES + 1;
+        int numNodes = 1;
+        long size = MappedQuadtreeGravityModelDistribution.HEADER_BYTES
+                + (long) n * (3 * Double.BYTES + Integer.BYTES)
+                + (long) numNodes * (3 * Double.BYTES + 7 * Integer.BYTES);
+        ByteBuffer header = ByteBuffer.allocate(MappedQuadtreeGravityModelDistribution.HEADER_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(MappedQuadtreeGravityModelDistribution.MAGIC)
+                .putInt(MappedQuadtreeGravityModelDistribution.VERSION)
+                .putInt(n)
+                .putInt(numNodes)
+                .putDouble(0)
+                .putDouble(0)
+                .putDouble(1);
+        Path path = tempFile();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(header.flip(), 0);
+            channel.write(ByteBuffer.allocate(1), size - 1);
+        }
+        try {
+            assertThrows(IOException.class, () -> new MappedQuadtreeGravityModelDistribution<>(path, i -> i, 0.5));
+        }
+        finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void testSnapshotCanBeReplaced() throws IOException {
+        Path path = writeSnapshot(List.of(new Body2D<>(1, 0, 0, 0), new Body2D<>(1, 5, 5, 1)));
+        new FlatQuadtreeGravityModelDistribution<>(List.of(new Body2D<>(1, 3, 3, 0)), 0.5).writeSnapshot(path, i -> 7);
+        MappedQuadtreeGravityModelDistribution<Integer> mapped =
+                new MappedQuadtreeGravityModelDistribution<>(path, i -> i, 0.5);
+        assertEquals(1, mapped.size());
+        assertEquals(7, mapped.getRandomBody(new Body2D<>(1, 0, 0, -1)).value);
+    }
+
+    @Test
+    void testReplacingSnapshotLeavesLoadedDistributionUnchanged() throws IOException {
+        Path path = writeSnapshot(List.of(new Body2D<>(1, 0, 0, 0), new Body2D<>(1, 5, 5, 1)));
+        MappedQuadtreeGravityModelDistribution<Integer> old =
+                new MappedQuadtreeGravityModelDistribution<>(path, i -> i, 0.5);
+        new FlatQuadtreeGravityModelDistribution<>(List.of(new Body2D<>(1, 3, 3, 0)), 0.5).writeSnapshot(path, i -> 7);
+        assertEquals(2, old.size());
+        for (int i = 0; i < 100; i++) {
+            assertNotEquals(7, old.getRandomBody(new Body2D<>(1, 1, 1, -1)).value);
+        }
+        assertEquals(1, new MappedQuadtreeGravityModelDistribution<>(path, i -> i, 0.5).size());
+        // The temporary file was moved over the snapshot
+        try (Stream<Path> files = Files.list(path.getParent())) {
+            assertTrue(files.noneMatch(f -> f.getFileName().toString().startsWith(path.getFileName() + ".")));
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ArgumentsSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.github.eRedekopp.GravityModelDistribution.Sampling.exactWeights;
+import static com.github.eRedekopp.GravityModelDistribution.Sampling.makeRandomBodies;
+import static com.github.eRedekopp.GravityModelDistribution.Sampling.sampleCounts;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MutableQuadtreeGravityModelDistributionTest extends Shared2DGravityModelDistributionTests {
+    @Override
+    protected <T> GravityModelDistribution<T, Body2D<T>> makeDistribution(List<Body2D<T>> bodies) {
+        // Run the shared tests with 0.0 theta, any tests with different theta should go below in this class
+        return new MutableQuadtreeGravityModelDistribution<>(bodies, 0.0);
+    }
+
+    @ParameterizedTest
+    @ArgumentsSource(InfiniteAndNaNAndNegativeDoubleArgsProvider.class)
+    void testConstructorThrowsForInvalidTheta(double theta) {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new MutableQuadtreeGravityModelDistribution<>(List.of(new Body2D<>(10, 0, 0, new Object())), theta)
+        );
+    }
+
+    @Test
+    void testGetRandomBodyThrowsWhenEmpty() {
+        MutableQuadtreeGravityModelDistribution<Integer> dist = new MutableQuadtreeGravityModelDistribution<>(
+                List.of(), 0.5
+        );
+        assertThrows(IllegalStateException.class, () -> dist.getRandomBody(new Body2D<>(1, 0, 0, -1)));
+        Body2D<Integer> body = new Body2D<>(1, 3, 4, 0);
+        dist.addBody(body);
+        assertSame(body, dist.getRandomBody(new Body2D<>(1, 0, 0, -1)));
+        assertTrue(dist.removeBody(body));
+        assertEquals(0, dist.size());
+        assertThrows(IllegalStateException.class, () -> dist.getRandomBody(new Body2D<>(1, 0, 0, -1)));
+    }
+
+    @Test
+    void testHasOneNodePerBodyPlusParents() {
+        MutableQuadtreeGravityModelDistribution<Integer> dist = new MutableQuadtreeGravityModelDistribution<>(
+                List.of(
+                        new Body2D<>(1, -10, 10, 0),
+                        new Body2D<>(1, 10, -10, 1),
+                        new Body2D<>(1, 10, 10, 2),
+                        new Body2D<>(1, -10, -10, 3)
+                ),
+                0.5
+        );
+        assertEquals(5, dist.getNodeCount());
+    }
+
+    @Test
+    void testBuildsSameTreeAsAddingBodiesOneAtATime() {
+        Random rng = new Random(11);
+        // The first two bodies span the square, so adding the rest never grows it
+        List<Body2D<Integer>> bodies = new ArrayList<>(List.of(new Body2D<>(1, 0, 0, 0), new Body2D<>(2, 100, 100, 1)));
+        for (int i = 2; i < 2000; i++) {
+            // Some clusters that are much smaller than the square, and some bodies at the same location
+            double x = i % 10 == 0 ? 50 : (i % 4) * 25 + rng.nextDouble() * 1e-6;
+            double y = i % 10 == 0 ? 50 : rng.nextDouble() * 100;
+            bodies.add(new Body2D<>(rng.nextDouble(), x, y, i));
+        }
+        MutableQuadtreeGravityModelDistribution<Integer> built =
+                new MutableQuadtreeGravityModelDistribution<>(bodies, 0.5);
+        MutableQuadtreeGravityModelDistribution<Integer> added =
+                new MutableQuadtreeGravityModelDistribution<>(bodies.subList(0, 2), 0.5);
+        for (Body2D<Integer> b : bodies.subList(2, bodies.size())) {
+            added.addBody(b);
+        }
+        assertEquals(added.getNodeCount(), built.getNodeCount());
+        Random builtRng = new Random(12), addedRng = new Random(12);
+        for (int i = 0; i < 10000; i++) {
+            Body2D<Integer> ref = new Body2D<>(1, 100 * rng.nextDouble(), 100 * rng.nextDouble(), null);
+            assertSame(added.getRandomBody(ref, addedRng), built.getRandomBody(ref, builtRng));
+        }
+    }
+
+    @Test
+    void testRemovingBodiesPrunesEmptyNodes() {
+        List<Body2D<Integer>> bodies = makeRandomBodies(100, 1);
+        MutableQuadtreeGravityModelDistribution<Integer> dist = new MutableQuadtreeGravityModelDistribution<>(bodies, 0.5);
+        for (Body2D<Integer> b : bodies.subList(1, bodies.size())) {
+            assertTrue(dist.removeBody(b));
+        }
+        assertEquals(1, dist.size());
+        assertEquals(1, dist.getNodeCount());
+    }
+
+    @Test
+    void testRemoveBodyReturnsFalseForBodiesNotInTheDistribution() {
+        Body2D<Integer> body = new Body2D<>(1, 1, 1, 0);
+        MutableQuadtreeGravityModelDistribution<Integer> dist = new MutableQuadtreeGravityModelDistribution<>(
+                List.of(body, new Body2D<>(1, 2, 2, 1)), 0.5
+        );
+        // Bodies are matched by identity, not by value
+        assertFalse(dist.removeBody(new Body2D<>(1, 1, 1, 0)));
+        assertFalse(dist.removeBody(new Body2D<>(1, 100, 100, 0)));
+        assertTrue(dist.removeBody(body));
+        assertFalse(dist.removeBody(body));
+        assertEquals(1, dist.size());
+    }
+
+    @Test
+    void testUpdateMassThrowsForBodiesNotInTheDistribution() {
+        MutableQuadtreeGravityModelDistribution<Integer> dist = new MutableQuadtreeGravityModelDistribution<>(
+                List.of(new Body2D<>(1, 1, 1, 0)), 0.5
+        );
+        assertThrows(IllegalArgumentException.class, () -> dist.updateMass(new Body2D<>(1, 1, 1, 0), 2));
+    }
+
+    @ParameterizedTest
+    @ArgumentsSource(InfiniteAndNaNAndNegativeDoubleArgsProvider.class)
+    void testUpdateMassThrowsForInvalidMass(double mass) {
+        Body2D<Integer> body = new Body2D<>(1, 1, 1, 0);
+        MutableQuadtreeGravityModelDistribution<Integer> dist = new MutableQuadtreeGravityModelDistribution<>(
+                List.of(body), 0.5
+        );
+        assertThrows(IllegalArgumentException.class, () -> dist.updateMass(body, mass));
+    }
+
+    @Test
+    void testConvergesToExactProbabilitiesAfterChanges() {
+        List<Body2D<Integer>> bodies = new ArrayList<>(makeRandomBodies(200, 2));
+        MutableQuadtreeGravityModelDistribution<Integer> dist = new MutableQuadtreeGravityModelDistribution<>(
+                bodies.subList(0, 150), 0.0, new Random(3)
+        );
+        // Add the rest, one of them far outside the original square, then remove some and reweight others
+        bodies.set(199, new Body2D<>(50, 5000, -3000, 199));
+        for (Body2D<Integer> b : bodies.subList(150, 200)) {
+            dist.addBody(b);
+        }
+        for (int i = 0; i < 200; i += 7) {
+            assertTrue(dist.removeBody(bodies.get(i)));
+        }
+        List<Body2D<Integer>> remaining = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            if (i % 7 == 0) continue;
+            Body2D<Integer> b = bodies.get(i);
+            remaining.add(i % 5 == 0 ? dist.updateMass(b, i % 10 == 0 ? 0 : b.mass * 3) : b);
+        }
+        assertEquals(remaining.size(), dist.size());
+
+        Body2D<Integer> ref = new Body2D<>(1, 12.5, -40, -1);
+        long[] counts = sampleCounts(dist, ref, 200);
+        for (int i = 0; i < 200; i += 7) {
+            assertEquals(0, counts[i]);
+        }
+        ChiSquared.assertGoodnessOfFit(exactWeights(remaining, ref, 200), counts);
+    }
+
+    @Test
+    void testConvergesToSameDistributionAsQuadtree() {
+        List<Body2D<Integer>> bodies = makeRandomBodies(300, 4);
+        Body2D<Integer> ref = new Body2D<>(1, -250, 40, -1);
+        ChiSquared.assertHomogeneous(
+                sampleCounts(new QuadtreeGravityModelDistribution<>(bodies, 0.5, new Random(5)), ref, 300),
+                sampleCounts(new MutableQuadtreeGravityModelDistribution<>(bodies, 0.5, new Random(6)), ref, 300)
+        );
+    }
+
+    @Test
+    void testBodiesOnTheEdgeOfTheSquareCanBeRemovedAfterItGrows() {
+        Body2D<Integer> a = new Body2D<>(1, 0, 0, 0);
+        Body2D<Integer> b = new Body2D<>(1, 1, 1, 1);
+        MutableQuadtreeGravityModelDistribution<Integer> dist = new MutableQuadtreeGravityModelDistribution<>(
+                List.of(a, b), 0.5
+        );
+        // Grow the square in every direction, so that the original square's edges become the middle of larger ones
+        dist.addBody(new Body2D<>(1, 1000, 1000, 2));
+        dist.addBody(new Body2D<>(1, -1000, -1000, 3));
+        assertTrue(dist.removeBody(b));
+        assertTrue(dist.removeBody(a));
+        assertEquals(2, dist.size());
+    }
+
+    @Test
+    void testConvergesToMassProportionsForCoincidentBodies() {
+        Map<Integer, Double> percentages = performIterations(
+                List.of(
+                        new Body2D<>(100, 5, 5, 0),
+                        new Body2D<>(200, 5, 5, 1),
+                        new Body2D<>(0, 5, 5, 2),
+                        new Body2D<>(300, 5, 5, 3),
+                        new Body2D<>(400, -5, -5, 4)
+                ),
+                -5,
+                5
+        );
+        // Both locations are the same distance from the reference point
+        assertEquals(0.1, percentages.get(0), EPSILON);
+        assertEquals(0.2, percentages.get(1), EPSILON);
+        assertNull(percentages.get(2));
+        assertEquals(0.3, percentages.get(3), EPSILON);
+        assertEquals(0.4, percentages.get(4), EPSILON);
+    }
+
+    @Test
+    void testReadersOnlySeeBodiesThatWereAddedDuringConcurrentChanges() throws InterruptedException {
+        List<Body2D<Integer>> permanent = makeRandomBodies(500, 7);
+        MutableQuadtreeGravityModelDistribution<Integer> dist = new MutableQuadtreeGravityModelDistribution<>(
+                permanent, 0.5
+        );
+        // updateMass keeps the value, so the values identify every body that was ever added
+        Set<Integer> addedValues = ConcurrentHashMap.newKeySet();
+        permanent.forEach(b -> addedValues.add(b.value));
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread writer = new Thread(() -> {
+            Random rng = new Random(8);
+            List<Body2D<Integer>> churn = new ArrayList<>();
+            for (int i = 0; i < 20000; i++) {
+                if (churn.isEmpty() || rng.nextBoolean()) {
+                    Body2D<Integer> b = new Body2D<>(
+                            1 + rng.nextDouble(), rng.nextGaussian() * 300, rng.nextGaussian() * 300, 1000 + i
+                    );
+                    addedValues.add(b.value);
+                    dist.addBody(b);
+                    churn.add(b);
+                }
+                else if (rng.nextBoolean()) {
+                    assertTrue(dist.removeBody(churn.remove(churn.size() - 1)));
+                }
+                else {
+                    int j = rng.nextInt(churn.size());
+                    churn.set(j, dist.updateMass(churn.get(j), rng.nextDouble()));
+                }
+            }
+        });
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            readers.add(new Thread(() -> {
+                Body2D<Integer> ref = new Body2D<>(1, 10, 10, -1);
+                try {
+                    while (writer.isAlive()) {
+                        Body2D<Integer> chosen = dist.getRandomBody(ref);
+                        assertTrue(addedValues.contains(chosen.value), "Unknown body " + chosen);
+                    }
+                }
+                catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        writer.setUncaughtExceptionHandler((thread, e) -> failure.compareAndSet(null, e));
+        writer.start();
+        readers.forEach(Thread::start);
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure.get());
+        assertTrue(dist.size() >= permanent.size());
+    }
+
+    @Test
+    void testGetRandomBodyDoesNotAllocate() {
+        GravityModelDistribution<Integer, Body2D<Integer>> dist =
+                new MutableQuadtreeGravityModelDistribution<>(makeRandomBodies(10000, 9), 0.5);
+        Body2D<Integer> ref = new Body2D<>(1, 12.5, 4.25, -1);
+        Allocations.assertSteadyStateAllocationFree(() -> dist.getRandomBody(ref));
+    }
+
+    @Test
+    void testReportsEveryNodeWhenThetaIsZero() {
+        MutableQuadtreeGravityModelDistribution<Integer> dist =
+                new MutableQuadtreeGravityModelDistribution<>(makeRandomBodies(50, 9), 0.0, new Random(10));
+        dist.addBody(new Body2D<>(1, 1000, 1000, 50));
+        List<QueryStats> reported = new ArrayList<>();
+        dist.setQueryListener(stats -> {
+            // Every leaf is a candidate of the root, so one choice reaches a body
+            assertEquals(1, stats.getLevels());
+            assertEquals(51, stats.getMaxCandidates());
+            assertEquals(51, stats.getForceEvaluations());
+            assertEquals(dist.getNodeCount(), stats.getNodesVisited());
+            reported.add(stats);
+        });
+        Body2D<Integer> ref = new Body2D<>(1, 0.5, -0.5, -1);
+        for (int i = 0; i < 100; i++) {
+            dist.getRandomBody(ref);
+        }
+        assertEquals(100, reported.size());
+        dist.setQueryListener(null);
+        dist.getRandomBody(ref);
+        assertEquals(100, reported.size());
+    }
+}
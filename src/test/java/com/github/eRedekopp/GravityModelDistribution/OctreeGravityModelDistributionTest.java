@@ -0,0 +1,175 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ArgumentsSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.github.eRedekopp.GravityModelDistribution.Sampling.exactWeights;
+import static com.github.eRedekopp.GravityModelDistribution.Sampling.sampleCounts;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OctreeGravityModelDistributionTest {
+
+    private static List<Body3D<Integer>> makeRandomBodies(int n, long seed) {
+        Random rng = new Random(seed);
+        List<Body3D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            bodies.add(new Body3D<>(
+                    1 + rng.nextDouble() * 100,
+                    rng.nextGaussian() * 100,
+                    rng.nextGaussian() * 100,
+                    rng.nextGaussian() * 20,
+                    i
+            ));
+        }
+        return bodies;
+    }
+
+    @Test
+    void testConstructorThrowsForEmptyBodies() {
+        assertThrows(IllegalArgumentException.class, () -> new OctreeGravityModelDistribution<>(List.of(), 0.5));
+    }
+
+    @ParameterizedTest
+    @ArgumentsSource(InfiniteAndNaNAndNegativeDoubleArgsProvider.class)
+    void testConstructorThrowsForInvalidTheta(double theta) {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new OctreeGravityModelDistribution<>(List.of(new Body3D<>(10, 0, 0, 0, new Object())), theta)
+        );
+    }
+
+    @ParameterizedTest
+    @ArgumentsSource(InfiniteAndNaNDoubleArgsProvider.class)
+    void testConstructorThrowsForInvalidCoordinates(double z) {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new OctreeGravityModelDistribution<>(
+                        List.of(new Body3D<>(10, 0, 0, 0, 0), new Body3D<>(10, 1, 1, z, 1)), 0.5
+                )
+        );
+    }
+
+    @Test
+    void testHasOneNodePerBodyPlusParents() {
+        List<Body3D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            bodies.add(new Body3D<>(1, (i & 1) == 0 ? -1 : 1, (i & 2) == 0 ? -1 : 1, (i & 4) == 0 ? -1 : 1, i));
+        }
+        assertEquals(9, new OctreeGravityModelDistribution<>(bodies, 0.5).getNodeCount());
+    }
+
+    @Test
+    void testConvergesToExactProbabilitiesWithZeroTheta() {
+        List<Body3D<Integer>> bodies = makeRandomBodies(200, 1);
+        Body3D<Integer> ref = new Body3D<>(1, 30, -70, 5, -1);
+        ChiSquared.assertGoodnessOfFit(
+                exactWeights(bodies, ref),
+                sampleCounts(new OctreeGravityModelDistribution<>(bodies, 0.0, new Random(1)), ref, bodies.size())
+        );
+    }
+
+    @Test
+    void testReferenceOnOneOfTheBodiesIsNeverChosen() {
+        List<Body3D<Integer>> bodies = makeRandomBodies(100, 2);
+        Body3D<Integer> ref = bodies.get(42);
+        long[] counts = sampleCounts(new OctreeGravityModelDistribution<>(bodies, 0.0, new Random(2)), ref, bodies.size());
+        assertEquals(0, counts[42]);
+        ChiSquared.assertGoodnessOfFit(exactWeights(bodies, ref), counts);
+    }
+
+    /**
+     * With a non-zero theta the distribution is only approximate. When all the bodies are on the same plane the octree
+     * splits them the same way as a quadtree, so it should converge to the same approximation.
+     */
+    @Test
+    void testConvergesToSameDistributionAsQuadtreeForCoplanarBodies() {
+        Random rng = new Random(3);
+        List<Body3D<Integer>> bodies3D = new ArrayList<>();
+        List<Body2D<Integer>> bodies2D = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            double mass = 1 + rng.nextDouble() * 100;
+            double x = rng.nextGaussian() * 100;
+            double y = rng.nextGaussian() * 100;
+            bodies3D.add(new Body3D<>(mass, x, y, 0, i));
+            bodies2D.add(new Body2D<>(mass, x, y, i));
+        }
+        long[] octree = sampleCounts(
+                new OctreeGravityModelDistribution<>(bodies3D, 0.5, new Random(5)),
+                new Body3D<>(1, -250, 40, 0, -1),
+                bodies3D.size()
+        );
+        GravityModelDistribution<Integer, Body2D<Integer>> quadtree =
+                new QuadtreeGravityModelDistribution<>(bodies2D, 0.5, new Random(6));
+        Body2D<Integer> ref = new Body2D<>(1, -250, 40, -1);
+        long[] quadtreeCounts = new long[bodies2D.size()];
+        for (int i = 0; i < Sampling.NUM_ITERATIONS; i++) {
+            quadtreeCounts[quadtree.getRandomBody(ref).value]++;
+        }
+        ChiSquared.assertHomogeneous(quadtreeCounts, octree);
+    }
+
+    @Test
+    void testConvergesToMassProportionsForCoincidentBodies() {
+        List<Body3D<Integer>> bodies = List.of(
+                new Body3D<>(100, 5, 5, 5, 0),
+                new Body3D<>(200, 5, 5, 5, 1),
+                new Body3D<>(0, 5, 5, 5, 2),
+                new Body3D<>(300, 5, 5, 5, 3),
+                new Body3D<>(400, -5, -5, -5, 4)
+        );
+        // Both locations are the same distance from the reference point
+        Body3D<Integer> ref = new Body3D<>(1, 5, -5, 0, -1);
+        long[] counts = sampleCounts(new OctreeGravityModelDistribution<>(bodies, 0.0, new Random(4)), ref, 5);
+        assertEquals(0.1, counts[0] / (double) Sampling.NUM_ITERATIONS, 0.003);
+        assertEquals(0.2, counts[1] / (double) Sampling.NUM_ITERATIONS, 0.003);
+        assertEquals(0, counts[2]);
+        assertEquals(0.3, counts[3] / (double) Sampling.NUM_ITERATIONS, 0.003);
+        assertEquals(0.4, counts[4] / (double) Sampling.NUM_ITERATIONS, 0.003);
+    }
+
+    @Test
+    void testSingleBodyIsAlwaysChosen() {
+        Body3D<Integer> only = new Body3D<>(5, 1, 2, 3, 0);
+        OctreeGravityModelDistribution<Integer> dist = new OctreeGravityModelDistribution<>(List.of(only), 0.5);
+        assertSame(only, dist.getRandomBody(new Body3D<>(1, 0, 0, 0, -1)));
+    }
+
+    @Test
+    void testGetRandomBodyDoesNotAllocate() {
+        List<Body3D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            bodies.add(new Body3D<>(i % 7, i % 100, i / 100 % 10, i / 1000, i));
+        }
+        GravityModelDistribution<Integer, Body3D<Integer>> dist = new OctreeGravityModelDistribution<>(bodies, 0.5);
+        Body3D<Integer> ref = new Body3D<>(1, 12.5, 4.25, 3, -1);
+        Allocations.assertSteadyStateAllocationFree(() -> dist.getRandomBody(ref));
+    }
+
+    @Test
+    void testReportsEveryNodeWhenThetaIsZero() {
+        List<Body3D<Integer>> bodies = makeRandomBodies(50, 9);
+        OctreeGravityModelDistribution<Integer> dist = new OctreeGravityModelDistribution<>(bodies, 0.0, new Random(10));
+        List<QueryStats> reported = new ArrayList<>();
+        dist.setQueryListener(stats -> {
+            // Every leaf is a candidate of the root, so one choice reaches a body
+            assertEquals(1, stats.getLevels());
+            assertEquals(50, stats.getMaxCandidates());
+            assertEquals(50, stats.getForceEvaluations());
+            assertEquals(dist.getNodeCount(), stats.getNodesVisited());
+            reported.add(stats);
+        });
+        Body3D<Integer> ref = new Body3D<>(1, 0.5, -0.5, 0.25, -1);
+        for (int i = 0; i < 100; i++) {
+            dist.getRandomBody(ref);
+        }
+        assertEquals(100, reported.size());
+        dist.setQueryListener(null);
+        dist.getRandomBody(ref);
+        assertEquals(100, reported.size());
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGeneratorFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PerThreadRandomGeneratorTest {
+
+    private static RandomGenerator currentOnNewThread(PerThreadRandomGenerator rng) throws InterruptedException {
+        AtomicReference<RandomGenerator> out = new AtomicReference<>();
+        Thread thread = new Thread(() -> out.set(rng.current()));
+        thread.start();
+        thread.join();
+        return out.get();
+    }
+
+    @Test
+    void testSameThreadAlwaysGetsSameGenerator() {
+        PerThreadRandomGenerator rng = new PerThreadRandomGenerator();
+        assertSame(rng.current(), rng.current());
+    }
+
+    @Test
+    void testEachThreadGetsItsOwnGenerator() throws InterruptedException {
+        PerThreadRandomGenerator rng = new PerThreadRandomGenerator();
+        RandomGenerator mine = rng.current();
+        RandomGenerator other = currentOnNewThread(rng);
+        assertNotNull(other);
+        assertNotSame(mine, other);
+        assertNotSame(other, currentOnNewThread(rng));
+    }
+
+    @Test
+    void testDrawsFromTheCurrentThreadsGenerator() {
+        PerThreadRandomGenerator rng = new PerThreadRandomGenerator(
+                () -> RandomGeneratorFactory.of("L64X128MixRandom").create(1)
+        );
+        RandomGenerator expected = RandomGeneratorFactory.of("L64X128MixRandom").create(1);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(expected.nextDouble(), rng.nextDouble());
+            assertEquals(expected.nextInt(10), rng.nextInt(10));
+            assertEquals(expected.nextLong(), rng.nextLong());
+        }
+    }
+
+    @Test
+    void testSplitGeneratorsAreReproducible() throws InterruptedException {
+        PerThreadRandomGenerator first = new PerThreadRandomGenerator(
+                RandomGeneratorFactory.<RandomGenerator.SplittableGenerator>of("L64X128MixRandom").create(2)
+        );
+        PerThreadRandomGenerator second = new PerThreadRandomGenerator(
+                RandomGeneratorFactory.<RandomGenerator.SplittableGenerator>of("L64X128MixRandom").create(2)
+        );
+        // Threads that first use them in the same order get the same generators
+        assertEquals(first.nextLong(), second.nextLong());
+        assertEquals(currentOnNewThread(first).nextLong(), currentOnNewThread(second).nextLong());
+    }
+
+    @Test
+    void testConstructorsThrowForNullArguments() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new PerThreadRandomGenerator((RandomGenerator.SplittableGenerator) null)
+        );
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new PerThreadRandomGenerator((Supplier<RandomGenerator>) null)
+        );
+    }
+}
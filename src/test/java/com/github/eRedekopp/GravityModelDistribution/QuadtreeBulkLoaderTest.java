@@ -0,0 +1,207 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ArgumentsSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QuadtreeBulkLoaderTest {
+
+    private static List<Body2D<Integer>> makeBodies(int n, long seed) {
+        Random positions = new Random(seed);
+        List<Body2D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            // Some bodies share a location, so some leaves hold more than one body
+            double x = i % 10 == 0 ? 1 : positions.nextGaussian();
+            double y = i % 10 == 0 ? 1 : positions.nextGaussian();
+            bodies.add(new Body2D<>(positions.nextDouble(), x, y, i));
+        }
+        return bodies;
+    }
+
+    private static QuadtreeBulkLoader load(List<Body2D<Integer>> bodies) {
+        QuadtreeBulkLoader loader = new QuadtreeBulkLoader();
+        for (Body2D<Integer> body : bodies) {
+            loader.accept(body.x, body.y, body.mass, body.value);
+        }
+        return loader;
+    }
+
+    private static ReadableByteChannel channel(byte[] bytes) {
+        return Channels.newChannel(new ByteArrayInputStream(bytes));
+    }
+
+    private static void assertDrawsSameBodies(
+            FlatQuadtreeGravityModelDistribution<Integer> expected,
+            MappedQuadtreeGravityModelDistribution<Integer> actual
+    ) {
+        Random refs = new Random(3);
+        for (int i = 0; i < 5000; i++) {
+            Body2D<Integer> ref = new Body2D<>(1, refs.nextGaussian(), refs.nextGaussian(), null);
+            Body2D<Integer> e = expected.getRandomBody(ref);
+            Body2D<Integer> a = actual.getRandomBody(ref);
+            assertEquals(e.value, a.value);
+            assertEquals(e.mass, a.mass);
+            assertEquals(e.x, a.x);
+            assertEquals(e.y, a.y);
+        }
+    }
+
+    @Test
+    void testBuildDrawsSameBodiesAsFlatQuadtree() {
+        List<Body2D<Integer>> bodies = makeBodies(3000, 1);
+        MappedQuadtreeGravityModelDistribution<Integer> loaded = load(bodies).build(i -> i, 0.7, new Random(2));
+        assertEquals(3000, loaded.size());
+        assertDrawsSameBodies(new FlatQuadtreeGravityModelDistribution<>(bodies, 0.7, new Random(2)), loaded);
+    }
+
+    @Test
+    void testWriteSnapshotDrawsSameBodiesAsFlatQuadtree() throws IOException {
+        List<Body2D<Integer>> bodies = makeBodies(3000, 4);
+        Path path = Files.createTempFile("quadtree", ".bin");
+        path.toFile().deleteOnExit();
+        load(bodies).writeSnapshot(path);
+        MappedQuadtreeGravityModelDistribution<Integer> mapped =
+                new MappedQuadtreeGravityModelDistribution<>(path, i -> i, 0.7, new Random(2));
+        assertEquals(3000, mapped.size());
+        assertDrawsSameBodies(new FlatQuadtreeGravityModelDistribution<>(bodies, 0.7, new Random(2)), mapped);
+    }
+
+    @Test
+    void testReadBinary() throws IOException {
+        // Enough bodies to span several chunks, and to end partway through one
+        List<Body2D<Integer>> bodies = makeBodies(5000, 5);
+        ByteBuffer buf = ByteBuffer.allocate(bodies.size() * QuadtreeBulkLoader.BINARY_RECORD_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for (Body2D<Integer> body : bodies) {
+            buf.putDouble(body.x).putDouble(body.y).putDouble(body.mass).putInt(body.value);
+        }
+        QuadtreeBulkLoader loader = new QuadtreeBulkLoader();
+        loader.readBinary(channel(buf.array()));
+        assertEquals(5000, loader.size());
+        assertDrawsSameBodies(
+                new FlatQuadtreeGravityModelDistribution<>(bodies, 0.7, new Random(2)),
+                loader.build(i -> i, 0.7, new Random(2))
+        );
+    }
+
+    @Test
+    void testReadBinaryThrowsForPartialRecord() {
+        byte[] bytes = new byte[2 * QuadtreeBulkLoader.BINARY_RECORD_BYTES - 1];
+        assertThrows(IOException.class, () -> new QuadtreeBulkLoader().readBinary(channel(bytes)));
+    }
+
+    @Test
+    void testReadCsv() throws IOException {
+        List<Body2D<Integer>> bodies = makeBodies(5000, 6);
+        StringBuilder csv = new StringBuilder("x,y,mass,id\r\n");
+        for (Body2D<Integer> body : bodies) {
+            csv.append(body.x).append(',').append(body.y).append(',').append(body.mass).append(',').append(body.value);
+            // Windows line endings and blank lines are allowed, and the last line needn't end with a newline
+            if (body.value % 100 == 0) csv.append("\r\n\n");
+            else if (body.value != bodies.size() - 1) csv.append('\n');
+        }
+        QuadtreeBulkLoader loader = new QuadtreeBulkLoader(bodies.size());
+        loader.readCsv(channel(csv.toString().getBytes(StandardCharsets.US_ASCII)), true);
+        assertEquals(5000, loader.size());
+        assertDrawsSameBodies(
+                new FlatQuadtreeGravityModelDistribution<>(bodies, 0.7, new Random(2)),
+                loader.build(i -> i, 0.7, new Random(2))
+        );
+    }
+
+    @Test
+    void testReadCsvThrowsForMalformedLine() {
+        byte[] tooFewFields = "1,2,3,4\n1,2,3\n".getBytes(StandardCharsets.US_ASCII);
+        IOException e = assertThrows(
+                IOException.class,
+                () -> new QuadtreeBulkLoader().readCsv(channel(tooFewFields), false)
+        );
+        assertTrue(e.getMessage().contains("line 2"));
+        byte[] notANumber = "x,y,mass,id\n1,2,3,4\n1,two,3,4".getBytes(StandardCharsets.US_ASCII);
+        e = assertThrows(IOException.class, () -> new QuadtreeBulkLoader().readCsv(channel(notANumber), true));
+        assertTrue(e.getMessage().contains("line 3"));
+    }
+
+    @ParameterizedTest
+    @ArgumentsSource(InfiniteAndNaNAndNegativeDoubleArgsProvider.class)
+    void testBuildThrowsForInvalidMass(double mass) {
+        QuadtreeBulkLoader loader = new QuadtreeBulkLoader();
+        loader.accept(0, 0, 1, 0);
+        loader.accept(1, 1, mass, 1);
+        assertThrows(IllegalArgumentException.class, () -> loader.build(i -> i, 0.5));
+    }
+
+    @ParameterizedTest
+    @ArgumentsSource(InfiniteAndNaNDoubleArgsProvider.class)
+    void testBuildThrowsForInvalidLocation(double coord) {
+        QuadtreeBulkLoader xLoader = new QuadtreeBulkLoader();
+        xLoader.accept(coord, 0, 1, 0);
+        assertThrows(IllegalArgumentException.class, () -> xLoader.build(i -> i, 0.5));
+        QuadtreeBulkLoader yLoader = new QuadtreeBulkLoader();
+        yLoader.accept(0, coord, 1, 0);
+        assertThrows(IllegalArgumentException.class, () -> yLoader.build(i -> i, 0.5));
+    }
+
+    @ParameterizedTest
+    @ArgumentsSource(InfiniteAndNaNAndNegativeDoubleArgsProvider.class)
+    void testBuildThrowsForInvalidTheta(double theta) {
+        QuadtreeBulkLoader loader = new QuadtreeBulkLoader();
+        loader.accept(0, 0, 1, 0);
+        assertThrows(IllegalArgumentException.class, () -> loader.build(i -> i, theta));
+    }
+
+    @Test
+    void testBuildThrowsForNoBodies() {
+        assertThrows(IllegalArgumentException.class, () -> new QuadtreeBulkLoader().build(i -> i, 0.5));
+    }
+
+    @Test
+    void testLoaderCannotBeUsedAfterBuilding() {
+        QuadtreeBulkLoader loader = new QuadtreeBulkLoader();
+        loader.accept(0, 0, 1, 0);
+        loader.build(i -> i, 0.5);
+        assertThrows(IllegalStateException.class, () -> loader.accept(1, 1, 1, 1));
+        assertThrows(IllegalStateException.class, () -> loader.build(i -> i, 0.5));
+    }
+
+    @Test
+    void testProgressIsReported() {
+        List<QuadtreeBulkLoader.Stage> stages = new ArrayList<>();
+        List<Long> counts = new ArrayList<>();
+        QuadtreeBulkLoader loader = new QuadtreeBulkLoader().setProgressListener((stage, bodies) -> {
+            stages.add(stage);
+            counts.add(bodies);
+        });
+        int n = QuadtreeBulkLoader.PROGRESS_INTERVAL + 10;
+        for (int i = 0; i < n; i++) {
+            loader.accept(i % 1000, i / 1000, 1, i);
+        }
+        loader.build(i -> i, 0.5);
+        assertEquals(
+                List.of(
+                        QuadtreeBulkLoader.Stage.READING,
+                        QuadtreeBulkLoader.Stage.VALIDATING,
+                        QuadtreeBulkLoader.Stage.VALIDATING,
+                        QuadtreeBulkLoader.Stage.BUILDING
+                ),
+                stages
+        );
+        long interval = QuadtreeBulkLoader.PROGRESS_INTERVAL;
+        assertEquals(List.of(interval, interval, (long) n, (long) n), counts);
+    }
+}
@@ -4,9 +4,12 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ArgumentsSource;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
-import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class QuadtreeGravityModelDistributionTest extends Shared2DGravityModelDistributionTests {
     @Override
@@ -32,4 +35,121 @@ public class QuadtreeGravityModelDistributionTest extends Shared2DGravityModelDi
     void testConstructorThrowsForInvalidTheta(double theta) {
         doTestForConstructorArgs(List.of(new Body2D<>(10, 0, 0, new Object())), theta);
     }
+
+    @Test
+    void testBodiesOnEdgeOfBoundingBoxAreInsideTheTree() {
+        // A root square fitted exactly to these bodies loses (0.1, 0.1) to rounding once it is split into quadrants
+        List<Body2D<Integer>> bodies = List.of(
+                new Body2D<>(1, 0.1, 0.1, 0),
+                new Body2D<>(1, 0.3, 0.7, 1),
+                new Body2D<>(1, 0.7, 0.3, 2)
+        );
+        GravityModelDistribution<Integer, Body2D<Integer>> dist = new QuadtreeGravityModelDistribution<>(bodies, 0.0);
+        Body2D<Integer> ref = new Body2D<>(1, 0.5, 0.5, -1);
+        for (int i = 0; i < 100; i++) {
+            dist.getRandomBody(ref);
+        }
+    }
+
+    @Test
+    void testGetRandomBodyDoesNotAllocate() {
+        List<Body2D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            bodies.add(new Body2D<>(i % 7, i % 100, i / 100, i));
+        }
+        GravityModelDistribution<Integer, Body2D<Integer>> dist = new QuadtreeGravityModelDistribution<>(bodies, 0.5);
+        Body2D<Integer> ref = new Body2D<>(1, 12.5, 40.25, -1);
+        Allocations.assertSteadyStateAllocationFree(() -> dist.getRandomBody(ref));
+    }
+
+    /**
+     * @return Clustered bodies, some of which are so close together that they are below the levels of the Morton keys
+     */
+    private static List<Body2D<Integer>> makeClusteredBodies(int n) {
+        Random positions = new Random(7);
+        List<Body2D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            double x, y;
+            if (i % 100 == 0) {
+                x = 1 + i * 1e-13;
+                y = 2 - i * 1e-13;
+            }
+            else {
+                int cluster = positions.nextInt(10);
+                x = 1000 * cluster + positions.nextGaussian();
+                y = -500 * cluster + positions.nextGaussian() * 10;
+            }
+            bodies.add(new Body2D<>(positions.nextDouble(), x, y, i));
+        }
+        return bodies;
+    }
+
+    private static void assertSameTree(Node<Integer> expected, Node<Integer> actual) {
+        assertEquals(expected.children.keySet(), actual.children.keySet());
+        if (expected.isLeafNode()) {
+            assertSame(expected.getCentreMass(), actual.getCentreMass());
+            return;
+        }
+        Body2D<Integer> e = expected.getCentreMass();
+        Body2D<Integer> a = actual.getCentreMass();
+        assertEquals(e.mass, a.mass, 1e-9 * e.mass);
+        assertEquals(e.x, a.x, 1e-9 * (1 + Math.abs(e.x)));
+        assertEquals(e.y, a.y, 1e-9 * (1 + Math.abs(e.y)));
+        assertNull(a.value);
+        for (Quadrant quadrant : expected.children.keySet()) {
+            assertSameTree(expected.children.get(quadrant), actual.children.get(quadrant));
+        }
+    }
+
+    @Test
+    void testBulkBuildMakesSameTreeAsInsertion() {
+        List<Body2D<Integer>> bodies = makeClusteredBodies(50000);
+        Square bounds = QuadtreeGravityModelDistribution.getBoundingSquare(bodies);
+        Node<Integer> inserted = new Node<>(bodies.get(0), bounds);
+        for (Body2D<Integer> b : bodies.subList(1, bodies.size())) {
+            inserted.insert(b);
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (ExecutionPolicy policy : List.of(ExecutionPolicy.sequential(), ExecutionPolicy.pool(pool, 1))) {
+                Node<Integer> built = new MortonQuadtreeBuilder<>(bodies, bounds, new Random(), policy).build();
+                assertSameTree(inserted, built);
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testParallelBuildDrawsSameBodiesAsSequentialBuild() {
+        List<Body2D<Integer>> bodies = makeClusteredBodies(50000);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            QuadtreeGravityModelDistribution<Integer> sequential = new QuadtreeGravityModelDistribution<>(
+                    bodies, 0.5, new Random(1), QuadtreeSamplingMode.FRONTIER, ExecutionPolicy.sequential()
+            );
+            QuadtreeGravityModelDistribution<Integer> parallel = new QuadtreeGravityModelDistribution<>(
+                    bodies, 0.5, new Random(1), QuadtreeSamplingMode.FRONTIER, ExecutionPolicy.pool(pool, 1)
+            );
+            Random refs = new Random(2);
+            for (int i = 0; i < 5000; i++) {
+                Body2D<Integer> ref = new Body2D<>(1, 9000 * refs.nextDouble(), -4500 * refs.nextDouble(), null);
+                assertSame(sequential.getRandomBody(ref), parallel.getRandomBody(ref));
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testConstructorThrowsForNullPolicy() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new QuadtreeGravityModelDistribution<>(
+                        List.of(new Body2D<>(1, 0, 0, 0)), 0.5, new Random(), QuadtreeSamplingMode.FRONTIER, null
+                )
+        );
+    }
 }
@@ -0,0 +1,63 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Draws samples from an engine and computes the exact probabilities to compare them with using ChiSquared. Each body's
+ * value is its index in the arrays, so the bodies' values must be distinct integers from 0 up to the array length.
+ */
+class Sampling {
+
+    /**
+     * The number of bodies drawn by sampleCounts
+     */
+    static final int NUM_ITERATIONS = (int) 1E6;
+
+    private Sampling() {}
+
+    /**
+     * @return n bodies with masses between 1 and 101 and normally distributed coordinates, whose values are their
+     *         indices
+     */
+    static List<Body2D<Integer>> makeRandomBodies(int n, long seed) {
+        Random rng = new Random(seed);
+        List<Body2D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            bodies.add(new Body2D<>(1 + rng.nextDouble() * 100, rng.nextGaussian() * 100, rng.nextGaussian() * 100, i));
+        }
+        return bodies;
+    }
+
+    /**
+     * @return The number of times that each body was drawn by NUM_ITERATIONS calls to getRandomBody(ref), indexed by
+     *         the bodies' values
+     */
+    static <B extends Body<Integer>> long[] sampleCounts(GravityModelDistribution<Integer, B> dist, B ref, int n) {
+        long[] counts = new long[n];
+        for (int i = 0; i < NUM_ITERATIONS; i++) {
+            counts[dist.getRandomBody(ref).value]++;
+        }
+        return counts;
+    }
+
+    /**
+     * @return The force between each body and the reference point, indexed by the bodies' values, and 0 for any value
+     *         that isn't in `bodies`
+     */
+    static <B extends Body<Integer>> double[] exactWeights(List<B> bodies, B ref, int n) {
+        double[] weights = new double[n];
+        for (B b : bodies) {
+            weights[b.value] = b.computeGravForce(ref);
+        }
+        return weights;
+    }
+
+    /**
+     * @return The force between each body and the reference point, for bodies whose values are 0 to bodies.size() - 1
+     */
+    static <B extends Body<Integer>> double[] exactWeights(List<B> bodies, B ref) {
+        return exactWeights(bodies, ref, bodies.size());
+    }
+}
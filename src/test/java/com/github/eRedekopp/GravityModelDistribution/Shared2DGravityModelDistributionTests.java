@@ -4,6 +4,8 @@ import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 
 import java.util.*;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGeneratorFactory;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -108,6 +110,73 @@ public abstract class Shared2DGravityModelDistributionTests {
         }
     }
 
+    @Test
+    void testGetRandomBodiesConvergesToGravityWeights() {
+        List<Body2D<Integer>> bodies = List.of(
+                new Body2D<>(0, -10, 10, 0),
+                new Body2D<>(100, 10, -10, 1),
+                new Body2D<>(200, 10, 10, 2),
+                new Body2D<>(300, -10, -10, 3)
+        );
+        GravityModelDistribution<Integer, Body2D<Integer>> dist = this.makeDistribution(bodies);
+        double[] counts = new double[bodies.size()];
+        for (Body2D<Integer> b : dist.getRandomBodies(new Body2D<>(1, 0, 0, -1), NUM_ITERATIONS)) {
+            counts[b.value]++;
+        }
+        double[] expected = {0, 1.0 / 6, 1.0 / 3, 1.0 / 2};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], counts[i] / NUM_ITERATIONS, EPSILON);
+        }
+    }
+
+    @Test
+    void testGetRandomBodiesReturnsRequestedNumberOfBodies() {
+        GravityModelDistribution<Integer, Body2D<Integer>> dist = this.makeDistribution(
+                List.of(new Body2D<>(10, 0, 0, 0), new Body2D<>(10, 5, 5, 1))
+        );
+        Body2D<Integer> ref = new Body2D<>(1, 1, 1, -1);
+        assertEquals(0, dist.getRandomBodies(ref, 0).size());
+        assertEquals(100, dist.getRandomBodies(ref, 100).size());
+        assertThrows(IllegalArgumentException.class, () -> dist.getRandomBodies(ref, -1));
+    }
+
+    @Test
+    void testGetRandomBodyWithGivenGeneratorConvergesToGravityWeights() {
+        List<Body2D<Integer>> bodies = List.of(
+                new Body2D<>(0, -10, 10, 0),
+                new Body2D<>(100, 10, -10, 1),
+                new Body2D<>(200, 10, 10, 2),
+                new Body2D<>(300, -10, -10, 3)
+        );
+        GravityModelDistribution<Integer, Body2D<Integer>> dist = this.makeDistribution(bodies);
+        RandomGenerator rng = RandomGenerator.of("L64X128MixRandom");
+        Body2D<Integer> ref = new Body2D<>(1, 0, 0, -1);
+        double[] counts = new double[bodies.size()];
+        for (int i = 0; i < NUM_ITERATIONS; i++) {
+            counts[dist.getRandomBody(ref, rng).value]++;
+        }
+        double[] expected = {0, 1.0 / 6, 1.0 / 3, 1.0 / 2};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], counts[i] / NUM_ITERATIONS, EPSILON);
+        }
+    }
+
+    @Test
+    void testGetRandomBodyWithSameSeedGivesSameBodies() {
+        Random positions = new Random(1);
+        List<Body2D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            bodies.add(new Body2D<>(1 + positions.nextDouble(), positions.nextGaussian(), positions.nextGaussian(), i));
+        }
+        GravityModelDistribution<Integer, Body2D<Integer>> dist = this.makeDistribution(bodies);
+        Body2D<Integer> ref = new Body2D<>(1, 0.5, -0.25, -1);
+        RandomGenerator first = RandomGeneratorFactory.of("L64X128MixRandom").create(2);
+        RandomGenerator second = RandomGeneratorFactory.of("L64X128MixRandom").create(2);
+        for (int i = 0; i < 1000; i++) {
+            assertSame(dist.getRandomBody(ref, first), dist.getRandomBody(ref, second));
+        }
+    }
+
     @Nested
     class TestMoreComplexTree {
 
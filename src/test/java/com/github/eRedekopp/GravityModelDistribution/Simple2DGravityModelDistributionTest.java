@@ -0,0 +1,10 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import java.util.List;
+
+public class Simple2DGravityModelDistributionTest extends Shared2DGravityModelDistributionTests {
+    @Override
+    protected <T> GravityModelDistribution<T, Body2D<T>> makeDistribution(List<Body2D<T>> bodies) {
+        return new Simple2DGravityModelDistribution<>(bodies);
+    }
+}
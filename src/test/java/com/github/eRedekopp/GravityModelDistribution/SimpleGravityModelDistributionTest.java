@@ -1,9 +1,18 @@
 package com.github.eRedekopp.GravityModelDistribution;
 
 import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
 
-import static org.junit.jupiter.api.Assertions.assertThrows;
+import static com.github.eRedekopp.GravityModelDistribution.Sampling.exactWeights;
+import static com.github.eRedekopp.GravityModelDistribution.Sampling.makeRandomBodies;
+import static com.github.eRedekopp.GravityModelDistribution.Sampling.sampleCounts;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 public class SimpleGravityModelDistributionTest extends Shared2DGravityModelDistributionTests {
     @Override
@@ -18,4 +27,356 @@ public class SimpleGravityModelDistributionTest extends Shared2DGravityModelDist
                 () -> new SimpleGravityModelDistribution<>(List.of())
         );
     }
+
+    @Test
+    void testGetRandomBodyDoesNotAllocate() {
+        List<Body2D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            bodies.add(new Body2D<>(i % 7, i % 100, i / 100, i));
+        }
+        GravityModelDistribution<Integer, Body2D<Integer>> dist = new Simple2DGravityModelDistribution<>(bodies);
+        Body2D<Integer> ref = new Body2D<>(1, 12.5, 40.25, -1);
+        Allocations.assertSteadyStateAllocationFree(() -> dist.getRandomBody(ref));
+    }
+
+    @Test
+    void testDistributionsWithMoreBlocksShareThreadScratch() {
+        // The smaller distribution is sampled first, so the larger one has to grow the thread's buffers
+        List<Body2D<Integer>> small = makeRandomBodies(10, 1);
+        List<Body2D<Integer>> large = makeRandomBodies(10000, 2);
+        Body2D<Integer> ref = new Body2D<>(1, 30, -70, -1);
+        GravityModelDistribution<Integer, Body2D<Integer>> smallDist = new SimpleGravityModelDistribution<>(small);
+        GravityModelDistribution<Integer, Body2D<Integer>> largeDist = new SimpleGravityModelDistribution<>(large);
+        ChiSquared.assertGoodnessOfFit(exactWeights(small, ref), sampleCounts(smallDist, ref, small.size()));
+        ChiSquared.assertGoodnessOfFit(exactWeights(large, ref), sampleCounts(largeDist, ref, large.size()));
+        ChiSquared.assertGoodnessOfFit(exactWeights(small, ref), sampleCounts(smallDist, ref, small.size()));
+    }
+
+    /**
+     * Check that getRandomBodies gives exactly the same bodies as calling getRandomBody for each reference in order
+     * on a distribution with an RNG with the same seed
+     */
+    private static <T, B extends Body<T>> void assertBatchMatchesLoop(
+            List<B> bodies, List<B> refs, BiFunction<List<B>, Random, GravityModelDistribution<T, B>> makeDist
+    ) {
+        GravityModelDistribution<T, B> batchDist = makeDist.apply(bodies, new Random(123));
+        GravityModelDistribution<T, B> loopDist = makeDist.apply(bodies, new Random(123));
+        List<B> batch = batchDist.getRandomBodies(refs);
+        assertEquals(refs.size(), batch.size());
+        for (int i = 0; i < refs.size(); i++) {
+            assertSame(loopDist.getRandomBody(refs.get(i)), batch.get(i));
+        }
+    }
+
+    @Test
+    void testGetRandomBodiesForManyRefsMatchesGetRandomBody2D() {
+        Random rng = new Random(1);
+        List<Body2D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            bodies.add(new Body2D<>(rng.nextDouble() * 100, rng.nextGaussian() * 100, rng.nextGaussian() * 100, i));
+        }
+        List<Body2D<Integer>> refs = new ArrayList<>(bodies.subList(0, 300));
+        assertBatchMatchesLoop(bodies, refs, Simple2DGravityModelDistribution::new);
+        assertBatchMatchesLoop(bodies.subList(0, 500), refs, SimpleGravityModelDistribution::new);
+    }
+
+    @Test
+    void testGetRandomBodiesForManyRefsMatchesGetRandomBody3D() {
+        Random rng = new Random(2);
+        List<Body3D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            bodies.add(new Body3D<>(
+                    rng.nextDouble() * 100, rng.nextGaussian() * 100, rng.nextGaussian() * 100, rng.nextDouble(), i
+            ));
+        }
+        assertBatchMatchesLoop(bodies, bodies.subList(100, 400), Simple3DGravityModelDistribution::new);
+    }
+
+    @Test
+    void testGetRandomBodiesForManyRefsMatchesGetRandomBodyGIS() {
+        Random rng = new Random(3);
+        List<GISBody<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            bodies.add(new GISBody<>(rng.nextDouble() * 100, rng.nextDouble() * 20 + 40, rng.nextDouble() * 30, i));
+        }
+        assertBatchMatchesLoop(bodies, bodies.subList(0, 250), SimpleGISGravityModelDistribution::new);
+    }
+
+    @Test
+    void testReportsForcesComputedToListener() {
+        List<Body2D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            bodies.add(new Body2D<>(1, i % 100, i / 100, i));
+        }
+        GravityModelDistribution<Integer, Body2D<Integer>> dist = new Simple2DGravityModelDistribution<>(bodies);
+        List<String> reports = new ArrayList<>();
+        dist.setQueryListener(stats -> reports.add(
+                stats.getForceEvaluations() + " " + stats.getCandidates() + " " + stats.getLevels()
+        ));
+        // The bodies are split into blocks of 4096, 4096 and 1808, and the forces of the chosen block are recomputed
+        Body2D<Integer> chosen = dist.getRandomBody(new Body2D<>(1, 99.5, 99.5, -1));
+        int blockSize = chosen.value < 8192 ? 4096 : 1808;
+        assertEquals(List.of((10000 + blockSize) + " " + (3 + blockSize) + " 2"), reports);
+
+        dist.setQueryListener(null);
+        dist.getRandomBody(new Body2D<>(1, 0.5, 0.5, -1));
+        assertEquals(1, reports.size());
+    }
+
+    @Test
+    void testDedicatedPoolGivesSameBodiesAsSequential() {
+        Random rng = new Random(4);
+        List<Body2D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 30000; i++) {
+            bodies.add(new Body2D<>(rng.nextDouble() * 100, rng.nextGaussian() * 100, rng.nextGaussian() * 100, i));
+        }
+        List<Body2D<Integer>> refs = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            refs.add(new Body2D<>(1, rng.nextGaussian() * 100, rng.nextGaussian() * 100, -1));
+        }
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            Simple2DGravityModelDistribution<Integer> parallel = new Simple2DGravityModelDistribution<>(
+                    bodies, new Random(5), ExecutionPolicy.pool(pool, 1)
+            );
+            Simple2DGravityModelDistribution<Integer> sequential = new Simple2DGravityModelDistribution<>(
+                    bodies, new Random(5), ExecutionPolicy.sequential()
+            );
+            assertEquals(Integer.MAX_VALUE, sequential.getParallelThreshold());
+            for (Body2D<Integer> ref : refs) {
+                assertSame(sequential.getRandomBody(ref), parallel.getRandomBody(ref));
+            }
+            List<Body2D<Integer>> batch = parallel.getRandomBodies(refs);
+            for (int i = 0; i < refs.size(); i++) {
+                assertSame(sequential.getRandomBody(refs.get(i)), batch.get(i));
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testSmallDistributionsAreNeverSplit() {
+        List<Body2D<Integer>> bodies = List.of(new Body2D<>(1, 0, 0, 0), new Body2D<>(1, 1, 1, 1));
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            for (ExecutionPolicy policy : List.of(ExecutionPolicy.pool(pool, 1), ExecutionPolicy.adaptive(pool))) {
+                Simple2DGravityModelDistribution<Integer> dist = new Simple2DGravityModelDistribution<>(
+                        bodies, new Random(), policy
+                );
+                assertTrue(dist.getParallelThreshold() > bodies.size());
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testGetRandomBodiesForManyRefsThrowsForZeroMassRef() {
+        SimpleGravityModelDistribution<Integer, Body2D<Integer>> dist = new SimpleGravityModelDistribution<>(
+                List.of(new Body2D<>(1, 0, 0, 0))
+        );
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> dist.getRandomBodies(List.of(new Body2D<>(1, 1, 1, null), new Body2D<>(0, 1, 1, null)))
+        );
+    }
+
+    /**
+     * Check that a distribution using the Vector API gives exactly the same bodies as one using the scalar kernel,
+     * given RNGs with the same seed
+     */
+    private static <T, B extends Body<T>> void assertVectorMatchesScalar(
+            List<B> bodies, List<B> refs, VectorDistributionFactory<T, B> makeDist
+    ) {
+        assumeTrue(SimpleGravityModelDistribution.isVectorApiAvailable(), "Vector API not available");
+        GravityModelDistribution<T, B> vector = makeDist.make(bodies, new Random(99), true);
+        GravityModelDistribution<T, B> scalar = makeDist.make(bodies, new Random(99), false);
+        for (int i = 0; i < 20; i++) {
+            for (B ref : refs) {
+                assertSame(scalar.getRandomBody(ref), vector.getRandomBody(ref));
+            }
+        }
+    }
+
+    private interface VectorDistributionFactory<T, B extends Body<T>> {
+        GravityModelDistribution<T, B> make(List<B> bodies, Random rng, boolean useVectorApi);
+    }
+
+    @Test
+    void testVectorApiMatchesScalar2D() {
+        Random rng = new Random(4);
+        List<Body2D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 20001; i++) {
+            bodies.add(new Body2D<>(rng.nextDouble() * 100, rng.nextGaussian() * 100, rng.nextGaussian() * 100, i));
+        }
+        assertVectorMatchesScalar(bodies, bodies.subList(0, 50), Simple2DGravityModelDistribution::new);
+        assertVectorMatchesScalar(bodies.subList(0, 101), bodies.subList(0, 50), Simple2DGravityModelDistribution::new);
+    }
+
+    @Test
+    void testVectorApiMatchesScalar3D() {
+        Random rng = new Random(5);
+        List<Body3D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 5003; i++) {
+            bodies.add(new Body3D<>(
+                    rng.nextDouble() * 100, rng.nextGaussian() * 100, rng.nextGaussian() * 100, rng.nextDouble(), i
+            ));
+        }
+        assertVectorMatchesScalar(bodies, bodies.subList(0, 50), Simple3DGravityModelDistribution::new);
+    }
+
+    /**
+     * The vector GIS kernel can differ from the scalar one in the last bits, so check that the sampled frequencies
+     * converge to the exact probabilities instead
+     */
+    @Test
+    void testVectorApiConvergesToExactProbabilitiesGIS() {
+        assumeTrue(SimpleGravityModelDistribution.isVectorApiAvailable(), "Vector API not available");
+        Random rng = new Random(6);
+        List<GISBody<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 37; i++) {
+            bodies.add(new GISBody<>(rng.nextDouble() * 100, rng.nextDouble() * 20 + 40, rng.nextDouble() * 30, i));
+        }
+        GISBody<Integer> ref = new GISBody<>(1, 50, 15, null);
+        double[] expected = new double[bodies.size()];
+        double sum = 0;
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = bodies.get(i).computeGravForce(ref);
+            sum += expected[i];
+        }
+        GravityModelDistribution<Integer, GISBody<Integer>> dist =
+                new SimpleGISGravityModelDistribution<>(bodies, new Random(7), true);
+        int numIterations = (int) 1E6;
+        double[] counts = new double[bodies.size()];
+        for (int i = 0; i < numIterations; i++) {
+            counts[dist.getRandomBody(ref).value]++;
+        }
+        for (int i = 0; i < counts.length; i++) {
+            assertEquals(expected[i] / sum, counts[i] / numIterations, 0.003);
+        }
+    }
+
+    @Test
+    void testECEFConvergesToExactProbabilitiesGIS() {
+        Random rng = new Random(8);
+        List<GISBody<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            bodies.add(new GISBody<>(rng.nextDouble() * 100, rng.nextDouble() * 20 + 40, rng.nextDouble() * 30, i));
+        }
+        GISBody<Integer> ref = bodies.get(3);
+        double[] expected = new double[bodies.size()];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = bodies.get(i).computeGravForce(ref);
+        }
+        GravityModelDistribution<Integer, GISBody<Integer>> dist =
+                new ECEFGISGravityModelDistribution<>(bodies, new Random(9));
+        long[] counts = new long[bodies.size()];
+        for (int i = 0; i < (int) 1E6; i++) {
+            counts[dist.getRandomBody(ref).value]++;
+        }
+        assertEquals(0, counts[3]);
+        ChiSquared.assertGoodnessOfFit(expected, counts);
+    }
+
+    @Test
+    void testECEFGetRandomBodyDoesNotAllocate() {
+        Random rng = new Random(10);
+        List<GISBody<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            bodies.add(new GISBody<>(rng.nextDouble() * 100, rng.nextDouble() * 20 + 40, rng.nextDouble() * 30, i));
+        }
+        GravityModelDistribution<Integer, GISBody<Integer>> dist = new ECEFGISGravityModelDistribution<>(bodies);
+        GISBody<Integer> ref = new GISBody<>(1, 50, 15, null);
+        Allocations.assertSteadyStateAllocationFree(() -> dist.getRandomBody(ref));
+    }
+
+    /**
+     * Check that each body's force in the kernel of `dist` is still its own force once the bodies are reordered, and
+     * that the distribution still has every body
+     */
+    private static <B extends Body<Integer>> void assertReorderedKernelMatches(
+            List<B> bodies, SimpleGravityModelDistribution<Integer, B> dist, B ref
+    ) {
+        List<B> stored = dist.getBodies();
+        assertEquals(bodies.size(), stored.size());
+        double[] forces = new double[stored.size()];
+        dist.getKernel().computeForces(ref, 0, stored.size(), forces, 0);
+        boolean[] seen = new boolean[bodies.size()];
+        for (int i = 0; i < stored.size(); i++) {
+            B body = stored.get(i);
+            assertSame(bodies.get(body.value), body);
+            assertFalse(seen[body.value]);
+            seen[body.value] = true;
+            assertEquals(body.computeGravForce(ref), forces[i], 1e-9 * forces[i]);
+        }
+    }
+
+    @Test
+    void testReorderedKernelsMatchBodies() {
+        Random rng = new Random(11);
+        List<Body1D<Integer>> bodies1D = new ArrayList<>();
+        List<Body2D<Integer>> bodies2D = new ArrayList<>();
+        List<Body3D<Integer>> bodies3D = new ArrayList<>();
+        List<GISBody<Integer>> bodiesGIS = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            double mass = rng.nextDouble() * 100;
+            bodies1D.add(new Body1D<>(mass, rng.nextGaussian(), i));
+            bodies2D.add(new Body2D<>(mass, rng.nextGaussian(), rng.nextGaussian(), i));
+            bodies3D.add(new Body3D<>(mass, rng.nextGaussian(), rng.nextGaussian(), rng.nextGaussian(), i));
+            bodiesGIS.add(new GISBody<>(mass, rng.nextDouble() * 180 - 90, rng.nextDouble() * 360 - 180, i));
+        }
+        ExecutionPolicy policy = ExecutionPolicy.sequential();
+        for (BodyOrder order : BodyOrder.values()) {
+            assertReorderedKernelMatches(
+                    bodies1D,
+                    new Simple1DGravityModelDistribution<>(bodies1D, new Random(), policy, order),
+                    new Body1D<>(1, 0.25, null)
+            );
+            assertReorderedKernelMatches(
+                    bodies2D,
+                    new Simple2DGravityModelDistribution<>(bodies2D, new Random(), true, policy, order),
+                    new Body2D<>(1, 0.25, -0.5, null)
+            );
+            assertReorderedKernelMatches(
+                    bodies3D,
+                    new Simple3DGravityModelDistribution<>(bodies3D, new Random(), true, policy, order),
+                    new Body3D<>(1, 0.25, -0.5, 1, null)
+            );
+            assertReorderedKernelMatches(
+                    bodiesGIS,
+                    new SimpleGISGravityModelDistribution<>(bodiesGIS, new Random(), false, policy, order),
+                    new GISBody<>(1, 50, 15, null)
+            );
+            assertReorderedKernelMatches(
+                    bodiesGIS,
+                    new ECEFGISGravityModelDistribution<>(bodiesGIS, new Random(), policy, order),
+                    new GISBody<>(1, 50, 15, null)
+            );
+        }
+    }
+
+    @Test
+    void testHilbertOrderConvergesToExactProbabilities() {
+        Random rng = new Random(12);
+        List<Body2D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            bodies.add(new Body2D<>(rng.nextDouble() * 100, rng.nextGaussian(), rng.nextGaussian(), i));
+        }
+        Body2D<Integer> ref = new Body2D<>(1, 0.25, -0.5, null);
+        double[] expected = new double[bodies.size()];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = bodies.get(i).computeGravForce(ref);
+        }
+        GravityModelDistribution<Integer, Body2D<Integer>> dist = new Simple2DGravityModelDistribution<>(
+                bodies, new Random(13), false, ExecutionPolicy.sequential(), BodyOrder.HILBERT
+        );
+        long[] counts = new long[bodies.size()];
+        for (int i = 0; i < (int) 1E6; i++) {
+            counts[dist.getRandomBody(ref).value]++;
+        }
+        ChiSquared.assertGoodnessOfFit(expected, counts);
+    }
 }
@@ -0,0 +1,81 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static com.github.eRedekopp.GravityModelDistribution.Sampling.NUM_ITERATIONS;
+import static com.github.eRedekopp.GravityModelDistribution.Sampling.exactWeights;
+import static com.github.eRedekopp.GravityModelDistribution.Sampling.makeRandomBodies;
+import static com.github.eRedekopp.GravityModelDistribution.Sampling.sampleCounts;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SinglePassQuadtreeGravityModelDistributionTest extends Shared2DGravityModelDistributionTests {
+    @Override
+    protected <T> GravityModelDistribution<T, Body2D<T>> makeDistribution(List<Body2D<T>> bodies) {
+        // With 0.0 theta every estimate is exact, so the shared tests apply
+        return new QuadtreeGravityModelDistribution<>(bodies, 0.0, new Random(), QuadtreeSamplingMode.SINGLE_PASS);
+    }
+
+    @Test
+    void testConvergesToExactProbabilitiesWithZeroTheta() {
+        List<Body2D<Integer>> bodies = makeRandomBodies(50, 1);
+        Body2D<Integer> ref = new Body2D<>(1, 30, -70, -1);
+        ChiSquared.assertGoodnessOfFit(
+                exactWeights(bodies, ref), sampleCounts(this.makeDistribution(bodies), ref, bodies.size())
+        );
+    }
+
+    @Test
+    void testFlatQuadtreeConvergesToSameDistribution() {
+        List<Body2D<Integer>> bodies = makeRandomBodies(60, 2);
+        Body2D<Integer> ref = new Body2D<>(1, -120, 15, -1);
+        long[] tree = sampleCounts(
+                new QuadtreeGravityModelDistribution<>(bodies, 0.8, new Random(1), QuadtreeSamplingMode.SINGLE_PASS),
+                ref,
+                bodies.size()
+        );
+        long[] flat = sampleCounts(
+                new FlatQuadtreeGravityModelDistribution<>(bodies, 0.8, new Random(2), QuadtreeSamplingMode.SINGLE_PASS),
+                ref,
+                bodies.size()
+        );
+        ChiSquared.assertHomogeneous(tree, flat);
+    }
+
+    @Test
+    void testReturnsBodyInsideNodeWithLargeTheta() {
+        // The reference point is at the centre of mass of the two bodies on the left, so their parent's estimate would
+        // be 0 if it weren't opened up
+        List<Body2D<Integer>> bodies = List.of(
+                new Body2D<>(1, -10, -1, 0),
+                new Body2D<>(1, -10, 1, 1),
+                new Body2D<>(1, 10, 0, 2)
+        );
+        GravityModelDistribution<Integer, Body2D<Integer>> dist = new QuadtreeGravityModelDistribution<>(
+                bodies, 1E6, new Random(3), QuadtreeSamplingMode.SINGLE_PASS
+        );
+        long[] counts = sampleCounts(dist, new Body2D<>(1, -10, 0, -1), bodies.size());
+        assertTrue(counts[0] > 0.4 * NUM_ITERATIONS);
+        assertTrue(counts[1] > 0.4 * NUM_ITERATIONS);
+    }
+
+    @Test
+    void testConstructorThrowsForNullMode() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new QuadtreeGravityModelDistribution<>(makeRandomBodies(3, 4), 0.5, new Random(), null)
+        );
+    }
+
+    @Test
+    void testFlatQuadtreeGetRandomBodyDoesNotAllocate() {
+        List<Body2D<Integer>> bodies = makeRandomBodies(10000, 5);
+        GravityModelDistribution<Integer, Body2D<Integer>> dist = new FlatQuadtreeGravityModelDistribution<>(
+                bodies, 0.5, new Random(), QuadtreeSamplingMode.SINGLE_PASS
+        );
+        Body2D<Integer> ref = new Body2D<>(1, 12.5, 40.25, -1);
+        Allocations.assertSteadyStateAllocationFree(() -> dist.getRandomBody(ref));
+    }
+}
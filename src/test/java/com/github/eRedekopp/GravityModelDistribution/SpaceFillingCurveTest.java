@@ -0,0 +1,103 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpaceFillingCurveTest {
+
+    /**
+     * @return The cell at each index along the Hilbert curve through a grid of 2^bits cells along each of `dims` axes
+     */
+    private static long[][] hilbertPath(int dims, int bits) {
+        int cells = 1 << (dims * bits);
+        long[][] path = new long[cells][];
+        for (int i = 0; i < cells; i++) {
+            long[] cell = new long[dims];
+            for (int d = 0; d < dims; d++) {
+                cell[d] = (i >>> (d * bits)) & ((1 << bits) - 1);
+            }
+            long[] transposed = cell.clone();
+            SpaceFillingCurve.toHilbertTranspose(transposed, bits);
+            int index = (int) SpaceFillingCurve.interleave(transposed, bits);
+            assertNull(path[index], "Two cells have index " + index);
+            path[index] = cell;
+        }
+        return path;
+    }
+
+    @Test
+    void testHilbertCurveVisitsAdjacentCells() {
+        for (int dims = 2; dims <= 3; dims++) {
+            long[][] path = hilbertPath(dims, 3);
+            for (int i = 1; i < path.length; i++) {
+                long distance = 0;
+                for (int d = 0; d < dims; d++) {
+                    distance += Math.abs(path[i][d] - path[i - 1][d]);
+                }
+                assertEquals(1, distance, "Cells " + (i - 1) + " and " + i + " are not adjacent");
+            }
+        }
+    }
+
+    @Test
+    void testInterleaveGivesMortonKey() {
+        assertEquals(0b100111, SpaceFillingCurve.interleave(new long[] {0b101, 0b011}, 3));
+        assertEquals(0b101, SpaceFillingCurve.interleave(new long[] {0b101}, 3));
+    }
+
+    @Test
+    void testOneAxisSortsByCoordinate() {
+        Random rng = new Random(1);
+        List<Body1D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            bodies.add(new Body1D<>(1, rng.nextGaussian(), i));
+        }
+        for (BodyOrder order : List.of(BodyOrder.MORTON, BodyOrder.HILBERT)) {
+            List<Body1D<Integer>> sorted = SpaceFillingCurve.sort(bodies, order, SpaceFillingCurve.AXES_1D);
+            for (int i = 1; i < sorted.size(); i++) {
+                assertTrue(sorted.get(i - 1).x <= sorted.get(i).x);
+            }
+        }
+    }
+
+    @Test
+    void testSortKeepsEveryBody() {
+        Random rng = new Random(2);
+        List<Body3D<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            // Every tenth body is at the same place, so their keys are the same
+            double x = i % 10 == 0 ? 0 : rng.nextGaussian();
+            bodies.add(new Body3D<>(1, x, rng.nextGaussian(), rng.nextGaussian(), i));
+        }
+        for (BodyOrder order : BodyOrder.values()) {
+            List<Body3D<Integer>> sorted = SpaceFillingCurve.sort(bodies, order, SpaceFillingCurve.AXES_3D);
+            boolean[] seen = new boolean[bodies.size()];
+            for (Body3D<Integer> body : sorted) {
+                assertSame(bodies.get(body.value), body);
+                assertFalse(seen[body.value]);
+                seen[body.value] = true;
+            }
+            assertEquals(bodies.size(), sorted.size());
+        }
+    }
+
+    @Test
+    void testInputOrderReturnsSameList() {
+        List<Body2D<Integer>> bodies = List.of(new Body2D<>(1, 5, 5, 0), new Body2D<>(1, 0, 0, 1));
+        assertSame(bodies, SpaceFillingCurve.sort(bodies, BodyOrder.INPUT, SpaceFillingCurve.AXES_2D));
+    }
+
+    @Test
+    void testSortThrowsForNullOrder() {
+        List<Body2D<Integer>> bodies = List.of(new Body2D<>(1, 5, 5, 0));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> SpaceFillingCurve.sort(bodies, null, SpaceFillingCurve.AXES_2D)
+        );
+    }
+}
@@ -0,0 +1,228 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ArgumentsSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.github.eRedekopp.GravityModelDistribution.Sampling.exactWeights;
+import static com.github.eRedekopp.GravityModelDistribution.Sampling.sampleCounts;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SphericalQuadtreeGravityModelDistributionTest {
+
+    private static List<GISBody<Integer>> makeGlobalBodies(int n, long seed) {
+        Random rng = new Random(seed);
+        List<GISBody<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            // Uniform over the sphere, so there are bodies near both poles
+            double lat = Math.toDegrees(Math.asin(rng.nextDouble() * 2 - 1));
+            bodies.add(new GISBody<>(1 + rng.nextDouble() * 100, lat, rng.nextDouble() * 360 - 180, i));
+        }
+        return bodies;
+    }
+
+    @Test
+    void testConstructorThrowsForEmptyBodies() {
+        assertThrows(
+                IllegalArgumentException.class, () -> new SphericalQuadtreeGravityModelDistribution<>(List.of(), 0.5)
+        );
+    }
+
+    @ParameterizedTest
+    @ArgumentsSource(InfiniteAndNaNAndNegativeDoubleArgsProvider.class)
+    void testConstructorThrowsForInvalidTheta(double theta) {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new SphericalQuadtreeGravityModelDistribution<>(List.of(new GISBody<>(10, 0, 0, 0)), theta)
+        );
+    }
+
+    @ParameterizedTest
+    @ArgumentsSource(InfiniteAndNaNDoubleArgsProvider.class)
+    void testConstructorThrowsForInvalidCoordinates(double coordinate) {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new SphericalQuadtreeGravityModelDistribution<>(
+                        List.of(new GISBody<>(10, 0, 0, 0), new GISBody<>(10, coordinate, 0, 1)), 0.5
+                )
+        );
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new SphericalQuadtreeGravityModelDistribution<>(
+                        List.of(new GISBody<>(10, 0, 0, 0), new GISBody<>(10, 0, coordinate, 1)), 0.5
+                )
+        );
+    }
+
+    @Test
+    void testConstructorThrowsForLatitudePastThePoles() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new SphericalQuadtreeGravityModelDistribution<>(List.of(new GISBody<>(10, 90.5, 0, 0)), 0.5)
+        );
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> new SphericalQuadtreeGravityModelDistribution<>(List.of(new GISBody<>(10, -91, 0, 0)), 0.5)
+        );
+    }
+
+    @Test
+    void testHasOneChildPerOccupiedCubeFace() {
+        List<GISBody<Integer>> bodies = List.of(
+                new GISBody<>(1, 0, 0, 0),
+                new GISBody<>(1, 0, 90, 1),
+                new GISBody<>(1, 0, 180, 2),
+                new GISBody<>(1, 90, 0, 3)
+        );
+        // The root and one leaf for each face
+        assertEquals(5, new SphericalQuadtreeGravityModelDistribution<>(bodies, 0.5).getNodeCount());
+    }
+
+    @Test
+    void testConvergesToExactProbabilitiesWithZeroTheta() {
+        List<GISBody<Integer>> bodies = makeGlobalBodies(300, 1);
+        GISBody<Integer> ref = new GISBody<>(1, 52.13, -106.67, -1);
+        ChiSquared.assertGoodnessOfFit(
+                exactWeights(bodies, ref),
+                sampleCounts(new SphericalQuadtreeGravityModelDistribution<>(bodies, 0.0, new Random(1)), ref, 300)
+        );
+    }
+
+    @Test
+    void testReferenceOnOneOfTheBodiesIsNeverChosen() {
+        List<GISBody<Integer>> bodies = makeGlobalBodies(100, 2);
+        GISBody<Integer> ref = bodies.get(42);
+        long[] counts = sampleCounts(
+                new SphericalQuadtreeGravityModelDistribution<>(bodies, 0.0, new Random(2)), ref, bodies.size()
+        );
+        assertEquals(0, counts[42]);
+        ChiSquared.assertGoodnessOfFit(exactWeights(bodies, ref), counts);
+    }
+
+    /**
+     * Averaging latitude and longitude would put the centre of a cluster on the antimeridian at the prime meridian, and
+     * the centre of a cluster around a pole far from the pole, so clusters like these are where the approximation is
+     * most likely to go wrong
+     */
+    @Test
+    void testApproximationIsCloseForClustersOnTheAntimeridianAndPole() {
+        Random rng = new Random(3);
+        List<GISBody<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            double lat, lon;
+            switch (i % 3) {
+                case 0:
+                    lat = rng.nextGaussian() * 0.5;
+                    lon = 180 + rng.nextGaussian() * 0.5;
+                    if (lon > 180) lon -= 360;
+                    break;
+                case 1:
+                    lat = 90 - Math.abs(rng.nextGaussian() * 0.5);
+                    lon = rng.nextDouble() * 360 - 180;
+                    break;
+                default:
+                    lat = rng.nextGaussian() * 0.5;
+                    lon = rng.nextGaussian() * 0.5;
+            }
+            bodies.add(new GISBody<>(1 + rng.nextDouble(), lat, lon, i));
+        }
+        GISBody<Integer> ref = new GISBody<>(1, 20, 100, -1);
+        long[] counts = sampleCounts(
+                new SphericalQuadtreeGravityModelDistribution<>(bodies, 0.5, new Random(4)), ref, bodies.size()
+        );
+        double[] weights = exactWeights(bodies, ref);
+        double total = 0;
+        double[] clusterWeights = new double[3];
+        double[] clusterCounts = new double[3];
+        for (int i = 0; i < bodies.size(); i++) {
+            total += weights[i];
+            clusterWeights[i % 3] += weights[i];
+            clusterCounts[i % 3] += counts[i];
+        }
+        for (int c = 0; c < 3; c++) {
+            assertEquals(clusterWeights[c] / total, clusterCounts[c] / Sampling.NUM_ITERATIONS, 0.003);
+        }
+    }
+
+    @Test
+    void testRootRadiusContainsAllBodiesAroundPole() {
+        Random rng = new Random(5);
+        List<GISBody<Integer>> bodies = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            bodies.add(new GISBody<>(1, 89 + rng.nextDouble(), rng.nextDouble() * 360 - 180, i));
+        }
+        SphericalQuadtreeGravityModelDistribution<Integer> dist =
+                new SphericalQuadtreeGravityModelDistribution<>(bodies, 0.5);
+        GISBody<Integer> pole = new GISBody<>(1, 90, 0, -1);
+        double furthest = 0;
+        for (GISBody<Integer> b : bodies) {
+            furthest = Math.max(furthest, b.distanceTo(pole));
+        }
+        // The centre is near the pole, and every body is within 1 degree (111 km) of it
+        assertTrue(dist.getRootRadius() >= furthest * 0.9, "Radius " + dist.getRootRadius());
+        assertTrue(dist.getRootRadius() < 4 * furthest, "Radius " + dist.getRootRadius());
+    }
+
+    @Test
+    void testConvergesToMassProportionsForCoincidentBodies() {
+        List<GISBody<Integer>> bodies = List.of(
+                new GISBody<>(100, 10, 179.5, 0),
+                new GISBody<>(200, 10, 179.5, 1),
+                new GISBody<>(0, 10, 179.5, 2),
+                new GISBody<>(300, 10, 179.5, 3),
+                new GISBody<>(400, 10, -179.5, 4)
+        );
+        // Both locations are the same distance from the reference point
+        GISBody<Integer> ref = new GISBody<>(1, 10, 180, -1);
+        long[] counts = sampleCounts(new SphericalQuadtreeGravityModelDistribution<>(bodies, 0.0, new Random(6)), ref, 5);
+        assertEquals(0.1, counts[0] / (double) Sampling.NUM_ITERATIONS, 0.003);
+        assertEquals(0.2, counts[1] / (double) Sampling.NUM_ITERATIONS, 0.003);
+        assertEquals(0, counts[2]);
+        assertEquals(0.3, counts[3] / (double) Sampling.NUM_ITERATIONS, 0.003);
+        assertEquals(0.4, counts[4] / (double) Sampling.NUM_ITERATIONS, 0.003);
+    }
+
+    @Test
+    void testSingleBodyIsAlwaysChosen() {
+        GISBody<Integer> only = new GISBody<>(5, 1, 2, 0);
+        SphericalQuadtreeGravityModelDistribution<Integer> dist =
+                new SphericalQuadtreeGravityModelDistribution<>(List.of(only), 0.5);
+        assertSame(only, dist.getRandomBody(new GISBody<>(1, 0, 0, -1)));
+    }
+
+    @Test
+    void testGetRandomBodyDoesNotAllocate() {
+        GravityModelDistribution<Integer, GISBody<Integer>> dist =
+                new SphericalQuadtreeGravityModelDistribution<>(makeGlobalBodies(10000, 7), 0.5);
+        GISBody<Integer> ref = new GISBody<>(1, 52.13, -106.67, -1);
+        Allocations.assertSteadyStateAllocationFree(() -> dist.getRandomBody(ref));
+    }
+
+    @Test
+    void testReportsEveryNodeWhenThetaIsZero() {
+        SphericalQuadtreeGravityModelDistribution<Integer> dist =
+                new SphericalQuadtreeGravityModelDistribution<>(makeGlobalBodies(50, 9), 0.0, new Random(10));
+        List<QueryStats> reported = new ArrayList<>();
+        dist.setQueryListener(stats -> {
+            // Every leaf is a candidate of the root, so one choice reaches a body. The root is always split without
+            // being looked at.
+            assertEquals(1, stats.getLevels());
+            assertEquals(50, stats.getMaxCandidates());
+            assertEquals(50, stats.getForceEvaluations());
+            assertEquals(dist.getNodeCount() - 1, stats.getNodesVisited());
+            reported.add(stats);
+        });
+        GISBody<Integer> ref = new GISBody<>(1, 52.13, -106.67, -1);
+        for (int i = 0; i < 100; i++) {
+            dist.getRandomBody(ref);
+        }
+        assertEquals(100, reported.size());
+        dist.setQueryListener(null);
+        dist.getRandomBody(ref);
+        assertEquals(100, reported.size());
+    }
+}
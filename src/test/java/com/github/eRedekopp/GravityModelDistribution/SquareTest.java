@@ -9,6 +9,31 @@ import static org.junit.jupiter.api.Assertions.*;
 
 public class SquareTest {
 
+    @Nested
+    class TestMinDistanceTo {
+
+        @Test
+        void testZeroForPointsInside() {
+            Square square = new Square(10, 20, 10);
+            assertEquals(0.0, square.minDistanceTo(10, 20));
+            assertEquals(0.0, square.minDistanceTo(15, 15));
+            assertEquals(0.0, square.minDistanceTo(6, 24));
+        }
+
+        @Test
+        void testDistanceToEdge() {
+            Square square = new Square(0, 0, 10);
+            assertEquals(5.0, square.minDistanceTo(10, 3));
+            assertEquals(2.0, square.minDistanceTo(-4, -7));
+        }
+
+        @Test
+        void testDistanceToCorner() {
+            Square square = new Square(0, 0, 10);
+            assertEquals(5.0, square.minDistanceTo(8, -9), 1E-12);
+        }
+    }
+
     @Nested
     class TestContains {
 
@@ -118,6 +143,14 @@ public class SquareTest {
         }
     }
 
+    @Test
+    void testEqualSquaresHaveEqualHashCodes() {
+        assertEquals(new Square(1, -2, 4).hashCode(), new Square(1, -2, 4).hashCode());
+        assertEquals(new Square(0.0, 0, 1), new Square(-0.0, 0, 1));
+        assertEquals(new Square(0.0, 0, 1).hashCode(), new Square(-0.0, 0, 1).hashCode());
+        assertNotEquals(new Square(1, -2, 4), new Square(1, -2, 8));
+    }
+
     @Nested
     class TestGetSubSquare {
         @Test
@@ -0,0 +1,126 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.nio.DoubleBuffer;
+import java.util.List;
+import java.util.random.RandomGenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UtilsTest {
+
+    @Nested
+    class TestChooseRandomIndexByWeight {
+
+        @Test
+        void testReturnsIndexOwningEachRange() {
+            double[] weights = {1, 1, 2};
+            assertEquals(0, Utils.chooseRandomIndexByWeight(weights, 0.0));
+            assertEquals(0, Utils.chooseRandomIndexByWeight(weights, 0.1));
+            assertEquals(1, Utils.chooseRandomIndexByWeight(weights, 0.25));
+            assertEquals(1, Utils.chooseRandomIndexByWeight(weights, 0.4));
+            assertEquals(2, Utils.chooseRandomIndexByWeight(weights, 0.5));
+            assertEquals(2, Utils.chooseRandomIndexByWeight(weights, 0.7));
+        }
+
+        @Test
+        void testNeverReturnsZeroWeightIndex() {
+            double[] weights = {0, 1, 0, 0, 1, 0};
+            assertEquals(1, Utils.chooseRandomIndexByWeight(weights, 0.0));
+            assertEquals(4, Utils.chooseRandomIndexByWeight(weights, 0.5));
+            assertEquals(4, Utils.chooseRandomIndexByWeight(weights, 0.9999999999999999));
+        }
+
+        @Test
+        void testReturnsLastNonZeroIndexWhenRoundingOvershoots() {
+            double[] weights = {0.1, 0.2, 0.3, 0};
+            assertEquals(2, Utils.chooseRandomIndexByWeight(weights, Math.nextDown(1.0)));
+        }
+
+        @Test
+        void testOnlyConsidersGivenLength() {
+            double[] scratch = {1, 1, 1000, 1000};
+            assertEquals(1, Utils.chooseRandomIndexByWeight(scratch, 2, 0.9));
+        }
+
+        @Test
+        void testThrowsForAllZeroWeights() {
+            assertThrows(
+                    IllegalArgumentException.class,
+                    () -> Utils.chooseRandomIndexByWeight(new double[] {0, 0}, 0.5)
+            );
+        }
+
+        @Test
+        void testThrowsForInfiniteWeight() {
+            assertThrows(
+                    IllegalArgumentException.class,
+                    () -> Utils.chooseRandomIndexByWeight(new double[] {1, Double.POSITIVE_INFINITY}, 0.5)
+            );
+        }
+
+        @Test
+        void testDoesNotAllocate() {
+            double[] weights = {3, 1, 4, 1, 5, 9, 2, 6};
+            Allocations.assertSteadyStateAllocationFree(() -> Utils.chooseRandomIndexByWeight(weights, 0.3));
+        }
+    }
+
+    @Nested
+    class TestChooseIndexByMass {
+
+        private final Body2D<?>[] bodies = List.of(
+                new Body2D<>(5, 0, 0, null),
+                new Body2D<>(1, 0, 0, null),
+                new Body2D<>(0, 0, 0, null),
+                new Body2D<>(3, 0, 0, null),
+                new Body2D<>(1, 0, 0, null)
+        ).toArray(new Body2D<?>[0]);
+
+        private final DoubleBuffer masses = DoubleBuffer.wrap(new double[] {5, 1, 0, 3, 1});
+
+        /**
+         * @return A generator whose nextDouble always returns `value`
+         */
+        private RandomGenerator fixed(double value) {
+            return new RandomGenerator() {
+                @Override
+                public long nextLong() {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public double nextDouble() {
+                    return value;
+                }
+            };
+        }
+
+        @Test
+        void testReturnsIndexOwningEachRange() {
+            for (double rand : new double[] {0.0, 0.1, 0.3, 0.5, 0.7, 0.9}) {
+                int expected = rand < 0.2 ? 1 : rand < 0.8 ? 3 : 4;
+                assertEquals(expected, Utils.chooseIndexByMass(this.bodies, 1, 5, 5, this.fixed(rand)));
+                assertEquals(expected, Utils.chooseIndexByMass(this.masses, 1, 5, 5, this.fixed(rand)));
+            }
+        }
+
+        @Test
+        void testReturnsLastNonZeroIndexWhenRoundingOvershoots() {
+            // A total that is slightly too large leaves the target past the end of the last range
+            assertEquals(3, Utils.chooseIndexByMass(this.bodies, 1, 4, 4.5, this.fixed(Math.nextDown(1.0))));
+            assertEquals(3, Utils.chooseIndexByMass(this.masses, 1, 4, 4.5, this.fixed(Math.nextDown(1.0))));
+        }
+
+        @Test
+        void testDoesNotDrawForOneBody() {
+            RandomGenerator unused = () -> {
+                throw new AssertionError("Drew a random number");
+            };
+            assertEquals(2, Utils.chooseIndexByMass(this.bodies, 2, 3, 0, unused));
+            assertEquals(2, Utils.chooseIndexByMass(this.masses, 2, 3, 0, unused));
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.List;
+
+/**
+ * A Body2DForceKernel that computes the forces of as many bodies at a time as fit in the CPU's vector registers. The
+ * operations are the same as in the scalar kernel and are all correctly rounded, so the results are identical. Only
+ * create this through VectorForceKernels.
+ */
+class VectorBody2DForceKernel<T> extends Body2DForceKernel<T> {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    public VectorBody2DForceKernel(List<Body2D<T>> bodies) {
+        super(bodies);
+    }
+
+    @Override
+    public void computeForces(Body2D<T> ref, int from, int to, double[] out, int offset) {
+        double refMass = ref.mass;
+        int upper = from + SPECIES.loopBound(to - from);
+        if (refMass == 0) upper = from;
+        DoubleVector rx = DoubleVector.broadcast(SPECIES, ref.x);
+        DoubleVector ry = DoubleVector.broadcast(SPECIES, ref.y);
+        DoubleVector zero = DoubleVector.zero(SPECIES);
+        for (int i = from; i < upper; i += SPECIES.length()) {
+            DoubleVector m = DoubleVector.fromArray(SPECIES, this.mass, i);
+            DoubleVector dx = rx.sub(DoubleVector.fromArray(SPECIES, this.x, i));
+            DoubleVector dy = ry.sub(DoubleVector.fromArray(SPECIES, this.y, i));
+            DoubleVector r = dx.mul(dx).add(dy.mul(dy)).lanewise(VectorOperators.SQRT);
+            DoubleVector force = m.mul(refMass).div(r.mul(r));
+            VectorMask<Double> isZero = m.eq(0).or(r.eq(0));
+            force.blend(zero, isZero).intoArray(out, offset + i - from);
+        }
+        // The remaining bodies don't fill a whole vector
+        super.computeForces(ref, upper, to, out, offset + upper - from);
+    }
+}
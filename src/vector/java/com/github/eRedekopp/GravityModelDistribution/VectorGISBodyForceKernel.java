@@ -0,0 +1,58 @@
+package com.github.eRedekopp.GravityModelDistribution;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.List;
+
+/**
+ * A GISBodyForceKernel that computes the forces of as many bodies at a time as fit in the CPU's vector registers,
+ * using the same Haversine formula. The Vector API's sine and arctangent are only accurate to within an ulp or so
+ * rather than matching Math.sin and Math.atan2 exactly, so the forces may differ from the scalar kernel in their last
+ * few bits. Only create this through VectorForceKernels.
+ */
+class VectorGISBodyForceKernel<T> extends GISBodyForceKernel<T> {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    /**
+     * The same constant used by Math.toRadians
+     */
+    private static final double DEGREES_TO_RADIANS = Math.PI / 180;
+
+    public VectorGISBodyForceKernel(List<GISBody<T>> bodies) {
+        super(bodies);
+    }
+
+    @Override
+    public void computeForces(GISBody<T> ref, int from, int to, double[] out, int offset) {
+        double refMass = ref.mass;
+        int upper = from + SPECIES.loopBound(to - from);
+        if (refMass == 0) upper = from;
+        DoubleVector refLat = DoubleVector.broadcast(SPECIES, ref.lat);
+        DoubleVector refLon = DoubleVector.broadcast(SPECIES, ref.lon);
+        double refCosLat = Math.cos(Math.toRadians(ref.lat));
+        DoubleVector zero = DoubleVector.zero(SPECIES);
+        for (int i = from; i < upper; i += SPECIES.length()) {
+            DoubleVector m = DoubleVector.fromArray(SPECIES, this.mass, i);
+            DoubleVector latDistance = refLat.sub(DoubleVector.fromArray(SPECIES, this.lat, i)).mul(DEGREES_TO_RADIANS);
+            DoubleVector lonDistance = refLon.sub(DoubleVector.fromArray(SPECIES, this.lon, i)).mul(DEGREES_TO_RADIANS);
+            DoubleVector sinLat = latDistance.div(2).lanewise(VectorOperators.SIN);
+            DoubleVector sinLon = lonDistance.div(2).lanewise(VectorOperators.SIN);
+            DoubleVector a = sinLat.mul(sinLat).add(
+                    DoubleVector.fromArray(SPECIES, this.cosLat, i).mul(refCosLat).mul(sinLon.mul(sinLon))
+            );
+            DoubleVector c = a.lanewise(VectorOperators.SQRT)
+                    .lanewise(VectorOperators.ATAN2, a.neg().add(1).lanewise(VectorOperators.SQRT))
+                    .mul(2);
+            DoubleVector r = c.mul(GISBody.EARTH_RADIUS_KM);
+            DoubleVector force = m.mul(refMass).div(r.mul(r));
+            VectorMask<Double> isZero = m.eq(0).or(r.eq(0));
+            force.blend(zero, isZero).intoArray(out, offset + i - from);
+        }
+        // The remaining bodies don't fill a whole vector
+        super.computeForces(ref, upper, to, out, offset + upper - from);
+    }
+}